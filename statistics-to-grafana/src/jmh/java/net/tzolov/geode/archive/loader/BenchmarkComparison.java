@@ -0,0 +1,138 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares two JMH CSV result files (e.g. of two commits) and prints the score change of every benchmark, including
+ * the secondary results such as the GC profiler allocation rates.
+ *
+ * Usage: {@code BenchmarkComparison <baseline.csv> <current.csv>}
+ */
+public class BenchmarkComparison {
+
+	public static void main(String[] args) throws IOException {
+
+		if (args.length != 2) {
+			System.err.println("Usage: BenchmarkComparison <baseline.csv> <current.csv>");
+			System.exit(1);
+		}
+
+		Map<String, Result> baseline = readResults(args[0]);
+		Map<String, Result> current = readResults(args[1]);
+
+		int keyWidth = current.keySet().stream().mapToInt(String::length).max().orElse(10);
+		String header = "%-" + keyWidth + "s %-8s %16s %16s %9s";
+		String row = "%-" + keyWidth + "s %-8s %16.3f %16.3f %+8.1f%%%s";
+
+		System.out.println(String.format(header, "Benchmark", "Unit", "Baseline", "Current", "Change"));
+		for (Map.Entry<String, Result> entry : current.entrySet()) {
+			Result result = entry.getValue();
+			Result base = baseline.get(entry.getKey());
+			if (base == null) {
+				System.out.println(String.format(header, entry.getKey(), result.unit, "-",
+						String.format("%.3f", result.score), "new"));
+			}
+			else {
+				double change = (base.score != 0) ? (result.score - base.score) * 100 / Math.abs(base.score) : 0;
+				// Changes within the error margins are flagged as not significant
+				boolean significant = Math.abs(result.score - base.score) > result.error + base.error;
+				System.out.println(String.format(row, entry.getKey(), result.unit, base.score, result.score, change,
+						significant ? "" : " ~"));
+			}
+		}
+	}
+
+	private static Map<String, Result> readResults(String file) throws IOException {
+		List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+		List<String> header = parseLine(lines.get(0));
+		int scoreColumn = header.indexOf("Score");
+		int errorColumn = header.indexOf("Score Error (99.9%)");
+		int unitColumn = header.indexOf("Unit");
+
+		Map<String, Result> results = new LinkedHashMap<>();
+		for (String line : lines.subList(1, lines.size())) {
+			List<String> values = parseLine(line);
+			// The package is dropped from the benchmark name, the directories from the file parameters
+			String benchmark = values.get(0).replace("\u00b7", "");
+			int secondary = benchmark.indexOf(':');
+			StringBuilder key = new StringBuilder(benchmark.substring(
+					benchmark.lastIndexOf('.', (secondary < 0) ? benchmark.length() : secondary) + 1));
+			key.append(" (").append(values.get(1)).append(")");
+			for (int column = unitColumn + 1; column < values.size(); column++) {
+				String param = values.get(column);
+				if (!param.isEmpty()) {
+					key.append(' ').append(header.get(column).replace("Param: ", "")).append('=')
+							.append(param.substring(param.lastIndexOf('/') + 1));
+				}
+			}
+			String error = values.get(errorColumn);
+			results.put(key.toString(), new Result(Double.parseDouble(values.get(scoreColumn)),
+					error.isEmpty() || error.equals("NaN") ? 0 : Double.parseDouble(error), values.get(unitColumn)));
+		}
+		return results;
+	}
+
+	private static List<String> parseLine(String line) {
+		List<String> values = new ArrayList<>();
+		StringBuilder value = new StringBuilder();
+		boolean quoted = false;
+		for (int i = 0; i < line.length(); i++) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				if (quoted && i + 1 < line.length() && line.charAt(i + 1) == '"') {
+					value.append('"');
+					i++;
+				}
+				else {
+					quoted = !quoted;
+				}
+			}
+			else if (c == ',' && !quoted) {
+				values.add(value.toString());
+				value.setLength(0);
+			}
+			else {
+				value.append(c);
+			}
+		}
+		values.add(value.toString());
+		return values;
+	}
+
+	private static class Result {
+
+		final double score;
+
+		final double error;
+
+		final String unit;
+
+		Result(double score, double error, String unit) {
+			this.score = score;
+			this.error = error;
+			this.unit = unit;
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Logger;
+import okhttp3.OkHttpClient;
+import org.influxdb.InfluxDB;
+import org.influxdb.InfluxDBFactory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * Loads of the same generated archive into a {@link StatisticsToColumnarLoader} series file and, through the
+ * {@link StatisticsToInfluxLoader}, into an {@link InfluxStandIn}.
+ *
+ * The score is the time per load and the {@code outputBytes} counter the bytes written per load: the series file
+ * size for the columnar sink and the (uncompressed) request bytes received by the stand-in for the influx sink. The
+ * archive is generated once per trial by the {@link StatisticsArchiveGenerator}, its size set by the {@code types},
+ * {@code instancesPerType} and {@code samples} parameters.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+@State(Scope.Benchmark)
+public class ColumnarLoadBenchmark {
+
+	@Param("4")
+	public int types;
+
+	@Param("50")
+	public int instancesPerType;
+
+	@Param("1000")
+	public int samples;
+
+	@Param({ "columnar", "influx" })
+	public String sink;
+
+	private File archiveDirectory;
+
+	private File archiveFile;
+
+	private InfluxStandIn standIn;
+
+	private InfluxDB influxDB;
+
+	@Setup
+	public void generateArchive() throws IOException {
+		((Logger) LoggerFactory.getLogger(AbstractStatisticsTSDBLoader.class.getPackage().getName()))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+
+		StatisticsArchiveGenerator generator = new StatisticsArchiveGenerator();
+		generator.setTypes(types);
+		generator.setInstancesPerType(instancesPerType);
+		generator.setSamples(samples);
+		archiveDirectory = Files.createTempDirectory("columnar-load-benchmark").toFile();
+		archiveFile = new File(archiveDirectory, "generated.gfs");
+		generator.generate(archiveFile);
+
+		if ("influx".equals(sink)) {
+			standIn = new InfluxStandIn(0);
+			influxDB = InfluxDBFactory.connect(standIn.getUrl(), "admin", "admin",
+					new OkHttpClient.Builder().socketFactory(new NoDelaySocketFactory()));
+		}
+	}
+
+	@TearDown
+	public void deleteArchive() throws IOException {
+		if (standIn != null) {
+			standIn.close();
+		}
+		FileSystemUtils.deleteRecursively(archiveDirectory);
+	}
+
+	@Benchmark
+	public long load(OutputCounters counters) throws IOException {
+		if ("columnar".equals(sink)) {
+			StatisticsToColumnarLoader loader = new StatisticsToColumnarLoader(archiveDirectory.getPath(), 4096,
+					archiveFile, "generated", new String[0], false);
+			loader.load();
+			counters.outputBytes = loader.getSeriesFile().length();
+			return loader.getLoadedSampleCount();
+		}
+
+		long bytes = standIn.getBytes();
+
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 1000,
+				"GeodeArchive", archiveFile, "generated", new String[0], false);
+		loader.load();
+
+		counters.outputBytes = standIn.getBytes() - bytes;
+		return loader.getLoadedSampleCount();
+	}
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class OutputCounters {
+
+		public long outputBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			outputBytes = 0;
+		}
+	}
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+import ch.qos.logback.classic.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads and catalog scans of a gzip compressed archive against the same uncompressed archive.
+ *
+ * The {@code bytes} counter reports the uncompressed archive bytes per second for both formats. The loads inflate the
+ * archive in the reader thread, the catalog scans inflate it in a background thread pipelined with the scan.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CompressedArchiveBenchmark {
+
+	@Param("src/test/resources/myStatisticsArchiveFile.gfs")
+	public String archiveFile;
+
+	@Param({ "false", "true" })
+	public boolean compressed;
+
+	private File loadedFile;
+
+	private long archiveLength;
+
+	@Setup
+	public void compressArchive() throws IOException {
+		// The per load progress logging would otherwise flood the benchmark output
+		((Logger) LoggerFactory.getLogger(AbstractStatisticsTSDBLoader.class.getPackage().getName()))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+
+		File file = new File(archiveFile);
+		archiveLength = file.length();
+		loadedFile = file;
+		if (compressed) {
+			loadedFile = File.createTempFile("benchmark", ".gfs.gz");
+			try (OutputStream out = new GZIPOutputStream(new FileOutputStream(loadedFile), 1 << 16)) {
+				Files.copy(file.toPath(), out);
+			}
+		}
+	}
+
+	@TearDown
+	public void deleteCompressedArchive() {
+		if (compressed) {
+			loadedFile.delete();
+		}
+	}
+
+	@Benchmark
+	public long load(ArchiveCounters counters, Blackhole blackhole) throws IOException {
+		NoOpLoader loader = new NoOpLoader(loadedFile, blackhole);
+		loader.load();
+		counters.bytes += archiveLength;
+		return loader.getLoadedSampleCount();
+	}
+
+	@Benchmark
+	public int catalog(ArchiveCounters counters) throws IOException {
+		ArchiveCatalog catalog = ArchiveCatalog.scan(loadedFile);
+		counters.bytes += archiveLength;
+		return catalog.getSampleCount();
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class ArchiveCounters {
+
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			bytes = 0;
+		}
+	}
+}
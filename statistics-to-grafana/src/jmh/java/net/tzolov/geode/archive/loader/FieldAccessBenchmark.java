@@ -0,0 +1,175 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Logger;
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Field value access of the loader, over all the series of an archive: the series decoding and caching
+ * ({@link AbstractStatisticsTSDBLoader#getMeasurementFieldValue}), the zero series detection
+ * ({@link AbstractStatisticsTSDBLoader#allValuesAreZero}) and the sample lookups in already decoded series, outside
+ * of a load and within the load of their measurement.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class FieldAccessBenchmark {
+
+	@Param("src/test/resources/myStatisticsArchiveFile.gfs")
+	public String archiveFile;
+
+	private StatArchiveReader reader;
+
+	private StatArchiveReader.StatValue[] fields;
+
+	private int[] sampleCounts;
+
+	private NoOpLoader decodedLoader;
+
+	/** Number of times every sample is read by the loadedFieldValues, so the lookups outweigh the decoding. */
+	private static final int LOOKUP_PASSES = 10;
+
+	@Setup
+	public void openArchive() throws IOException {
+		// The per measurement logging of the loadedFieldValues would otherwise flood the benchmark output
+		((Logger) LoggerFactory.getLogger(AbstractStatisticsTSDBLoader.class.getPackage().getName()))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+
+		NoOpLoader loader = new NoOpLoader(new File(archiveFile), null);
+		reader = loader.openArchive();
+		List<StatArchiveReader.StatValue> statValues = new ArrayList<>();
+		for (StatArchiveReader.ResourceInst ri : loader.getResourceInsts(reader)) {
+			statValues.addAll(Arrays.asList(loader.getMeasurementFields(ri)));
+		}
+		fields = statValues.toArray(new StatArchiveReader.StatValue[statValues.size()]);
+
+		decodedLoader = new NoOpLoader(new File(archiveFile), null);
+		sampleCounts = new int[fields.length];
+		for (int i = 0; i < fields.length; i++) {
+			decodedLoader.allValuesAreZero(fields[i]);
+			sampleCounts[i] = fields[i].getRawSnapshots().length;
+		}
+	}
+
+	@TearDown
+	public void closeArchive() throws IOException {
+		reader.close();
+	}
+
+	/**
+	 * Decodes every series into a new loader cache.
+	 */
+	@Benchmark
+	public void decodeSeries(Blackhole blackhole) {
+		NoOpLoader loader = new NoOpLoader(new File(archiveFile), null);
+		for (StatArchiveReader.StatValue field : fields) {
+			blackhole.consume(loader.getMeasurementFieldValue(field, 0));
+		}
+	}
+
+	/**
+	 * Decodes every series and scans it for non zero values.
+	 */
+	@Benchmark
+	public void allValuesAreZero(Blackhole blackhole) {
+		NoOpLoader loader = new NoOpLoader(new File(archiveFile), null);
+		for (StatArchiveReader.StatValue field : fields) {
+			blackhole.consume(loader.allValuesAreZero(field));
+		}
+	}
+
+	/**
+	 * Reads every sample of the already decoded series, as the sinks do for every loaded point.
+	 */
+	@Benchmark
+	public double cachedFieldValues() {
+		double sum = 0;
+		for (int i = 0; i < fields.length; i++) {
+			if (!decodedLoader.allValuesAreZero(fields[i])) {
+				for (int sampleIndex = 0; sampleIndex < sampleCounts[i]; sampleIndex++) {
+					sum += decodedLoader.getMeasurementFieldValue(fields[i], sampleIndex);
+				}
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Reads every sample of every non zero series {@value #LOOKUP_PASSES} times within the load of its measurement,
+	 * sample by sample as the sinks do. Includes the decoding of the series.
+	 */
+	@Benchmark
+	public double loadedFieldValues() throws IOException {
+		LookupLoader loader = new LookupLoader(new File(archiveFile));
+		loader.load();
+		return loader.sum;
+	}
+
+	/**
+	 * Sink reading all the samples of a measurement at its first sample.
+	 */
+	private static class LookupLoader extends NoOpLoader {
+
+		double sum;
+
+		LookupLoader(File archiveFile) {
+			super(archiveFile, null);
+		}
+
+		@Override
+		protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
+				long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+			if (measurementSampleIndex > 0) {
+				return;
+			}
+			int sampleCount = measurementFields[0].getRawAbsoluteTimeStamps().length;
+			for (int pass = 0; pass < LOOKUP_PASSES; pass++) {
+				for (int sampleIndex = 0; sampleIndex < sampleCount; sampleIndex++) {
+					for (StatArchiveReader.StatValue measurementField : measurementFields) {
+						if (!allValuesAreZero(measurementField)) {
+							sum += getMeasurementFieldValue(measurementField, sampleIndex);
+						}
+					}
+				}
+			}
+		}
+	}
+}
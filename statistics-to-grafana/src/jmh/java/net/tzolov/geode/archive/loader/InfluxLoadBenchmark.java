@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Logger;
+import okhttp3.OkHttpClient;
+import org.influxdb.InfluxDB;
+import org.influxdb.InfluxDBFactory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.LoggerFactory;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * End to end {@link StatisticsToInfluxLoader} load of a generated archive into an {@link InfluxStandIn}.
+ *
+ * The loads per second give the load latency, the {@code points} and {@code bytes} counters the points and request
+ * bytes received by the stand-in per second and {@code peakHeapBytes} the peak heap usage during the iteration. The
+ * archive is generated once per trial by the {@link StatisticsArchiveGenerator}, its size set by the
+ * {@code types}, {@code instancesPerType} and {@code samples} parameters.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(value = 1, jvmArgs = "-Xmx1g")
+@State(Scope.Benchmark)
+public class InfluxLoadBenchmark {
+
+	@Param("4")
+	public int types;
+
+	@Param("50")
+	public int instancesPerType;
+
+	@Param("1000")
+	public int samples;
+
+	@Param({ "0", "4" })
+	public int influxWriterThreads;
+
+	@Param({ "false", "true" })
+	public boolean influxGzip;
+
+	@Param("0")
+	public long responseDelay;
+
+	private File archiveDirectory;
+
+	private File archiveFile;
+
+	private InfluxStandIn standIn;
+
+	private InfluxDB influxDB;
+
+	@Setup
+	public void generateArchive() throws IOException {
+		((Logger) LoggerFactory.getLogger(AbstractStatisticsTSDBLoader.class.getPackage().getName()))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+
+		StatisticsArchiveGenerator generator = new StatisticsArchiveGenerator();
+		generator.setTypes(types);
+		generator.setInstancesPerType(instancesPerType);
+		generator.setSamples(samples);
+		archiveDirectory = Files.createTempDirectory("influx-load-benchmark").toFile();
+		archiveFile = new File(archiveDirectory, "generated.gfs");
+		generator.generate(archiveFile);
+
+		standIn = new InfluxStandIn(responseDelay);
+		influxDB = InfluxDBFactory.connect(standIn.getUrl(), "admin", "admin",
+				new OkHttpClient.Builder().socketFactory(new NoDelaySocketFactory()));
+		if (influxGzip) {
+			influxDB.enableGzip();
+		}
+	}
+
+	@TearDown
+	public void stopStandIn() throws IOException {
+		standIn.close();
+		FileSystemUtils.deleteRecursively(archiveDirectory);
+	}
+
+	@Benchmark
+	public long load(LoadCounters counters, HeapCounters heap) throws IOException {
+		long points = standIn.getPoints();
+		long bytes = standIn.getBytes();
+
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 1000,
+				"GeodeArchive", archiveFile, "generated", new String[0], true);
+		loader.setInfluxWriterThreads(influxWriterThreads);
+		loader.setInfluxWriteQueueCapacity(16);
+		loader.setInfluxMaxInFlightBytes(64 * 1024 * 1024);
+		loader.load();
+
+		counters.points += standIn.getPoints() - points;
+		counters.bytes += standIn.getBytes() - bytes;
+		heap.updatePeakHeapBytes();
+		return loader.getLoadedSampleCount();
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class LoadCounters {
+
+		public long points;
+
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			points = 0;
+			bytes = 0;
+		}
+	}
+
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	@State(Scope.Thread)
+	public static class HeapCounters {
+
+		public long peakHeapBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			peakHeapBytes = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				pool.resetPeakUsage();
+			}
+		}
+
+		/**
+		 * Sums the peak usages of the heap pools since the iteration start. Overestimates the peak heap usage a
+		 * little, as the pools do not peak at the same time.
+		 */
+		void updatePeakHeapBytes() {
+			long peak = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getType() == MemoryType.HEAP) {
+					peak += pool.getPeakUsage().getUsed();
+				}
+			}
+			peakHeapBytes = peak;
+		}
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.influxdb.InfluxDB;
+import org.influxdb.dto.Point;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Point construction of the {@link StatisticsToInfluxLoader#doLoadMeasurement}, one point per operation, over the
+ * samples of the archive measurement with the most fields. The {@code influxClientPoint} baseline builds the same
+ * line protocol record with the influxdb-java {@link Point} builder.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class InfluxPointBenchmark {
+
+	@Param("src/test/resources/myStatisticsArchiveFile.gfs")
+	public String archiveFile;
+
+	private StatArchiveReader reader;
+
+	private BenchmarkInfluxLoader loader;
+
+	private String measurementName;
+
+	private String measurementType;
+
+	private StatArchiveReader.StatValue[] measurementFields;
+
+	private long[] timestamps;
+
+	private int sampleIndex;
+
+	@Setup
+	public void selectMeasurement() throws IOException {
+		loader = new BenchmarkInfluxLoader(new File(archiveFile));
+		reader = loader.openArchive();
+
+		StatArchiveReader.ResourceInst ri = loader.getResourceInsts(reader).stream()
+				.max(Comparator.comparingInt(r -> loader.getMeasurementFields(r).length)).get();
+		measurementName = ri.getType().getName() + ":" + ri.getName();
+		measurementType = ri.getType().getName();
+		measurementFields = loader.getMeasurementFields(ri);
+		timestamps = measurementFields[0].getRawAbsoluteTimeStamps();
+
+		// Decodes the series up front, the benchmark measures the point construction only
+		for (StatArchiveReader.StatValue measurementField : measurementFields) {
+			loader.allValuesAreZero(measurementField);
+		}
+		loader.doPrepareMeasurementLoad();
+	}
+
+	@TearDown
+	public void closeArchive() throws IOException {
+		reader.close();
+	}
+
+	@Benchmark
+	public long loaderPoint() {
+		int index = nextSampleIndex();
+		loader.doLoadMeasurement(measurementName, measurementType, index, timestamps[index], measurementFields);
+		return loader.writtenChars;
+	}
+
+	@Benchmark
+	public String influxClientPoint() {
+		int index = nextSampleIndex();
+		Map<String, Object> fields = new HashMap<>();
+		for (StatArchiveReader.StatValue measurementField : measurementFields) {
+			if (!loader.allValuesAreZero(measurementField)) {
+				fields.put(loader.getMeasurementFieldName(measurementField),
+						loader.getMeasurementFieldValue(measurementField, index));
+			}
+		}
+		return Point.measurement(measurementName)
+				.time(timestamps[index], TimeUnit.MILLISECONDS)
+				.tag("type", measurementType)
+				.tag("archiveMember", "benchmark")
+				.tag("async", "false")
+				.fields(fields)
+				.build()
+				.lineProtocol();
+	}
+
+	private int nextSampleIndex() {
+		int index = sampleIndex;
+		sampleIndex = (index + 1 == timestamps.length) ? 0 : index + 1;
+		return index;
+	}
+
+	/**
+	 * Influx loader discarding the encoded batches.
+	 */
+	private static class BenchmarkInfluxLoader extends StatisticsToInfluxLoader {
+
+		long writtenChars;
+
+		BenchmarkInfluxLoader(File archiveFile) {
+			super(noOpInfluxDB(), false, "autogen", 1000, "GeodeArchive", archiveFile, "benchmark", new String[0],
+					true);
+		}
+
+		@Override
+		protected void doWriteBatch(String retentionPolicy, String records, int pointCount, Runnable commit) {
+			writtenChars += records.length();
+		}
+
+		private static InfluxDB noOpInfluxDB() {
+			return (InfluxDB) Proxy.newProxyInstance(InfluxDB.class.getClassLoader(), new Class<?>[] { InfluxDB.class },
+					(proxy, method, args) -> null);
+		}
+	}
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import ch.qos.logback.classic.Logger;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Whole {@link AbstractStatisticsTSDBLoader#load()} loop against a sink discarding the values.
+ *
+ * Besides the loads per second, the {@code samples} and {@code bytes} counters report the loaded samples and archive
+ * bytes per second, comparable across archive sizes. Pass larger archives with {@code -p archiveFile=<file>,...} to
+ * measure the scaling with the archive size.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LoadBenchmark {
+
+	@Param("src/test/resources/myStatisticsArchiveFile.gfs")
+	public String archiveFile;
+
+	@Param({ "1", "4" })
+	public int loadThreads;
+
+	@Param({ "false", "true" })
+	public boolean streamingLoad;
+
+	@Setup
+	public void quietLoaderLogs() {
+		// The per load progress logging would otherwise flood the benchmark output
+		((Logger) LoggerFactory.getLogger(AbstractStatisticsTSDBLoader.class.getPackage().getName()))
+				.setLevel(ch.qos.logback.classic.Level.WARN);
+	}
+
+	@Benchmark
+	public long load(LoadCounters counters, Blackhole blackhole) throws IOException {
+		File file = new File(archiveFile);
+		NoOpLoader loader = new NoOpLoader(file, blackhole);
+		loader.setLoadThreads(loadThreads);
+		loader.setStreamingLoad(streamingLoad);
+		loader.load();
+		counters.samples += loader.getLoadedSampleCount();
+		counters.bytes += file.length();
+		return loader.getLoadedMeasurementCount();
+	}
+
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	@State(Scope.Thread)
+	public static class LoadCounters {
+
+		public long samples;
+
+		public long bytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			samples = 0;
+			bytes = 0;
+		}
+	}
+}
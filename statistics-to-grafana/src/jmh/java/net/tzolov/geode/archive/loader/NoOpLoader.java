@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Sink reading every field value, as a real sink does, without writing it anywhere. Isolates the cost of the
+ * archive decoding and of the loader itself.
+ */
+class NoOpLoader extends AbstractStatisticsTSDBLoader {
+
+	private final Blackhole blackhole;
+
+	NoOpLoader(File archiveFile, Blackhole blackhole) {
+		this(archiveFile, "benchmark", blackhole);
+	}
+
+	private NoOpLoader(File archiveFile, String geodeMemberName, Blackhole blackhole) {
+		super(false, archiveFile, geodeMemberName, new String[0]);
+		this.blackhole = blackhole;
+	}
+
+	@Override
+	protected NoOpLoader forArchive(File archiveFile, String geodeMemberName) {
+		NoOpLoader loader = new NoOpLoader(archiveFile, geodeMemberName, blackhole);
+		copyLoadSettingsTo(loader);
+		return loader;
+	}
+
+	@Override
+	protected void doCreateEmptyDatabase() {
+	}
+
+	@Override
+	protected void doPrepareMeasurementLoad() {
+	}
+
+	@Override
+	protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
+			long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+		for (StatArchiveReader.StatValue measurementField : measurementFields) {
+			if (!allValuesAreZero(measurementField)) {
+				blackhole.consume(getMeasurementFieldValue(measurementField, measurementSampleIndex));
+			}
+		}
+		blackhole.consume(measurementTimestamp);
+	}
+
+	@Override
+	protected void doCompleteMeasurementLoad() {
+	}
+}
@@ -15,6 +15,10 @@
  */
 package net.tzolov.geode.archive;
 
+import java.io.File;
+import java.io.IOException;
+
+import okhttp3.OkHttpClient;
 import org.influxdb.InfluxDB;
 import org.influxdb.InfluxDB.LogLevel;
 import org.influxdb.InfluxDBFactory;
@@ -24,17 +28,84 @@ import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.shell.CommandLine;
+import org.springframework.shell.SimpleShellCommandLineOptions;
+import org.springframework.shell.core.JLineShellComponent;
+import org.springframework.util.StringUtils;
 
+import net.tzolov.geode.archive.loader.AbstractStatisticsTSDBLoader;
+import net.tzolov.geode.archive.loader.ArchiveCatalog;
+import net.tzolov.geode.archive.loader.ArchiveFollower;
+import net.tzolov.geode.archive.loader.ArchiveShellCommands;
+import net.tzolov.geode.archive.loader.BulkStatisticsLoader;
+import net.tzolov.geode.archive.loader.ClusterAggregator;
+import net.tzolov.geode.archive.loader.NoDelaySocketFactory;
+import net.tzolov.geode.archive.loader.StatisticsToColumnarLoader;
+import net.tzolov.geode.archive.loader.StatisticsToDryRunLoader;
 import net.tzolov.geode.archive.loader.StatisticsToInfluxLoader;
+import net.tzolov.geode.archive.loader.StatisticsToLineProtocolFileLoader;
 
 @SpringBootApplication
 @Configuration
 public class StatisticsLoaderApplication implements CommandLineRunner {
 
 	@Autowired
-	private StatisticsToInfluxLoader statisticsLoader;
+	private ApplicationContext applicationContext;
+
+	@Autowired
+	private StatisticsToInfluxLoader influxLoader;
+
+	@Autowired
+	private StatisticsToColumnarLoader columnarLoader;
+
+	@Autowired
+	private StatisticsToLineProtocolFileLoader exportLoader;
+
+	@Autowired
+	private StatisticsToDryRunLoader dryRunLoader;
+
+	@Value("${sink}")
+	private String sink;
+
+	@Value("${bulkArchivePath}")
+	private String bulkArchivePath;
+
+	@Value("${bulkLoadThreads}")
+	private int bulkLoadThreads;
+
+	@Value("${clusterAggregation}")
+	private boolean clusterAggregation;
+
+	@Value("${clusterInterval}")
+	private long clusterInterval;
+
+	@Value("${clusterSampleMaxAge}")
+	private long clusterSampleMaxAge;
+
+	@Value("${clusterAggregates}")
+	private String[] clusterAggregates;
+
+	@Value("${follow}")
+	private boolean follow;
+
+	@Value("${followPollInterval}")
+	private long followPollInterval;
+
+	@Value("${listArchive}")
+	private boolean listArchive;
+
+	@Value("${archiveFile}")
+	private String archiveFile;
+
+	@Value("${shellMode}")
+	private boolean shellMode;
+
+	@Value("${shellCacheMaxValues}")
+	private long shellCacheMaxValues;
 
 	public static void main(String[] args) {
 		SpringApplication.run(StatisticsLoaderApplication.class, args);
@@ -44,14 +115,82 @@ public class StatisticsLoaderApplication implements CommandLineRunner {
 	public InfluxDB influxDB(
 			@Value("${influxUrl}") String influxUrl,
 			@Value("${influxUser}") String influxUser,
-			@Value("${influxPassword}") String influxPassword) {
-		InfluxDB influxDB = InfluxDBFactory.connect(influxUrl, influxUser, influxPassword);
+			@Value("${influxPassword}") String influxPassword,
+			@Value("${influxGzip}") boolean influxGzip) {
+		InfluxDB influxDB = InfluxDBFactory.connect(influxUrl, influxUser, influxPassword,
+				new OkHttpClient.Builder().socketFactory(new NoDelaySocketFactory()));
 		influxDB.setLogLevel(LogLevel.NONE);
+		if (influxGzip) {
+			influxDB.enableGzip();
+		}
 		return influxDB;
 	}
 
 	@Override
 	public void run(String... strings) throws Exception {
-		statisticsLoader.load();
+		if (listArchive) {
+			System.out.print(ArchiveCatalog.forArchive(new File(archiveFile)).describe());
+			return;
+		}
+		AbstractStatisticsTSDBLoader statisticsLoader = getStatisticsLoader();
+		if (shellMode) {
+			runShell(statisticsLoader);
+		}
+		else if (StringUtils.hasText(bulkArchivePath)) {
+			// Created before the bulk load to reject a sink without cluster aggregates up front
+			ClusterAggregator clusterAggregator = clusterAggregation ? new ClusterAggregator(statisticsLoader,
+					clusterInterval, clusterSampleMaxAge, clusterAggregates, bulkLoadThreads) : null;
+			new BulkStatisticsLoader(statisticsLoader, bulkLoadThreads).load(bulkArchivePath);
+			if (clusterAggregator != null) {
+				clusterAggregator.aggregate(bulkArchivePath);
+			}
+		}
+		else if (follow) {
+			new ArchiveFollower(statisticsLoader, followPollInterval).follow();
+		}
+		else {
+			statisticsLoader.load();
+		}
+	}
+
+	private void runShell(AbstractStatisticsTSDBLoader statisticsLoader) throws IOException {
+		ArchiveShellCommands commands = new ArchiveShellCommands(statisticsLoader, dryRunLoader, shellCacheMaxValues);
+		if (new File(archiveFile).isFile()) {
+			System.out.println(commands.open(archiveFile, null));
+		}
+		// The shell, its built-in commands, converters and prompt live in a child context, created only in shell mode
+		try (AnnotationConfigApplicationContext shellContext = new AnnotationConfigApplicationContext()) {
+			shellContext.setParent(applicationContext);
+			shellContext.scan("org.springframework.shell.commands", "org.springframework.shell.converters",
+					"org.springframework.shell.plugin.support");
+			shellContext.register(JLineShellComponent.class);
+			shellContext.getBeanFactory().registerSingleton("commandLine", new CommandLine(new String[0],
+					SimpleShellCommandLineOptions.DEFAULT_HISTORY_SIZE, null));
+			shellContext.getBeanFactory().registerSingleton("archiveShellCommands", commands);
+			shellContext.refresh();
+
+			JLineShellComponent shellComponent = shellContext.getBean(JLineShellComponent.class);
+			shellComponent.start();
+			shellComponent.promptLoop();
+			shellComponent.waitForComplete();
+		}
+		finally {
+			commands.close();
+		}
+	}
+
+	private AbstractStatisticsTSDBLoader getStatisticsLoader() {
+		switch (sink) {
+		case "influx":
+			return influxLoader;
+		case "columnar":
+			return columnarLoader;
+		case "export":
+			return exportLoader;
+		case "dryrun":
+			return dryRunLoader;
+		default:
+			throw new IllegalArgumentException("Unknown sink [" + sink + "]. Expected influx, columnar, export or dryrun");
+		}
 	}
 }
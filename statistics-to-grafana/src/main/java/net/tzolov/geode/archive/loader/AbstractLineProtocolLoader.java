@@ -0,0 +1,281 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Base of the loaders encoding the measurements as InfluxDB line protocol batches. The full resolution points and
+ * the rollup windows are encoded in separate batches, written to their own retention policy by the
+ * {@link #doWriteBatch} implementation.
+ */
+public abstract class AbstractLineProtocolLoader extends AbstractStatisticsTSDBLoader {
+
+	protected final int influxMeasurementBatchSize;
+
+	protected final String influxRetentionPolicy;
+
+	protected final String influxDatabaseName;
+
+	protected final boolean skipZeroValuesTimeSeries;
+
+	protected String influxRollupRetentionPolicy = "rollup";
+
+	protected String influxRollupRetentionDuration = "INF";
+
+	// Measurements can be loaded concurrently, so every loader thread encodes its own measurement batch
+	private final ThreadLocal<LineProtocolEncoder> measurementBatch =
+			ThreadLocal.withInitial(() -> new LineProtocolEncoder(batchTags(), 64 * 1024));
+
+	// Rollup windows are written to their own retention policy, hence encoded in a separate batch
+	private final ThreadLocal<LineProtocolEncoder> rollupBatch =
+			ThreadLocal.withInitial(() -> new LineProtocolEncoder(batchTags(), 16 * 1024));
+
+	public AbstractLineProtocolLoader(boolean cleanDatabaseOnLoad, String influxRetentionPolicy,
+			int influxMeasurementBatchSize, String influxDatabaseName, File archiveFile, String geodeMemberName,
+			String[] allowStatTypes, boolean skipZeroValuesTimeSeries) {
+
+		super(cleanDatabaseOnLoad, archiveFile, geodeMemberName, allowStatTypes);
+
+		this.influxRetentionPolicy = influxRetentionPolicy;
+		this.influxMeasurementBatchSize = influxMeasurementBatchSize;
+		this.influxDatabaseName = influxDatabaseName;
+		this.skipZeroValuesTimeSeries = skipZeroValuesTimeSeries;
+	}
+
+	/**
+	 * @param influxRollupRetentionPolicy Retention policy of the rollup measurements. Created if it does not exist.
+	 */
+	@Value("${influxRollupRetentionPolicy}")
+	public void setInfluxRollupRetentionPolicy(String influxRollupRetentionPolicy) {
+		this.influxRollupRetentionPolicy = influxRollupRetentionPolicy;
+	}
+
+	/**
+	 * @param influxRollupRetentionDuration Duration (e.g. 52w or INF) of the created rollup retention policy.
+	 */
+	@Value("${influxRollupRetentionDuration}")
+	public void setInfluxRollupRetentionDuration(String influxRollupRetentionDuration) {
+		this.influxRollupRetentionDuration = influxRollupRetentionDuration;
+	}
+
+	@Override
+	protected void copyLoadSettingsTo(AbstractStatisticsTSDBLoader loader) {
+		super.copyLoadSettingsTo(loader);
+		if (loader instanceof AbstractLineProtocolLoader) {
+			((AbstractLineProtocolLoader) loader).setInfluxRollupRetentionPolicy(influxRollupRetentionPolicy);
+			((AbstractLineProtocolLoader) loader).setInfluxRollupRetentionDuration(influxRollupRetentionDuration);
+		}
+	}
+
+	/**
+	 * Writes an encoded batch.
+	 * @param retentionPolicy Target retention policy, either the influxRetentionPolicy or, for the rollup windows,
+	 * the influxRollupRetentionPolicy.
+	 * @param records New line separated line protocol records.
+	 * @param pointCount Number of records.
+	 * @param commit Callback to run once the batch is durably written.
+	 */
+	abstract protected void doWriteBatch(String retentionPolicy, String records, int pointCount, Runnable commit);
+
+	/**
+	 * @param encoder Batch of the measurement being loaded.
+	 * @return Returns true if the batch is to be written. Defaults to once it holds influxMeasurementBatchSize points.
+	 */
+	protected boolean isBatchFull(LineProtocolEncoder encoder) {
+		return encoder.getPointCount() >= influxMeasurementBatchSize;
+	}
+
+	@Override
+	protected void doPrepareMeasurementLoad() {
+		measurementBatch.get().reset();
+		rollupBatch.get().reset();
+	}
+
+	@Override
+	protected void doLoadMeasurement(String measurementName, String measurementType,
+			int measurementSampleIndex, long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+
+		LineProtocolEncoder encoder = measurementBatch.get();
+
+		if (!encoder.isMeasurement(measurementFields)) {
+			// The raw value of the i-th measurement field is the i-th point field and its rate the (n + i)-th
+			String[] fieldNames = new String[measurementFields.length * 2];
+			for (int fieldIndex = 0; fieldIndex < measurementFields.length; fieldIndex++) {
+				StatArchiveReader.StatValue measurementField = measurementFields[fieldIndex];
+				if (isRawField(measurementField)) {
+					fieldNames[fieldIndex] = getMeasurementFieldName(measurementField);
+				}
+				if (isRateField(measurementField)) {
+					fieldNames[measurementFields.length + fieldIndex] = getMeasurementRateFieldName(measurementField);
+				}
+			}
+			encoder.measurement(measurementName, Collections.singletonMap("type", measurementType),
+					measurementFields, fieldNames);
+		}
+
+		encoder.startPoint();
+
+		for (int pointFieldIndex : encoder.getFieldOrder()) {
+
+			int fieldIndex = pointFieldIndex % measurementFields.length;
+			StatArchiveReader.StatValue measurementField = measurementFields[fieldIndex];
+
+			if (!skipZeroValuesTimeSeries || !allValuesAreZero(measurementField)) {
+				if (pointFieldIndex < measurementFields.length) {
+					if (isFieldChanged(fieldIndex)) {
+						encoder.addField(pointFieldIndex, getMeasurementFieldValue(measurementField, measurementSampleIndex));
+					}
+				}
+				else {
+					double rate = getMeasurementFieldRate(fieldIndex);
+					if (!Double.isNaN(rate) && isRateChanged(fieldIndex)) {
+						encoder.addField(pointFieldIndex, rate);
+					}
+				}
+			}
+		}
+
+		encoder.endPoint(measurementTimestamp);
+
+		if (isBatchFull(encoder)) {
+			// The pending rollup windows cover older samples, they have to be written before this batch is committed
+			writeRollup();
+			write(encoder);
+		}
+	}
+
+	@Override
+	protected void doLoadRollup(String measurementName, String measurementType, long windowTimestamp,
+			StatArchiveReader.StatValue[] measurementFields, MeasurementRollup rollup) {
+
+		LineProtocolEncoder encoder = rollupBatch.get();
+		MeasurementRollup.Aggregate[] aggregates = getRollupAggregates();
+
+		if (!encoder.isMeasurement(measurementFields)) {
+			// Every measurement field is rolled up into one <fieldName>_<aggregate> field per aggregate
+			String[] fieldNames = new String[measurementFields.length * aggregates.length];
+			for (int fieldIndex = 0; fieldIndex < measurementFields.length; fieldIndex++) {
+				StatArchiveReader.StatValue measurementField = measurementFields[fieldIndex];
+				if (!skipZeroValuesTimeSeries || !allValuesAreZero(measurementField)) {
+					String fieldName = isRawField(measurementField) ? getMeasurementFieldName(measurementField)
+							: getMeasurementRateFieldName(measurementField);
+					for (int i = 0; i < aggregates.length; i++) {
+						fieldNames[fieldIndex * aggregates.length + i] = fieldName + "_" + aggregates[i].getFieldSuffix();
+					}
+				}
+			}
+			encoder.measurement(measurementName, Collections.singletonMap("type", measurementType),
+					measurementFields, fieldNames);
+		}
+
+		encoder.startPoint();
+		for (int rollupFieldIndex : encoder.getFieldOrder()) {
+			double value = rollup.get(aggregates[rollupFieldIndex % aggregates.length],
+					rollupFieldIndex / aggregates.length);
+			if (!Double.isNaN(value)) {
+				encoder.addField(rollupFieldIndex, value);
+			}
+		}
+		encoder.endPoint(windowTimestamp);
+
+		if (isBatchFull(encoder)) {
+			writeRollup();
+		}
+	}
+
+	@Override
+	protected boolean isRollupSupported() {
+		return true;
+	}
+
+	@Override
+	protected boolean isClusterAggregateSupported() {
+		return true;
+	}
+
+	@Override
+	protected void doLoadClusterAggregate(String measurementName, String measurementType, long timestamp,
+			String[] fieldNames, double[] values) {
+
+		LineProtocolEncoder encoder = measurementBatch.get();
+		if (!encoder.isMeasurement(fieldNames)) {
+			encoder.measurement(measurementName, Collections.singletonMap("type", measurementType), fieldNames);
+		}
+
+		encoder.startPoint();
+		for (int fieldIndex : encoder.getFieldOrder()) {
+			if (!Double.isNaN(values[fieldIndex])) {
+				encoder.addField(fieldIndex, values[fieldIndex]);
+			}
+		}
+		encoder.endPoint(timestamp);
+
+		if (isBatchFull(encoder)) {
+			write(encoder);
+		}
+	}
+
+	@Override
+	protected void doCompleteMeasurementLoad() {
+		// Write the remaining measurements in the batches
+		boolean written = writeRollup();
+		if (measurementBatch.get().getPointCount() > 0) {
+			write(measurementBatch.get());
+		}
+		else if (!written) {
+			// Nothing left to write, the measurement is complete once its earlier batches are written
+			measurementCommit().run();
+		}
+		measurementBatch.get().reset();
+		rollupBatch.get().reset();
+	}
+
+	private void write(LineProtocolEncoder encoder) {
+		int pointCount = encoder.getPointCount();
+		if (pointCount == 0) {
+			// All points were discarded (e.g. zero values only)
+			encoder.reset();
+			measurementCommit().run();
+			return;
+		}
+		doWriteBatch(influxRetentionPolicy, encoder.flush(), pointCount, measurementCommit());
+	}
+
+	private boolean writeRollup() {
+		LineProtocolEncoder encoder = rollupBatch.get();
+		int pointCount = encoder.getPointCount();
+		if (pointCount == 0) {
+			return false;
+		}
+		doWriteBatch(influxRollupRetentionPolicy, encoder.flush(), pointCount, measurementCommit());
+		return true;
+	}
+
+	private Map<String, String> batchTags() {
+		Map<String, String> tags = new TreeMap<>();
+		tags.put("async", "false");
+		tags.put("archiveMember", geodeMemberName);
+		return tags;
+	}
+}
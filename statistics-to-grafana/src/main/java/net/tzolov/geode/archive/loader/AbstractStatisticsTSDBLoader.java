@@ -17,18 +17,72 @@ package net.tzolov.geode.archive.loader;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.IdentityHashMap;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
 
-import com.google.common.collect.ImmutableSet;
 import org.apache.geode.internal.statistics.StatArchiveReader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 /**
  * Common parent for all TSDB data loaders.
  * https://github.com/apache/geode/blob/develop/geode-core/src/test/java/org/apache/geode/internal/statistics/StatArchiveWriterReaderIntegrationTest.java
+ *
+ * Thread-safety contract: when {@link #setLoadThreads(int)} is greater than 1 the archive resource instances
+ * (e.g. measurements) are converted concurrently. The {@link #doPrepareMeasurementLoad()},
+ * {@link #doLoadMeasurement} and {@link #doCompleteMeasurementLoad()} calls for one measurement are always made
+ * by the same thread, in that order, but different measurements are loaded by different threads at the same time.
+ * Subclasses must keep their per-measurement state thread confined (e.g. in a ThreadLocal) and make any state
+ * shared across measurements thread-safe. The {@link #doCreateEmptyDatabase()} is always called before any
+ * measurement is loaded.
+ *
+ * Memory: the decoded samples of a measurement are released as soon as its {@link #doCompleteMeasurementLoad()}
+ * returns. Measurements whose decoded size would exceed the streaming memory ceiling are decoded in fixed windows
+ * of samples, so the peak heap is bound by the window size rather than the archive length.
+ *
+ * Rollup: when enabled, the samples of every measurement field are aggregated into fixed time windows loaded
+ * through {@link #doLoadRollup}, optionally in addition to the full resolution samples.
+ *
+ * Counters: the statistics flagged as counters can be loaded as per second rates, computed from consecutive
+ * samples, instead of or in addition to their raw values (see {@link #getMeasurementFieldRate(int)}).
+ *
+ * Change only: when enabled, the sinks load a field value only when it differs from the previous sample (see
+ * {@link #isFieldChanged(int)}), repeating the unchanged values at every heartbeat.
+ *
+ * Checkpoints: when enabled, the index of the last sample committed by the sink (see {@link #measurementCommit()})
+ * is recorded per measurement in a sidecar {@link ImportCheckpoint} file. A new load of the same archive resumes
+ * every measurement after its last committed sample.
+ *
+ * Session: the loads of an {@link ArchiveSession} share its parsed archive and reuse the values decoded by the
+ * earlier loads, instead of parsing the archive file and decoding its values again.
+ *
+ * Metrics: the decode and write throughput, the batch write latencies and the decoded values held in memory are
+ * collected in the {@link LoadMetrics}, exposed through JMX during the load and logged as a summary at its end.
  */
 public abstract class AbstractStatisticsTSDBLoader {
 
@@ -40,12 +94,75 @@ public abstract class AbstractStatisticsTSDBLoader {
 
 	protected boolean cleanDatabaseOnLoad;
 
-	private IdentityHashMap<StatArchiveReader.StatValue, double[]> statValueCache = new IdentityHashMap<>();
+	protected String[] allowStatTypes;
+
+	private int loadThreads = 1;
+
+	private boolean streamingLoad = false;
+
+	private int streamingWindowSize = 10000;
+
+	private long streamingMemoryCeiling = 0;
+
+	private long rollupInterval = 0;
+
+	private boolean rollupFullResolution = true;
+
+	private MeasurementRollup.Aggregate[] rollupAggregates = MeasurementRollup.Aggregate.values();
+
+	private CounterMode counterMode = CounterMode.RAW;
+
+	private boolean changeOnly = false;
+
+	private long changeOnlyHeartbeat = 60000;
+
+	private boolean checkpoint = false;
+
+	private String checkpointDirectory = "";
+
+	private long checkpointInterval = 1000;
+
+	private long loadFrom = -1L;
+
+	private long loadTo = -1L;
+
+	private boolean archiveCatalog = false;
+
+	// Archive parsed once for several loads (e.g. the interactive shell), null if every load parses the archive file
+	private ArchiveSession archiveSession;
+
+	// Set when the target database was recreated by another loader (e.g. the bulk load), so the checkpoint is stale
+	boolean discardCheckpoint = false;
+
+	private volatile ImportCheckpoint importCheckpoint;
+
+	private final ThreadLocal<MeasurementProgress> measurementProgress = new ThreadLocal<>();
+
+	private static final Runnable NO_COMMIT = () -> {
+	};
+
+	private final LoadMetrics metrics = new LoadMetrics();
+
+	// Series of the fields looked up outside of their measurement load (e.g. benchmarks). StatValue implementations
+	// do not override equals/hashCode, so the map is keyed by identity.
+	private final Map<StatArchiveReader.StatValue, MeasurementSeries> detachedSeries = new ConcurrentHashMap<>();
 
-	private IdentityHashMap<StatArchiveReader.StatValue, Boolean> statValueEmpty = new IdentityHashMap<>();
+	private List<StatFilterRule> statIncludes = new ArrayList<>();
+
+	private List<StatFilterRule> statExcludes = new ArrayList<>();
 
 	private StatArchiveReader.ValueFilter[] statFilters;
 
+	// Exclude rules combining several dimensions, that the archive reader can not evaluate
+	private List<StatFilterRule> residualExcludes = Collections.emptyList();
+
+	// Report name of the stat rules evaluated by the reader
+	private String readerStatRules = "";
+
+	private final Map<String, Long> prunedSeriesCounts = new ConcurrentHashMap<>();
+
+	private final Map<String, Long> prunedSampleCounts = new ConcurrentHashMap<>();
+
 	/**
 	 * @param cleanDatabaseOnLoad If true the target TSDB is created or recreate.
 	 * @param archiveFile The Apache Geode (GemFire) statistics archive file
@@ -55,140 +172,1510 @@ public abstract class AbstractStatisticsTSDBLoader {
 	public AbstractStatisticsTSDBLoader(boolean cleanDatabaseOnLoad, File archiveFile, String geodeMemberName,
 			String[] allowStatTypes) {
 
-		Assert.notNull(archiveFile, "Not null archiveFile is required!");
-		Assert.hasText(geodeMemberName, "Not empty geodeMemberName is required!");
-
 		this.archiveFileName = archiveFile;
 		this.geodeMemberName = geodeMemberName;
 		this.cleanDatabaseOnLoad = cleanDatabaseOnLoad;
+		this.allowStatTypes = allowStatTypes;
+
+		if (allowStatTypes != null) {
+			for (String allowStatType : allowStatTypes) {
+				statIncludes.add(StatFilterRule.forType(allowStatType));
+			}
+		}
+		buildStatFilters();
+	}
+
+	/**
+	 * Pushes the include and exclude rules down to the archive reader, so the statistics they reject are never
+	 * decoded. Every include rule becomes a reader filter (the reader loads what any of them matches) and the single
+	 * dimension exclude rules narrow every filter. Exclude rules combining dimensions are applied to the loaded
+	 * measurements instead.
+	 */
+	private void buildStatFilters() {
 
-		if (allowStatTypes != null && allowStatTypes.length > 0) {
-			statFilters = new StatArchiveReader.ValueFilter[] { new StatFilter(allowStatTypes) };
+		List<StatFilterRule> singleDimensionExcludes = statExcludes.stream()
+				.filter(StatFilterRule::isSingleDimension).collect(Collectors.toList());
+		residualExcludes = statExcludes.stream()
+				.filter(rule -> !rule.isSingleDimension()).collect(Collectors.toList());
+		readerStatRules = Stream.concat(statIncludes.stream(), singleDimensionExcludes.stream())
+				.filter(StatFilterRule::hasStat).map(StatFilterRule::toString).collect(Collectors.joining(" | "));
+
+		if (statIncludes.isEmpty() && statExcludes.isEmpty()) {
+			statFilters = null;
+		}
+		else if (statIncludes.isEmpty()) {
+			statFilters = new StatArchiveReader.ValueFilter[] { new StatFilter(null, singleDimensionExcludes) };
+		}
+		else {
+			statFilters = statIncludes.stream().map(include -> new StatFilter(include, singleDimensionExcludes))
+					.toArray(StatArchiveReader.ValueFilter[]::new);
 		}
 	}
 
+	/**
+	 * Loads the archive samples within the configured loadFrom and loadTo time range.
+	 */
 	public void load() throws IOException {
+		load(loadFrom, loadTo);
+	}
+
+	/**
+	 * Loads the archive samples taken within the [fromTime, toTime) time range. Only the samples within the range
+	 * are decoded, so the load time scales with the range rather than with the archive.
+	 * @param fromTime Absolute time, in milliseconds, of the first sample to load. If -1 the range is open.
+	 * @param toTime Absolute time, in milliseconds, the loaded samples are taken before. If -1 the range is open.
+	 */
+	public void load(long fromTime, long toTime) throws IOException {
+		Assert.isTrue(fromTime < 0 || toTime < 0 || fromTime < toTime, "The loaded time range is empty!");
+		execute(() -> loadArchive(fromTime, toTime));
+	}
+
+	/**
+	 * Runs a load action between the {@link #doStartLoad()} and {@link #doCompleteLoad()} calls. The target database
+	 * is (re)created first if required.
+	 */
+	void execute(LoadAction loadAction) throws IOException {
+
+		Assert.notNull(archiveFileName, "Not null archiveFile is required!");
+		Assert.hasText(geodeMemberName, "Not empty geodeMemberName is required!");
+		assertRollupSupported();
 
 		if (cleanDatabaseOnLoad) {
 			doCreateEmptyDatabase();
 		}
 
-		statValueCache.clear();
-		statValueEmpty.clear();
+		detachedSeries.values().forEach(MeasurementSeries::release);
+		detachedSeries.clear();
+		metrics.reset();
+		prunedSeriesCounts.clear();
+		prunedSampleCounts.clear();
+		importCheckpoint = null;
+
+		ObjectName metricsName = registerMetrics();
+		try {
+			doStartLoad();
+			try {
+				loadAction.run();
+			}
+			catch (IOException | RuntimeException e) {
+				try {
+					doCompleteLoad();
+					saveCheckpoint();
+				}
+				catch (IOException | RuntimeException completeFailure) {
+					e.addSuppressed(completeFailure);
+				}
+				throw e;
+			}
+			doCompleteLoad();
+			saveCheckpoint();
+		}
+		finally {
+			metrics.complete();
+			LOG.info("Load of archive [" + archiveFileName + "] of member [" + geodeMemberName + "]: "
+					+ metrics.summary());
+			unregisterMetrics(metricsName);
+		}
+	}
+
+	private ObjectName registerMetrics() {
+		try {
+			ObjectName name = new ObjectName("net.tzolov.geode.archive:type=StatisticsLoader,archive="
+					+ ObjectName.quote(archiveFileName.getName()) + ",member=" + ObjectName.quote(geodeMemberName));
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+			return name;
+		}
+		catch (JMException e) {
+			// e.g. the same archive loaded twice at the same time, the metrics are still logged
+			LOG.warn("Metrics of archive [" + archiveFileName + "] not exposed through JMX: " + e);
+			return null;
+		}
+	}
 
-		final StatArchiveReader reader =
-				new StatArchiveReader(new File[] { archiveFileName }, statFilters, false);
+	private void unregisterMetrics(ObjectName name) {
+		if (name != null) {
+			try {
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+			}
+			catch (JMException e) {
+				LOG.warn("Failed to unregister the metrics [" + name + "]: " + e);
+			}
+		}
+	}
 
-		for (Object r : reader.getResourceInstList()) {
+	private void saveCheckpoint() throws IOException {
+		// The sink has written (or failed) all the pending batches, so the committed progress is final
+		if (importCheckpoint != null) {
+			importCheckpoint.save();
+		}
+	}
 
-			final StatArchiveReader.ResourceInst ri = (StatArchiveReader.ResourceInst) r;
+	private void loadArchive(long fromTime, long toTime) throws IOException {
 
-			if (statFilters != null && statFilters.length > 0 && !statFilters[0].typeMatches(ri.getType().getName())) {
-				// Filter out measurement types not in the allowed types list
-				continue;
+		if (archiveSession != null) {
+			// Parsed already, the session reader stays open for the next loads
+			loadArchive(archiveSession.getReader(), Collections.emptySet(), fromTime, toTime);
+			return;
+		}
+
+		// Resource instances without samples in the loaded time range, that the reader does not need to load
+		Set<String> outOfRangeInstances = Collections.emptySet();
+		StatArchiveReader.ValueFilter[] readerFilters = statFilters;
+		if (archiveCatalog) {
+			ArchiveCatalog catalog = openCatalog();
+			if (catalog != null) {
+				outOfRangeInstances = getOutOfRangeInstances(catalog, fromTime, toTime);
+				if (outOfRangeInstances == null) {
+					LOG.info("No resource instance of [" + archiveFileName + "] matches the stat filters within the"
+							+ " loaded time range. Skip the archive");
+					return;
+				}
+				if (!outOfRangeInstances.isEmpty()) {
+					readerFilters = TimeRangeFilter.narrow(statFilters, outOfRangeInstances);
+				}
 			}
+		}
 
-			String measurementName = ri.getType().getName() + ":" + ri.getName();
+		long openStart = System.nanoTime();
+		final StatArchiveReader reader = openArchive(readerFilters);
+		metrics.recordOpen(System.nanoTime() - openStart);
+		try {
+			loadArchive(reader, outOfRangeInstances, fromTime, toTime);
+		}
+		finally {
+			reader.close();
+		}
+	}
 
-			LOG.info("Measurement [" + measurementName
-					+ "], Samples: " + ri.getSampleCount()
-					+ ", Fields: " + ri.getStatValues().length);
+	private void loadArchive(StatArchiveReader reader, Set<String> outOfRangeInstances, long fromTime, long toTime)
+			throws IOException {
 
-			doPrepareMeasurementLoad();
+		if (checkpoint) {
+			importCheckpoint = openCheckpoint(reader, fromTime, toTime);
+		}
 
-			for (int measurementIndex = 0; measurementIndex < ri.getSampleCount(); measurementIndex++) {
+		if (statFilters != null) {
+			countPrunedSeries(reader, outOfRangeInstances);
+		}
 
-				StatArchiveReader.StatValue[] measurementFields = ri.getStatValues();
+		List<StatArchiveReader.ResourceInst> resourceInsts = getResourceInsts(reader);
 
-				long measurementTimestamp = measurementFields[0].getRawAbsoluteTimeStamps()[measurementIndex];
+		// Resource instances can share the same name. The duplicates are numbered in their archive order
+		Map<String, Integer> nameOccurrences = new HashMap<>();
+		List<String> measurementKeys = new ArrayList<>();
+		for (StatArchiveReader.ResourceInst ri : resourceInsts) {
+			String measurementName = getMeasurementName(ri);
+			int occurrence = nameOccurrences.merge(measurementName, 1, Integer::sum);
+			measurementKeys.add((occurrence == 1) ? measurementName : measurementName + "#" + occurrence);
+		}
 
-				doLoadMeasurement(measurementName, ri.getType().getName(), measurementIndex,
-						measurementTimestamp, measurementFields);
+		if (loadThreads > 1 && resourceInsts.size() > 1) {
+			loadConcurrently(resourceInsts, measurementKeys, fromTime, toTime);
+		}
+		else {
+			for (int i = 0; i < resourceInsts.size(); i++) {
+				loadResourceInst(resourceInsts.get(i), fromTime, toTime, measurementKeys.get(i));
 			}
+		}
+	}
+
+	StatArchiveReader openArchive() throws IOException {
+		return openArchive(statFilters);
+	}
+
+	private StatArchiveReader openArchive(StatArchiveReader.ValueFilter[] filters) throws IOException {
+		return new StatArchiveReader(new File[] { archiveFileName }, filters, false);
+	}
 
-			doCompleteMeasurementLoad();
+	/**
+	 * @return Returns the catalog of the archive, or null if it can not be built. The load then parses the archive
+	 * as if no catalog was enabled.
+	 */
+	private ArchiveCatalog openCatalog() {
+		try {
+			return ArchiveCatalog.forArchive(archiveFileName);
+		}
+		catch (IOException | RuntimeException e) {
+			LOG.warn("Failed to catalog the archive [" + archiveFileName + "], load it without catalog: "
+					+ e.getMessage());
+			return null;
 		}
 	}
 
-	abstract protected void doCreateEmptyDatabase();
+	/**
+	 * @return Returns the keys ({@link TimeRangeFilter#instanceKey(String, long)}) of the cataloged resource instances
+	 * without samples in the [fromTime, toTime) time range, or null if no resource instance within the range is
+	 * allowed by the stat filters. The instances sharing their key with an instance within the range are kept.
+	 */
+	private Set<String> getOutOfRangeInstances(ArchiveCatalog catalog, long fromTime, long toTime) {
 
-	abstract protected void doPrepareMeasurementLoad();
+		List<ArchiveCatalog.ResourceEntry> inRange = catalog.getResources(fromTime, toTime);
+		if (inRange.stream().noneMatch(this::isAllowed)) {
+			return null;
+		}
 
-	abstract protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
-			long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields);
+		Set<String> inRangeKeys = inRange.stream()
+				.map(resource -> TimeRangeFilter.instanceKey(resource.getName(), resource.getNumericId()))
+				.collect(Collectors.toSet());
+		Set<String> outOfRange = new HashSet<>();
+		for (ArchiveCatalog.ResourceEntry resource : catalog.getResources()) {
+			String key = TimeRangeFilter.instanceKey(resource.getName(), resource.getNumericId());
+			if (!inRangeKeys.contains(key)) {
+				outOfRange.add(key);
+			}
+		}
+		return outOfRange;
+	}
 
-	abstract protected void doCompleteMeasurementLoad();
+	/**
+	 * @return Returns true if any stat of the cataloged resource instance is allowed by the reader stat filters.
+	 */
+	private boolean isAllowed(ArchiveCatalog.ResourceEntry resource) {
+		if (statFilters == null) {
+			return true;
+		}
+		String typeName = resource.getType().getName();
+		for (StatArchiveReader.ValueFilter filter : statFilters) {
+			if (filter.typeMatches(typeName) && filter.instanceMatches(resource.getName(), resource.getNumericId())
+					&& resource.getType().getStats().stream().anyMatch(stat -> filter.statMatches(stat.getName()))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private ImportCheckpoint openCheckpoint(StatArchiveReader reader, long fromTime, long toTime) throws IOException {
+
+		File directory = StringUtils.hasText(checkpointDirectory) ? new File(checkpointDirectory)
+				: archiveFileName.getAbsoluteFile().getParentFile();
+		File checkpointFile = new File(directory, archiveFileName.getName() + "." + geodeMemberName + ".checkpoint");
+
+		// The recorded sample indexes are relative to the loaded time range
+		String archiveId = ImportCheckpoint.archiveId(archiveFileName, reader);
+		if (fromTime >= 0 || toTime >= 0) {
+			archiveId += "@" + fromTime + "-" + toTime;
+		}
+		ImportCheckpoint importCheckpoint = new ImportCheckpoint(checkpointFile, archiveId, checkpointInterval);
+		if (cleanDatabaseOnLoad || discardCheckpoint) {
+			importCheckpoint.reset();
+		}
+		return importCheckpoint;
+	}
 
 	/**
-	 * Computes a name for the provided measurement field.
-	 * @param measurementField field to compute the measurement name for.
-	 * @return Returns a measurement name for the provided measurementField
+	 * @return Returns the archive resource instances (e.g. measurements) allowed by the stat filter rules.
 	 */
-	public String getMeasurementFieldName(StatArchiveReader.StatValue measurementField) {
-		return measurementField.getDescriptor().getName();
+	List<StatArchiveReader.ResourceInst> getResourceInsts(StatArchiveReader reader) {
+
+		List<StatArchiveReader.ResourceInst> resourceInsts = new ArrayList<>();
+		for (Object r : reader.getResourceInstList()) {
+
+			final StatArchiveReader.ResourceInst ri = (StatArchiveReader.ResourceInst) r;
+
+			if (!ri.isLoaded() || getMeasurementFields(ri).length == 0) {
+				// Filtered out by the reader, or all its stats are excluded
+				continue;
+			}
+
+			resourceInsts.add(ri);
+		}
+		return resourceInsts;
 	}
 
 	/**
-	 * Extracts the Double value for measurement field and sample index.
-	 * @param measurementField Measurement field to extract value from.
-	 * @param measurementSampleIndex Field contains list of all samples. Use the index to extract the value for the specified one.
-	 * @return Returns the value for the provided field and sample index.
+	 * @return Returns the loaded stat values of the resource instance, without the stats rejected by the filters.
 	 */
-	public double getMeasurementFieldValue(StatArchiveReader.StatValue measurementField, int measurementSampleIndex) {
-		return getCachedSeries(measurementField)[measurementSampleIndex];
+	StatArchiveReader.StatValue[] getMeasurementFields(StatArchiveReader.ResourceInst ri) {
+
+		StatArchiveReader.StatValue[] statValues = ri.getStatValues();
+		if (statFilters == null) {
+			return statValues;
+		}
+
+		List<StatArchiveReader.StatValue> measurementFields = new ArrayList<>(statValues.length);
+		for (StatArchiveReader.StatValue statValue : statValues) {
+			if (statValue != null && isReaderAllowed(ri, statValue) && excludingRule(residualExcludes,
+					ri.getType().getName(), ri.getName(), statValue.getDescriptor().getName()) == null) {
+				measurementFields.add(statValue);
+			}
+		}
+		return measurementFields.toArray(new StatArchiveReader.StatValue[measurementFields.size()]);
 	}
 
-	public boolean allValuesAreZero(StatArchiveReader.StatValue measurementField) {
+	/**
+	 * @return Returns true if the loaded stat value is allowed by the reader stat filters. Only the shared reader of
+	 * an archive session loads the stat values the filters reject.
+	 */
+	private boolean isReaderAllowed(StatArchiveReader.ResourceInst ri, StatArchiveReader.StatValue statValue) {
+		if (archiveSession == null) {
+			return true;
+		}
+		String typeName = ri.getType().getName();
+		String statName = statValue.getDescriptor().getName();
+		for (StatArchiveReader.ValueFilter filter : statFilters) {
+			if (filter.typeMatches(typeName) && filter.instanceMatches(ri.getName(), ri.getId())
+					&& filter.statMatches(statName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Counts the series (resource instance stats) and samples pruned by every exclude rule. The series not matched
+	 * by any include rule are counted under "not included".
+	 */
+	private void countPrunedSeries(StatArchiveReader reader, Set<String> outOfRangeInstances) {
+
+		for (Object r : reader.getResourceInstList()) {
+
+			StatArchiveReader.ResourceInst ri = (StatArchiveReader.ResourceInst) r;
+			if (outOfRangeInstances.contains(TimeRangeFilter.instanceKey(ri.getName(), ri.getId()))) {
+				// Skipped for the loaded time range, not by a stat rule
+				continue;
+			}
+			StatArchiveReader.StatValue[] statValues = ri.isLoaded() ? ri.getStatValues() : null;
 
-		if (!statValueEmpty.containsKey(measurementField)) {
-			statValueEmpty.put(measurementField, areZeros(getCachedSeries(measurementField)));
+			// The reader does not track the samples of the instances it skips. Their sample count spans from the
+			// archive start (it is one too high, as their first sample index is unset), hence it is an upper bound.
+			long sampleCount = ri.isLoaded() ? ri.getSampleCount() : Math.max(0, ri.getSampleCount() - 1);
+
+			StatArchiveReader.StatDescriptor[] stats = ri.getType().getStats();
+			for (int i = 0; i < stats.length; i++) {
+
+				if (stats[i] == null) {
+					continue;
+				}
+				String statName = stats[i].getName();
+
+				String ruleName;
+				if (statName == null) {
+					// The reader drops the names of the stats it rejects, so they are attributed to its stat rules
+					// as a whole
+					ruleName = readerStatRules;
+				}
+				else {
+					if (statValues != null && statValues[i] != null && isReaderAllowed(ri, statValues[i])
+							&& excludingRule(residualExcludes, ri.getType().getName(), ri.getName(), statName) == null) {
+						continue;
+					}
+					StatFilterRule rule = excludingRule(statExcludes, ri.getType().getName(), ri.getName(), statName);
+					ruleName = (rule != null) ? rule.toString() : "not included";
+				}
+				prunedSeriesCounts.merge(ruleName, 1L, Long::sum);
+				prunedSampleCounts.merge(ruleName, sampleCount, Long::sum);
+			}
 		}
 
-		return statValueEmpty.get(measurementField);
+		prunedSeriesCounts.forEach((rule, series) -> LOG.info("Stat filter [" + rule + "] pruned " + series
+				+ " series, " + prunedSampleCounts.get(rule) + " samples"));
 	}
 
-	private boolean areZeros(double[] values) {
-		for (double d : values) {
-			if (d != 0.0d) {
-				return false;
+	private static StatFilterRule excludingRule(List<StatFilterRule> excludes, String typeName, String instanceName,
+			String statName) {
+		for (StatFilterRule exclude : excludes) {
+			if (exclude.matches(typeName, instanceName, statName)) {
+				return exclude;
 			}
 		}
-		return true;
+		return null;
 	}
 
-	private double[] getCachedSeries(StatArchiveReader.StatValue measurementField) {
-		if (!statValueCache.containsKey(measurementField)) {
-//			System.out.println("Cache statistics values for : " + measurementField.getDescriptor().getName());
-			statValueCache.put(measurementField, measurementField.getRawSnapshots());
+	private void loadConcurrently(List<StatArchiveReader.ResourceInst> resourceInsts, List<String> measurementKeys,
+			long fromTime, long toTime) throws IOException {
+
+		AtomicInteger threadCount = new AtomicInteger();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(loadThreads, resourceInsts.size()), r -> {
+			Thread thread = new Thread(r, "measurement-loader-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+
+		try {
+			List<Future<?>> futures = new ArrayList<>();
+			for (int i = 0; i < resourceInsts.size(); i++) {
+				StatArchiveReader.ResourceInst ri = resourceInsts.get(i);
+				String measurementKey = measurementKeys.get(i);
+				futures.add(executor.submit(() -> loadResourceInst(ri, fromTime, toTime, measurementKey)));
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		}
+		catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new IOException("Failed to load archive [" + archiveFileName + "]", e.getCause());
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while loading archive [" + archiveFileName + "]", e);
+		}
+		finally {
+			executor.shutdownNow();
 		}
-		return statValueCache.get(measurementField);
 	}
 
-	public static class StatFilter implements StatArchiveReader.ValueFilter {
-		private final ImmutableSet<String> statTypes;
+	String getMeasurementName(StatArchiveReader.ResourceInst ri) {
+		return ri.getType().getName() + ":" + ri.getName();
+	}
+
+	/**
+	 * Loads the resource instance samples taken at or after the start time and before the end time.
+	 * @param ri Resource instance to load.
+	 * @param startTime Absolute time, in milliseconds, of the first sample to load. If -1 the samples are loaded from
+	 * the first one.
+	 * @param endTime Absolute time, in milliseconds, the loaded samples are taken before. If -1 the samples are loaded
+	 * up to the last one.
+	 * @param measurementKey Unique measurement key used by the import checkpoint. If null the load is not checkpointed.
+	 * @return Returns the time of the last loaded sample or -1 if no samples were loaded.
+	 */
+	long loadResourceInst(StatArchiveReader.ResourceInst ri, long startTime, long endTime, String measurementKey) {
 
-		StatFilter(String[] allowedStatTypes) {
-			statTypes = ImmutableSet.copyOf(allowedStatTypes);
+		if (endTime >= 0 && ri.getFirstTimeMillis() >= endTime) {
+			// Created after the loaded time range
+			return -1L;
 		}
 
-		@Override
-		public boolean archiveMatches(File file) {
-			return true;
+		String measurementName = getMeasurementName(ri);
+
+		StatArchiveReader.StatValue[] measurementFields = getMeasurementFields(ri);
+
+		boolean counterRates = counterMode != CounterMode.RAW;
+		// The counter rates and the value changes are computed from the sample preceding the first loaded one
+		boolean previousSample = counterRates || changeOnly;
+
+		// A partial rollup window is aggregated again from its first sample
+		long loadStartTime = startTime;
+		if (startTime >= 0 && rollupInterval > 0) {
+			loadStartTime = MeasurementRollup.windowStart(startTime, rollupInterval);
+		}
+		if (startTime >= 0 && previousSample) {
+			loadStartTime = Math.min(loadStartTime, startTime - 1);
 		}
 
-		@Override
-		public boolean typeMatches(String s) {
-			return statTypes.contains(s);
+		// Every getRawAbsoluteTimeStamps() call computes a new array, so it is retrieved once per measurement.
+		// The sample indexes passed to the doLoadMeasurement are relative to the loaded time range.
+		boolean timeRange = loadStartTime >= 0 || endTime >= 0;
+		long[] measurementTimestamps = getMeasurementTimestamps(ri, measurementFields[0], loadStartTime, endTime);
+
+		int firstSampleIndex = (startTime < 0) ? 0 : firstIndexAtOrAfter(measurementTimestamps, 0, startTime);
+
+		ImportCheckpoint importCheckpoint = this.importCheckpoint;
+		if (importCheckpoint != null && measurementKey != null && measurementTimestamps.length > 0) {
+			int committedIndex = importCheckpoint.getCommittedIndex(measurementKey);
+			// The samples preceding the time range are read for the rates and the rollup windows only
+			firstSampleIndex = Math.max(firstSampleIndex, committedIndex + 1);
+			if (firstSampleIndex >= measurementTimestamps.length) {
+				LOG.info("Measurement [" + measurementKey + "] is already loaded");
+				return -1L;
+			}
+			if (committedIndex >= 0) {
+				LOG.info("Resume measurement [" + measurementKey + "] at sample " + firstSampleIndex);
+			}
 		}
 
-		@Override
-		public boolean statMatches(String s) {
-			return true;
+		if (firstSampleIndex >= measurementTimestamps.length) {
+			return -1L;
 		}
 
-		@Override
-		public boolean instanceMatches(String s, long l) {
-			return true;
+		MeasurementRollup rollup = null;
+		int loadStartIndex = firstSampleIndex;
+		if (rollupInterval > 0) {
+			rollup = new MeasurementRollup(rollupInterval, measurementFields.length);
+			long rollupWindowStart = MeasurementRollup.windowStart(measurementTimestamps[firstSampleIndex], rollupInterval);
+			loadStartIndex = firstIndexAtOrAfter(measurementTimestamps, 0, rollupWindowStart);
+		}
+		if (previousSample && loadStartIndex == firstSampleIndex && loadStartIndex > 0) {
+			loadStartIndex--;
+		}
+
+		if (startTime < 0) {
+			LOG.info("Measurement [" + measurementName
+					+ "], Samples: " + measurementTimestamps.length
+					+ ", Fields: " + measurementFields.length);
+		}
+
+		// Partial time ranges are always decoded through (trimmed) windows
+		boolean streaming = timeRange || isStreamed(measurementFields.length, measurementTimestamps.length);
+		if (streaming && startTime < 0) {
+			LOG.info("Stream measurement [" + measurementName + "] in windows of " + streamingWindowSize + " samples");
+		}
+
+		MeasurementSeries series = new MeasurementSeries(measurementFields, streaming ? measurementTimestamps : null,
+				metrics);
+		MeasurementProgress progress = new MeasurementProgress(measurementKey, series);
+		if (previousSample) {
+			progress.previousValues = new double[measurementFields.length];
+		}
+		if (counterRates) {
+			progress.rates = new double[measurementFields.length];
+		}
+		if (changeOnly) {
+			progress.changedValues = new boolean[measurementFields.length];
+			progress.changedRates = new boolean[measurementFields.length];
+			// Over a partial time range (e.g. follow mode) a series can not be told constant
+			progress.constantSeriesOnce = !timeRange;
+		}
+		measurementProgress.set(progress);
+
+		doPrepareMeasurementLoad();
+
+		int windowStart = loadStartIndex;
+		while (windowStart < measurementTimestamps.length) {
+
+			int windowEnd = measurementTimestamps.length;
+			if (streaming) {
+				windowEnd = nextWindowEnd(measurementTimestamps, windowStart);
+				series.startWindow(windowStart);
+				for (int fieldIndex = 0; fieldIndex < measurementFields.length; fieldIndex++) {
+					series.setValues(fieldIndex, decodeWindow(measurementFields[fieldIndex], measurementTimestamps,
+							windowStart, windowEnd));
+				}
+			}
+
+			for (int measurementIndex = windowStart; measurementIndex < windowEnd; measurementIndex++) {
+
+				long measurementTimestamp = measurementTimestamps[measurementIndex];
+
+				if (progress.previousValues != null) {
+					updatePreviousSample(progress, measurementFields, measurementIndex, measurementTimestamp);
+				}
+
+				if (rollup != null) {
+					if (rollup.isWindowComplete(measurementTimestamp)) {
+						progress.lastSampleIndex = measurementIndex - 1;
+						loadRollup(measurementName, ri.getType().getName(), measurementFields, rollup);
+					}
+					rollup.startSample(measurementTimestamp);
+					for (int fieldIndex = 0; fieldIndex < measurementFields.length; fieldIndex++) {
+						StatArchiveReader.StatValue measurementField = measurementFields[fieldIndex];
+						// Counters loaded as rates only are rolled up as rates
+						rollup.add(fieldIndex, isRawField(measurementField) ?
+								getFieldValue(series, fieldIndex, measurementIndex) : progress.rates[fieldIndex]);
+					}
+				}
+
+				if (measurementIndex >= firstSampleIndex) {
+					progress.lastSampleIndex = measurementIndex;
+					if (rollup == null || rollupFullResolution) {
+						doLoadMeasurement(measurementName, ri.getType().getName(), measurementIndex,
+								measurementTimestamp, measurementFields);
+					}
+				}
+			}
+			windowStart = windowEnd;
+		}
+
+		if (rollup != null && rollup.getSampleCount() > 0) {
+			// The last, possibly partial, window
+			loadRollup(measurementName, ri.getType().getName(), measurementFields, rollup);
+		}
+
+		doCompleteMeasurementLoad();
+		measurementProgress.remove();
+
+		// Release the decoded samples, no longer needed once the measurement is loaded
+		series.release();
+
+		metrics.recordMeasurement(measurementTimestamps.length - firstSampleIndex);
+
+		return measurementTimestamps[measurementTimestamps.length - 1];
+	}
+
+	private long[] getMeasurementTimestamps(StatArchiveReader.ResourceInst ri,
+			StatArchiveReader.StatValue measurementField, long startTime, long endTime) {
+
+		if (archiveSession != null) {
+			// The session caches the timestamps of the whole archive, the time range is a slice of them
+			long[] timestamps = archiveSession.getTimestamps(ri);
+			if (startTime < 0 && endTime < 0) {
+				return timestamps;
+			}
+			int startIndex = (startTime < 0) ? 0 : firstIndexAtOrAfter(timestamps, 0, startTime);
+			int endIndex = (endTime < 0) ? timestamps.length : firstIndexAtOrAfter(timestamps, startIndex, endTime);
+			return Arrays.copyOfRange(timestamps, startIndex, endIndex);
+		}
+		return (startTime < 0 && endTime < 0) ? measurementField.getRawAbsoluteTimeStamps()
+				: measurementField.createTrimmed(startTime, endTime).getRawAbsoluteTimeStamps();
+	}
+
+	private void updatePreviousSample(MeasurementProgress progress, StatArchiveReader.StatValue[] measurementFields,
+			int measurementIndex, long measurementTimestamp) {
+
+		boolean firstSample = progress.previousTimestamp < 0;
+		long timeDelta = measurementTimestamp - progress.previousTimestamp;
+		boolean heartbeat = !firstSample && changeOnlyHeartbeat > 0
+				&& MeasurementRollup.windowStart(measurementTimestamp, changeOnlyHeartbeat)
+				!= MeasurementRollup.windowStart(progress.previousTimestamp, changeOnlyHeartbeat);
+
+		for (int fieldIndex = 0; fieldIndex < measurementFields.length; fieldIndex++) {
+
+			StatArchiveReader.StatValue measurementField = measurementFields[fieldIndex];
+			boolean rateField = progress.rates != null && isRateField(measurementField);
+			if (progress.changedValues == null && !rateField) {
+				continue;
+			}
+
+			double value = getFieldValue(progress.series, fieldIndex, measurementIndex);
+
+			// Series constant over the whole archive are written once, without heartbeats
+			boolean fieldHeartbeat = heartbeat
+					&& !(progress.constantSeriesOnce && isConstantSeries(progress.series, fieldIndex));
+
+			if (rateField) {
+				double valueDelta = value - progress.previousValues[fieldIndex];
+				// A counter only decreases when it is reset (e.g. the resource is recreated). The first sample after a
+				// reset, like the first sample of the measurement, has no rate.
+				double rate = (firstSample || timeDelta <= 0 || valueDelta < 0) ?
+						Double.NaN : valueDelta * 1000.0 / timeDelta;
+				if (progress.changedRates != null) {
+					progress.changedRates[fieldIndex] = firstSample || fieldHeartbeat
+							|| Double.compare(rate, progress.rates[fieldIndex]) != 0;
+				}
+				progress.rates[fieldIndex] = rate;
+			}
+
+			if (progress.changedValues != null) {
+				progress.changedValues[fieldIndex] = firstSample || fieldHeartbeat
+						|| Double.compare(value, progress.previousValues[fieldIndex]) != 0;
+			}
+			progress.previousValues[fieldIndex] = value;
+		}
+		progress.previousTimestamp = measurementTimestamp;
+	}
+
+	private void loadRollup(String measurementName, String measurementType,
+			StatArchiveReader.StatValue[] measurementFields, MeasurementRollup rollup) {
+		doLoadRollup(measurementName, measurementType, rollup.getWindowTimestamp(), measurementFields, rollup);
+		rollup.reset();
+	}
+
+	/**
+	 * @param loadThreads Number of threads used to convert the archive measurements concurrently. Defaults to 1.
+	 */
+	@Value("${loadThreads}")
+	public void setLoadThreads(int loadThreads) {
+		this.loadThreads = loadThreads;
+	}
+
+	int getLoadThreads() {
+		return loadThreads;
+	}
+
+	/**
+	 * @param streamingLoad If true all measurements are decoded in windows of samples, regardless of their size.
+	 */
+	@Value("${streamingLoad}")
+	public void setStreamingLoad(boolean streamingLoad) {
+		this.streamingLoad = streamingLoad;
+	}
+
+	/**
+	 * @param streamingWindowSize Number of samples decoded at once by the streaming load. Defaults to 10000.
+	 */
+	@Value("${streamingWindowSize}")
+	public void setStreamingWindowSize(int streamingWindowSize) {
+		Assert.isTrue(streamingWindowSize > 0, "Positive streamingWindowSize is required!");
+		this.streamingWindowSize = streamingWindowSize;
+	}
+
+	int getStreamingWindowSize() {
+		return streamingWindowSize;
+	}
+
+	/**
+	 * @param streamingMemoryCeiling Maximum size, in bytes, of the decoded samples held by the concurrently loaded
+	 * measurements. Larger measurements are streamed. If 0 a quarter of the maximum heap size is used.
+	 */
+	@Value("${streamingMemoryCeiling}")
+	public void setStreamingMemoryCeiling(long streamingMemoryCeiling) {
+		this.streamingMemoryCeiling = streamingMemoryCeiling;
+	}
+
+	/**
+	 * @param statIncludes Rules ({@code type=<pattern>&instance=<pattern>&stat=<pattern>}) of the statistics to load,
+	 * in addition to the allowed stat types. If empty all statistics not excluded are loaded.
+	 */
+	@Value("${statIncludes}")
+	public void setStatIncludes(String[] statIncludes) {
+		this.statIncludes = new ArrayList<>();
+		if (allowStatTypes != null) {
+			for (String allowStatType : allowStatTypes) {
+				this.statIncludes.add(StatFilterRule.forType(allowStatType));
+			}
+		}
+		for (String rule : statIncludes) {
+			this.statIncludes.add(StatFilterRule.parse(rule, true));
+		}
+		buildStatFilters();
+	}
+
+	/**
+	 * @param statExcludes Rules ({@code type=<pattern>&instance=<pattern>&stat=<pattern>}) of the statistics not to
+	 * load, even if included.
+	 */
+	@Value("${statExcludes}")
+	public void setStatExcludes(String[] statExcludes) {
+		this.statExcludes = Arrays.stream(statExcludes).map(rule -> StatFilterRule.parse(rule, false))
+				.collect(Collectors.toList());
+		buildStatFilters();
+	}
+
+	/**
+	 * @return Returns the number of series (resource instance stats) pruned by every stat filter rule during the
+	 * last load() call.
+	 */
+	public Map<String, Long> getPrunedSeriesCounts() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(prunedSeriesCounts));
+	}
+
+	/**
+	 * @return Returns the number of samples pruned by every stat filter rule during the last load() call. For the
+	 * pruned resource instances this is an upper bound.
+	 */
+	public Map<String, Long> getPrunedSampleCounts() {
+		return Collections.unmodifiableMap(new LinkedHashMap<>(prunedSampleCounts));
+	}
+
+	/**
+	 * @param rollupInterval Length, in milliseconds, of the rollup windows. If 0 the samples are not rolled up.
+	 */
+	@Value("${rollupInterval}")
+	public void setRollupInterval(long rollupInterval) {
+		this.rollupInterval = rollupInterval;
+	}
+
+	/**
+	 * @param rollupFullResolution If false only the rollup windows are loaded, without the individual samples.
+	 */
+	@Value("${rollupFullResolution}")
+	public void setRollupFullResolution(boolean rollupFullResolution) {
+		this.rollupFullResolution = rollupFullResolution;
+	}
+
+	/**
+	 * @param rollupAggregates Names of the aggregates (min, max, mean, last) to load for every rollup window.
+	 */
+	@Value("${rollupAggregates}")
+	public void setRollupAggregates(String[] rollupAggregates) {
+		Assert.notEmpty(rollupAggregates, "Not empty rollupAggregates is required!");
+		this.rollupAggregates = Arrays.stream(rollupAggregates)
+				.map(aggregate -> MeasurementRollup.Aggregate.valueOf(aggregate.trim().toUpperCase()))
+				.toArray(MeasurementRollup.Aggregate[]::new);
+	}
+
+	/**
+	 * @return Returns the aggregates to load for every rollup window.
+	 */
+	public MeasurementRollup.Aggregate[] getRollupAggregates() {
+		return rollupAggregates;
+	}
+
+	public boolean isRollupEnabled() {
+		return rollupInterval > 0;
+	}
+
+	/**
+	 * Rejects an enabled rollup on a loader without rollup support, before anything is loaded.
+	 */
+	void assertRollupSupported() {
+		Assert.isTrue(!isRollupEnabled() || isRollupSupported(),
+				getClass().getSimpleName() + " does not support rollups!");
+	}
+
+	/**
+	 * @param counterMode How the counter statistics (e.g. gets, puts) are loaded: raw, rate or both.
+	 */
+	@Value("${counterMode}")
+	public void setCounterMode(String counterMode) {
+		Assert.hasText(counterMode, "Not empty counterMode is required!");
+		this.counterMode = CounterMode.valueOf(counterMode.trim().toUpperCase());
+	}
+
+	/**
+	 * @param changeOnly If true a field value is loaded only when it differs from the previous sample, at the first
+	 * sample and at every heartbeat.
+	 */
+	@Value("${changeOnly}")
+	public void setChangeOnly(boolean changeOnly) {
+		this.changeOnly = changeOnly;
+	}
+
+	/**
+	 * @param changeOnlyHeartbeat Interval, in milliseconds, at which the unchanged values are loaded again in change
+	 * only mode. If 0 the unchanged values are never repeated.
+	 */
+	@Value("${changeOnlyHeartbeat}")
+	public void setChangeOnlyHeartbeat(long changeOnlyHeartbeat) {
+		this.changeOnlyHeartbeat = changeOnlyHeartbeat;
+	}
+
+	/**
+	 * @param checkpoint If true the load progress is recorded in a checkpoint file and an interrupted load is
+	 * resumed after the last committed sample of every measurement.
+	 */
+	@Value("${checkpoint}")
+	public void setCheckpoint(boolean checkpoint) {
+		this.checkpoint = checkpoint;
+	}
+
+	public boolean isCheckpoint() {
+		return checkpoint;
+	}
+
+	/**
+	 * @param checkpointDirectory Directory of the checkpoint files. If empty the archive directory is used.
+	 */
+	@Value("${checkpointDirectory}")
+	public void setCheckpointDirectory(String checkpointDirectory) {
+		this.checkpointDirectory = checkpointDirectory;
+	}
+
+	/**
+	 * @param checkpointInterval Minimum time, in milliseconds, between two checkpoint file updates.
+	 */
+	@Value("${checkpointInterval}")
+	public void setCheckpointInterval(long checkpointInterval) {
+		this.checkpointInterval = checkpointInterval;
+	}
+
+	/**
+	 * @param loadFrom Time of the first sample to load, as an ISO-8601 instant (e.g. 2017-07-14T02:40:00Z) or
+	 * milliseconds since the epoch. If empty the samples are loaded from the archive start.
+	 */
+	@Value("${loadFrom}")
+	public void setLoadFrom(String loadFrom) {
+		this.loadFrom = parseTime(loadFrom);
+	}
+
+	/**
+	 * @param loadTo Time the loaded samples are taken before, as an ISO-8601 instant or milliseconds since the epoch.
+	 * If empty the samples are loaded up to the archive end.
+	 */
+	@Value("${loadTo}")
+	public void setLoadTo(String loadTo) {
+		this.loadTo = parseTime(loadTo);
+	}
+
+	long getLoadFrom() {
+		return loadFrom;
+	}
+
+	long getLoadTo() {
+		return loadTo;
+	}
+
+	/**
+	 * @return Returns the milliseconds since the epoch of an ISO-8601 instant or milliseconds text, -1 if empty.
+	 */
+	static long parseTime(String time) {
+		if (!StringUtils.hasText(time)) {
+			return -1L;
+		}
+		String trimmed = time.trim();
+		try {
+			return trimmed.chars().allMatch(Character::isDigit) ? Long.parseLong(trimmed)
+					: Instant.parse(trimmed).toEpochMilli();
+		}
+		catch (DateTimeParseException | NumberFormatException e) {
+			throw new IllegalArgumentException("Not an ISO-8601 instant or epoch milliseconds time: " + time, e);
+		}
+	}
+
+	/**
+	 * @param archiveCatalog If true the archive is cataloged in a {@code <archive>.catalog} sidecar file (built on the
+	 * first load), used to skip the archive or the resource instances without samples matching the stat filters and
+	 * the loaded time range.
+	 */
+	@Value("${archiveCatalog}")
+	public void setArchiveCatalog(boolean archiveCatalog) {
+		this.archiveCatalog = archiveCatalog;
+	}
+
+	/**
+	 * @param archiveSession Parsed archive of the loaded archive file, shared with other loads. If null every load
+	 * parses the archive file.
+	 */
+	public void setArchiveSession(ArchiveSession archiveSession) {
+		Assert.isTrue(archiveSession == null || archiveSession.getArchiveFile().equals(archiveFileName),
+				"The archive session must be of the loaded archive file!");
+		this.archiveSession = archiveSession;
+	}
+
+	/**
+	 * Copies the optional load settings of this loader to another loader instance.
+	 * @param loader Target loader to configure.
+	 */
+	protected void copyLoadSettingsTo(AbstractStatisticsTSDBLoader loader) {
+		loader.setLoadThreads(loadThreads);
+		loader.statIncludes = statIncludes;
+		loader.statExcludes = statExcludes;
+		loader.buildStatFilters();
+		loader.setStreamingLoad(streamingLoad);
+		loader.setStreamingWindowSize(streamingWindowSize);
+		loader.setStreamingMemoryCeiling(streamingMemoryCeiling);
+		loader.setRollupInterval(rollupInterval);
+		loader.setRollupFullResolution(rollupFullResolution);
+		loader.rollupAggregates = rollupAggregates;
+		loader.counterMode = counterMode;
+		loader.setChangeOnly(changeOnly);
+		loader.setChangeOnlyHeartbeat(changeOnlyHeartbeat);
+		loader.setCheckpoint(checkpoint);
+		loader.setCheckpointDirectory(checkpointDirectory);
+		loader.setCheckpointInterval(checkpointInterval);
+		loader.loadFrom = loadFrom;
+		loader.loadTo = loadTo;
+		loader.setArchiveCatalog(archiveCatalog);
+	}
+
+	/**
+	 * Creates a new loader, with the same settings as this one, for another archive file. The returned loader
+	 * never cleans the target database, as it is expected to share it with the other archives being loaded.
+	 * @param archiveFile The Apache Geode (GemFire) statistics archive file to load
+	 * @param geodeMemberName Unique name used to distinct the statistics in this archive
+	 * @return Returns a new loader instance bound to the provided archive file.
+	 */
+	protected abstract AbstractStatisticsTSDBLoader forArchive(File archiveFile, String geodeMemberName);
+
+	/**
+	 * @return Returns the number of measurements (e.g. resource instances) loaded by the last load() call.
+	 */
+	public long getLoadedMeasurementCount() {
+		return metrics.getLoadedMeasurements();
+	}
+
+	/**
+	 * @return Returns the number of measurement samples loaded by the last load() call.
+	 */
+	public long getLoadedSampleCount() {
+		return metrics.getLoadedSamples();
+	}
+
+	/**
+	 * @return Returns the metrics of the current, or last, load. The sinks record their batch writes into it.
+	 */
+	public LoadMetrics getMetrics() {
+		return metrics;
+	}
+
+	abstract protected void doCreateEmptyDatabase();
+
+	/**
+	 * Called once at the beginning of every load(), before any measurement is loaded.
+	 */
+	protected void doStartLoad() {
+	}
+
+	/**
+	 * Called once at the end of every load(), after all measurements are loaded or the load has failed.
+	 * Implementations should flush any pending writes.
+	 */
+	protected void doCompleteLoad() {
+	}
+
+	/**
+	 * Called by the follow mode after every poll of the archive. Implementations should block until all pending
+	 * writes are stored.
+	 */
+	protected void doFlush() {
+	}
+
+	abstract protected void doPrepareMeasurementLoad();
+
+	abstract protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
+			long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields);
+
+	abstract protected void doCompleteMeasurementLoad();
+
+	/**
+	 * Loads the aggregates of a measurement rollup window. Called, when the rollup is enabled, between the
+	 * {@link #doPrepareMeasurementLoad()} and {@link #doCompleteMeasurementLoad()} calls once all the window
+	 * samples are aggregated.
+	 * @param measurementName Measurement name.
+	 * @param measurementType Measurement type name.
+	 * @param windowTimestamp Window start time in milliseconds.
+	 * @param measurementFields Measurement fields. The rollup aggregates are indexed by the field position.
+	 * @param rollup Aggregated window values.
+	 */
+	protected void doLoadRollup(String measurementName, String measurementType, long windowTimestamp,
+			StatArchiveReader.StatValue[] measurementFields, MeasurementRollup rollup) {
+		// Not called unless supported, the loads with the rollup enabled are rejected up front
+		Assert.state(isRollupSupported(), getClass().getSimpleName() + " does not support rollups");
+	}
+
+	/**
+	 * @return Returns true if the loader implements {@link #doLoadRollup}, so can be loaded with the rollup enabled.
+	 */
+	protected boolean isRollupSupported() {
+		return false;
+	}
+
+	/**
+	 * @return Returns true if the loader implements {@link #doLoadClusterAggregate}, so can be used by the
+	 * {@link ClusterAggregator}.
+	 */
+	protected boolean isClusterAggregateSupported() {
+		return false;
+	}
+
+	/**
+	 * Loads the aggregates across the cluster members of a measurement at a time grid point. Called by the
+	 * {@link ClusterAggregator} between the {@link #doPrepareMeasurementLoad()} and
+	 * {@link #doCompleteMeasurementLoad()} calls.
+	 * @param measurementName Cluster measurement name.
+	 * @param measurementType Measurement type name.
+	 * @param timestamp Grid point time in milliseconds.
+	 * @param fieldNames Aggregate field names, the same array for all the points of the measurement. Null names are
+	 * skipped.
+	 * @param values Aggregate values, indexed as the field names. NaN values are skipped.
+	 */
+	protected void doLoadClusterAggregate(String measurementName, String measurementType, long timestamp,
+			String[] fieldNames, double[] values) {
+		// Not called unless supported, the ClusterAggregator rejects the other loaders up front
+		Assert.state(isClusterAggregateSupported(), getClass().getSimpleName() + " does not support cluster aggregates");
+	}
+
+	/**
+	 * Registers a batch holding the samples of the current measurement loaded so far. Must be called by the loading
+	 * thread, from the {@link #doLoadMeasurement} or {@link #doCompleteMeasurementLoad()}.
+	 * @return Returns a callback to run once the batch is durably written. It commits the batch samples to the
+	 * import checkpoint, if any.
+	 */
+	protected Runnable measurementCommit() {
+
+		ImportCheckpoint importCheckpoint = this.importCheckpoint;
+		MeasurementProgress progress = measurementProgress.get();
+		if (importCheckpoint == null || progress == null || progress.measurementKey == null) {
+			return NO_COMMIT;
+		}
+
+		String measurementKey = progress.measurementKey;
+		int lastSampleIndex = progress.lastSampleIndex;
+		importCheckpoint.submitted(measurementKey, lastSampleIndex);
+		return () -> importCheckpoint.committed(measurementKey, lastSampleIndex);
+	}
+
+	/**
+	 * Computes a name for the provided measurement field.
+	 * @param measurementField field to compute the measurement name for.
+	 * @return Returns a measurement name for the provided measurementField
+	 */
+	public String getMeasurementFieldName(StatArchiveReader.StatValue measurementField) {
+		return measurementField.getDescriptor().getName();
+	}
+
+	/**
+	 * @param measurementField Counter measurement field.
+	 * @return Returns the name of the field holding the per second rate of the counter.
+	 */
+	public String getMeasurementRateFieldName(StatArchiveReader.StatValue measurementField) {
+		return getMeasurementFieldName(measurementField) + "_rate";
+	}
+
+	/**
+	 * @return Returns true if the raw values of the field are loaded. Only the counters loaded as rates are not.
+	 */
+	public boolean isRawField(StatArchiveReader.StatValue measurementField) {
+		return counterMode != CounterMode.RATE || !measurementField.getDescriptor().isCounter();
+	}
+
+	/**
+	 * @return Returns true if the per second rate of the field is loaded (e.g. the field is a counter).
+	 */
+	public boolean isRateField(StatArchiveReader.StatValue measurementField) {
+		return counterMode != CounterMode.RAW && measurementField.getDescriptor().isCounter();
+	}
+
+	/**
+	 * Returns the per second rate of a counter field at the sample being loaded, computed from the previous sample.
+	 * Only valid within the {@link #doLoadMeasurement} call.
+	 * @param fieldIndex Index of the counter in the measurement fields.
+	 * @return Returns the rate or NaN if the sample has no rate (e.g. the first sample or a counter reset).
+	 */
+	public double getMeasurementFieldRate(int fieldIndex) {
+		return measurementProgress.get().rates[fieldIndex];
+	}
+
+	/**
+	 * Tells, in change only mode, whether the value of a field has to be loaded at the sample being loaded. Only
+	 * valid within the {@link #doLoadMeasurement} call.
+	 * @param fieldIndex Index of the field in the measurement fields.
+	 * @return Returns true if the value changed since the previous sample, at the first sample, at a heartbeat, or
+	 * if the change only mode is disabled. Always true when the sink is called outside of a load (e.g. benchmarks).
+	 */
+	public boolean isFieldChanged(int fieldIndex) {
+		MeasurementProgress progress = measurementProgress.get();
+		return progress == null || progress.changedValues == null || progress.changedValues[fieldIndex];
+	}
+
+	/**
+	 * Same as {@link #isFieldChanged(int)} for the rate of a counter field.
+	 */
+	public boolean isRateChanged(int fieldIndex) {
+		MeasurementProgress progress = measurementProgress.get();
+		return progress == null || progress.changedRates == null || progress.changedRates[fieldIndex];
+	}
+
+	/**
+	 * Extracts the Double value for measurement field and sample index.
+	 * @param measurementField Measurement field to extract value from.
+	 * @param measurementSampleIndex Field contains list of all samples. Use the index to extract the value for the specified one.
+	 * @return Returns the value for the provided field and sample index.
+	 */
+	public double getMeasurementFieldValue(StatArchiveReader.StatValue measurementField, int measurementSampleIndex) {
+		MeasurementProgress progress = measurementProgress.get();
+		if (progress != null) {
+			int fieldIndex = progress.series.indexOf(measurementField);
+			if (fieldIndex >= 0) {
+				return getFieldValue(progress.series, fieldIndex, measurementSampleIndex);
+			}
+		}
+		MeasurementSeries series = getDetachedSeries(measurementField);
+		return getFieldValue(series, 0, measurementSampleIndex);
+	}
+
+	/**
+	 * @param measurementField Measurement field to check.
+	 * @return Returns true if all loaded samples (e.g. the whole archive or the new samples in follow mode) of the
+	 * field are zero.
+	 */
+	public boolean allValuesAreZero(StatArchiveReader.StatValue measurementField) {
+		MeasurementProgress progress = measurementProgress.get();
+		if (progress != null) {
+			int fieldIndex = progress.series.indexOf(measurementField);
+			if (fieldIndex >= 0) {
+				return isZeroSeries(progress.series, fieldIndex);
+			}
+		}
+		return isZeroSeries(getDetachedSeries(measurementField), 0);
+	}
+
+	/**
+	 * @param measurementField Measurement field to check.
+	 * @return Returns true if all loaded samples of the field have the same value.
+	 */
+	public boolean allValuesAreConstant(StatArchiveReader.StatValue measurementField) {
+		MeasurementProgress progress = measurementProgress.get();
+		if (progress != null) {
+			int fieldIndex = progress.series.indexOf(measurementField);
+			if (fieldIndex >= 0) {
+				return isConstantSeries(progress.series, fieldIndex);
+			}
+		}
+		return isConstantSeries(getDetachedSeries(measurementField), 0);
+	}
+
+	/**
+	 * @return Returns the series of a field looked up outside of its measurement load (e.g. benchmarks), holding the
+	 * field alone. It is decoded on demand and kept until the next load.
+	 */
+	private MeasurementSeries getDetachedSeries(StatArchiveReader.StatValue measurementField) {
+		MeasurementSeries series = detachedSeries.get(measurementField);
+		if (series == null) {
+			series = detachedSeries.computeIfAbsent(measurementField,
+					field -> new MeasurementSeries(new StatArchiveReader.StatValue[] { field }, null, metrics));
+		}
+		return series;
+	}
+
+	private double getFieldValue(MeasurementSeries series, int fieldIndex, int measurementSampleIndex) {
+		double[] values = series.getValues(fieldIndex);
+		if (values == null) {
+			values = decodeSeries(series, fieldIndex);
+		}
+		return values[measurementSampleIndex - series.getFirstSampleIndex()];
+	}
+
+	private boolean isZeroSeries(MeasurementSeries series, int fieldIndex) {
+		if (!series.isShapeKnown(fieldIndex)) {
+			computeShape(series, fieldIndex);
+		}
+		return series.isZero(fieldIndex);
+	}
+
+	private boolean isConstantSeries(MeasurementSeries series, int fieldIndex) {
+		if (!series.isShapeKnown(fieldIndex)) {
+			computeShape(series, fieldIndex);
+		}
+		return series.isConstant(fieldIndex);
+	}
+
+	private double[] decodeSeries(MeasurementSeries series, int fieldIndex) {
+		long decodeStart = System.nanoTime();
+		double[] values = (archiveSession != null) ? archiveSession.getValues(series.getField(fieldIndex))
+				: series.getField(fieldIndex).getRawSnapshots();
+		metrics.recordDecode(values.length, System.nanoTime() - decodeStart);
+		series.setValues(fieldIndex, values);
+		return values;
+	}
+
+	private void computeShape(MeasurementSeries series, int fieldIndex) {
+		SeriesShape shape = SeriesShape.ZERO;
+		long[] timestamps = series.getTimestamps();
+		if (timestamps == null) {
+			double[] values = series.getValues(fieldIndex);
+			if (values == null) {
+				values = decodeSeries(series, fieldIndex);
+			}
+			shape = SeriesShape.of(values, shape, values.length > 0 ? values[0] : 0);
+		}
+		else {
+			// Streamed series are scanned window by window
+			double firstValue = 0;
+			for (int windowStart = 0; windowStart < timestamps.length && shape != SeriesShape.VARYING; ) {
+				int windowEnd = nextWindowEnd(timestamps, windowStart);
+				double[] values = decodeWindow(series.getField(fieldIndex), timestamps, windowStart, windowEnd);
+				if (windowStart == 0 && values.length > 0) {
+					firstValue = values[0];
+				}
+				shape = SeriesShape.of(values, shape, firstValue);
+				windowStart = windowEnd;
+			}
+		}
+		series.setShape(fieldIndex, shape == SeriesShape.ZERO, shape != SeriesShape.VARYING);
+	}
+
+	private boolean isStreamed(int fieldCount, int sampleCount) {
+		if (streamingLoad) {
+			return true;
+		}
+		long memoryCeiling = (streamingMemoryCeiling > 0) ? streamingMemoryCeiling : Runtime.getRuntime().maxMemory() / 4;
+		// Every concurrently loaded measurement holds its own decoded samples
+		return 8L * fieldCount * sampleCount * Math.max(1, loadThreads) > memoryCeiling;
+	}
+
+	/**
+	 * @return Returns the index of the first timestamp at or after the time, found by a binary search of the sorted
+	 * timestamps from the start index, or the timestamps length if none.
+	 */
+	static int firstIndexAtOrAfter(long[] timestamps, int startIndex, long time) {
+		int low = startIndex;
+		int high = timestamps.length;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (timestamps[middle] < time) {
+				low = middle + 1;
+			}
+			else {
+				high = middle;
+			}
+		}
+		return low;
+	}
+
+	private int nextWindowEnd(long[] timestamps, int windowStart) {
+		int windowEnd = (int) Math.min((long) windowStart + streamingWindowSize, timestamps.length);
+		// The windows are selected by time, so samples with the same timestamp must not be split
+		if (windowEnd < timestamps.length && timestamps[windowEnd] == timestamps[windowEnd - 1]) {
+			windowEnd = firstIndexAtOrAfter(timestamps, windowEnd, timestamps[windowEnd - 1] + 1);
+		}
+		return windowEnd;
+	}
+
+	private double[] decodeWindow(StatArchiveReader.StatValue measurementField, long[] timestamps, int windowStart,
+			int windowEnd) {
+
+		// The trimmed value decodes only the samples within [start, end) time range. The window ends right after its
+		// last sample, so the samples following a time range end are not decoded either
+		long decodeStart = System.nanoTime();
+		double[] values;
+		if (archiveSession != null) {
+			// The window is copied from the cached values of the whole series
+			long[] seriesTimestamps = archiveSession.getTimestamps(measurementField);
+			int seriesStart = firstIndexAtOrAfter(seriesTimestamps, 0, timestamps[windowStart]);
+			values = Arrays.copyOfRange(archiveSession.getValues(measurementField), seriesStart,
+					Math.min(seriesStart + windowEnd - windowStart, seriesTimestamps.length));
+		}
+		else {
+			StatArchiveReader.StatValue window = measurementField.createTrimmed(timestamps[windowStart],
+					timestamps[windowEnd - 1] + 1);
+			values = window.getRawSnapshots();
+		}
+		metrics.recordDecode(values.length, System.nanoTime() - decodeStart);
+		if (values.length != windowEnd - windowStart) {
+			throw new IllegalStateException("Expected " + (windowEnd - windowStart) + " samples of ["
+					+ measurementField.getDescriptor().getName() + "] in window [" + windowStart + ", " + windowEnd
+					+ ") but found " + values.length);
+		}
+		return values;
+	}
+
+	/**
+	 * Checkpoint key, decoded series and last loaded sample index of the measurement being loaded by a thread.
+	 */
+	private static class MeasurementProgress {
+
+		final String measurementKey;
+
+		// Decoded samples of the measurement fields
+		final MeasurementSeries series;
+
+		int lastSampleIndex = -1;
+
+		// Values of the previous sample, null if neither the rates nor the changes are computed
+		double[] previousValues;
+
+		long previousTimestamp = -1;
+
+		// Counter rates at the current sample, null if the rates are not loaded
+		double[] rates;
+
+		// Fields changed at the current sample, null if all samples are loaded
+		boolean[] changedValues;
+
+		boolean[] changedRates;
+
+		boolean constantSeriesOnce;
+
+		MeasurementProgress(String measurementKey, MeasurementSeries series) {
+			this.measurementKey = measurementKey;
+			this.series = series;
+		}
+	}
+
+	/**
+	 * Shape of the loaded samples of a series.
+	 */
+	private enum SeriesShape {
+
+		ZERO, CONSTANT, VARYING;
+
+		/**
+		 * @return Returns the shape of the series continued by the provided values.
+		 */
+		static SeriesShape of(double[] values, SeriesShape shape, double firstValue) {
+			for (double value : values) {
+				if (shape == ZERO && value != 0.0d) {
+					shape = CONSTANT;
+				}
+				if (shape == CONSTANT && Double.compare(value, firstValue) != 0) {
+					return VARYING;
+				}
+			}
+			return shape;
+		}
+	}
+
+	/**
+	 * How the counter statistics, flagged by their descriptor, are loaded.
+	 */
+	public enum CounterMode {
+
+		/** Raw absolute values. */
+		RAW,
+
+		/** Per second rates only. */
+		RATE,
+
+		/** Raw values and per second rates. */
+		BOTH
+	}
+
+	/**
+	 * Action run by {@link #execute(LoadAction)}.
+	 */
+	interface LoadAction {
+
+		void run() throws IOException;
+	}
+
+	/**
+	 * Reader filter of one include rule, narrowed by the single dimension exclude rules. A null include matches all.
+	 */
+	public static class StatFilter implements StatArchiveReader.ValueFilter {
+
+		private final StatFilterRule include;
+
+		private final List<StatFilterRule> excludes;
+
+		StatFilter(StatFilterRule include, List<StatFilterRule> excludes) {
+			this.include = include;
+			this.excludes = excludes;
+		}
+
+		@Override
+		public boolean archiveMatches(File file) {
+			return true;
+		}
+
+		@Override
+		public boolean typeMatches(String typeName) {
+			if (include != null && !include.matchesType(typeName)) {
+				return false;
+			}
+			return excludes.stream().noneMatch(exclude -> exclude.hasType() && exclude.matchesType(typeName));
+		}
+
+		@Override
+		public boolean statMatches(String statName) {
+			if (include != null && !include.matchesStat(statName)) {
+				return false;
+			}
+			return excludes.stream().noneMatch(exclude -> exclude.hasStat() && exclude.matchesStat(statName));
+		}
+
+		@Override
+		public boolean instanceMatches(String instanceName, long instanceId) {
+			if (include != null && !include.matchesInstance(instanceName)) {
+				return false;
+			}
+			return excludes.stream().noneMatch(
+					exclude -> exclude.hasInstance() && exclude.matchesInstance(instanceName));
+		}
+	}
+
+	/**
+	 * Reader filter rejecting the resource instances without samples in the loaded time range. Narrows a stat filter,
+	 * or matches all the other statistics if null.
+	 */
+	private static class TimeRangeFilter implements StatArchiveReader.ValueFilter {
+
+		private final StatArchiveReader.ValueFilter filter;
+
+		private final Set<String> outOfRangeInstances;
+
+		TimeRangeFilter(StatArchiveReader.ValueFilter filter, Set<String> outOfRangeInstances) {
+			this.filter = filter;
+			this.outOfRangeInstances = outOfRangeInstances;
+		}
+
+		static StatArchiveReader.ValueFilter[] narrow(StatArchiveReader.ValueFilter[] filters,
+				Set<String> outOfRangeInstances) {
+			if (filters == null) {
+				return new StatArchiveReader.ValueFilter[] { new TimeRangeFilter(null, outOfRangeInstances) };
+			}
+			return Stream.of(filters).map(filter -> new TimeRangeFilter(filter, outOfRangeInstances))
+					.toArray(StatArchiveReader.ValueFilter[]::new);
+		}
+
+		/**
+		 * @return Returns the key of a resource instance. The reader filters are not given the instance type.
+		 */
+		static String instanceKey(String instanceName, long instanceId) {
+			return instanceName + '\u0000' + instanceId;
+		}
+
+		@Override
+		public boolean archiveMatches(File file) {
+			return true;
+		}
+
+		@Override
+		public boolean typeMatches(String typeName) {
+			return filter == null || filter.typeMatches(typeName);
+		}
+
+		@Override
+		public boolean statMatches(String statName) {
+			return filter == null || filter.statMatches(statName);
+		}
+
+		@Override
+		public boolean instanceMatches(String instanceName, long instanceId) {
+			return !outOfRangeInstances.contains(instanceKey(instanceName, instanceId))
+					&& (filter == null || filter.instanceMatches(instanceName, instanceId));
 		}
 	}
 }
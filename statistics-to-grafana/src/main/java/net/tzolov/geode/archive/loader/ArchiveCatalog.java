@@ -0,0 +1,726 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.geode.internal.statistics.StatArchiveWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Index of the statistics types, resource instances, stat descriptors, sample counts and time bounds of an archive,
+ * saved next to it in a compact {@code <archive>.catalog} sidecar file.
+ *
+ * The catalog is built by a single scan of the archive tokens that skips the sample values, and read back in
+ * milliseconds. The loaders use it to skip the archives, or resource instances, without samples matching the stat
+ * filter rules and the loaded time range before the archive is parsed. The byte offset of every resource instance
+ * is that of its creation token. The archive reader can not start from it, as the sampled values are delta encoded
+ * from the creation of every instance and interleaved with the samples of all the other instances.
+ */
+public class ArchiveCatalog {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ArchiveCatalog.class);
+
+	private static final int MAGIC = 0x47465343;
+
+	private static final int VERSION = 1;
+
+	// Archive tokens, see the Geode StatArchiveFormat
+	private static final int SAMPLE_TOKEN = 0;
+
+	private static final int RESOURCE_TYPE_TOKEN = 1;
+
+	private static final int RESOURCE_INSTANCE_CREATE_TOKEN = 2;
+
+	private static final int RESOURCE_INSTANCE_DELETE_TOKEN = 3;
+
+	private static final int RESOURCE_INSTANCE_INITIALIZE_TOKEN = 4;
+
+	private static final int HEADER_TOKEN = 77;
+
+	private static final int READ_BUFFER_SIZE = 1 << 16;
+
+	private static final int INFLATE_BUFFER_SIZE = 1 << 20;
+
+	private static final int INFLATE_BUFFER_COUNT = 4;
+
+	private final long archiveLength;
+
+	private final long archiveLastModified;
+
+	private long systemId;
+
+	private long systemStartTime;
+
+	private long startTime;
+
+	private long endTime = -1;
+
+	private int sampleCount;
+
+	private String productVersion = "";
+
+	private String machine = "";
+
+	private final List<TypeEntry> types = new ArrayList<>();
+
+	private final List<ResourceEntry> resources = new ArrayList<>();
+
+	private ArchiveCatalog(long archiveLength, long archiveLastModified) {
+		this.archiveLength = archiveLength;
+		this.archiveLastModified = archiveLastModified;
+	}
+
+	/**
+	 * @return Returns the sidecar catalog file of the archive.
+	 */
+	public static File catalogFile(File archiveFile) {
+		return new File(archiveFile.getPath() + ".catalog");
+	}
+
+	/**
+	 * Reads the catalog of the archive from its sidecar file, or scans the archive and saves its catalog if the
+	 * sidecar file is missing or older than the archive (e.g. a growing archive).
+	 */
+	public static ArchiveCatalog forArchive(File archiveFile) throws IOException {
+
+		Assert.notNull(archiveFile, "Not null archiveFile is required!");
+
+		File catalogFile = catalogFile(archiveFile);
+		if (catalogFile.exists()) {
+			try {
+				ArchiveCatalog catalog = read(catalogFile);
+				if (catalog.isCatalogOf(archiveFile)) {
+					return catalog;
+				}
+				LOG.info("Rebuild the stale catalog [" + catalogFile + "]");
+			}
+			catch (IOException e) {
+				LOG.warn("Rebuild the unreadable catalog [" + catalogFile + "]: " + e.getMessage());
+			}
+		}
+
+		long scanStart = System.currentTimeMillis();
+		ArchiveCatalog catalog = scan(archiveFile);
+		try {
+			catalog.save(catalogFile);
+		}
+		catch (IOException e) {
+			// The catalog is still used by this load
+			LOG.warn("Failed to save the catalog [" + catalogFile + "]: " + e.getMessage());
+		}
+		LOG.info("Cataloged archive [" + archiveFile + "] in " + (System.currentTimeMillis() - scanStart) + " ms: "
+				+ catalog.resources.size() + " resource instances, " + catalog.sampleCount + " samples");
+		return catalog;
+	}
+
+	/**
+	 * Scans the archive, with the same token format and compression handling as the Geode archive reader.
+	 */
+	public static ArchiveCatalog scan(File archiveFile) throws IOException {
+
+		ArchiveCatalog catalog = new ArchiveCatalog(archiveFile.length(), archiveFile.lastModified());
+
+		// Compressed archives are inflated by a background thread while the inflated tokens are scanned
+		InputStream in = archiveFile.getPath().endsWith(".gz")
+				? new PipelinedGzipInputStream(archiveFile, INFLATE_BUFFER_SIZE, INFLATE_BUFFER_COUNT)
+				: new FileInputStream(archiveFile);
+		CountingInputStream counter = new CountingInputStream(in, READ_BUFFER_SIZE);
+		try (DataInputStream dataIn = new DataInputStream(counter)) {
+			new Scanner(catalog, dataIn, counter).scan();
+		}
+		return catalog;
+	}
+
+	public static ArchiveCatalog read(File catalogFile) throws IOException {
+
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(catalogFile)))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Not a version " + VERSION + " archive catalog: " + catalogFile);
+			}
+			ArchiveCatalog catalog = new ArchiveCatalog(in.readLong(), in.readLong());
+			catalog.systemId = in.readLong();
+			catalog.systemStartTime = in.readLong();
+			catalog.startTime = in.readLong();
+			catalog.endTime = in.readLong();
+			catalog.sampleCount = in.readInt();
+			catalog.productVersion = in.readUTF();
+			catalog.machine = in.readUTF();
+
+			Map<Integer, TypeEntry> typesById = new HashMap<>();
+			int typeCount = in.readInt();
+			for (int t = 0; t < typeCount; t++) {
+				int id = in.readInt();
+				String name = in.readUTF();
+				String description = in.readUTF();
+				List<StatEntry> stats = new ArrayList<>();
+				int statCount = in.readInt();
+				for (int s = 0; s < statCount; s++) {
+					stats.add(new StatEntry(in.readUTF(), in.readByte(), in.readBoolean(), in.readUTF()));
+				}
+				TypeEntry type = new TypeEntry(id, name, description, stats);
+				catalog.types.add(type);
+				typesById.put(id, type);
+			}
+			int resourceCount = in.readInt();
+			for (int r = 0; r < resourceCount; r++) {
+				ResourceEntry resource = new ResourceEntry(typesById.get(in.readInt()), in.readUTF(), in.readLong(),
+						in.readLong());
+				resource.firstTime = in.readLong();
+				resource.lastTime = in.readLong();
+				resource.sampleCount = in.readInt();
+				catalog.resources.add(resource);
+			}
+			return catalog;
+		}
+		catch (EOFException e) {
+			throw new IOException("Truncated archive catalog: " + catalogFile, e);
+		}
+	}
+
+	public void save(File catalogFile) throws IOException {
+
+		File tempFile = new File(catalogFile.getPath() + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(archiveLength);
+			out.writeLong(archiveLastModified);
+			out.writeLong(systemId);
+			out.writeLong(systemStartTime);
+			out.writeLong(startTime);
+			out.writeLong(endTime);
+			out.writeInt(sampleCount);
+			out.writeUTF(productVersion);
+			out.writeUTF(machine);
+
+			out.writeInt(types.size());
+			for (TypeEntry type : types) {
+				out.writeInt(type.id);
+				out.writeUTF(type.name);
+				out.writeUTF(type.description);
+				out.writeInt(type.stats.size());
+				for (StatEntry stat : type.stats) {
+					out.writeUTF(stat.name);
+					out.writeByte(stat.typeCode);
+					out.writeBoolean(stat.counter);
+					out.writeUTF(stat.units);
+				}
+			}
+			out.writeInt(resources.size());
+			for (ResourceEntry resource : resources) {
+				out.writeInt(resource.type.id);
+				out.writeUTF(resource.name);
+				out.writeLong(resource.numericId);
+				out.writeLong(resource.offset);
+				out.writeLong(resource.firstTime);
+				out.writeLong(resource.lastTime);
+				out.writeInt(resource.sampleCount);
+			}
+		}
+		// Readers never see a partially written catalog
+		if (!tempFile.renameTo(catalogFile) && !(catalogFile.delete() && tempFile.renameTo(catalogFile))) {
+			throw new IOException("Failed to replace the catalog [" + catalogFile + "]");
+		}
+	}
+
+	/**
+	 * @return Returns the resource instances with samples in the [fromTime, toTime) time range.
+	 * @param fromTime Absolute time, in milliseconds. If -1 the range is open.
+	 * @param toTime Absolute time, in milliseconds. If -1 the range is open.
+	 */
+	public List<ResourceEntry> getResources(long fromTime, long toTime) {
+		List<ResourceEntry> inRange = new ArrayList<>();
+		for (ResourceEntry resource : resources) {
+			if (resource.sampleCount > 0 && (fromTime < 0 || resource.lastTime >= fromTime)
+					&& (toTime < 0 || resource.firstTime < toTime)) {
+				inRange.add(resource);
+			}
+		}
+		return inRange;
+	}
+
+	/**
+	 * @return Returns the listing of the archive types and resource instances.
+	 */
+	public String describe() {
+		StringBuilder listing = new StringBuilder();
+		listing.append(String.format("Archive of system %d (%s, %s): %d types, %d resource instances, %d samples",
+				systemId, machine, productVersion, types.size(), resources.size(), sampleCount));
+		if (sampleCount > 0) {
+			listing.append(" from ").append(Instant.ofEpochMilli(getFirstSampleTime()))
+					.append(" to ").append(Instant.ofEpochMilli(endTime));
+		}
+		listing.append(String.format("%n"));
+
+		Map<TypeEntry, List<ResourceEntry>> resourcesByType = new LinkedHashMap<>();
+		types.forEach(type -> resourcesByType.put(type, new ArrayList<>()));
+		resources.forEach(resource -> resourcesByType.get(resource.type).add(resource));
+		resourcesByType.forEach((type, typeResources) -> {
+			listing.append(String.format("  %s: %d stats, %d instances%n", type.name, type.stats.size(),
+					typeResources.size()));
+			for (ResourceEntry resource : typeResources) {
+				listing.append(String.format("    %s (id %d): %d samples", resource.name, resource.numericId,
+						resource.sampleCount));
+				if (resource.sampleCount > 0) {
+					listing.append(" from ").append(Instant.ofEpochMilli(resource.firstTime))
+							.append(" to ").append(Instant.ofEpochMilli(resource.lastTime));
+				}
+				listing.append(String.format("%n"));
+			}
+		});
+		return listing.toString();
+	}
+
+	/**
+	 * @return Returns true if the archive is unchanged since it was cataloged.
+	 */
+	boolean isCatalogOf(File archiveFile) {
+		return archiveLength == archiveFile.length() && archiveLastModified == archiveFile.lastModified();
+	}
+
+	public long getSystemId() {
+		return systemId;
+	}
+
+	/**
+	 * @return Returns the archive start time, preceding its first sample.
+	 */
+	public long getStartTime() {
+		return startTime;
+	}
+
+	private long getFirstSampleTime() {
+		return resources.stream().filter(resource -> resource.sampleCount > 0).mapToLong(resource -> resource.firstTime)
+				.min().orElse(startTime);
+	}
+
+	/**
+	 * @return Returns the time of the last sample, -1 if none.
+	 */
+	public long getEndTime() {
+		return endTime;
+	}
+
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+	public List<TypeEntry> getTypes() {
+		return Collections.unmodifiableList(types);
+	}
+
+	public List<ResourceEntry> getResources() {
+		return Collections.unmodifiableList(resources);
+	}
+
+	/**
+	 * Statistics type and its stat descriptors.
+	 */
+	public static class TypeEntry {
+
+		private final int id;
+
+		private final String name;
+
+		private final String description;
+
+		private final List<StatEntry> stats;
+
+		TypeEntry(int id, String name, String description, List<StatEntry> stats) {
+			this.id = id;
+			this.name = name;
+			this.description = description;
+			this.stats = stats;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+
+		public List<StatEntry> getStats() {
+			return Collections.unmodifiableList(stats);
+		}
+	}
+
+	/**
+	 * Stat descriptor of a statistics type.
+	 */
+	public static class StatEntry {
+
+		private final String name;
+
+		private final byte typeCode;
+
+		private final boolean counter;
+
+		private final String units;
+
+		StatEntry(String name, byte typeCode, boolean counter, String units) {
+			this.name = name;
+			this.typeCode = typeCode;
+			this.counter = counter;
+			this.units = units;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public byte getTypeCode() {
+			return typeCode;
+		}
+
+		public boolean isCounter() {
+			return counter;
+		}
+
+		public String getUnits() {
+			return units;
+		}
+	}
+
+	/**
+	 * Resource instance, its samples and the byte offset of its creation token in the (uncompressed) archive.
+	 */
+	public static class ResourceEntry {
+
+		private final TypeEntry type;
+
+		private final String name;
+
+		private final long numericId;
+
+		private final long offset;
+
+		private long firstTime = -1;
+
+		private long lastTime = -1;
+
+		private int sampleCount;
+
+		ResourceEntry(TypeEntry type, String name, long numericId, long offset) {
+			this.type = type;
+			this.name = name;
+			this.numericId = numericId;
+			this.offset = offset;
+		}
+
+		public TypeEntry getType() {
+			return type;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public long getNumericId() {
+			return numericId;
+		}
+
+		public long getOffset() {
+			return offset;
+		}
+
+		/**
+		 * @return Returns the time of the first sample, -1 if none.
+		 */
+		public long getFirstTime() {
+			return firstTime;
+		}
+
+		/**
+		 * @return Returns the time of the last sample, -1 if none.
+		 */
+		public long getLastTime() {
+			return lastTime;
+		}
+
+		public int getSampleCount() {
+			return sampleCount;
+		}
+	}
+
+	/**
+	 * Reads the archive tokens, skipping the sample values.
+	 */
+	private static class Scanner {
+
+		private final ArchiveCatalog catalog;
+
+		private final DataInputStream in;
+
+		private final CountingInputStream counter;
+
+		private final Map<Integer, TypeEntry> typesById = new HashMap<>();
+
+		// Active resource instances by archive instance id
+		private final Map<Integer, ResourceEntry> activeResources = new LinkedHashMap<>();
+
+		private int archiveVersion;
+
+		private long time;
+
+		Scanner(ArchiveCatalog catalog, DataInputStream in, CountingInputStream counter) {
+			this.catalog = catalog;
+			this.in = in;
+			this.counter = counter;
+		}
+
+		void scan() throws IOException {
+			while (true) {
+				long offset = counter.getCount();
+				int token;
+				try {
+					token = in.readByte();
+				}
+				catch (EOFException e) {
+					return;
+				}
+				try {
+					switch (token) {
+					case HEADER_TOKEN:
+						readHeader();
+						break;
+					case RESOURCE_TYPE_TOKEN:
+						readType();
+						break;
+					case RESOURCE_INSTANCE_CREATE_TOKEN:
+						readInstanceCreate(offset, false);
+						break;
+					case RESOURCE_INSTANCE_INITIALIZE_TOKEN:
+						readInstanceCreate(offset, true);
+						break;
+					case RESOURCE_INSTANCE_DELETE_TOKEN:
+						activeResources.remove(in.readInt());
+						break;
+					case SAMPLE_TOKEN:
+						readSample();
+						break;
+					default:
+						throw new IOException("Unexpected token " + token + " at offset " + offset);
+					}
+				}
+				catch (EOFException e) {
+					// The last token of a growing archive can be incomplete
+					return;
+				}
+			}
+		}
+
+		private void readHeader() throws IOException {
+			archiveVersion = in.readByte();
+			catalog.startTime = in.readLong();
+			catalog.systemId = in.readLong();
+			catalog.systemStartTime = in.readLong();
+			in.readInt();
+			in.readUTF();
+			in.readUTF();
+			catalog.productVersion = in.readUTF();
+			in.readUTF();
+			catalog.machine = in.readUTF();
+			if (archiveVersion <= 1 || archiveVersion > 4) {
+				throw new IOException("Unsupported archive version " + archiveVersion);
+			}
+			time = catalog.startTime;
+		}
+
+		private void readType() throws IOException {
+			int id = in.readInt();
+			String name = in.readUTF();
+			String description = in.readUTF();
+			int statCount = in.readUnsignedShort();
+			List<StatEntry> stats = new ArrayList<>(statCount);
+			for (int i = 0; i < statCount; i++) {
+				String statName = in.readUTF();
+				byte typeCode = in.readByte();
+				boolean counter = in.readBoolean();
+				if (archiveVersion >= 4) {
+					// Larger better
+					in.readBoolean();
+				}
+				String units = in.readUTF();
+				in.readUTF();
+				stats.add(new StatEntry(statName, typeCode, counter, units));
+			}
+			TypeEntry type = new TypeEntry(id, name, description, stats);
+			catalog.types.add(type);
+			typesById.put(id, type);
+		}
+
+		private void readInstanceCreate(long offset, boolean initialize) throws IOException {
+			int instanceId = in.readInt();
+			String name = in.readUTF();
+			long numericId = in.readLong();
+			TypeEntry type = typesById.get(in.readInt());
+			if (type == null) {
+				throw new IOException("Unknown type of resource instance [" + name + "] at offset " + offset);
+			}
+			if (initialize) {
+				for (StatEntry stat : type.stats) {
+					skipValue(stat.typeCode);
+				}
+			}
+			ResourceEntry resource = new ResourceEntry(type, name, numericId, offset);
+			catalog.resources.add(resource);
+			activeResources.put(instanceId, resource);
+		}
+
+		private void readSample() throws IOException {
+			int timeDelta = in.readUnsignedShort();
+			if (timeDelta == 0xFFFF) {
+				timeDelta = in.readInt();
+			}
+			for (int instanceId = readInstanceId(); instanceId != -1; instanceId = readInstanceId()) {
+				ResourceEntry resource = activeResources.get(instanceId);
+				if (resource == null) {
+					throw new IOException("Sample of unknown resource instance " + instanceId);
+				}
+				for (int statOffset = in.readUnsignedByte(); statOffset != 255; statOffset = in.readUnsignedByte()) {
+					skipValue(resource.type.stats.get(statOffset).typeCode);
+				}
+			}
+			// The sample is complete, it counts for all the active instances
+			time += timeDelta;
+			for (ResourceEntry resource : activeResources.values()) {
+				if (resource.sampleCount++ == 0) {
+					resource.firstTime = time;
+				}
+				resource.lastTime = time;
+			}
+			catalog.sampleCount++;
+			catalog.endTime = time;
+		}
+
+		private int readInstanceId() throws IOException {
+			int token = in.readUnsignedByte();
+			if (token <= 252) {
+				return token;
+			}
+			if (token == 255) {
+				return -1;
+			}
+			return (token == 253) ? in.readUnsignedShort() : in.readInt();
+		}
+
+		private void skipValue(byte typeCode) throws IOException {
+			switch (typeCode) {
+			case 1:
+			case 2:
+			case 3:
+				in.readByte();
+				break;
+			case 4:
+			case 12:
+				in.readShort();
+				break;
+			case 5:
+			case 6:
+			case 7:
+			case 8:
+				StatArchiveWriter.readCompactValue(in);
+				break;
+			default:
+				throw new IOException("Unexpected stat type code " + typeCode);
+			}
+		}
+	}
+
+	/**
+	 * Buffered stream counting the bytes read, for the token offsets. Unlike the BufferedInputStream, its single byte
+	 * reads are not synchronized.
+	 */
+	private static class CountingInputStream extends InputStream {
+
+		private final InputStream in;
+
+		private final byte[] buffer;
+
+		private int position;
+
+		private int limit;
+
+		private long count;
+
+		CountingInputStream(InputStream in, int bufferSize) {
+			this.in = in;
+			this.buffer = new byte[bufferSize];
+		}
+
+		long getCount() {
+			return count;
+		}
+
+		private boolean fill() throws IOException {
+			int read = in.read(buffer, 0, buffer.length);
+			position = 0;
+			limit = Math.max(read, 0);
+			return read > 0;
+		}
+
+		@Override
+		public int read() throws IOException {
+			if (position == limit && !fill()) {
+				return -1;
+			}
+			count++;
+			return buffer[position++] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			if (len == 0) {
+				return 0;
+			}
+			if (position == limit && !fill()) {
+				return -1;
+			}
+			int read = Math.min(len, limit - position);
+			System.arraycopy(buffer, position, b, off, read);
+			position += read;
+			count += read;
+			return read;
+		}
+
+		@Override
+		public void close() throws IOException {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.springframework.util.Assert;
+
+/**
+ * Resolves a directory or a glob pattern into the list of statistics archive files to load.
+ *
+ * For every archive the Geode member name and the position in the rolled archive chain are derived from the file
+ * name. Geode names the rolled archives as {@code <name>-<parentId>-<childId>.gfs} while the active (most recent)
+ * archive keeps the configured {@code <name>.gfs} name. When the same archive name is used by more than one
+ * directory (e.g. every member writes {@code statArchive.gfs} in its own working directory) the parent directory
+ * name is used as member name instead.
+ */
+public class ArchiveFileLocator {
+
+	private static final Pattern ARCHIVE_NAME_PATTERN =
+			Pattern.compile("^(.+?)(?:-(\\d+)-(\\d+))?\\.gfs(?:\\.gz)?$");
+
+	private static final String GLOB_CHARS = "*?[{";
+
+	/**
+	 * @param location Archive directory (searched recursively) or a glob pattern such as {@code /data/server*.gfs}.
+	 * @return Returns all matching archive files, ordered by member name and roll order.
+	 * @throws IOException when the location can not be traversed.
+	 */
+	public List<MemberArchive> locate(String location) throws IOException {
+
+		Assert.hasText(location, "Not empty archive location is required!");
+
+		Path baseDir;
+		PathMatcher matcher;
+
+		File locationFile = new File(location);
+		if (locationFile.isDirectory()) {
+			baseDir = locationFile.toPath();
+			matcher = path -> true;
+		}
+		else {
+			// The walked paths are normalized, so must be the pattern (e.g. ./stats/*.gfs)
+			String glob = Paths.get(location).normalize().toString();
+			baseDir = globBaseDir(glob);
+			matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+		}
+
+		List<Path> archivePaths;
+		try (Stream<Path> paths = Files.walk(baseDir)) {
+			archivePaths = paths
+					.filter(Files::isRegularFile)
+					.filter(p -> matcher.matches(p.normalize()))
+					.filter(p -> ARCHIVE_NAME_PATTERN.matcher(p.getFileName().toString()).matches())
+					.collect(Collectors.toList());
+		}
+
+		return toMemberArchives(archivePaths);
+	}
+
+	List<MemberArchive> toMemberArchives(List<Path> archivePaths) {
+
+		// Archive names shared by archives in different directories can not identify the member
+		Map<String, Set<Path>> archiveNameDirs = new HashMap<>();
+		for (Path path : archivePaths) {
+			archiveNameDirs.computeIfAbsent(archiveName(path), name -> new HashSet<>()).add(path.toAbsolutePath().getParent());
+		}
+
+		List<MemberArchive> archives = new ArrayList<>();
+		for (Path path : archivePaths) {
+			Matcher m = ARCHIVE_NAME_PATTERN.matcher(path.getFileName().toString());
+			Assert.isTrue(m.matches(), "Not a statistics archive file: " + path);
+
+			String memberName = m.group(1);
+			if (archiveNameDirs.get(memberName).size() > 1) {
+				memberName = path.toAbsolutePath().getParent().getFileName().toString();
+			}
+
+			boolean rolled = m.group(2) != null;
+			archives.add(new MemberArchive(path.toFile(), memberName,
+					rolled ? Integer.parseInt(m.group(2)) : Integer.MAX_VALUE,
+					rolled ? Integer.parseInt(m.group(3)) : Integer.MAX_VALUE));
+		}
+
+		archives.sort(Comparator.comparing(MemberArchive::getMemberName)
+				.thenComparingInt(MemberArchive::getParentId)
+				.thenComparingInt(MemberArchive::getChildId)
+				.thenComparing(a -> a.getFile().getPath()));
+
+		return archives;
+	}
+
+	String archiveName(Path path) {
+		Matcher m = ARCHIVE_NAME_PATTERN.matcher(path.getFileName().toString());
+		return m.matches() ? m.group(1) : path.getFileName().toString();
+	}
+
+	private Path globBaseDir(String glob) {
+		Path baseDir = null;
+		for (Path element : Paths.get(glob)) {
+			if (element.toString().chars().anyMatch(c -> GLOB_CHARS.indexOf(c) >= 0)) {
+				break;
+			}
+			baseDir = (baseDir == null) ? element : baseDir.resolve(element);
+		}
+		if (Paths.get(glob).isAbsolute()) {
+			baseDir = (baseDir == null) ? Paths.get(glob).getRoot() : Paths.get(glob).getRoot().resolve(baseDir);
+		}
+		return (baseDir == null) ? Paths.get(".") : baseDir;
+	}
+
+	/**
+	 * Statistics archive file together with the Geode member it belongs to and its position in the roll chain.
+	 */
+	public static class MemberArchive {
+
+		private final File file;
+
+		private final String memberName;
+
+		private final int parentId;
+
+		private final int childId;
+
+		MemberArchive(File file, String memberName, int parentId, int childId) {
+			this.file = file;
+			this.memberName = memberName;
+			this.parentId = parentId;
+			this.childId = childId;
+		}
+
+		public File getFile() {
+			return file;
+		}
+
+		public String getMemberName() {
+			return memberName;
+		}
+
+		/**
+		 * @return Returns the roll parent id or Integer.MAX_VALUE for the active (not rolled) archive.
+		 */
+		public int getParentId() {
+			return parentId;
+		}
+
+		/**
+		 * @return Returns the roll child id or Integer.MAX_VALUE for the active (not rolled) archive.
+		 */
+		public int getChildId() {
+			return childId;
+		}
+
+		@Override
+		public String toString() {
+			return memberName + ":" + file.getName();
+		}
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.apache.geode.InternalGemFireError;
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Follows a growing statistics archive, written by a running Geode member, and loads the new samples as they appear.
+ *
+ * The archive is kept open and re-read ({@link StatArchiveReader#update()}) every poll interval. For every
+ * resource instance only the samples newer than its last loaded timestamp are loaded, so resource instances created
+ * while following are picked up as well. When the member rolls the archive over (the active file is renamed and
+ * a new one is created in its place) the remainder of the rolled file is loaded before the new file is opened.
+ * If the archive can not be re-read (e.g. a truncated token) it is reopened and the loaded samples are skipped.
+ *
+ * The lag reported after every poll is the time elapsed since the newest loaded sample was taken, measured once the
+ * loader has flushed its writes.
+ */
+public class ArchiveFollower {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ArchiveFollower.class);
+
+	private final AbstractStatisticsTSDBLoader loader;
+
+	private final long pollIntervalMillis;
+
+	// Last loaded sample time per resource instance. Survives the archive reopening and roll-overs
+	private final Map<String, Long> lastTimestamps = new HashMap<>();
+
+	// Sample count per resource instance at the last poll, to skip the instances that did not grow
+	private final Map<StatArchiveReader.ResourceInst, Integer> polledSampleCounts = new IdentityHashMap<>();
+
+	private volatile boolean running;
+
+	private volatile long newestTimestamp = -1;
+
+	private volatile long lagMillis = -1;
+
+	private volatile long pollCount;
+
+	/**
+	 * @param loader Loader used to write the samples. Its archive file is followed.
+	 * @param pollIntervalMillis Time between two archive polls.
+	 */
+	public ArchiveFollower(AbstractStatisticsTSDBLoader loader, long pollIntervalMillis) {
+
+		Assert.notNull(loader, "Not null loader is required!");
+		Assert.isTrue(pollIntervalMillis > 0, "Positive pollIntervalMillis is required!");
+
+		this.loader = loader;
+		this.pollIntervalMillis = pollIntervalMillis;
+	}
+
+	/**
+	 * Follows the archive until {@link #stop()} is called or the calling thread is interrupted.
+	 * @throws IOException when the archive can not be read.
+	 */
+	public void follow() throws IOException {
+
+		Assert.isTrue(loader.archiveFileName == null || !loader.archiveFileName.getName().endsWith(".gz"),
+				"Compressed archives can not be followed!");
+
+		running = true;
+		loader.execute(this::followArchive);
+	}
+
+	public void stop() {
+		running = false;
+	}
+
+	/**
+	 * @return Returns the time, in milliseconds, between the newest loaded sample and the end of the last poll or
+	 * -1 if no samples were loaded yet.
+	 */
+	public long getLagMillis() {
+		return lagMillis;
+	}
+
+	/**
+	 * @return Returns the time of the newest loaded sample or -1 if no samples were loaded yet.
+	 */
+	public long getNewestTimestamp() {
+		return newestTimestamp;
+	}
+
+	public long getPollCount() {
+		return pollCount;
+	}
+
+	private void followArchive() throws IOException {
+
+		File archiveFile = loader.archiveFileName;
+
+		StatArchiveReader reader = null;
+		Object archiveKey = null;
+		long archiveLength = 0;
+
+		try {
+			while (running && !Thread.currentThread().isInterrupted()) {
+
+				if (reader == null) {
+					if (archiveFile.exists()) {
+						archiveKey = fileKey(archiveFile);
+						archiveLength = archiveFile.length();
+						reader = loader.openArchive();
+						poll(reader);
+					}
+				}
+				else {
+					long length = archiveFile.length();
+					boolean rolledOver = !archiveFile.exists() || length < archiveLength
+							|| !Objects.equals(archiveKey, fileKey(archiveFile));
+
+					// The open reader still reads the rolled archive, so it is drained before switching files
+					if (!update(reader)) {
+						// Reopen the archive. The samples loaded already are skipped.
+						reader.close();
+						reader = null;
+						polledSampleCounts.clear();
+						continue;
+					}
+					poll(reader);
+
+					if (rolledOver) {
+						LOG.info("Archive [" + archiveFile + "] rolled over");
+						reader.close();
+						reader = null;
+						polledSampleCounts.clear();
+						continue;
+					}
+					archiveLength = length;
+				}
+
+				sleep();
+			}
+		}
+		finally {
+			if (reader != null) {
+				reader.close();
+			}
+		}
+	}
+
+	private boolean update(StatArchiveReader reader) {
+		try {
+			reader.update();
+			return true;
+		}
+		catch (IOException | RuntimeException | InternalGemFireError e) {
+			// The writer flushes whole samples, but a sample larger than its buffer can be observed partially
+			// written. The reader does not recover from a truncated token, hence the archive has to be reopened.
+			LOG.warn("Failed to read the new samples of [" + loader.archiveFileName + "], reopen the archive: " + e);
+			return false;
+		}
+	}
+
+	private void poll(StatArchiveReader reader) {
+
+		long samplesBefore = loader.getLoadedSampleCount();
+
+		Map<String, Integer> resourceOccurrences = new HashMap<>();
+
+		for (StatArchiveReader.ResourceInst ri : loader.getResourceInsts(reader)) {
+
+			// Different resource instances can share the same name and even id. They are told apart by their
+			// order in the archive
+			String resourceKey = loader.getMeasurementName(ri) + "#" + ri.getId();
+			resourceKey += "#" + resourceOccurrences.merge(resourceKey, 1, Integer::sum);
+
+			Integer polledSampleCount = polledSampleCounts.get(ri);
+			if (polledSampleCount != null && polledSampleCount == ri.getSampleCount()) {
+				continue;
+			}
+
+			Long lastTimestamp = lastTimestamps.get(resourceKey);
+
+			long loadedTimestamp = loader.loadResourceInst(ri, (lastTimestamp == null) ? -1L : lastTimestamp + 1,
+					-1L, null);
+			if (loadedTimestamp >= 0) {
+				lastTimestamps.put(resourceKey, loadedTimestamp);
+				newestTimestamp = Math.max(newestTimestamp, loadedTimestamp);
+			}
+			polledSampleCounts.put(ri, ri.getSampleCount());
+		}
+
+		loader.doFlush();
+
+		pollCount++;
+		if (newestTimestamp >= 0) {
+			lagMillis = System.currentTimeMillis() - newestTimestamp;
+		}
+
+		long samples = loader.getLoadedSampleCount() - samplesBefore;
+		if (samples > 0) {
+			LOG.info("Loaded " + samples + " new samples, lag " + lagMillis + " ms");
+		}
+	}
+
+	private void sleep() {
+		try {
+			Thread.sleep(pollIntervalMillis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private Object fileKey(File file) throws IOException {
+		if (!file.exists()) {
+			return null;
+		}
+		// The file key (e.g. the inode) changes when a new archive replaces the rolled one. It can be null on some
+		// platforms, in which case a roll over is detected by the archive length only.
+		return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+
+import org.springframework.util.Assert;
+
+/**
+ * Archive parsed once and kept open for several loads, e.g. of other statistics or time ranges in the interactive
+ * shell. The loaders share its reader (see {@link AbstractStatisticsTSDBLoader#setArchiveSession(ArchiveSession)}),
+ * so the reader loads all the statistics and the stat filters are applied to the loaded measurements instead.
+ *
+ * The timestamps and the decoded values of the loaded series are cached across the loads, up to a maximum number of
+ * values. The least recently used series are evicted first.
+ */
+public class ArchiveSession implements Closeable {
+
+	private final File archiveFile;
+
+	private final long cacheMaxValues;
+
+	private final StatArchiveReader reader;
+
+	private final long parseMillis;
+
+	// Resource instance of every stat value, whose timestamps it shares
+	private final Map<StatArchiveReader.StatValue, StatArchiveReader.ResourceInst> resourceInsts =
+			new IdentityHashMap<>();
+
+	// Decoded values (double[]) of the stat values and timestamps (long[]) of the resource instances, in access order
+	private final LinkedHashMap<Object, Object> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+	private long cachedValues;
+
+	private long cacheHits;
+
+	private long cacheMisses;
+
+	/**
+	 * Parses the archive.
+	 * @param archiveFile The Apache Geode (GemFire) statistics archive file, plain or gzip compressed.
+	 * @param cacheMaxValues Maximum number of decoded values (and timestamps) to cache. If 0 nothing is cached.
+	 */
+	public ArchiveSession(File archiveFile, long cacheMaxValues) throws IOException {
+
+		Assert.notNull(archiveFile, "Not null archiveFile is required!");
+		Assert.isTrue(cacheMaxValues >= 0, "Not negative cacheMaxValues is required!");
+
+		this.archiveFile = archiveFile;
+		this.cacheMaxValues = cacheMaxValues;
+
+		long parseStart = System.nanoTime();
+		this.reader = new StatArchiveReader(new File[] { archiveFile }, null, false);
+		this.parseMillis = (System.nanoTime() - parseStart) / 1000000;
+
+		for (StatArchiveReader.ResourceInst ri : getResourceInsts()) {
+			for (StatArchiveReader.StatValue statValue : ri.getStatValues()) {
+				if (statValue != null) {
+					resourceInsts.put(statValue, ri);
+				}
+			}
+		}
+	}
+
+	public File getArchiveFile() {
+		return archiveFile;
+	}
+
+	/**
+	 * @return Returns the time, in milliseconds, the archive took to parse.
+	 */
+	public long getParseMillis() {
+		return parseMillis;
+	}
+
+	StatArchiveReader getReader() {
+		return reader;
+	}
+
+	/**
+	 * @return Returns all the resource instances of the archive.
+	 */
+	public List<StatArchiveReader.ResourceInst> getResourceInsts() {
+		List<StatArchiveReader.ResourceInst> list = new ArrayList<>();
+		for (Object ri : reader.getResourceInstList()) {
+			list.add((StatArchiveReader.ResourceInst) ri);
+		}
+		return Collections.unmodifiableList(list);
+	}
+
+	/**
+	 * @return Returns the absolute timestamps, in milliseconds, of all the samples of the resource instance. The
+	 * returned array is shared and must not be modified.
+	 */
+	public long[] getTimestamps(StatArchiveReader.ResourceInst ri) {
+		long[] timestamps = (long[]) cached(ri);
+		if (timestamps == null) {
+			StatArchiveReader.StatValue statValue = null;
+			for (StatArchiveReader.StatValue value : ri.getStatValues()) {
+				if (value != null) {
+					statValue = value;
+					break;
+				}
+			}
+			timestamps = (statValue != null) ? statValue.getRawAbsoluteTimeStamps() : new long[0];
+			cache(ri, timestamps, timestamps.length);
+		}
+		return timestamps;
+	}
+
+	/**
+	 * @return Returns the absolute timestamps of all the samples of the stat value.
+	 */
+	long[] getTimestamps(StatArchiveReader.StatValue statValue) {
+		StatArchiveReader.ResourceInst ri = resourceInsts.get(statValue);
+		Assert.notNull(ri, "Stat value [" + statValue.getDescriptor().getName() + "] is not of the session archive!");
+		return getTimestamps(ri);
+	}
+
+	/**
+	 * @return Returns the raw values of all the samples of the stat value. The returned array is shared and must not
+	 * be modified.
+	 */
+	double[] getValues(StatArchiveReader.StatValue statValue) {
+		double[] values = (double[]) cached(statValue);
+		if (values == null) {
+			// Decoded outside of the lock, the loader threads decode their series in parallel
+			values = statValue.getRawSnapshots();
+			cache(statValue, values, values.length);
+		}
+		return values;
+	}
+
+	/**
+	 * @return Returns the number of decoded values and timestamps held in the cache.
+	 */
+	public synchronized long getCachedValues() {
+		return cachedValues;
+	}
+
+	public synchronized long getCacheHits() {
+		return cacheHits;
+	}
+
+	public synchronized long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	/**
+	 * Releases the decoded values, the next loads decode them again.
+	 */
+	public synchronized void clearCache() {
+		cache.clear();
+		cachedValues = 0;
+	}
+
+	@Override
+	public void close() throws IOException {
+		clearCache();
+		reader.close();
+	}
+
+	private synchronized Object cached(Object key) {
+		Object cachedArray = cache.get(key);
+		if (cachedArray != null) {
+			cacheHits++;
+		}
+		else {
+			cacheMisses++;
+		}
+		return cachedArray;
+	}
+
+	private synchronized void cache(Object key, Object array, int length) {
+		if (length > cacheMaxValues || cache.containsKey(key)) {
+			return;
+		}
+		cache.put(key, array);
+		cachedValues += length;
+		Iterator<Map.Entry<Object, Object>> eldest = cache.entrySet().iterator();
+		while (cachedValues > cacheMaxValues) {
+			Object evicted = eldest.next().getValue();
+			eldest.remove();
+			cachedValues -= (evicted instanceof long[]) ? ((long[]) evicted).length : ((double[]) evicted).length;
+		}
+	}
+}
@@ -0,0 +1,303 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+
+import org.springframework.core.Ordered;
+import org.springframework.shell.core.CommandMarker;
+import org.springframework.shell.core.annotation.CliAvailabilityIndicator;
+import org.springframework.shell.core.annotation.CliCommand;
+import org.springframework.shell.core.annotation.CliOption;
+import org.springframework.shell.plugin.PromptProvider;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Commands of the interactive shell. The {@code open} command parses an archive into an {@link ArchiveSession}, kept
+ * in memory until the next {@code open} or {@code close}. The other commands list and inspect its statistics, select
+ * a subset of them ({@code filter}) and load the selection ({@code load}), each load reusing the parsed archive and
+ * the values decoded by the earlier ones.
+ *
+ * The loads are run by a loader created from the configured sink loader, with its settings but the stat filter and
+ * time range selected in the shell. The target database is never recreated, so the subsets add up.
+ */
+public class ArchiveShellCommands implements CommandMarker, PromptProvider, Ordered {
+
+	private final AbstractStatisticsTSDBLoader sinkLoader;
+
+	private final AbstractStatisticsTSDBLoader dryRunLoader;
+
+	private final long sessionCacheMaxValues;
+
+	private ArchiveSession session;
+
+	private String memberName;
+
+	// Stat rules and time range of the loads, null if the configured ones are used
+	private String[] includes;
+
+	private String[] excludes;
+
+	private String from;
+
+	private String to;
+
+	/**
+	 * @param sinkLoader Configured loader of the sink, used as a template for the loads.
+	 * @param dryRunLoader Loader used as a template for the dry run loads.
+	 * @param sessionCacheMaxValues Maximum number of decoded values cached by the archive sessions.
+	 */
+	public ArchiveShellCommands(AbstractStatisticsTSDBLoader sinkLoader, AbstractStatisticsTSDBLoader dryRunLoader,
+			long sessionCacheMaxValues) {
+
+		Assert.notNull(sinkLoader, "Not null sinkLoader is required!");
+		Assert.notNull(dryRunLoader, "Not null dryRunLoader is required!");
+
+		this.sinkLoader = sinkLoader;
+		this.dryRunLoader = dryRunLoader;
+		this.sessionCacheMaxValues = sessionCacheMaxValues;
+	}
+
+	@Override
+	public String getPrompt() {
+		return "statistics>";
+	}
+
+	@Override
+	public String getProviderName() {
+		return "statistics-to-grafana";
+	}
+
+	@Override
+	public int getOrder() {
+		// Ahead of the default prompt
+		return Ordered.HIGHEST_PRECEDENCE;
+	}
+
+	@CliAvailabilityIndicator({ "types", "instances", "stats", "filter", "load", "session", "close" })
+	public boolean isSessionOpen() {
+		return session != null;
+	}
+
+	@CliCommand(value = "open", help = "Parse a statistics archive and keep it in memory for the next commands")
+	public String open(
+			@CliOption(key = { "", "file" }, mandatory = true, help = "Archive file (.gfs or .gfs.gz)") String file,
+			@CliOption(key = "member", help = "Member name of the loaded statistics, the configured "
+					+ "geodeMemberName or the archive name by default") String member)
+			throws IOException {
+
+		close();
+		session = new ArchiveSession(new File(file), sessionCacheMaxValues);
+		memberName = StringUtils.hasText(member) ? member : sinkLoader.geodeMemberName;
+		if (!StringUtils.hasText(memberName)) {
+			// As in the bulk mode, the member is named after its archive
+			memberName = new ArchiveFileLocator().archiveName(new File(file).toPath());
+		}
+		return String.format("Parsed [%s] of member [%s] in %d ms: %d resource instances", file, memberName,
+				session.getParseMillis(), session.getResourceInsts().size());
+	}
+
+	@CliCommand(value = "types", help = "List the statistics types, the largest first, with the size of the selection")
+	public String types() {
+
+		AbstractStatisticsTSDBLoader loader = newLoader(sinkLoader);
+		Map<String, long[]> types = new TreeMap<>();
+		for (StatArchiveReader.ResourceInst ri : session.getResourceInsts()) {
+			// instances, stats, samples, values, selected values
+			long[] type = types.computeIfAbsent(ri.getType().getName(), name -> new long[5]);
+			int stats = countStats(ri);
+			type[0]++;
+			type[1] = Math.max(type[1], stats);
+			type[2] += ri.getSampleCount();
+			type[3] += (long) ri.getSampleCount() * stats;
+			type[4] += (long) ri.getSampleCount() * loader.getMeasurementFields(ri).length;
+		}
+
+		List<Map.Entry<String, long[]>> sorted = new ArrayList<>(types.entrySet());
+		sorted.sort((type1, type2) -> Long.compare(type2.getValue()[3], type1.getValue()[3]));
+		StringBuilder table = new StringBuilder(String.format("%-40s %9s %6s %10s %12s %12s", "type", "instances",
+				"stats", "samples", "values", "selected"));
+		for (Map.Entry<String, long[]> type : sorted) {
+			long[] sizes = type.getValue();
+			table.append(String.format("%n%-40s %9d %6d %10d %12d %12d", type.getKey(), sizes[0], sizes[1], sizes[2],
+					sizes[3], sizes[4]));
+		}
+		return table.toString();
+	}
+
+	@CliCommand(value = "instances", help = "List the resource instances of the matching statistics types")
+	public String instances(
+			@CliOption(key = { "", "type" }, mandatory = true, help = "Type name glob or regex: pattern") String type) {
+
+		StatFilterRule typeRule = StatFilterRule.parse("type=" + type, true);
+		AbstractStatisticsTSDBLoader loader = newLoader(sinkLoader);
+		StringBuilder table = new StringBuilder(String.format("%-40s %-40s %6s %-24s %-24s %8s %8s", "type", "name",
+				"id", "first sample", "last sample", "samples", "selected"));
+		for (StatArchiveReader.ResourceInst ri : session.getResourceInsts()) {
+			if (typeRule.matchesType(ri.getType().getName())) {
+				long[] timestamps = session.getTimestamps(ri);
+				table.append(String.format("%n%-40s %-40s %6d %-24s %-24s %8d %8d", ri.getType().getName(),
+						ri.getName(), ri.getId(), formatTime(timestamps, 0), formatTime(timestamps,
+								timestamps.length - 1), timestamps.length, loader.getMeasurementFields(ri).length));
+			}
+		}
+		return table.toString();
+	}
+
+	@CliCommand(value = "stats", help = "Describe the statistics of a statistics type")
+	public String stats(@CliOption(key = { "", "type" }, mandatory = true, help = "Type name") String type) {
+
+		for (StatArchiveReader.ResourceInst ri : session.getResourceInsts()) {
+			if (ri.getType().getName().equals(type)) {
+				StringBuilder table = new StringBuilder(String.format("%-40s %-7s %-20s %s", "stat", "kind", "units",
+						"description"));
+				for (StatArchiveReader.StatDescriptor stat : ri.getType().getStats()) {
+					table.append(String.format("%n%-40s %-7s %-20s %s", stat.getName(),
+							stat.isCounter() ? "counter" : "gauge", stat.getUnits(), stat.getDescription()));
+				}
+				return table.toString();
+			}
+		}
+		throw new IllegalArgumentException("No statistics type [" + type + "] in the archive");
+	}
+
+	@CliCommand(value = "filter", help = "Select the statistics and the time range of the next loads")
+	public String filter(
+			@CliOption(key = "include", help = "Comma separated include rules, e.g. type=VMStats") String include,
+			@CliOption(key = "exclude", help = "Comma separated exclude rules") String exclude,
+			@CliOption(key = "from", help = "First sample time, ISO-8601 instant or epoch millis") String from,
+			@CliOption(key = "to", help = "Time the samples are taken before") String to,
+			@CliOption(key = "reset", specifiedDefaultValue = "true", unspecifiedDefaultValue = "false",
+					help = "Use the configured filter and time range again") boolean reset) {
+
+		String[] newIncludes = reset ? null : (include != null) ? splitRules(include) : includes;
+		String[] newExcludes = reset ? null : (exclude != null) ? splitRules(exclude) : excludes;
+		String newFrom = reset ? null : (from != null) ? from : this.from;
+		String newTo = reset ? null : (to != null) ? to : this.to;
+
+		// Validate the rules and times before they replace the current ones
+		AbstractStatisticsTSDBLoader loader = newLoader(sinkLoader, newIncludes, newExcludes, newFrom, newTo);
+
+		includes = newIncludes;
+		excludes = newExcludes;
+		this.from = newFrom;
+		this.to = newTo;
+
+		long series = 0;
+		long values = 0;
+		for (StatArchiveReader.ResourceInst ri : session.getResourceInsts()) {
+			int fields = loader.getMeasurementFields(ri).length;
+			series += fields;
+			values += (long) ri.getSampleCount() * fields;
+		}
+		return describeFilter() + String.format("%nSelected %d series, %d values", series, values);
+	}
+
+	@CliCommand(value = "load", help = "Load the selected statistics into the configured sink")
+	public String load(
+			@CliOption(key = "dryRun", specifiedDefaultValue = "true", unspecifiedDefaultValue = "false",
+					help = "Only report the projected write volume") boolean dryRun) throws IOException {
+
+		AbstractStatisticsTSDBLoader loader = newLoader(dryRun ? dryRunLoader : sinkLoader);
+		loader.load();
+		String summary = loader.getMetrics().summary();
+		if (loader instanceof StatisticsToDryRunLoader) {
+			summary += String.format("%n") + ((StatisticsToDryRunLoader) loader).report();
+		}
+		return summary;
+	}
+
+	@CliCommand(value = "session", help = "Describe the open archive, its cached values and the selection")
+	public String describeSession() {
+		long lookups = Math.max(1, session.getCacheHits() + session.getCacheMisses());
+		return String.format("Archive [%s] of member [%s], parsed in %d ms%n"
+						+ "Cache: %d values (%.1f MB), %.0f%% hits%n", session.getArchiveFile(), memberName,
+				session.getParseMillis(), session.getCachedValues(), session.getCachedValues() * 8 / 1048576.0,
+				100.0 * session.getCacheHits() / lookups) + describeFilter();
+	}
+
+	@CliCommand(value = "close", help = "Close the open archive and release its cached values")
+	public void close() throws IOException {
+		if (session != null) {
+			try {
+				session.close();
+			}
+			finally {
+				session = null;
+			}
+		}
+	}
+
+	private AbstractStatisticsTSDBLoader newLoader(AbstractStatisticsTSDBLoader prototypeLoader) {
+		return newLoader(prototypeLoader, includes, excludes, from, to);
+	}
+
+	private AbstractStatisticsTSDBLoader newLoader(AbstractStatisticsTSDBLoader prototypeLoader, String[] includes,
+			String[] excludes, String from, String to) {
+
+		AbstractStatisticsTSDBLoader loader = prototypeLoader.forArchive(session.getArchiveFile(), memberName);
+		if (includes != null) {
+			loader.setStatIncludes(includes);
+		}
+		if (excludes != null) {
+			loader.setStatExcludes(excludes);
+		}
+		if (from != null) {
+			loader.setLoadFrom(from);
+		}
+		if (to != null) {
+			loader.setLoadTo(to);
+		}
+		loader.setArchiveSession(session);
+		return loader;
+	}
+
+	private String describeFilter() {
+		return String.format("Filter: include %s, exclude %s, from %s, to %s", describe(includes),
+				describe(excludes), (from != null) ? from : "(configured)", (to != null) ? to : "(configured)");
+	}
+
+	private static String describe(String[] rules) {
+		return (rules == null) ? "(configured)" : "[" + String.join(", ", rules) + "]";
+	}
+
+	private static String[] splitRules(String rules) {
+		return StringUtils.hasText(rules) ? StringUtils.tokenizeToStringArray(rules, ",") : new String[0];
+	}
+
+	private static int countStats(StatArchiveReader.ResourceInst ri) {
+		int stats = 0;
+		for (StatArchiveReader.StatValue statValue : ri.getStatValues()) {
+			if (statValue != null) {
+				stats++;
+			}
+		}
+		return stats;
+	}
+
+	private static String formatTime(long[] timestamps, int index) {
+		return (index >= 0 && index < timestamps.length) ? Instant.ofEpochMilli(timestamps[index]).toString() : "-";
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Loads many statistics archives (e.g. all cluster members together with their rolled archives) in parallel.
+ *
+ * Every archive is decoded and written by its own loader, created from the prototype loader with
+ * {@link AbstractStatisticsTSDBLoader#forArchive}, on a bounded pool of worker threads.
+ */
+public class BulkStatisticsLoader {
+
+	private static final Logger LOG = LoggerFactory.getLogger(BulkStatisticsLoader.class);
+
+	private final AbstractStatisticsTSDBLoader prototypeLoader;
+
+	private final int loadThreads;
+
+	private final ArchiveFileLocator archiveFileLocator = new ArchiveFileLocator();
+
+	/**
+	 * @param prototypeLoader Loader used as a template for the per-archive loaders.
+	 * @param loadThreads Number of archives loaded in parallel. If not positive the number of available processors is used.
+	 */
+	public BulkStatisticsLoader(AbstractStatisticsTSDBLoader prototypeLoader, int loadThreads) {
+
+		Assert.notNull(prototypeLoader, "Not null prototypeLoader is required!");
+		prototypeLoader.assertRollupSupported();
+
+		this.prototypeLoader = prototypeLoader;
+		this.loadThreads = (loadThreads > 0) ? loadThreads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Loads all archives found under the provided location.
+	 * @param archiveLocation Archive directory or glob pattern.
+	 * @return Returns the number of samples loaded from all archives.
+	 * @throws IOException when the location can not be read.
+	 * @throws IllegalStateException when one or more of the archives fail to load.
+	 */
+	public long load(String archiveLocation) throws IOException {
+
+		List<ArchiveFileLocator.MemberArchive> archives = archiveFileLocator.locate(archiveLocation);
+
+		LOG.info("Found " + archives.size() + " archive files in [" + archiveLocation + "]: " + archives);
+
+		if (archives.isEmpty()) {
+			return 0;
+		}
+
+		if (prototypeLoader.cleanDatabaseOnLoad) {
+			prototypeLoader.doCreateEmptyDatabase();
+		}
+
+		long startTime = System.currentTimeMillis();
+
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(loadThreads, archives.size()),
+				new LoaderThreadFactory());
+		try {
+			CompletionService<ArchiveLoadResult> completionService = new ExecutorCompletionService<>(executor);
+			for (ArchiveFileLocator.MemberArchive archive : archives) {
+				completionService.submit(() -> loadArchive(archive));
+			}
+
+			long totalSamples = 0;
+			long totalBytes = 0;
+			List<String> failedArchives = new ArrayList<>();
+
+			for (int i = 0; i < archives.size(); i++) {
+				try {
+					ArchiveLoadResult result = completionService.take().get();
+					totalSamples += result.samples;
+					totalBytes += result.bytes;
+				}
+				catch (ExecutionException e) {
+					LOG.error("Failed to load archive", e.getCause());
+					failedArchives.add(e.getCause().getMessage());
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException("Interrupted while loading archives from [" + archiveLocation + "]", e);
+				}
+			}
+
+			long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+			LOG.info(String.format("Loaded %d archives (%d samples, %.1f MB) in %d ms: %.0f samples/s, %.2f MB/s",
+					archives.size() - failedArchives.size(), totalSamples, totalBytes / 1048576.0, elapsed,
+					totalSamples * 1000.0 / elapsed, (totalBytes / 1048576.0) * 1000.0 / elapsed));
+
+			if (!failedArchives.isEmpty()) {
+				throw new IllegalStateException("Failed to load " + failedArchives.size() + " archives: " + failedArchives);
+			}
+
+			return totalSamples;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private ArchiveLoadResult loadArchive(ArchiveFileLocator.MemberArchive archive) throws IOException {
+
+		AbstractStatisticsTSDBLoader loader = prototypeLoader.forArchive(archive.getFile(), archive.getMemberName());
+		// The database was recreated, so the progress recorded by earlier loads is obsolete
+		loader.discardCheckpoint = prototypeLoader.cleanDatabaseOnLoad;
+
+		long startTime = System.currentTimeMillis();
+		try {
+			loader.load();
+		}
+		catch (IOException | RuntimeException e) {
+			throw new IOException("Archive [" + archive.getFile() + "] of member [" + archive.getMemberName() + "]: " + e, e);
+		}
+		long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+
+		ArchiveLoadResult result = new ArchiveLoadResult(loader.getLoadedSampleCount(), archive.getFile().length());
+
+		LOG.info(String.format("Archive [%s] of member [%s]: %d measurements, %d samples in %d ms: %.0f samples/s, %.2f MB/s",
+				archive.getFile(), archive.getMemberName(), loader.getLoadedMeasurementCount(), result.samples, elapsed,
+				result.samples * 1000.0 / elapsed, (result.bytes / 1048576.0) * 1000.0 / elapsed));
+
+		return result;
+	}
+
+	private static class ArchiveLoadResult {
+
+		final long samples;
+
+		final long bytes;
+
+		ArchiveLoadResult(long samples, long bytes) {
+			this.samples = samples;
+			this.bytes = bytes;
+		}
+	}
+
+	private static class LoaderThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "archive-loader-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
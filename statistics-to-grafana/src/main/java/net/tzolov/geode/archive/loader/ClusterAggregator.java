@@ -0,0 +1,484 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Aggregates the statistics of all cluster members into cluster wide measurements (e.g. the total gets per second or
+ * the heap used summed across the members).
+ *
+ * The samples of every member archive are aligned to a common time grid, aligned to the epoch: at every grid point a
+ * member contributes its last sample taken at or before the point, unless older than the sampleMaxAge. The sum, min,
+ * max and average across the members of every measurement field (and counter rate) are loaded as
+ * {@code <fieldName>_<aggregate>} fields of the {@code cluster:<measurementName>} measurement, tagged with the
+ * {@link #CLUSTER_MEMBER} archive member. The members are decoded together in windows of grid points, so the memory
+ * used is independent of the archives length.
+ */
+public class ClusterAggregator {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ClusterAggregator.class);
+
+	/** Archive member name of the cluster measurements. */
+	public static final String CLUSTER_MEMBER = "cluster";
+
+	/** Measurement name prefix of the cluster measurements. */
+	public static final String CLUSTER_MEASUREMENT_PREFIX = "cluster:";
+
+	/**
+	 * Aggregates across the members, written as {@code <fieldName>_<suffix>} fields.
+	 */
+	public enum Aggregate {
+
+		SUM, MIN, MAX, AVG;
+
+		public String getFieldSuffix() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final AbstractStatisticsTSDBLoader prototypeLoader;
+
+	private final long intervalMillis;
+
+	private final long sampleMaxAge;
+
+	private final Aggregate[] aggregates;
+
+	private final int openThreads;
+
+	private final ArchiveFileLocator archiveFileLocator = new ArchiveFileLocator();
+
+	/**
+	 * @param prototypeLoader Loader used as a template for the cluster measurements loader. Its stat filter rules,
+	 * counter mode, time range and streaming window size apply.
+	 * @param intervalMillis Time between two grid points in milliseconds.
+	 * @param sampleMaxAge Maximum age, in milliseconds, of the member samples contributing to a grid point.
+	 * @param aggregates Names of the computed aggregates (e.g. sum, min, max, avg).
+	 * @param openThreads Number of archives parsed in parallel. If not positive the number of available processors
+	 * is used.
+	 */
+	public ClusterAggregator(AbstractStatisticsTSDBLoader prototypeLoader, long intervalMillis, long sampleMaxAge,
+			String[] aggregates, int openThreads) {
+
+		Assert.notNull(prototypeLoader, "Not null prototypeLoader is required!");
+		Assert.isTrue(prototypeLoader.isClusterAggregateSupported(),
+				prototypeLoader.getClass().getSimpleName() + " does not support cluster aggregates!");
+		Assert.isTrue(intervalMillis > 0, "Positive intervalMillis is required!");
+		Assert.isTrue(sampleMaxAge > 0, "Positive sampleMaxAge is required!");
+		Assert.notEmpty(aggregates, "Not empty aggregates are required!");
+
+		this.prototypeLoader = prototypeLoader;
+		this.intervalMillis = intervalMillis;
+		this.sampleMaxAge = sampleMaxAge;
+		this.aggregates = Arrays.stream(aggregates).map(aggregate -> Aggregate.valueOf(aggregate.trim().toUpperCase()))
+				.toArray(Aggregate[]::new);
+		this.openThreads = (openThreads > 0) ? openThreads : Runtime.getRuntime().availableProcessors();
+	}
+
+	/**
+	 * Aggregates all archives found under the provided location.
+	 * @param archiveLocation Archive directory or glob pattern.
+	 * @throws IOException when the location or an archive can not be read.
+	 */
+	public void aggregate(String archiveLocation) throws IOException {
+
+		List<ArchiveFileLocator.MemberArchive> archives = archiveFileLocator.locate(archiveLocation);
+		if (archives.isEmpty()) {
+			return;
+		}
+
+		long startTime = System.currentTimeMillis();
+		AbstractStatisticsTSDBLoader loader = prototypeLoader.forArchive(archives.get(0).getFile(), CLUSTER_MEMBER);
+
+		List<StatArchiveReader> readers = openArchives(archives);
+		try {
+			Map<String, ClusterMeasurement> measurements = new LinkedHashMap<>();
+			for (int i = 0; i < readers.size(); i++) {
+				addMeasurements(loader, archives.get(i).getMemberName(), readers.get(i), measurements);
+			}
+
+			long[] pointCount = new long[1];
+			loader.execute(() -> {
+				for (ClusterMeasurement measurement : measurements.values()) {
+					pointCount[0] += aggregate(loader, measurement);
+				}
+			});
+
+			LOG.info(String.format("Aggregated %d measurements of %d archives into %d cluster points in %d ms",
+					measurements.size(), archives.size(), pointCount[0], System.currentTimeMillis() - startTime));
+		}
+		finally {
+			for (StatArchiveReader reader : readers) {
+				reader.close();
+			}
+		}
+	}
+
+	/**
+	 * Parses the archives in parallel. All of them stay open while the cluster measurements are aggregated.
+	 */
+	private List<StatArchiveReader> openArchives(List<ArchiveFileLocator.MemberArchive> archives) throws IOException {
+
+		List<StatArchiveReader> readers = new ArrayList<>();
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(openThreads, archives.size()));
+		try {
+			List<Future<StatArchiveReader>> futures = new ArrayList<>();
+			for (ArchiveFileLocator.MemberArchive archive : archives) {
+				futures.add(executor.submit(
+						() -> prototypeLoader.forArchive(archive.getFile(), archive.getMemberName()).openArchive()));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					readers.add(futures.get(i).get());
+				}
+				catch (ExecutionException e) {
+					throw new IOException("Archive [" + archives.get(i).getFile() + "]: " + e.getCause(), e.getCause());
+				}
+			}
+			return readers;
+		}
+		catch (IOException | InterruptedException e) {
+			for (StatArchiveReader reader : readers) {
+				reader.close();
+			}
+			if (e instanceof InterruptedException) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while opening the cluster archives", e);
+			}
+			throw (IOException) e;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+	}
+
+	/**
+	 * Adds the measurements of a member archive to the cluster measurements of the same name. Resource instances
+	 * sharing a name are numbered in their archive order, as by the member loads.
+	 */
+	private void addMeasurements(AbstractStatisticsTSDBLoader loader, String memberName, StatArchiveReader reader,
+			Map<String, ClusterMeasurement> measurements) {
+
+		Map<String, Integer> nameOccurrences = new HashMap<>();
+		for (StatArchiveReader.ResourceInst ri : loader.getResourceInsts(reader)) {
+			String measurementName = loader.getMeasurementName(ri);
+			int occurrence = nameOccurrences.merge(measurementName, 1, Integer::sum);
+			String measurementKey = (occurrence == 1) ? measurementName : measurementName + "#" + occurrence;
+
+			StatArchiveReader.StatValue[] fields = loader.getMeasurementFields(ri);
+			ClusterMeasurement measurement = measurements.computeIfAbsent(measurementKey,
+					key -> new ClusterMeasurement(CLUSTER_MEASUREMENT_PREFIX + key, ri.getType().getName()));
+			measurement.members.add(new MemberMeasurement(memberName, fields, measurement.fieldSlots(loader, fields)));
+		}
+	}
+
+	/**
+	 * Aggregates the members of a cluster measurement, one window of grid points at a time.
+	 * @return Returns the number of loaded cluster points.
+	 */
+	private long aggregate(AbstractStatisticsTSDBLoader loader, ClusterMeasurement measurement) {
+
+		long loadFrom = loader.getLoadFrom();
+		long loadTo = loader.getLoadTo();
+		// The samples preceding the time range still contribute to its first grid points
+		long decodeFrom = (loadFrom < 0) ? -1L : Math.max(0, loadFrom - sampleMaxAge);
+
+		long firstTime = Long.MAX_VALUE;
+		long lastTime = Long.MIN_VALUE;
+		for (MemberMeasurement member : measurement.members) {
+			member.timestamps = member.fields[0].createTrimmed(decodeFrom, loadTo).getRawAbsoluteTimeStamps();
+			if (member.timestamps.length > 0) {
+				firstTime = Math.min(firstTime, member.timestamps[0]);
+				lastTime = Math.max(lastTime, member.timestamps[member.timestamps.length - 1]);
+			}
+		}
+		if (firstTime > lastTime) {
+			return 0;
+		}
+
+		// The grid ends at the first point following the last sample
+		long gridStart = MeasurementRollup.windowStart(Math.max(firstTime, loadFrom), intervalMillis);
+		long gridEnd = Math.min(lastTime + intervalMillis, (loadTo < 0) ? Long.MAX_VALUE : loadTo);
+		long windowLength = intervalMillis * loader.getStreamingWindowSize();
+
+		long pointCount = 0;
+		loader.doPrepareMeasurementLoad();
+		for (long windowStart = gridStart; windowStart < gridEnd; windowStart += windowLength) {
+
+			long windowEnd = Math.min(windowStart + windowLength, gridEnd);
+			long lastGridPoint = windowEnd - 1 - Math.floorMod(windowEnd - 1 - windowStart, intervalMillis);
+			for (MemberMeasurement member : measurement.members) {
+				member.decode(lastGridPoint);
+			}
+
+			for (long gridPoint = windowStart; gridPoint < windowEnd; gridPoint += intervalMillis) {
+				measurement.reset();
+				for (MemberMeasurement member : measurement.members) {
+					if (member.advance(gridPoint) && gridPoint - member.heldTime < sampleMaxAge) {
+						measurement.add(loader, member);
+					}
+				}
+				if (measurement.memberCount > 0 && gridPoint >= loadFrom) {
+					loader.doLoadClusterAggregate(measurement.name, measurement.type, gridPoint,
+							measurement.fieldNames(loader, aggregates), measurement.values(aggregates));
+					pointCount++;
+				}
+			}
+		}
+		loader.doCompleteMeasurementLoad();
+
+		for (MemberMeasurement member : measurement.members) {
+			member.release();
+		}
+		return pointCount;
+	}
+
+	/**
+	 * Cluster measurement and the aggregates of its fields at the current grid point. Every field has a raw value
+	 * slot (2 * i) and a counter rate slot (2 * i + 1).
+	 */
+	private static class ClusterMeasurement {
+
+		final String name;
+
+		final String type;
+
+		final List<MemberMeasurement> members = new ArrayList<>();
+
+		// Slot index of every stat name and a stat value of the slot, for its field names
+		final Map<String, Integer> statSlots = new LinkedHashMap<>();
+
+		final List<StatArchiveReader.StatValue> slotFields = new ArrayList<>();
+
+		double[] sum;
+
+		double[] min;
+
+		double[] max;
+
+		int[] counts;
+
+		int memberCount;
+
+		String[] fieldNames;
+
+		double[] values;
+
+		ClusterMeasurement(String name, String type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		int[] fieldSlots(AbstractStatisticsTSDBLoader loader, StatArchiveReader.StatValue[] fields) {
+			int[] slots = new int[fields.length];
+			for (int i = 0; i < fields.length; i++) {
+				StatArchiveReader.StatValue field = fields[i];
+				slots[i] = statSlots.computeIfAbsent(loader.getMeasurementFieldName(field), statName -> {
+					slotFields.add(field);
+					return slotFields.size() - 1;
+				});
+			}
+			return slots;
+		}
+
+		void reset() {
+			if (sum == null) {
+				int slotCount = 2 * slotFields.size();
+				sum = new double[slotCount];
+				min = new double[slotCount];
+				max = new double[slotCount];
+				counts = new int[slotCount];
+			}
+			Arrays.fill(sum, 0);
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+			Arrays.fill(counts, 0);
+			memberCount = 0;
+		}
+
+		void add(AbstractStatisticsTSDBLoader loader, MemberMeasurement member) {
+			for (int i = 0; i < member.fields.length; i++) {
+				if (loader.isRawField(member.fields[i])) {
+					add(2 * member.slots[i], member.heldValues[i]);
+				}
+				if (loader.isRateField(member.fields[i])) {
+					add(2 * member.slots[i] + 1, member.heldRates[i]);
+				}
+			}
+			memberCount++;
+		}
+
+		private void add(int slot, double value) {
+			if (Double.isNaN(value)) {
+				return;
+			}
+			sum[slot] += value;
+			min[slot] = Math.min(min[slot], value);
+			max[slot] = Math.max(max[slot], value);
+			counts[slot]++;
+		}
+
+		/**
+		 * @return Returns the names of the aggregate fields, the same array for all points of the measurement.
+		 */
+		String[] fieldNames(AbstractStatisticsTSDBLoader loader, Aggregate[] aggregates) {
+			if (fieldNames == null) {
+				fieldNames = new String[sum.length * aggregates.length];
+				for (int slot = 0; slot < sum.length; slot++) {
+					StatArchiveReader.StatValue field = slotFields.get(slot / 2);
+					String fieldName = (slot % 2 == 0) ? loader.getMeasurementFieldName(field)
+							: loader.getMeasurementRateFieldName(field);
+					for (int a = 0; a < aggregates.length; a++) {
+						fieldNames[slot * aggregates.length + a] = fieldName + "_" + aggregates[a].getFieldSuffix();
+					}
+				}
+			}
+			return fieldNames;
+		}
+
+		/**
+		 * @return Returns the aggregate values, indexed as the field names. NaN if no member has a value.
+		 */
+		double[] values(Aggregate[] aggregates) {
+			if (values == null) {
+				values = new double[sum.length * aggregates.length];
+			}
+			for (int slot = 0; slot < sum.length; slot++) {
+				for (int a = 0; a < aggregates.length; a++) {
+					values[slot * aggregates.length + a] = get(aggregates[a], slot);
+				}
+			}
+			return values;
+		}
+
+		private double get(Aggregate aggregate, int slot) {
+			if (counts[slot] == 0) {
+				return Double.NaN;
+			}
+			switch (aggregate) {
+			case SUM:
+				return sum[slot];
+			case MIN:
+				return min[slot];
+			case MAX:
+				return max[slot];
+			default:
+				return sum[slot] / counts[slot];
+			}
+		}
+	}
+
+	/**
+	 * Measurement of one member, with its decoded window and the sample held at the current grid point.
+	 */
+	private static class MemberMeasurement {
+
+		final String memberName;
+
+		final StatArchiveReader.StatValue[] fields;
+
+		// Cluster measurement slot of every field
+		final int[] slots;
+
+		long[] timestamps;
+
+		// Decoded samples [windowStart, windowEnd) and the next one to apply
+		double[][] window;
+
+		int windowStart;
+
+		int windowEnd;
+
+		int nextSample;
+
+		final double[] heldValues;
+
+		final double[] heldRates;
+
+		long heldTime = -1;
+
+		MemberMeasurement(String memberName, StatArchiveReader.StatValue[] fields, int[] slots) {
+			this.memberName = memberName;
+			this.fields = fields;
+			this.slots = slots;
+			this.window = new double[fields.length][];
+			this.heldValues = new double[fields.length];
+			this.heldRates = new double[fields.length];
+		}
+
+		/**
+		 * Decodes the samples following the current window, up to the provided time.
+		 */
+		void decode(long toTime) {
+			windowStart = windowEnd;
+			windowEnd = AbstractStatisticsTSDBLoader.firstIndexAtOrAfter(timestamps, windowStart, toTime + 1);
+			if (windowEnd == windowStart) {
+				return;
+			}
+			for (int i = 0; i < fields.length; i++) {
+				window[i] = fields[i].createTrimmed(timestamps[windowStart], timestamps[windowEnd - 1] + 1)
+						.getRawSnapshots();
+				if (window[i].length != windowEnd - windowStart) {
+					throw new IllegalStateException("Expected " + (windowEnd - windowStart) + " samples of ["
+							+ fields[i].getDescriptor().getName() + "] of member [" + memberName + "] but found "
+							+ window[i].length);
+				}
+			}
+		}
+
+		/**
+		 * Applies the decoded samples taken at or before the grid point.
+		 * @return Returns true if a sample is held.
+		 */
+		boolean advance(long gridPoint) {
+			while (nextSample < windowEnd && timestamps[nextSample] <= gridPoint) {
+				long sampleTime = timestamps[nextSample];
+				for (int i = 0; i < fields.length; i++) {
+					double value = window[i][nextSample - windowStart];
+					// Per second rate since the previous sample, none after a counter reset
+					heldRates[i] = (heldTime >= 0 && sampleTime > heldTime && value >= heldValues[i])
+							? (value - heldValues[i]) * 1000 / (sampleTime - heldTime) : Double.NaN;
+					heldValues[i] = value;
+				}
+				heldTime = sampleTime;
+				nextSample++;
+			}
+			return heldTime >= 0;
+		}
+
+		void release() {
+			timestamps = null;
+			Arrays.fill(window, null);
+		}
+	}
+}
@@ -0,0 +1,273 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.util.Assert;
+
+/**
+ * Reads series back from a columnar series file written by the {@link ColumnarSeriesWriter}.
+ *
+ * Only the index is read when the file is opened. The chunks of a series are memory mapped and decoded on demand,
+ * so reading one series does not scan the file. Measurements loaded more than once (e.g. resource instances sharing
+ * the same name) are returned as one series ordered by time.
+ */
+public class ColumnarSeriesReader implements Closeable {
+
+	private final FileChannel channel;
+
+	private final Map<String, List<Chunk>> measurementChunks = new LinkedHashMap<>();
+
+	/**
+	 * @param file Series file.
+	 * @throws IOException when the file can not be read or is not a series file.
+	 */
+	public ColumnarSeriesReader(File file) throws IOException {
+
+		Assert.notNull(file, "Not null file is required!");
+
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		try {
+			long size = channel.size();
+			if (size < 8 + ColumnarSeriesWriter.FOOTER_SIZE) {
+				throw new IOException("Not a series file [" + file + "]");
+			}
+			ByteBuffer footer = channel.map(FileChannel.MapMode.READ_ONLY, size - ColumnarSeriesWriter.FOOTER_SIZE,
+					ColumnarSeriesWriter.FOOTER_SIZE);
+			long indexOffset = footer.getLong();
+			ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, 8);
+			if (footer.getInt() != ColumnarSeriesWriter.MAGIC || header.getInt() != ColumnarSeriesWriter.MAGIC) {
+				throw new IOException("Not a series file [" + file + "]");
+			}
+			if (header.getInt() != ColumnarSeriesWriter.VERSION) {
+				throw new IOException("Unsupported series file version [" + file + "]");
+			}
+			readIndex(channel.map(FileChannel.MapMode.READ_ONLY, indexOffset,
+					size - ColumnarSeriesWriter.FOOTER_SIZE - indexOffset));
+		}
+		catch (IOException | RuntimeException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * @return Returns the names of the stored measurements.
+	 */
+	public Set<String> getMeasurementNames() {
+		return Collections.unmodifiableSet(measurementChunks.keySet());
+	}
+
+	/**
+	 * @return Returns the column (e.g. field) names of the measurement.
+	 */
+	public Set<String> getColumnNames(String measurementName) {
+		Set<String> columnNames = new LinkedHashSet<>();
+		for (Chunk chunk : getChunks(measurementName)) {
+			columnNames.addAll(Arrays.asList(chunk.measurement.columnNames));
+		}
+		return columnNames;
+	}
+
+	/**
+	 * @return Returns the type name of the measurement.
+	 */
+	public String getMeasurementType(String measurementName) {
+		return getChunks(measurementName).get(0).measurement.type;
+	}
+
+	/**
+	 * Reads one series.
+	 * @param measurementName Measurement name.
+	 * @param columnName Column (e.g. field) name.
+	 * @return Returns the series samples, ordered by time.
+	 */
+	public Series readSeries(String measurementName, String columnName) throws IOException {
+
+		List<long[]> timestampChunks = new ArrayList<>();
+		List<double[]> valueChunks = new ArrayList<>();
+		int sampleCount = 0;
+
+		for (Chunk chunk : getChunks(measurementName)) {
+			int column = chunk.measurement.getColumnIndex(columnName);
+			if (column < 0) {
+				continue;
+			}
+			timestampChunks.add(SeriesCodec.decodeTimestamps(map(chunk.timestampsOffset, chunk.timestampsLength),
+					chunk.sampleCount));
+			valueChunks.add(SeriesCodec.decodeDoubles(map(chunk.columnOffsets[column], chunk.columnLengths[column]),
+					chunk.sampleCount));
+			sampleCount += chunk.sampleCount;
+		}
+
+		long[] timestamps = new long[sampleCount];
+		double[] values = new double[sampleCount];
+		int position = 0;
+		for (int i = 0; i < timestampChunks.size(); i++) {
+			int length = timestampChunks.get(i).length;
+			System.arraycopy(timestampChunks.get(i), 0, timestamps, position, length);
+			System.arraycopy(valueChunks.get(i), 0, values, position, length);
+			position += length;
+		}
+		return new Series(timestamps, values);
+	}
+
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+
+	private List<Chunk> getChunks(String measurementName) {
+		List<Chunk> chunks = measurementChunks.get(measurementName);
+		Assert.notNull(chunks, "Unknown measurement [" + measurementName + "]");
+		return chunks;
+	}
+
+	private MappedByteBuffer map(long offset, int length) throws IOException {
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, length);
+	}
+
+	private void readIndex(ByteBuffer indexBuffer) throws IOException {
+
+		byte[] index = new byte[indexBuffer.remaining()];
+		indexBuffer.get(index);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(index));
+
+		Measurement[] measurements = new Measurement[in.readInt()];
+		for (int i = 0; i < measurements.length; i++) {
+			String name = in.readUTF();
+			String type = in.readUTF();
+			String[] columnNames = new String[in.readInt()];
+			for (int c = 0; c < columnNames.length; c++) {
+				columnNames[c] = in.readUTF();
+			}
+			measurements[i] = new Measurement(name, type, columnNames);
+		}
+
+		int chunkCount = in.readInt();
+		for (int i = 0; i < chunkCount; i++) {
+			Measurement measurement = measurements[in.readInt()];
+			Chunk chunk = new Chunk(measurement, in.readInt(), in.readLong(), in.readLong(), in.readLong(), in.readInt());
+			for (int c = 0; c < measurement.columnNames.length; c++) {
+				chunk.columnOffsets[c] = in.readLong();
+				chunk.columnLengths[c] = in.readInt();
+			}
+			measurementChunks.computeIfAbsent(measurement.name, name -> new ArrayList<>()).add(chunk);
+		}
+
+		// Chunks of concurrently loaded measurements are interleaved in the file
+		measurementChunks.values().forEach(chunks -> chunks.sort(Comparator.comparingLong(chunk -> chunk.firstTimestamp)));
+	}
+
+	/**
+	 * Samples of one series.
+	 */
+	public static class Series {
+
+		private final long[] timestamps;
+
+		private final double[] values;
+
+		Series(long[] timestamps, double[] values) {
+			this.timestamps = timestamps;
+			this.values = values;
+		}
+
+		/**
+		 * @return Returns the sample times in milliseconds.
+		 */
+		public long[] getTimestamps() {
+			return timestamps;
+		}
+
+		public double[] getValues() {
+			return values;
+		}
+	}
+
+	private static class Measurement {
+
+		final String name;
+
+		final String type;
+
+		final String[] columnNames;
+
+		Measurement(String name, String type, String[] columnNames) {
+			this.name = name;
+			this.type = type;
+			this.columnNames = columnNames;
+		}
+
+		int getColumnIndex(String columnName) {
+			for (int i = 0; i < columnNames.length; i++) {
+				if (columnNames[i].equals(columnName)) {
+					return i;
+				}
+			}
+			return -1;
+		}
+	}
+
+	private static class Chunk {
+
+		final Measurement measurement;
+
+		final int sampleCount;
+
+		final long firstTimestamp;
+
+		final long lastTimestamp;
+
+		final long timestampsOffset;
+
+		final int timestampsLength;
+
+		final long[] columnOffsets;
+
+		final int[] columnLengths;
+
+		Chunk(Measurement measurement, int sampleCount, long firstTimestamp, long lastTimestamp, long timestampsOffset,
+				int timestampsLength) {
+			this.measurement = measurement;
+			this.sampleCount = sampleCount;
+			this.firstTimestamp = firstTimestamp;
+			this.lastTimestamp = lastTimestamp;
+			this.timestampsOffset = timestampsOffset;
+			this.timestampsLength = timestampsLength;
+			this.columnOffsets = new long[measurement.columnNames.length];
+			this.columnLengths = new int[measurement.columnNames.length];
+		}
+	}
+}
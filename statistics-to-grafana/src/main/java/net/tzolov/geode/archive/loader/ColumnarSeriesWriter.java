@@ -0,0 +1,189 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.util.Assert;
+
+/**
+ * Writes measurements into a columnar series file.
+ *
+ * The samples of a measurement are written in chunks. A chunk holds the delta encoded timestamps followed by one
+ * XOR compressed column per measurement field (see {@link SeriesCodec}). The index, written when the file is closed,
+ * holds the measurements with their column names and the offset of every chunk column, so one series is read back
+ * without scanning the file. File layout:
+ * <pre>
+ * header: magic (int), version (int)
+ * chunks: timestamps column, value columns...
+ * index:  measurements (name, type, column names), chunks (measurement, sample count, time range, column offsets)
+ * footer: index offset (long), magic (int)
+ * </pre>
+ *
+ * Chunks can be written concurrently (e.g. measurements loaded by different threads).
+ */
+public class ColumnarSeriesWriter implements Closeable {
+
+	static final int MAGIC = 0x47535331;
+
+	static final int VERSION = 1;
+
+	static final int FOOTER_SIZE = 12;
+
+	private final FileChannel channel;
+
+	private final List<String[]> measurements = new ArrayList<>();
+
+	private final Map<String, Integer> measurementIndexes = new HashMap<>();
+
+	private final ByteArrayOutputStream chunkIndex = new ByteArrayOutputStream();
+
+	private final DataOutputStream chunkIndexOut = new DataOutputStream(chunkIndex);
+
+	private int chunkCount;
+
+	private long position;
+
+	private long writtenBytes;
+
+	/**
+	 * Creates (or truncates) the series file.
+	 * @param file Series file.
+	 */
+	public ColumnarSeriesWriter(File file) throws IOException {
+		Assert.notNull(file, "Not null file is required!");
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		ByteBuffer header = ByteBuffer.allocate(8).putInt(MAGIC).putInt(VERSION);
+		header.flip();
+		write(header);
+	}
+
+	/**
+	 * Writes a chunk of measurement samples.
+	 * @param measurementName Measurement name.
+	 * @param measurementType Measurement type name.
+	 * @param columnNames Names of the value columns.
+	 * @param timestamps Sample times in milliseconds.
+	 * @param sampleCount Number of samples, from the start of the timestamps array, in the chunk.
+	 * @param columns XOR compressed value columns, see {@link SeriesCodec.XorEncoder}.
+	 * @return Returns the number of bytes of the written chunk columns.
+	 */
+	public synchronized long writeChunk(String measurementName, String measurementType, String[] columnNames,
+			long[] timestamps, int sampleCount, byte[][] columns) throws IOException {
+
+		Assert.isTrue(columnNames.length == columns.length, "Same number of column names and columns is required!");
+		if (sampleCount == 0) {
+			return 0;
+		}
+
+		String measurementKey = measurementName + "\n" + measurementType + "\n" + String.join("\n", columnNames);
+		Integer measurementIndex = measurementIndexes.get(measurementKey);
+		if (measurementIndex == null) {
+			measurementIndex = measurements.size();
+			measurementIndexes.put(measurementKey, measurementIndex);
+			String[] measurement = Arrays.copyOf(new String[] { measurementName, measurementType },
+					columnNames.length + 2);
+			System.arraycopy(columnNames, 0, measurement, 2, columnNames.length);
+			measurements.add(measurement);
+		}
+
+		chunkIndexOut.writeInt(measurementIndex);
+		chunkIndexOut.writeInt(sampleCount);
+		chunkIndexOut.writeLong(timestamps[0]);
+		chunkIndexOut.writeLong(timestamps[sampleCount - 1]);
+
+		byte[] encodedTimestamps = SeriesCodec.encodeTimestamps(timestamps, sampleCount);
+		chunkIndexOut.writeLong(position);
+		chunkIndexOut.writeInt(encodedTimestamps.length);
+		write(ByteBuffer.wrap(encodedTimestamps));
+		long chunkBytes = encodedTimestamps.length;
+
+		for (byte[] column : columns) {
+			chunkIndexOut.writeLong(position);
+			chunkIndexOut.writeInt(column.length);
+			write(ByteBuffer.wrap(column));
+			chunkBytes += column.length;
+		}
+		chunkCount++;
+		return chunkBytes;
+	}
+
+	/**
+	 * @return Returns the number of bytes written so far, without the index.
+	 */
+	public synchronized long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/**
+	 * Writes the index and closes the file.
+	 */
+	@Override
+	public synchronized void close() throws IOException {
+		if (!channel.isOpen()) {
+			return;
+		}
+		try {
+			long indexOffset = position;
+
+			ByteArrayOutputStream index = new ByteArrayOutputStream();
+			DataOutputStream indexOut = new DataOutputStream(index);
+			indexOut.writeInt(measurements.size());
+			for (String[] measurement : measurements) {
+				indexOut.writeUTF(measurement[0]);
+				indexOut.writeUTF(measurement[1]);
+				indexOut.writeInt(measurement.length - 2);
+				for (int i = 2; i < measurement.length; i++) {
+					indexOut.writeUTF(measurement[i]);
+				}
+			}
+			indexOut.writeInt(chunkCount);
+			chunkIndexOut.flush();
+			chunkIndex.writeTo(indexOut);
+			indexOut.flush();
+			write(ByteBuffer.wrap(index.toByteArray()));
+
+			ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE).putLong(indexOffset).putInt(MAGIC);
+			footer.flip();
+			write(footer);
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	private void write(ByteBuffer buffer) throws IOException {
+		int length = buffer.remaining();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		position += length;
+		writtenBytes += length;
+	}
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Durable record of the archive samples already stored in the target TSDB, used to resume an interrupted import.
+ *
+ * The checkpoint is a sidecar properties file holding the archive identity and, for every measurement, the index
+ * of the last committed sample. A batch is committed once the sink confirms its write. As the batches of a
+ * measurement can be written out of order, the committed index only advances over contiguous committed batches.
+ * The file is rewritten atomically at most every save interval and when the import completes.
+ *
+ * Instances are thread-safe.
+ */
+public class ImportCheckpoint {
+
+	private static final Logger LOG = LoggerFactory.getLogger(ImportCheckpoint.class);
+
+	private static final String ARCHIVE_ID_KEY = "_archive";
+
+	private final File checkpointFile;
+
+	private final String archiveId;
+
+	private final long saveIntervalMillis;
+
+	private final Map<String, Integer> committedIndexes = new HashMap<>();
+
+	// Number of submitted batches per last sample index. Different sinks (e.g. rollup and full resolution) can submit
+	// batches ending at the same sample
+	private final Map<String, TreeMap<Integer, Integer>> pendingIndexes = new HashMap<>();
+
+	private final Map<String, TreeSet<Integer>> writtenIndexes = new HashMap<>();
+
+	private long lastSaveTime = System.currentTimeMillis();
+
+	private boolean modified;
+
+	/**
+	 * Loads the checkpoint file, if it exists and belongs to the same archive.
+	 * @param checkpointFile Sidecar checkpoint file.
+	 * @param archiveId Archive identity. A checkpoint recorded for a different archive is discarded.
+	 * @param saveIntervalMillis Minimum time between two checkpoint file updates.
+	 */
+	public ImportCheckpoint(File checkpointFile, String archiveId, long saveIntervalMillis) throws IOException {
+
+		this.checkpointFile = checkpointFile;
+		this.archiveId = archiveId;
+		this.saveIntervalMillis = saveIntervalMillis;
+
+		if (checkpointFile.exists()) {
+			Properties properties = new Properties();
+			try (InputStream in = new FileInputStream(checkpointFile)) {
+				properties.load(in);
+			}
+			if (archiveId.equals(properties.getProperty(ARCHIVE_ID_KEY))) {
+				for (String key : properties.stringPropertyNames()) {
+					if (!ARCHIVE_ID_KEY.equals(key)) {
+						committedIndexes.put(key, Integer.parseInt(properties.getProperty(key)));
+					}
+				}
+				LOG.info("Resume import of " + committedIndexes.size() + " measurements from checkpoint ["
+						+ checkpointFile + "]");
+			}
+			else {
+				LOG.info("Ignore checkpoint [" + checkpointFile + "] recorded for another archive");
+			}
+		}
+	}
+
+	/**
+	 * @return Returns an identity of the archive, based on its header, that does not change when the file is
+	 * copied or moved.
+	 */
+	public static String archiveId(File archiveFile, StatArchiveReader reader) {
+		StatArchiveReader.ArchiveInfo info = reader.getArchives()[0].getArchiveInfo();
+		return archiveFile.getName() + ":" + info.getSystemId() + ":" + info.getSystemStartTimeMillis() + ":"
+				+ info.getStartTimeMillis();
+	}
+
+	/**
+	 * @param measurementKey Measurement name.
+	 * @return Returns the index of the last committed sample of the measurement or -1 if none was committed.
+	 */
+	public synchronized int getCommittedIndex(String measurementKey) {
+		return committedIndexes.getOrDefault(measurementKey, -1);
+	}
+
+	/**
+	 * Registers a batch, ending at the provided sample index, submitted for writing.
+	 */
+	public synchronized void submitted(String measurementKey, int lastSampleIndex) {
+		pendingIndexes.computeIfAbsent(measurementKey, key -> new TreeMap<>()).merge(lastSampleIndex, 1, Integer::sum);
+	}
+
+	/**
+	 * Marks a submitted batch as written. The committed index of the measurement advances when all the batches
+	 * submitted before this one are written as well.
+	 */
+	public synchronized void committed(String measurementKey, int lastSampleIndex) {
+
+		TreeMap<Integer, Integer> pending = pendingIndexes.get(measurementKey);
+		TreeSet<Integer> written = writtenIndexes.computeIfAbsent(measurementKey, key -> new TreeSet<>());
+		if (pending != null) {
+			pending.computeIfPresent(lastSampleIndex, (index, count) -> (count > 1) ? count - 1 : null);
+		}
+		written.add(lastSampleIndex);
+
+		SortedSet<Integer> contiguous = (pending == null || pending.isEmpty()) ? written
+				: written.headSet(pending.firstKey());
+		if (!contiguous.isEmpty()) {
+			committedIndexes.merge(measurementKey, contiguous.last(), Math::max);
+			contiguous.clear();
+			modified = true;
+		}
+
+		if (System.currentTimeMillis() - lastSaveTime >= saveIntervalMillis) {
+			try {
+				save();
+			}
+			catch (IOException e) {
+				LOG.warn("Failed to save checkpoint [" + checkpointFile + "]: " + e);
+			}
+		}
+	}
+
+	/**
+	 * Discards all committed progress (e.g. when the target database is recreated).
+	 */
+	public synchronized void reset() {
+		committedIndexes.clear();
+		modified = true;
+	}
+
+	/**
+	 * Writes the committed progress to the checkpoint file, if modified since the last save.
+	 */
+	public synchronized void save() throws IOException {
+
+		lastSaveTime = System.currentTimeMillis();
+		if (!modified) {
+			return;
+		}
+
+		Properties properties = new Properties();
+		properties.setProperty(ARCHIVE_ID_KEY, archiveId);
+		committedIndexes.forEach((key, index) -> properties.setProperty(key, String.valueOf(index)));
+
+		// Write a temporary file and atomically replace the checkpoint, so a crash never leaves a partial file
+		File tempFile = new File(checkpointFile.getPath() + ".tmp");
+		try (FileOutputStream out = new FileOutputStream(tempFile)) {
+			properties.store(out, "Statistics archive import checkpoint");
+			out.getFD().sync();
+		}
+		Files.move(tempFile.toPath(), checkpointFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		modified = false;
+	}
+}
@@ -0,0 +1,308 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.influxdb.InfluxDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Merges the encoded batches of all the measurements into the write requests submitted to the
+ * {@link InfluxWritePipeline}, so the measurements with few samples do not send their own tiny requests.
+ *
+ * The batches are appended to a pending request per retention policy, submitted once it holds the batch size
+ * points or the maximum batch bytes, or once its first batch lingered for the linger time. In adaptive mode the
+ * batch size follows the write latencies: it grows by a tenth after every write faster than the target latency and
+ * halves after a slower or failed write, between a tenth and ten times the configured batch size.
+ *
+ * Instances are thread-safe.
+ */
+public class InfluxWriteBatcher implements InfluxWritePipeline.WriteListener, AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InfluxWriteBatcher.class);
+
+	private final InfluxWritePipeline pipeline;
+
+	private final String database;
+
+	private final InfluxDB.ConsistencyLevel consistency;
+
+	private final int maxBatchBytes;
+
+	private final long lingerNanos;
+
+	private final int minBatchSize;
+
+	private final int maxBatchSize;
+
+	private final AtomicInteger batchSize;
+
+	private long targetLatencyNanos;
+
+	private final Map<String, PendingRequest> pendingRequests = new LinkedHashMap<>();
+
+	private final ScheduledExecutorService lingerTimer;
+
+	private final AtomicReference<RuntimeException> lingerFailure = new AtomicReference<>();
+
+	private final AtomicLong batches = new AtomicLong();
+
+	private final AtomicLong requests = new AtomicLong();
+
+	/**
+	 * @param pipeline Pipeline writing the merged requests.
+	 * @param database Target database.
+	 * @param consistency Write consistency level.
+	 * @param batchSize Number of points at which a pending request is submitted.
+	 * @param maxBatchBytes Size, in bytes, at which a pending request is submitted.
+	 * @param lingerMillis Maximum time, in milliseconds, a batch waits in a pending request. If 0 the pending requests
+	 * are only submitted when full or flushed.
+	 */
+	public InfluxWriteBatcher(InfluxWritePipeline pipeline, String database, InfluxDB.ConsistencyLevel consistency,
+			int batchSize, int maxBatchBytes, long lingerMillis) {
+
+		Assert.notNull(pipeline, "Not null InfluxWritePipeline is required!");
+		Assert.isTrue(batchSize > 0, "Positive batchSize is required!");
+		Assert.isTrue(maxBatchBytes > 0, "Positive maxBatchBytes is required!");
+		Assert.isTrue(lingerMillis >= 0, "Not negative lingerMillis is required!");
+
+		this.pipeline = pipeline;
+		this.database = database;
+		this.consistency = consistency;
+		this.batchSize = new AtomicInteger(batchSize);
+		this.minBatchSize = Math.max(1, batchSize / 10);
+		this.maxBatchSize = (int) Math.min(Integer.MAX_VALUE, 10L * batchSize);
+		this.maxBatchBytes = maxBatchBytes;
+		this.lingerNanos = TimeUnit.MILLISECONDS.toNanos(lingerMillis);
+
+		if (lingerMillis > 0) {
+			lingerTimer = Executors.newSingleThreadScheduledExecutor(r -> {
+				Thread thread = new Thread(r, "influx-batch-linger");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(10, lingerMillis / 2);
+			lingerTimer.scheduleAtFixedRate(this::submitLingering, period, period, TimeUnit.MILLISECONDS);
+		}
+		else {
+			lingerTimer = null;
+		}
+	}
+
+	/**
+	 * Adapts the batch size to the write latencies of the pipeline.
+	 * @param targetLatencyMillis Write latency, in milliseconds, the batch size is adapted to.
+	 */
+	public void adaptTo(long targetLatencyMillis) {
+		Assert.isTrue(targetLatencyMillis > 0, "Positive targetLatencyMillis is required!");
+		this.targetLatencyNanos = TimeUnit.MILLISECONDS.toNanos(targetLatencyMillis);
+		pipeline.setWriteListener(this);
+	}
+
+	/**
+	 * @return Returns the current batch size, in points.
+	 */
+	public int getBatchSize() {
+		return batchSize.get();
+	}
+
+	/**
+	 * @return Returns true if an encoded batch of the given size is to be added without waiting for more points.
+	 */
+	public boolean isFull(int points, int bytes) {
+		return points >= batchSize.get() || bytes >= maxBatchBytes;
+	}
+
+	/**
+	 * Appends an encoded batch to the pending request of its retention policy. Submits the request if full.
+	 * @param retentionPolicy Target retention policy.
+	 * @param records New line separated line protocol records.
+	 * @param points Number of records.
+	 * @param onWritten Optional callback, run once the batch is written.
+	 */
+	public void add(String retentionPolicy, String records, int points, Runnable onWritten) {
+
+		throwIfFailed();
+		batches.incrementAndGet();
+
+		WriteRequest request;
+		synchronized (this) {
+			PendingRequest pending = pendingRequests.get(retentionPolicy);
+			if (pending == null && isFull(points, records.length())) {
+				// Large enough on its own, without copying it
+				request = new WriteRequest(retentionPolicy, records, points, onWritten);
+			}
+			else {
+				if (pending == null) {
+					pending = new PendingRequest();
+					pendingRequests.put(retentionPolicy, pending);
+				}
+				pending.add(records, points, onWritten);
+				request = isFull(pending.points, pending.records.length()) ? detach(retentionPolicy) : null;
+			}
+		}
+		// The submit blocks on the pipeline backpressure (or writes synchronously), so it is called unlocked
+		if (request != null) {
+			submit(request);
+		}
+	}
+
+	/**
+	 * Submits all the pending requests.
+	 */
+	public void flush() {
+		throwIfFailed();
+		List<WriteRequest> detached = new ArrayList<>();
+		synchronized (this) {
+			for (String retentionPolicy : new ArrayList<>(pendingRequests.keySet())) {
+				detached.add(detach(retentionPolicy));
+			}
+		}
+		detached.forEach(this::submit);
+	}
+
+	/**
+	 * Submits all the pending requests and stops the linger timer.
+	 */
+	@Override
+	public void close() {
+		if (lingerTimer != null) {
+			lingerTimer.shutdownNow();
+		}
+		flush();
+		LOG.info("Merged " + batches.get() + " batches into " + requests.get() + " write requests"
+				+ ((targetLatencyNanos > 0) ? ", adapted batch size " + batchSize.get() : ""));
+	}
+
+	@Override
+	public void onWrite(int points, long nanos) {
+		// Writes of partial batches (e.g. flushed) do not tell whether a full batch would be fast enough
+		if (nanos > targetLatencyNanos) {
+			shrink();
+		}
+		else if (points >= batchSize.get()) {
+			batchSize.updateAndGet(size -> Math.min(maxBatchSize, size + Math.max(1, size / 10)));
+		}
+	}
+
+	@Override
+	public void onWriteFailure(int points, RuntimeException failure) {
+		shrink();
+	}
+
+	private void shrink() {
+		int size = batchSize.updateAndGet(current -> Math.max(minBatchSize, current / 2));
+		LOG.debug("Shrink the batch size to " + size + " points");
+	}
+
+	private void submitLingering() {
+		long now = System.nanoTime();
+		List<WriteRequest> lingering = new ArrayList<>();
+		synchronized (this) {
+			for (String retentionPolicy : new ArrayList<>(pendingRequests.keySet())) {
+				if (now - pendingRequests.get(retentionPolicy).startTime >= lingerNanos) {
+					lingering.add(detach(retentionPolicy));
+				}
+			}
+		}
+		try {
+			lingering.forEach(this::submit);
+		}
+		catch (RuntimeException e) {
+			// Reported to the loading threads on their next add
+			lingerFailure.compareAndSet(null, e);
+		}
+	}
+
+	/**
+	 * Removes the pending request of a retention policy. Must be called holding the batcher lock.
+	 */
+	private WriteRequest detach(String retentionPolicy) {
+		PendingRequest pending = pendingRequests.remove(retentionPolicy);
+		List<Runnable> callbacks = pending.callbacks;
+		return new WriteRequest(retentionPolicy, pending.records.toString(), pending.points,
+				callbacks.isEmpty() ? null : () -> callbacks.forEach(Runnable::run));
+	}
+
+	private void submit(WriteRequest request) {
+		requests.incrementAndGet();
+		pipeline.submit(database, request.retentionPolicy, consistency, request.records, request.points,
+				request.onWritten);
+	}
+
+	private void throwIfFailed() {
+		RuntimeException failure = lingerFailure.get();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Request detached from the pending requests, submitted without holding the batcher lock.
+	 */
+	private static class WriteRequest {
+
+		final String retentionPolicy;
+
+		final String records;
+
+		final int points;
+
+		final Runnable onWritten;
+
+		WriteRequest(String retentionPolicy, String records, int points, Runnable onWritten) {
+			this.retentionPolicy = retentionPolicy;
+			this.records = records;
+			this.points = points;
+			this.onWritten = onWritten;
+		}
+	}
+
+	/**
+	 * Batches merged into the next write request of a retention policy.
+	 */
+	private static class PendingRequest {
+
+		final StringBuilder records = new StringBuilder();
+
+		final List<Runnable> callbacks = new ArrayList<>();
+
+		final long startTime = System.nanoTime();
+
+		int points;
+
+		void add(String batchRecords, int batchPoints, Runnable onWritten) {
+			records.append(batchRecords);
+			points += batchPoints;
+			if (onWritten != null) {
+				callbacks.add(onWritten);
+			}
+		}
+	}
+}
@@ -0,0 +1,631 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.influxdb.InfluxDB;
+import org.influxdb.InfluxDBException;
+import org.influxdb.InfluxDBIOException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+
+/**
+ * Decouples the archive decoding from the InfluxDB HTTP writes.
+ *
+ * The decoding threads submit encoded batches into a bounded queue, drained in parallel by a pool of writer threads.
+ * The producers are blocked (backpressure) when either the queue is full or the encoded size of the batches not yet
+ * written reaches the in-flight bytes limit. With zero writer threads the batches are written synchronously by the
+ * submitting thread.
+ *
+ * The writes failing with a transient error (e.g. a timeout or a server error) are retried with a jittered exponential
+ * backoff. With a spill file, the batches still failing once their retries are exhausted, and the batches submitted
+ * while the in-flight bytes limit is reached during the retries, are appended to the spill file instead of failing
+ * the load or blocking it. Until the server recovers all new batches are spilled. A replay thread writes the spilled
+ * batches back, in their spill order, as soon as the server accepts them again.
+ */
+public class InfluxWritePipeline implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(InfluxWritePipeline.class);
+
+	private static final WriteRequest END_OF_STREAM = new WriteRequest(null, null, null, "", 0, null);
+
+	private final InfluxDB influxDB;
+
+	private final BlockingQueue<WriteRequest> queue;
+
+	private final Semaphore inFlightBytes;
+
+	private final int maxInFlightBytes;
+
+	private final List<Thread> writers = new ArrayList<>();
+
+	private final AtomicReference<RuntimeException> writeFailure = new AtomicReference<>();
+
+	private final AtomicLong writtenPoints = new AtomicLong();
+
+	private final AtomicLong writtenBytes = new AtomicLong();
+
+	private final AtomicLong writtenBatches = new AtomicLong();
+
+	private final AtomicLong blockedNanos = new AtomicLong();
+
+	private final long startTime = System.nanoTime();
+
+	private final LoadMetrics metrics;
+
+	private volatile WriteListener writeListener;
+
+	private int maxRetries = 0;
+
+	private long initialBackoffMillis = 100;
+
+	private long maxBackoffMillis = 30000;
+
+	private final AtomicInteger backingOffWriters = new AtomicInteger();
+
+	private volatile WriteSpillFile spillFile;
+
+	private Thread replayer;
+
+	// Set once a batch is spilled, until all spilled batches are replayed. Updated under the spill file lock
+	private volatile boolean spilling;
+
+	private volatile boolean replayStopping;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param influxDB InfluxDB client used by the writer threads.
+	 * @param writerThreads Number of parallel writers. If 0 the batches are written synchronously on submit.
+	 * @param queueCapacity Maximum number of batches waiting to be written.
+	 * @param maxInFlightBytes Maximum encoded size of the batches submitted but not yet written.
+	 */
+	public InfluxWritePipeline(InfluxDB influxDB, int writerThreads, int queueCapacity, int maxInFlightBytes) {
+		this(influxDB, writerThreads, queueCapacity, maxInFlightBytes, new LoadMetrics());
+	}
+
+	/**
+	 * @param influxDB InfluxDB client used by the writer threads.
+	 * @param writerThreads Number of parallel writers. If 0 the batches are written synchronously on submit.
+	 * @param queueCapacity Maximum number of batches waiting to be written.
+	 * @param maxInFlightBytes Maximum encoded size of the batches submitted but not yet written.
+	 * @param metrics Metrics recording the batch writes and the backpressure.
+	 */
+	public InfluxWritePipeline(InfluxDB influxDB, int writerThreads, int queueCapacity, int maxInFlightBytes,
+			LoadMetrics metrics) {
+
+		Assert.notNull(influxDB, "Not null InfluxDB is required!");
+		Assert.notNull(metrics, "Not null LoadMetrics is required!");
+		Assert.isTrue(writerThreads >= 0, "Not negative writerThreads is required!");
+		Assert.isTrue(queueCapacity > 0, "Positive queueCapacity is required!");
+		Assert.isTrue(maxInFlightBytes > 0, "Positive maxInFlightBytes is required!");
+
+		this.influxDB = influxDB;
+		this.queue = new ArrayBlockingQueue<>(queueCapacity);
+		this.maxInFlightBytes = maxInFlightBytes;
+		this.inFlightBytes = new Semaphore(maxInFlightBytes);
+		this.metrics = metrics;
+
+		for (int i = 0; i < writerThreads; i++) {
+			Thread writer = new Thread(this::drain, "influx-writer-" + (i + 1));
+			writer.setDaemon(true);
+			writer.start();
+			writers.add(writer);
+		}
+	}
+
+	/**
+	 * @param writeListener Optional listener notified of every batch write, e.g. to adapt the batch size.
+	 */
+	public void setWriteListener(WriteListener writeListener) {
+		this.writeListener = writeListener;
+	}
+
+	/**
+	 * Retries the writes failing with a transient error.
+	 * @param maxRetries Maximum number of retries of a batch write. If 0 the failed writes are not retried.
+	 * @param initialBackoffMillis Maximum delay, in milliseconds, before the first retry. The delays are doubled on
+	 * every retry and randomized between their half and their full value.
+	 * @param maxBackoffMillis Maximum delay, in milliseconds, between two retries.
+	 */
+	public void setRetryPolicy(int maxRetries, long initialBackoffMillis, long maxBackoffMillis) {
+		Assert.isTrue(maxRetries >= 0, "Not negative maxRetries is required!");
+		Assert.isTrue(initialBackoffMillis > 0, "Positive initialBackoffMillis is required!");
+		Assert.isTrue(maxBackoffMillis >= initialBackoffMillis, "maxBackoffMillis of at least initialBackoffMillis "
+				+ "is required!");
+		this.maxRetries = maxRetries;
+		this.initialBackoffMillis = initialBackoffMillis;
+		this.maxBackoffMillis = maxBackoffMillis;
+	}
+
+	/**
+	 * Spills the batches that can not be written to a local file and starts replaying them, first the batches left
+	 * in the file by a previous load.
+	 * @param file Spill file, created if missing.
+	 */
+	public void enableSpill(File file) throws IOException {
+		Assert.state(spillFile == null, "The spill file is already enabled");
+		spillFile = new WriteSpillFile(file);
+		// The new batches follow the batches left by a previous load
+		spilling = spillFile.getPendingBatches() > 0;
+		replayer = new Thread(this::replay, "influx-spill-replay");
+		replayer.setDaemon(true);
+		replayer.start();
+	}
+
+	/**
+	 * Submits a batch of line protocol records for writing. Blocks while the pipeline is saturated.
+	 * @param database Target database.
+	 * @param retentionPolicy Target retention policy.
+	 * @param consistency Write consistency level.
+	 * @param records New line separated line protocol records.
+	 * @param points Number of records in the batch.
+	 */
+	public void submit(String database, String retentionPolicy, InfluxDB.ConsistencyLevel consistency,
+			String records, int points) {
+		submit(database, retentionPolicy, consistency, records, points, null);
+	}
+
+	/**
+	 * Submits a batch of line protocol records for writing. Blocks while the pipeline is saturated.
+	 * @param database Target database.
+	 * @param retentionPolicy Target retention policy.
+	 * @param consistency Write consistency level.
+	 * @param records New line separated line protocol records.
+	 * @param points Number of records in the batch.
+	 * @param onWritten Optional callback, run by the writer thread once the batch is successfully written or spilled.
+	 */
+	public void submit(String database, String retentionPolicy, InfluxDB.ConsistencyLevel consistency,
+			String records, int points, Runnable onWritten) {
+
+		Assert.state(!closed, "The write pipeline is closed");
+		throwIfFailed();
+
+		WriteRequest request = new WriteRequest(database, retentionPolicy, consistency, records, points, onWritten);
+
+		if (writers.isEmpty()) {
+			write(request);
+			return;
+		}
+
+		long blockStart = System.nanoTime();
+		try {
+			int permits = request.permits(maxInFlightBytes);
+			if (spillFile != null && (spilling || backingOffWriters.get() > 0)) {
+				// InfluxDB is failing, rather than waiting for it the batches exceeding the in-memory limit are spilled
+				if (!inFlightBytes.tryAcquire(permits)) {
+					spill(request);
+					return;
+				}
+			}
+			else {
+				inFlightBytes.acquire(permits);
+			}
+			queue.put(request);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while submitting a write batch", e);
+		}
+		finally {
+			long blocked = System.nanoTime() - blockStart;
+			blockedNanos.addAndGet(blocked);
+			metrics.recordWriteBlocked(blocked);
+		}
+	}
+
+	/**
+	 * Blocks until all batches submitted so far are written.
+	 * @throws RuntimeException when any of the batches failed to be written.
+	 */
+	public void flush() {
+
+		if (!writers.isEmpty()) {
+			// Every queued or in-flight batch holds permits until written, so acquiring all permits drains the pipeline
+			try {
+				inFlightBytes.acquire(maxInFlightBytes);
+				inFlightBytes.release(maxInFlightBytes);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException("Interrupted while flushing the write batches", e);
+			}
+		}
+		throwIfFailed();
+	}
+
+	/**
+	 * Waits for all submitted batches to be written, stops the writer threads and reports the write throughput.
+	 * @throws RuntimeException when any of the batches failed to be written.
+	 */
+	@Override
+	public void close() {
+
+		if (closed) {
+			return;
+		}
+		closed = true;
+
+		try {
+			for (int i = 0; i < writers.size(); i++) {
+				queue.put(END_OF_STREAM);
+			}
+			for (Thread writer : writers) {
+				writer.join();
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			writers.forEach(Thread::interrupt);
+		}
+		stopReplay();
+
+		long elapsedMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+		LOG.info(String.format("Wrote %d points (%d batches, %.1f MB) in %d ms: %.0f points/s, " +
+						"producers blocked for %d ms",
+				writtenPoints.get(), writtenBatches.get(), writtenBytes.get() / 1048576.0, elapsedMillis,
+				writtenPoints.get() * 1000.0 / elapsedMillis, TimeUnit.NANOSECONDS.toMillis(blockedNanos.get())));
+
+		throwIfFailed();
+	}
+
+	public long getWrittenPoints() {
+		return writtenPoints.get();
+	}
+
+	public long getWrittenBytes() {
+		return writtenBytes.get();
+	}
+
+	/**
+	 * @return Returns the total time, in milliseconds, the submitting threads were blocked by the backpressure.
+	 */
+	public long getBlockedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(blockedNanos.get());
+	}
+
+	private void drain() {
+		while (true) {
+			WriteRequest request;
+			try {
+				request = queue.take();
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+
+			if (request == END_OF_STREAM) {
+				return;
+			}
+
+			try {
+				if (writeFailure.get() == null) {
+					write(request);
+				}
+			}
+			catch (RuntimeException e) {
+				writeFailure.compareAndSet(null, e);
+			}
+			finally {
+				inFlightBytes.release(request.permits(maxInFlightBytes));
+			}
+		}
+	}
+
+	private void write(WriteRequest request) {
+
+		if (spillFile != null && spillIfSpilling(request)) {
+			return;
+		}
+
+		WriteListener listener = writeListener;
+		long writeNanos;
+		for (int attempt = 0; ; attempt++) {
+			long writeStart = System.nanoTime();
+			try {
+				influxDB.write(request.database, request.retentionPolicy, request.consistency, request.records);
+				writeNanos = System.nanoTime() - writeStart;
+				break;
+			}
+			catch (RuntimeException e) {
+				if (listener != null) {
+					listener.onWriteFailure(request.points, e);
+				}
+				if (!isRetryable(e)) {
+					throw e;
+				}
+				if (attempt < maxRetries) {
+					LOG.debug("Retry the write of " + request.points + " points after: " + e.getMessage());
+					metrics.recordWriteRetry();
+					backOff(attempt);
+				}
+				else if (spillFile != null) {
+					LOG.warn("Spill the batches to [" + spillFile.getFile() + "] until InfluxDB recovers from: "
+							+ e.getMessage());
+					spill(request);
+					return;
+				}
+				else {
+					throw e;
+				}
+			}
+		}
+
+		metrics.recordWrite(request.points, request.records.length(), writeNanos);
+		if (listener != null) {
+			listener.onWrite(request.points, writeNanos);
+		}
+		recordWritten(request.points, request.records.length());
+		if (request.onWritten != null) {
+			request.onWritten.run();
+		}
+	}
+
+	private void recordWritten(int points, int bytes) {
+		writtenPoints.addAndGet(points);
+		writtenBytes.addAndGet(bytes);
+		writtenBatches.incrementAndGet();
+	}
+
+	/**
+	 * Spills the batch if older batches are still spilled, so the batches are replayed in order.
+	 * @return Returns true if the batch is spilled.
+	 */
+	private boolean spillIfSpilling(WriteRequest request) {
+		if (!spilling) {
+			return false;
+		}
+		// Checked again with the spill file locked, as the replay of the last spilled batch clears the flag
+		synchronized (spillFile) {
+			if (!spilling) {
+				return false;
+			}
+			appendToSpill(request);
+		}
+		onSpilled(request);
+		return true;
+	}
+
+	/**
+	 * Appends the batch to the spill file. The batch is as safe as written once synced to the disk, so its callback
+	 * is run.
+	 */
+	private void spill(WriteRequest request) {
+		synchronized (spillFile) {
+			appendToSpill(request);
+		}
+		onSpilled(request);
+	}
+
+	private void appendToSpill(WriteRequest request) {
+		try {
+			spillFile.append(new WriteSpillFile.SpilledBatch(request.database, request.retentionPolicy,
+					request.consistency, request.records, request.points));
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Failed to spill a write batch to [" + spillFile.getFile() + "]", e);
+		}
+		spilling = true;
+	}
+
+	private void onSpilled(WriteRequest request) {
+		metrics.recordSpill();
+		if (request.onWritten != null) {
+			request.onWritten.run();
+		}
+	}
+
+	private void replay() {
+
+		WriteSpillFile spill = spillFile;
+		int attempt = 0;
+		while (true) {
+			try {
+				WriteSpillFile.SpilledBatch batch = spill.peek();
+				if (batch == null) {
+					if (replayStopping) {
+						return;
+					}
+					spill.awaitBatch(100);
+					continue;
+				}
+
+				long writeStart = System.nanoTime();
+				influxDB.write(batch.database, batch.retentionPolicy, batch.consistency, batch.records);
+				metrics.recordWrite(batch.points, batch.records.length(), System.nanoTime() - writeStart);
+				boolean replayed;
+				synchronized (spill) {
+					spill.remove();
+					// New batches are spilled, behind the older ones, until the spill file is drained
+					replayed = spill.getPendingBatches() == 0;
+					if (replayed) {
+						spilling = false;
+					}
+				}
+				metrics.recordReplay();
+				recordWritten(batch.points, batch.records.length());
+				if (replayed) {
+					LOG.info("Replayed all spilled batches, write the new batches to InfluxDB again");
+				}
+				attempt = 0;
+			}
+			catch (IOException e) {
+				writeFailure.compareAndSet(null,
+						new IllegalStateException("Failed to read the spill file [" + spill.getFile() + "]", e));
+				return;
+			}
+			catch (InterruptedException e) {
+				return;
+			}
+			catch (RuntimeException e) {
+				if (!isRetryable(e)) {
+					LOG.error("The spilled batch rejected by InfluxDB is kept in [" + spill.getFile() + "]");
+					writeFailure.compareAndSet(null, e);
+					return;
+				}
+				if (replayStopping && attempt >= maxRetries) {
+					// Left in the spill file for the next load
+					return;
+				}
+				metrics.recordWriteRetry();
+				try {
+					Thread.sleep(backoffMillis(attempt++));
+				}
+				catch (InterruptedException interrupted) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Waits for the spilled batches to be replayed, as long as InfluxDB accepts them within the retries.
+	 */
+	private void stopReplay() {
+		if (replayer == null) {
+			return;
+		}
+		replayStopping = true;
+		try {
+			replayer.join();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			replayer.interrupt();
+		}
+		int pendingBatches = spillFile.getPendingBatches();
+		if (pendingBatches > 0) {
+			LOG.warn(pendingBatches + " batches remain spilled in [" + spillFile.getFile()
+					+ "], they are replayed by the next load");
+		}
+		try {
+			spillFile.close();
+		}
+		catch (IOException e) {
+			LOG.warn("Failed to close the spill file [" + spillFile.getFile() + "]", e);
+		}
+	}
+
+	private void backOff(int attempt) {
+		backingOffWriters.incrementAndGet();
+		try {
+			Thread.sleep(backoffMillis(attempt));
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while retrying a write batch", e);
+		}
+		finally {
+			backingOffWriters.decrementAndGet();
+		}
+	}
+
+	/**
+	 * @return Returns the delay before the retry, randomized between the half and the full exponential backoff so
+	 * the writers failing together do not retry together.
+	 */
+	private long backoffMillis(int attempt) {
+		long backoff = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempt, 30));
+		return backoff / 2 + ThreadLocalRandom.current().nextLong(backoff / 2 + 1);
+	}
+
+	/**
+	 * @return Returns true if the write failure is transient (e.g. a timeout, a refused connection or a server
+	 * error). The rejected points or targets (e.g. a field type conflict or an unknown database) fail on every retry.
+	 */
+	static boolean isRetryable(RuntimeException failure) {
+		if (failure instanceof InfluxDBIOException) {
+			return true;
+		}
+		if (!(failure instanceof InfluxDBException)) {
+			return false;
+		}
+		String message = String.valueOf(failure.getMessage()).toLowerCase(Locale.ROOT);
+		return !(message.contains("partial write") || message.contains("unable to parse")
+				|| message.contains("field type conflict") || message.contains("database not found")
+				|| message.contains("authorization") || message.contains("authentication"));
+	}
+
+	private void throwIfFailed() {
+		RuntimeException failure = writeFailure.get();
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Observer of the batch writes, called by the writing threads.
+	 */
+	public interface WriteListener {
+
+		/**
+		 * @param points Number of records of the written batch.
+		 * @param nanos Duration of the write request.
+		 */
+		void onWrite(int points, long nanos);
+
+		/**
+		 * @param points Number of records of the failed batch.
+		 * @param failure Write failure, e.g. a server error or a timeout.
+		 */
+		void onWriteFailure(int points, RuntimeException failure);
+	}
+
+	private static class WriteRequest {
+
+		final String database;
+
+		final String retentionPolicy;
+
+		final InfluxDB.ConsistencyLevel consistency;
+
+		final String records;
+
+		final int points;
+
+		final Runnable onWritten;
+
+		WriteRequest(String database, String retentionPolicy, InfluxDB.ConsistencyLevel consistency,
+				String records, int points, Runnable onWritten) {
+			this.database = database;
+			this.retentionPolicy = retentionPolicy;
+			this.consistency = consistency;
+			this.records = records;
+			this.points = points;
+			this.onWritten = onWritten;
+		}
+
+		int permits(int maxInFlightBytes) {
+			// A batch larger than the limit is still accepted once nothing else is in flight
+			return Math.max(1, Math.min(records.length(), maxInFlightBytes));
+		}
+	}
+}
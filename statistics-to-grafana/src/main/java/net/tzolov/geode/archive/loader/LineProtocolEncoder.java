@@ -0,0 +1,283 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.math.BigDecimal;
+import java.text.NumberFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.function.Function;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+
+/**
+ * Encodes measurement samples as InfluxDB line protocol records directly into a reusable buffer.
+ *
+ * The produced records are identical to the {@link org.influxdb.dto.BatchPoints#lineProtocol()} output for the
+ * equivalent {@link org.influxdb.dto.Point}s (tags and fields sorted by name, keys escaped, double values formatted
+ * with the Point's number format and nanosecond timestamps) but without building a Point, a field map and a boxed
+ * value for every sample. The escaped measurement prefix and field keys are computed once per measurement.
+ *
+ * Instances are not thread-safe. Use one encoder per loading thread.
+ */
+public class LineProtocolEncoder {
+
+	// Same number format as the one used by org.influxdb.dto.Point
+	private static final ThreadLocal<NumberFormat> NUMBER_FORMATTER = ThreadLocal.withInitial(() -> {
+		NumberFormat numberFormat = NumberFormat.getInstance(Locale.ENGLISH);
+		numberFormat.setMaximumFractionDigits(340);
+		numberFormat.setGroupingUsed(false);
+		numberFormat.setMinimumFractionDigits(1);
+		return numberFormat;
+	});
+
+	// Integral doubles below this limit are exactly represented by a long
+	private static final double MAX_INTEGRAL_LONG = 1e15;
+
+	private final StringBuilder buffer;
+
+	private final SortedMap<String, String> commonTags;
+
+	private MeasurementTemplate template;
+
+	private int pointCount;
+
+	private int pointStart;
+
+	private int fieldCount;
+
+	/**
+	 * @param commonTags Tags added to every encoded point (e.g. the batch tags).
+	 * @param initialCapacity Initial buffer capacity in characters.
+	 */
+	public LineProtocolEncoder(Map<String, String> commonTags, int initialCapacity) {
+		this.commonTags = new TreeMap<>(commonTags);
+		this.buffer = new StringBuilder(initialCapacity);
+	}
+
+	/**
+	 * @param measurementFields Measurement fields.
+	 * @return Returns true if the provided fields belong to the currently selected measurement.
+	 */
+	public boolean isMeasurement(StatArchiveReader.StatValue[] measurementFields) {
+		return template != null && template.measurementFields == measurementFields;
+	}
+
+	/**
+	 * @param fieldNames Point field names.
+	 * @return Returns true if the provided field names belong to the currently selected measurement.
+	 */
+	public boolean isMeasurement(String[] fieldNames) {
+		return template != null && template.fieldNames == fieldNames;
+	}
+
+	/**
+	 * Selects the measurement for the following points. The escaped measurement prefix and field keys are computed
+	 * once and reused for all points of the measurement.
+	 * @param measurementName Measurement name.
+	 * @param measurementTags Measurement specific tags.
+	 * @param measurementFields Measurement fields.
+	 * @param fieldNameResolver Computes the field name of a measurement field.
+	 */
+	public void measurement(String measurementName, Map<String, String> measurementTags,
+			StatArchiveReader.StatValue[] measurementFields,
+			Function<StatArchiveReader.StatValue, String> fieldNameResolver) {
+
+		String[] fieldNames = new String[measurementFields.length];
+		for (int i = 0; i < measurementFields.length; i++) {
+			if (measurementFields[i] != null) {
+				fieldNames[i] = fieldNameResolver.apply(measurementFields[i]);
+			}
+		}
+		measurement(measurementName, measurementTags, measurementFields, fieldNames);
+	}
+
+	/**
+	 * Selects the measurement for the following points, with explicit field names.
+	 * @param measurementName Measurement name.
+	 * @param measurementTags Measurement specific tags.
+	 * @param measurementFields Measurement fields, identifying the measurement (see {@link #isMeasurement}).
+	 * @param fieldNames Point field names. The field indexes used by {@link #addField} refer to this array. Null
+	 * names are skipped.
+	 */
+	public void measurement(String measurementName, Map<String, String> measurementTags,
+			StatArchiveReader.StatValue[] measurementFields, String[] fieldNames) {
+		template = new MeasurementTemplate(measurementName, measurementTags, measurementFields, fieldNames);
+	}
+
+	/**
+	 * Selects a measurement not backed by stat values (e.g. the cluster aggregates), identified by its field names
+	 * (see {@link #isMeasurement(String[])}).
+	 * @param measurementName Measurement name.
+	 * @param measurementTags Measurement specific tags.
+	 * @param fieldNames Point field names. Null names are skipped.
+	 */
+	public void measurement(String measurementName, Map<String, String> measurementTags, String[] fieldNames) {
+		template = new MeasurementTemplate(measurementName, measurementTags, null, fieldNames);
+	}
+
+	/**
+	 * @return Returns the indexes of the current measurement fields ordered by field name. Fields must be added in
+	 * this order.
+	 */
+	public int[] getFieldOrder() {
+		return template.fieldOrder;
+	}
+
+	/**
+	 * Starts a new point of the current measurement.
+	 */
+	public void startPoint() {
+		pointStart = buffer.length();
+		fieldCount = 0;
+		buffer.append(template.prefix);
+	}
+
+	/**
+	 * Adds a field value to the current point.
+	 * @param fieldIndex Index of the field in the measurement fields (or field names) array.
+	 * @param value Field value.
+	 */
+	public void addField(int fieldIndex, double value) {
+		if (fieldCount > 0) {
+			buffer.append(',');
+		}
+		buffer.append(template.fieldKeys[fieldIndex]);
+		appendDouble(buffer, value);
+		fieldCount++;
+	}
+
+	/**
+	 * Completes the current point. Points without fields are discarded.
+	 * @param timestampMillis Point time in milliseconds.
+	 * @return Returns true if the point was encoded or false if it was discarded.
+	 */
+	public boolean endPoint(long timestampMillis) {
+		if (fieldCount == 0) {
+			buffer.setLength(pointStart);
+			return false;
+		}
+		buffer.append(' ').append(timestampMillis * 1000000L).append('\n');
+		pointCount++;
+		return true;
+	}
+
+	/**
+	 * @return Returns the number of points encoded since the last reset.
+	 */
+	public int getPointCount() {
+		return pointCount;
+	}
+
+	/**
+	 * @return Returns the number of encoded characters since the last reset.
+	 */
+	public int getSize() {
+		return buffer.length();
+	}
+
+	/**
+	 * @return Returns the encoded, new line separated, records and resets the encoder buffer.
+	 */
+	public String flush() {
+		String records = buffer.toString();
+		reset();
+		return records;
+	}
+
+	public void reset() {
+		buffer.setLength(0);
+		pointCount = 0;
+	}
+
+	static String escapeKey(String key) {
+		return key.replace(" ", "\\ ").replace(",", "\\,").replace("=", "\\=");
+	}
+
+	static void appendDouble(StringBuilder sb, double value) {
+		if (value == Math.rint(value) && Math.abs(value) < MAX_INTEGRAL_LONG) {
+			if (value == 0.0d && Double.doubleToRawLongBits(value) != 0L) {
+				sb.append("-0.0");
+			}
+			else {
+				sb.append((long) value).append(".0");
+			}
+		}
+		else if (Double.isNaN(value) || Double.isInfinite(value)) {
+			sb.append(NUMBER_FORMATTER.get().format(value));
+		}
+		else {
+			// NumberFormat uses the same shortest decimal digits as Double.toString and a fraction precision that
+			// can represent any double, hence the plain string of the Double.toString digits is equivalent.
+			String plain = new BigDecimal(Double.toString(value)).stripTrailingZeros().toPlainString();
+			sb.append(plain);
+			if (plain.indexOf('.') < 0) {
+				sb.append(".0");
+			}
+		}
+	}
+
+	private class MeasurementTemplate {
+
+		final StatArchiveReader.StatValue[] measurementFields;
+
+		final String[] fieldNames;
+
+		final String prefix;
+
+		final String[] fieldKeys;
+
+		final int[] fieldOrder;
+
+		MeasurementTemplate(String measurementName, Map<String, String> measurementTags,
+				StatArchiveReader.StatValue[] measurementFields, String[] fieldNames) {
+
+			this.measurementFields = measurementFields;
+			this.fieldNames = fieldNames;
+
+			SortedMap<String, String> tags = new TreeMap<>(measurementTags);
+			tags.putAll(commonTags);
+
+			StringBuilder prefixBuilder = new StringBuilder(escapeKey(measurementName));
+			tags.forEach((key, value) -> prefixBuilder.append(',').append(escapeKey(key)).append('=')
+					.append(escapeKey(value)));
+			prefixBuilder.append(' ');
+			this.prefix = prefixBuilder.toString();
+
+			this.fieldKeys = new String[fieldNames.length];
+			for (int i = 0; i < fieldNames.length; i++) {
+				if (fieldNames[i] != null) {
+					fieldKeys[i] = escapeKey(fieldNames[i]) + "=";
+				}
+			}
+
+			this.fieldOrder = Arrays.stream(sortedIndexes(fieldNames)).filter(i -> fieldNames[i] != null).toArray();
+		}
+
+		private int[] sortedIndexes(String[] fieldNames) {
+			Integer[] indexes = new Integer[fieldNames.length];
+			for (int i = 0; i < indexes.length; i++) {
+				indexes[i] = i;
+			}
+			Arrays.sort(indexes, Comparator.comparing(i -> fieldNames[i], Comparator.nullsLast(Comparator.naturalOrder())));
+			return Arrays.stream(indexes).mapToInt(Integer::intValue).toArray();
+		}
+	}
+}
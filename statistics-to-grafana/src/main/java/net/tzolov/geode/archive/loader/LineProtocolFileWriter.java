@@ -0,0 +1,224 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Supplier;
+import java.util.zip.GZIPOutputStream;
+
+import org.springframework.util.Assert;
+
+/**
+ * Writes line protocol batches into gzip compressed files in the {@code influx -import} format. A new file is
+ * started once the compressed size of the current one reaches the maximum file size. Every file starts with the
+ * provided header (e.g. the DDL and DML context) so the files can be imported independently.
+ *
+ * The compressed bytes are staged in a direct buffer and written with a {@link FileChannel}. The commit callback of
+ * a batch runs once the file holding it is complete and forced to disk. A file is written under a temporary name
+ * (see {@link #temporaryFile}) and renamed once complete, so an interrupted export leaves no truncated file behind.
+ *
+ * Instances are not thread-safe. Use one writer per thread.
+ */
+public class LineProtocolFileWriter implements Closeable {
+
+	private static final String RETENTION_POLICY_CONTEXT = "# CONTEXT-RETENTION-POLICY: ";
+
+	static final String TEMPORARY_FILE_SUFFIX = ".tmp";
+
+	private final Supplier<File> fileSupplier;
+
+	private final long maxFileBytes;
+
+	private final String header;
+
+	private final ByteBuffer buffer;
+
+	private final List<Runnable> pendingCommits = new ArrayList<>();
+
+	private final List<File> files = new ArrayList<>();
+
+	private FileChannel channel;
+
+	private GZIPOutputStream gzip;
+
+	private String retentionPolicy;
+
+	private long fileBytes;
+
+	private long writtenBytes;
+
+	/**
+	 * @param fileSupplier Returns the next file to write.
+	 * @param maxFileBytes Compressed size at which a new file is started.
+	 * @param bufferSize Size of the direct buffer staging the compressed bytes.
+	 * @param header Text written at the beginning of every file.
+	 */
+	public LineProtocolFileWriter(Supplier<File> fileSupplier, long maxFileBytes, int bufferSize, String header) {
+
+		Assert.notNull(fileSupplier, "Not null fileSupplier is required!");
+		Assert.isTrue(maxFileBytes > 0, "Positive maxFileBytes is required!");
+		Assert.isTrue(bufferSize > 0, "Positive bufferSize is required!");
+
+		this.fileSupplier = fileSupplier;
+		this.maxFileBytes = maxFileBytes;
+		this.header = header;
+		this.buffer = ByteBuffer.allocateDirect(bufferSize);
+	}
+
+	/**
+	 * Appends a batch to the current file.
+	 * @param retentionPolicy Retention policy the records are imported into.
+	 * @param records New line separated line protocol records.
+	 * @param commit Callback to run once the file holding the batch is complete.
+	 */
+	public void write(String retentionPolicy, String records, Runnable commit) throws IOException {
+
+		if (gzip == null) {
+			openFile();
+		}
+		if (!retentionPolicy.equals(this.retentionPolicy)) {
+			writeText(RETENTION_POLICY_CONTEXT + retentionPolicy + "\n");
+			this.retentionPolicy = retentionPolicy;
+		}
+		writeText(records);
+		// Sync flush the deflater, so the compressed size of the file is known at every batch boundary
+		gzip.flush();
+		pendingCommits.add(commit);
+
+		if (fileBytes >= maxFileBytes) {
+			closeFile();
+		}
+	}
+
+	/**
+	 * @return Returns the written files.
+	 */
+	public List<File> getFiles() {
+		return files;
+	}
+
+	/**
+	 * @return Returns the number of compressed bytes written to all the files.
+	 */
+	public long getWrittenBytes() {
+		return writtenBytes;
+	}
+
+	/**
+	 * @return Returns the temporary file the file is written to until complete.
+	 */
+	static File temporaryFile(File file) {
+		return new File(file.getPath() + TEMPORARY_FILE_SUFFIX);
+	}
+
+	/**
+	 * Completes the current file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (gzip != null) {
+			closeFile();
+		}
+	}
+
+	private void openFile() throws IOException {
+		File file = fileSupplier.get();
+		channel = FileChannel.open(temporaryFile(file).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING);
+		files.add(file);
+		fileBytes = 0;
+		retentionPolicy = null;
+		gzip = new GZIPOutputStream(new ChannelOutputStream(), 64 * 1024, true);
+		if (header != null) {
+			writeText(header);
+		}
+	}
+
+	private void closeFile() throws IOException {
+		try {
+			gzip.finish();
+			drainBuffer();
+			channel.force(false);
+		}
+		finally {
+			channel.close();
+			gzip = null;
+			channel = null;
+		}
+		// The batches are committed once the complete file is under its final name
+		File file = files.get(files.size() - 1);
+		Files.move(temporaryFile(file).toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		for (Runnable commit : pendingCommits) {
+			commit.run();
+		}
+		pendingCommits.clear();
+	}
+
+	private void writeText(String text) throws IOException {
+		gzip.write(text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private void drainBuffer() throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	/**
+	 * Receives the compressed bytes.
+	 */
+	private class ChannelOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!buffer.hasRemaining()) {
+				drainBuffer();
+			}
+			buffer.put((byte) b);
+			fileBytes++;
+			writtenBytes++;
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			fileBytes += length;
+			writtenBytes += length;
+			while (length > 0) {
+				if (!buffer.hasRemaining()) {
+					drainBuffer();
+				}
+				int chunk = Math.min(length, buffer.remaining());
+				buffer.put(bytes, offset, chunk);
+				offset += chunk;
+				length -= chunk;
+			}
+		}
+	}
+}
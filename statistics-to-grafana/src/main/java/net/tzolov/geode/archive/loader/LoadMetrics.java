@@ -0,0 +1,357 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput, batch write latency and memory metrics of a statistics load, updated concurrently by the loader and
+ * writer threads.
+ *
+ * The batch write latencies are counted in a histogram of power of two microsecond buckets, so the reported
+ * percentiles are the upper bounds of their buckets (i.e. at most twice the exact value).
+ */
+public class LoadMetrics implements LoadMetricsMXBean {
+
+	private static final int LATENCY_BUCKETS = 40;
+
+	private volatile long startNanos = System.nanoTime();
+
+	private volatile long endNanos = -1;
+
+	private final LongAdder loadedMeasurements = new LongAdder();
+
+	private final LongAdder loadedSamples = new LongAdder();
+
+	private final LongAdder decodedValues = new LongAdder();
+
+	private final LongAdder decodeNanos = new LongAdder();
+
+	private final LongAdder openNanos = new LongAdder();
+
+	private final LongAdder encodeNanos = new LongAdder();
+
+	// Decode time of the calling thread, the lazy decoding happens in the middle of the encoding of the points
+	private final ThreadLocal<long[]> threadDecodeNanos = ThreadLocal.withInitial(() -> new long[1]);
+
+	private final LongAdder writtenPoints = new LongAdder();
+
+	private final LongAdder writtenBytes = new LongAdder();
+
+	private final LongAdder writtenBatches = new LongAdder();
+
+	private final LongAdder writeNanos = new LongAdder();
+
+	private final LongAdder writeBlockedNanos = new LongAdder();
+
+	private final LongAdder writeRetries = new LongAdder();
+
+	private final LongAdder spilledBatches = new LongAdder();
+
+	private final LongAdder replayedBatches = new LongAdder();
+
+	private final AtomicLong maxWriteNanos = new AtomicLong();
+
+	// Bucket i counts the latencies in [2^i, 2^(i+1)) microseconds, the bucket 0 those below 2 microseconds
+	private final AtomicLongArray writeLatencies = new AtomicLongArray(LATENCY_BUCKETS);
+
+	private final AtomicLong cachedSeries = new AtomicLong();
+
+	private final AtomicLong cachedValues = new AtomicLong();
+
+	private final AtomicLong peakCachedValues = new AtomicLong();
+
+	/**
+	 * Clears all metrics and restarts the elapsed time.
+	 */
+	public void reset() {
+		startNanos = System.nanoTime();
+		endNanos = -1;
+		for (LongAdder counter : new LongAdder[] { loadedMeasurements, loadedSamples, decodedValues, decodeNanos,
+				openNanos, encodeNanos, writtenPoints, writtenBytes, writtenBatches, writeNanos, writeBlockedNanos,
+				writeRetries, spilledBatches, replayedBatches }) {
+			counter.reset();
+		}
+		maxWriteNanos.set(0);
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			writeLatencies.set(i, 0);
+		}
+		cachedSeries.set(0);
+		cachedValues.set(0);
+		peakCachedValues.set(0);
+	}
+
+	/**
+	 * Stops the elapsed time.
+	 */
+	public void complete() {
+		endNanos = System.nanoTime();
+	}
+
+	public void recordMeasurement(long samples) {
+		loadedMeasurements.increment();
+		loadedSamples.add(samples);
+	}
+
+	public void recordOpen(long nanos) {
+		openNanos.add(nanos);
+	}
+
+	public void recordEncode(long nanos) {
+		encodeNanos.add(nanos);
+	}
+
+	public void recordDecode(long values, long nanos) {
+		decodedValues.add(values);
+		decodeNanos.add(nanos);
+		threadDecodeNanos.get()[0] += nanos;
+	}
+
+	/**
+	 * @return Returns the total decode time recorded by the calling thread.
+	 */
+	long getThreadDecodeNanos() {
+		return threadDecodeNanos.get()[0];
+	}
+
+	public void recordWrite(long points, long bytes, long nanos) {
+		writtenPoints.add(points);
+		writtenBytes.add(bytes);
+		writtenBatches.increment();
+		writeNanos.add(nanos);
+		maxWriteNanos.accumulateAndGet(nanos, Math::max);
+		long micros = TimeUnit.NANOSECONDS.toMicros(nanos);
+		int bucket = (micros < 2) ? 0 : Math.min(LATENCY_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(micros));
+		writeLatencies.incrementAndGet(bucket);
+	}
+
+	public void recordWriteBlocked(long nanos) {
+		writeBlockedNanos.add(nanos);
+	}
+
+	public void recordWriteRetry() {
+		writeRetries.increment();
+	}
+
+	public void recordSpill() {
+		spilledBatches.increment();
+	}
+
+	public void recordReplay() {
+		replayedBatches.increment();
+	}
+
+	/**
+	 * @param series Change of the number of the decoded series held in memory.
+	 * @param values Change of the number of the decoded values held in memory.
+	 */
+	public void recordCacheChange(long series, long values) {
+		cachedSeries.addAndGet(series);
+		peakCachedValues.accumulateAndGet(cachedValues.addAndGet(values), Math::max);
+	}
+
+	@Override
+	public long getElapsedMillis() {
+		long end = (endNanos < 0) ? System.nanoTime() : endNanos;
+		return TimeUnit.NANOSECONDS.toMillis(end - startNanos);
+	}
+
+	@Override
+	public long getLoadedMeasurements() {
+		return loadedMeasurements.sum();
+	}
+
+	@Override
+	public long getLoadedSamples() {
+		return loadedSamples.sum();
+	}
+
+	@Override
+	public double getLoadedSamplesPerSecond() {
+		return perSecond(getLoadedSamples());
+	}
+
+	@Override
+	public long getDecodedValues() {
+		return decodedValues.sum();
+	}
+
+	@Override
+	public double getDecodedValuesPerSecond() {
+		return perSecond(getDecodedValues());
+	}
+
+	@Override
+	public long getDecodeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(decodeNanos.sum());
+	}
+
+	@Override
+	public long getOpenMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(openNanos.sum());
+	}
+
+	@Override
+	public long getEncodeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(encodeNanos.sum());
+	}
+
+	@Override
+	public long getWrittenPoints() {
+		return writtenPoints.sum();
+	}
+
+	@Override
+	public double getWrittenPointsPerSecond() {
+		return perSecond(getWrittenPoints());
+	}
+
+	@Override
+	public long getWrittenBytes() {
+		return writtenBytes.sum();
+	}
+
+	@Override
+	public double getWrittenBytesPerSecond() {
+		return perSecond(getWrittenBytes());
+	}
+
+	@Override
+	public long getWrittenBatches() {
+		return writtenBatches.sum();
+	}
+
+	@Override
+	public long getWriteMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(writeNanos.sum());
+	}
+
+	@Override
+	public long getWriteBlockedMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(writeBlockedNanos.sum());
+	}
+
+	@Override
+	public long getWriteRetries() {
+		return writeRetries.sum();
+	}
+
+	@Override
+	public long getSpilledBatches() {
+		return spilledBatches.sum();
+	}
+
+	@Override
+	public long getReplayedBatches() {
+		return replayedBatches.sum();
+	}
+
+	@Override
+	public double getBatchWriteLatencyMeanMillis() {
+		long batches = getWrittenBatches();
+		return (batches == 0) ? 0 : writeNanos.sum() / 1e6 / batches;
+	}
+
+	@Override
+	public double getBatchWriteLatencyP50Millis() {
+		return getBatchWriteLatencyPercentile(0.5);
+	}
+
+	@Override
+	public double getBatchWriteLatencyP90Millis() {
+		return getBatchWriteLatencyPercentile(0.9);
+	}
+
+	@Override
+	public double getBatchWriteLatencyP99Millis() {
+		return getBatchWriteLatencyPercentile(0.99);
+	}
+
+	@Override
+	public double getBatchWriteLatencyMaxMillis() {
+		return maxWriteNanos.get() / 1e6;
+	}
+
+	/**
+	 * @param percentile Percentile, between 0 and 1.
+	 * @return Returns the upper bound, in milliseconds, of the histogram bucket holding the percentile, capped by the
+	 * maximum latency.
+	 */
+	public double getBatchWriteLatencyPercentile(double percentile) {
+		long[] counts = new long[LATENCY_BUCKETS];
+		long total = 0;
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			counts[i] = writeLatencies.get(i);
+			total += counts[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(percentile * total);
+		long seen = 0;
+		for (int i = 0; i < LATENCY_BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return Math.min((1L << (i + 1)) / 1e3, getBatchWriteLatencyMaxMillis());
+			}
+		}
+		return getBatchWriteLatencyMaxMillis();
+	}
+
+	@Override
+	public long getCachedSeries() {
+		return cachedSeries.get();
+	}
+
+	@Override
+	public long getCachedValues() {
+		return cachedValues.get();
+	}
+
+	@Override
+	public long getPeakCachedValues() {
+		return peakCachedValues.get();
+	}
+
+	/**
+	 * @return Returns a multi-line report of the metrics.
+	 */
+	public String summary() {
+		return String.format("%d measurements, %d samples in %d ms: %.0f samples/s%n"
+						+ "  open: archive parsed in %d ms%n"
+						+ "  decode: %d values in %d ms: %.0f values/s%n"
+						+ "  write: %d points (%d batches, %.1f MB) in %d ms: %.0f points/s, %.2f MB/s, "
+						+ "blocked for %d ms, %d retries, %d batches spilled, %d replayed%n"
+						+ "  batch write latency (ms): mean %.1f, p50 %.1f, p90 %.1f, p99 %.1f, max %.1f%n"
+						+ "  decoded values cache: peak %d values (%.1f MB)",
+				getLoadedMeasurements(), getLoadedSamples(), getElapsedMillis(), getLoadedSamplesPerSecond(),
+				getOpenMillis(),
+				getDecodedValues(), getDecodeMillis(), getDecodedValuesPerSecond(),
+				getWrittenPoints(), getWrittenBatches(), getWrittenBytes() / 1048576.0, getWriteMillis(),
+				getWrittenPointsPerSecond(), getWrittenBytesPerSecond() / 1048576.0, getWriteBlockedMillis(),
+				getWriteRetries(), getSpilledBatches(), getReplayedBatches(),
+				getBatchWriteLatencyMeanMillis(), getBatchWriteLatencyP50Millis(), getBatchWriteLatencyP90Millis(),
+				getBatchWriteLatencyP99Millis(), getBatchWriteLatencyMaxMillis(),
+				getPeakCachedValues(), getPeakCachedValues() * 8 / 1048576.0);
+	}
+
+	private double perSecond(long count) {
+		return count * 1000.0 / Math.max(1, getElapsedMillis());
+	}
+}
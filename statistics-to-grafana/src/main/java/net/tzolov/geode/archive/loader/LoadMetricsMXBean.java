@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+/**
+ * JMX view of the {@link LoadMetrics} of a running load. Registered as
+ * {@code net.tzolov.geode.archive:type=StatisticsLoader,archive=<archive file>,member=<member name>} for the
+ * duration of the load.
+ */
+public interface LoadMetricsMXBean {
+
+	long getElapsedMillis();
+
+	long getLoadedMeasurements();
+
+	long getLoadedSamples();
+
+	double getLoadedSamplesPerSecond();
+
+	/**
+	 * @return Time, in milliseconds, spent parsing the archive (e.g. the archive reader construction).
+	 */
+	long getOpenMillis();
+
+	long getDecodedValues();
+
+	double getDecodedValuesPerSecond();
+
+	/**
+	 * @return Time, in milliseconds, the loader threads spent decoding the archive series.
+	 */
+	long getDecodeMillis();
+
+	/**
+	 * @return Time, in milliseconds, the loader threads spent encoding the points. Only measured by the dry run sink.
+	 */
+	long getEncodeMillis();
+
+	long getWrittenPoints();
+
+	double getWrittenPointsPerSecond();
+
+	long getWrittenBytes();
+
+	double getWrittenBytesPerSecond();
+
+	long getWrittenBatches();
+
+	/**
+	 * @return Time, in milliseconds, spent writing the batches, summed over the writing threads.
+	 */
+	long getWriteMillis();
+
+	/**
+	 * @return Time, in milliseconds, the loader threads were blocked by the write backpressure.
+	 */
+	long getWriteBlockedMillis();
+
+	/**
+	 * @return Number of the retried batch writes, after a transient write failure.
+	 */
+	long getWriteRetries();
+
+	/**
+	 * @return Number of the batches spilled to the local spill file while InfluxDB was failing.
+	 */
+	long getSpilledBatches();
+
+	/**
+	 * @return Number of the spilled batches replayed to InfluxDB.
+	 */
+	long getReplayedBatches();
+
+	double getBatchWriteLatencyMeanMillis();
+
+	double getBatchWriteLatencyP50Millis();
+
+	double getBatchWriteLatencyP90Millis();
+
+	double getBatchWriteLatencyP99Millis();
+
+	double getBatchWriteLatencyMaxMillis();
+
+	/**
+	 * @return Number of the series decoded and held in memory.
+	 */
+	long getCachedSeries();
+
+	/**
+	 * @return Number of the decoded values held in memory.
+	 */
+	long getCachedValues();
+
+	long getPeakCachedValues();
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.util.Arrays;
+
+/**
+ * Aggregates the samples of a measurement into fixed time windows (e.g. 1 minute), aligned to the epoch.
+ *
+ * For every measurement field the min, max, mean and last value of the window samples is computed. Instances are
+ * not thread-safe, every measurement load uses its own rollup.
+ */
+public class MeasurementRollup {
+
+	/**
+	 * Window aggregates, written as {@code <fieldName>_<suffix>} fields.
+	 */
+	public enum Aggregate {
+
+		MIN, MAX, MEAN, LAST;
+
+		public String getFieldSuffix() {
+			return name().toLowerCase();
+		}
+	}
+
+	private final long intervalMillis;
+
+	private final double[] min;
+
+	private final double[] max;
+
+	private final double[] sum;
+
+	private final double[] last;
+
+	private final int[] counts;
+
+	private long windowTimestamp;
+
+	private int sampleCount;
+
+	/**
+	 * @param intervalMillis Window length in milliseconds.
+	 * @param fieldCount Number of measurement fields.
+	 */
+	public MeasurementRollup(long intervalMillis, int fieldCount) {
+		this.intervalMillis = intervalMillis;
+		this.min = new double[fieldCount];
+		this.max = new double[fieldCount];
+		this.sum = new double[fieldCount];
+		this.last = new double[fieldCount];
+		this.counts = new int[fieldCount];
+	}
+
+	/**
+	 * @return Returns the start time of the window containing the provided time.
+	 */
+	public static long windowStart(long timestamp, long intervalMillis) {
+		return timestamp - Math.floorMod(timestamp, intervalMillis);
+	}
+
+	/**
+	 * @return Returns true if the current window has samples and the provided sample time falls outside of it.
+	 */
+	public boolean isWindowComplete(long sampleTimestamp) {
+		return sampleCount > 0 && windowStart(sampleTimestamp, intervalMillis) != windowTimestamp;
+	}
+
+	/**
+	 * Starts a new sample. The sample values are provided by the following {@link #add} calls.
+	 * @param sampleTimestamp Sample time in milliseconds.
+	 */
+	public void startSample(long sampleTimestamp) {
+		if (sampleCount == 0) {
+			windowTimestamp = windowStart(sampleTimestamp, intervalMillis);
+			Arrays.fill(min, Double.POSITIVE_INFINITY);
+			Arrays.fill(max, Double.NEGATIVE_INFINITY);
+			Arrays.fill(sum, 0);
+			Arrays.fill(counts, 0);
+		}
+		sampleCount++;
+	}
+
+	/**
+	 * Adds a field value of the current sample. NaN values (e.g. samples without a rate) are ignored.
+	 */
+	public void add(int fieldIndex, double value) {
+		if (Double.isNaN(value)) {
+			return;
+		}
+		min[fieldIndex] = Math.min(min[fieldIndex], value);
+		max[fieldIndex] = Math.max(max[fieldIndex], value);
+		sum[fieldIndex] += value;
+		last[fieldIndex] = value;
+		counts[fieldIndex]++;
+	}
+
+	/**
+	 * @return Returns the aggregated value of the field in the current window or NaN if the field has no values.
+	 */
+	public double get(Aggregate aggregate, int fieldIndex) {
+		if (counts[fieldIndex] == 0) {
+			return Double.NaN;
+		}
+		switch (aggregate) {
+		case MIN:
+			return min[fieldIndex];
+		case MAX:
+			return max[fieldIndex];
+		case MEAN:
+			return sum[fieldIndex] / counts[fieldIndex];
+		default:
+			return last[fieldIndex];
+		}
+	}
+
+	/**
+	 * @return Returns the start time of the current window.
+	 */
+	public long getWindowTimestamp() {
+		return windowTimestamp;
+	}
+
+	public int getSampleCount() {
+		return sampleCount;
+	}
+
+	/**
+	 * Completes the current window. The next sample starts a new one.
+	 */
+	public void reset() {
+		sampleCount = 0;
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+
+/**
+ * Decoded samples of the fields of one measurement (e.g. resource instance), addressed by the field index.
+ *
+ * The fields are resolved by their stat offset within the resource type, so a lookup costs a few array reads
+ * instead of hashing the stat value. The shapes (zero, constant) of the fields are kept in bitsets. All the decoded
+ * samples are released at once, as soon as the measurement is loaded.
+ *
+ * Not thread-safe: a measurement is loaded by a single thread.
+ */
+final class MeasurementSeries {
+
+	private final StatArchiveReader.StatValue[] fields;
+
+	// Field index of every stat offset of the resource type, -1 for the stats not loaded
+	private final int[] fieldIndexes;
+
+	// Decoded samples of every field, null until decoded
+	private final double[][] values;
+
+	// Timestamps of the loaded samples, null unless the samples are decoded in windows
+	private final long[] timestamps;
+
+	private final LoadMetrics metrics;
+
+	private int firstSampleIndex;
+
+	private final BitSet shapeKnown;
+
+	private final BitSet nonZero;
+
+	private final BitSet varying;
+
+	/**
+	 * @param fields Measurement fields. Null elements (e.g. stats rejected by the archive reader) are allowed.
+	 * @param timestamps Timestamps of the loaded samples when they are decoded in windows, otherwise null.
+	 * @param metrics Metrics recording the decoded values held by the series.
+	 */
+	MeasurementSeries(StatArchiveReader.StatValue[] fields, long[] timestamps, LoadMetrics metrics) {
+		this.fields = fields;
+		this.timestamps = timestamps;
+		this.metrics = metrics;
+		this.values = new double[fields.length][];
+		this.shapeKnown = new BitSet(fields.length);
+		this.nonZero = new BitSet(fields.length);
+		this.varying = new BitSet(fields.length);
+
+		int maxOffset = -1;
+		for (StatArchiveReader.StatValue field : fields) {
+			if (field != null) {
+				maxOffset = Math.max(maxOffset, field.getDescriptor().getOffset());
+			}
+		}
+		this.fieldIndexes = new int[maxOffset + 1];
+		Arrays.fill(fieldIndexes, -1);
+		for (int fieldIndex = 0; fieldIndex < fields.length; fieldIndex++) {
+			if (fields[fieldIndex] != null) {
+				fieldIndexes[fields[fieldIndex].getDescriptor().getOffset()] = fieldIndex;
+			}
+		}
+	}
+
+	/**
+	 * @return Returns the index of the field or -1 if it is not a field of this measurement.
+	 */
+	int indexOf(StatArchiveReader.StatValue field) {
+		int offset = field.getDescriptor().getOffset();
+		if (offset < fieldIndexes.length) {
+			int fieldIndex = fieldIndexes[offset];
+			// Fields of other resource instances of the same type share the offsets
+			if (fieldIndex >= 0 && fields[fieldIndex] == field) {
+				return fieldIndex;
+			}
+		}
+		return -1;
+	}
+
+	StatArchiveReader.StatValue getField(int fieldIndex) {
+		return fields[fieldIndex];
+	}
+
+	/**
+	 * @return Returns the timestamps of the loaded samples if they are decoded in windows, otherwise null.
+	 */
+	long[] getTimestamps() {
+		return timestamps;
+	}
+
+	/**
+	 * @return Returns the decoded samples of the field, starting at the {@link #getFirstSampleIndex()}, or null if the
+	 * field is not decoded yet.
+	 */
+	double[] getValues(int fieldIndex) {
+		return values[fieldIndex];
+	}
+
+	int getFirstSampleIndex() {
+		return firstSampleIndex;
+	}
+
+	/**
+	 * Starts a new window of samples. The samples of the previous window are replaced as the fields are decoded.
+	 * @param firstSampleIndex Index of the first sample of the window.
+	 */
+	void startWindow(int firstSampleIndex) {
+		this.firstSampleIndex = firstSampleIndex;
+	}
+
+	void setValues(int fieldIndex, double[] fieldValues) {
+		double[] previous = values[fieldIndex];
+		values[fieldIndex] = fieldValues;
+		metrics.recordCacheChange((previous == null) ? 1 : 0,
+				fieldValues.length - ((previous == null) ? 0 : previous.length));
+	}
+
+	/**
+	 * @return Returns true if the shape of the field is known, e.g. {@link #isZero(int)} and {@link #isConstant(int)}
+	 * are valid.
+	 */
+	boolean isShapeKnown(int fieldIndex) {
+		return shapeKnown.get(fieldIndex);
+	}
+
+	void setShape(int fieldIndex, boolean zero, boolean constant) {
+		nonZero.set(fieldIndex, !zero);
+		varying.set(fieldIndex, !constant);
+		shapeKnown.set(fieldIndex);
+	}
+
+	boolean isZero(int fieldIndex) {
+		return !nonZero.get(fieldIndex);
+	}
+
+	boolean isConstant(int fieldIndex) {
+		return !varying.get(fieldIndex);
+	}
+
+	/**
+	 * Releases all the decoded samples.
+	 */
+	void release() {
+		int releasedSeries = 0;
+		long releasedValues = 0;
+		for (int fieldIndex = 0; fieldIndex < values.length; fieldIndex++) {
+			if (values[fieldIndex] != null) {
+				releasedSeries++;
+				releasedValues += values[fieldIndex].length;
+				values[fieldIndex] = null;
+			}
+		}
+		if (releasedSeries > 0) {
+			metrics.recordCacheChange(-releasedSeries, -releasedValues);
+		}
+	}
+}
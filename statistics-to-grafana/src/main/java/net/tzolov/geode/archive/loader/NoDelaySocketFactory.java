@@ -0,0 +1,64 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+
+import javax.net.SocketFactory;
+
+/**
+ * Creates the sockets of the InfluxDB HTTP client with TCP_NODELAY set.
+ *
+ * The client writes the request body in segments. With Nagle's algorithm enabled the last, partial, segment of
+ * every write request waits for the acknowledgement of the previous ones, which the server delays up to 40ms.
+ */
+public class NoDelaySocketFactory extends SocketFactory {
+
+	private final SocketFactory socketFactory = SocketFactory.getDefault();
+
+	@Override
+	public Socket createSocket() throws IOException {
+		return noDelay(socketFactory.createSocket());
+	}
+
+	@Override
+	public Socket createSocket(String host, int port) throws IOException {
+		return noDelay(socketFactory.createSocket(host, port));
+	}
+
+	@Override
+	public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+		return noDelay(socketFactory.createSocket(host, port, localHost, localPort));
+	}
+
+	@Override
+	public Socket createSocket(InetAddress host, int port) throws IOException {
+		return noDelay(socketFactory.createSocket(host, port));
+	}
+
+	@Override
+	public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+			throws IOException {
+		return noDelay(socketFactory.createSocket(address, port, localAddress, localPort));
+	}
+
+	private static Socket noDelay(Socket socket) throws IOException {
+		socket.setTcpNoDelay(true);
+		return socket;
+	}
+}
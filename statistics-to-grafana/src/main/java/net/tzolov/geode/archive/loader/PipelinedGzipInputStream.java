@@ -0,0 +1,204 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+import org.springframework.util.Assert;
+
+/**
+ * Reads a gzip compressed file, inflated by a background thread into a ring of large buffers while the previous
+ * buffers are consumed. The decompression is pipelined with the decoding of the inflated bytes, without temporary
+ * files. Instances are not thread-safe, a single thread reads the stream.
+ */
+final class PipelinedGzipInputStream extends InputStream {
+
+	private static final Chunk END = new Chunk(new byte[0], 0, null);
+
+	private final int bufferSize;
+
+	private final int bufferCount;
+
+	// Accessed by the inflater thread only
+	private int allocatedBuffers;
+
+	private final BlockingQueue<byte[]> freeBuffers;
+
+	private final BlockingQueue<Chunk> inflatedChunks;
+
+	private final Thread inflater;
+
+	private Chunk chunk;
+
+	private int position;
+
+	private volatile boolean closed;
+
+	/**
+	 * @param file Gzip compressed file.
+	 * @param bufferSize Size, in bytes, of the inflated buffers and of the compressed read buffer.
+	 * @param bufferCount Number of inflated buffers. At least 2, so one is inflated while another one is read.
+	 */
+	PipelinedGzipInputStream(File file, int bufferSize, int bufferCount) throws IOException {
+
+		Assert.isTrue(bufferSize > 0, "Positive bufferSize is required!");
+		Assert.isTrue(bufferCount >= 2, "At least 2 buffers are required!");
+
+		// The gzip header is read, and checked, by the constructor
+		FileInputStream fileIn = new FileInputStream(file);
+		InputStream in;
+		try {
+			in = new GZIPInputStream(fileIn, bufferSize);
+		}
+		catch (IOException e) {
+			fileIn.close();
+			throw e;
+		}
+
+		// The buffers are allocated on demand, small archives are inflated into a single buffer
+		this.bufferSize = bufferSize;
+		this.bufferCount = bufferCount;
+		freeBuffers = new ArrayBlockingQueue<>(bufferCount);
+		// One more slot for the end (or failure) of the stream
+		inflatedChunks = new ArrayBlockingQueue<>(bufferCount + 1);
+
+		inflater = new Thread(() -> inflate(in), "gzip-inflater-" + file.getName());
+		inflater.setDaemon(true);
+		inflater.start();
+	}
+
+	private void inflate(InputStream in) {
+		try (InputStream gzipIn = in) {
+			while (!closed) {
+				byte[] buffer = freeBuffers.poll();
+				if (buffer == null && allocatedBuffers < bufferCount) {
+					buffer = new byte[bufferSize];
+					allocatedBuffers++;
+				}
+				else if (buffer == null) {
+					buffer = freeBuffers.take();
+				}
+				int length = 0;
+				int read = 0;
+				while (length < buffer.length && (read = gzipIn.read(buffer, length, buffer.length - length)) > 0) {
+					length += read;
+				}
+				if (length > 0) {
+					inflatedChunks.put(new Chunk(buffer, length, null));
+				}
+				if (read < 0) {
+					inflatedChunks.put(END);
+					return;
+				}
+			}
+		}
+		catch (IOException e) {
+			inflatedChunks.offer(new Chunk(null, 0, e));
+		}
+		catch (InterruptedException e) {
+			// Closed by the reader
+		}
+	}
+
+	/**
+	 * @return Returns the chunk holding the next bytes, or null at the end of the stream.
+	 */
+	private Chunk nextChunk() throws IOException {
+
+		if (chunk != null && position < chunk.length) {
+			return chunk;
+		}
+		if (chunk == END) {
+			return null;
+		}
+		if (chunk != null && chunk.failure != null) {
+			throw new IOException("Failed to inflate the archive: " + chunk.failure.getMessage(), chunk.failure);
+		}
+		if (chunk != null) {
+			freeBuffers.add(chunk.buffer);
+		}
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+
+		try {
+			chunk = inflatedChunks.take();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for the inflated bytes");
+		}
+		position = 0;
+		if (chunk.failure != null) {
+			throw new IOException("Failed to inflate the archive: " + chunk.failure.getMessage(), chunk.failure);
+		}
+		return (chunk == END) ? null : chunk;
+	}
+
+	@Override
+	public int read() throws IOException {
+		Chunk current = nextChunk();
+		return (current == null) ? -1 : current.buffer[position++] & 0xFF;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		Chunk current = nextChunk();
+		if (current == null) {
+			return -1;
+		}
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current.buffer, position, b, off, count);
+		position += count;
+		return count;
+	}
+
+	@Override
+	public int available() {
+		return (chunk == null || chunk == END) ? 0 : chunk.length - position;
+	}
+
+	@Override
+	public void close() {
+		closed = true;
+		inflater.interrupt();
+	}
+
+	private static class Chunk {
+
+		final byte[] buffer;
+
+		final int length;
+
+		final IOException failure;
+
+		Chunk(byte[] buffer, int length, IOException failure) {
+			this.buffer = buffer;
+			this.length = length;
+			this.failure = failure;
+		}
+	}
+}
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compressed encodings of the columnar series store.
+ *
+ * Timestamps are delta-of-delta encoded as zig-zag variable length integers: regularly sampled series cost one byte
+ * per timestamp. Doubles are XOR compressed as described by the Facebook Gorilla paper: a value equal to the
+ * previous one costs one bit and slowly changing values only store their meaningful XOR bits.
+ */
+final class SeriesCodec {
+
+	private SeriesCodec() {
+	}
+
+	/**
+	 * @param timestamps Timestamps to encode.
+	 * @param count Number of timestamps, from the start of the array, to encode.
+	 * @return Returns the encoded timestamps.
+	 */
+	static byte[] encodeTimestamps(long[] timestamps, int count) {
+		ByteBuffer buffer = ByteBuffer.allocate(count * 10 + 10);
+		long previous = 0;
+		long previousDelta = 0;
+		for (int i = 0; i < count; i++) {
+			long delta = timestamps[i] - previous;
+			putVarLong(buffer, zigZag(delta - previousDelta));
+			previous = timestamps[i];
+			previousDelta = delta;
+		}
+		return Arrays.copyOf(buffer.array(), buffer.position());
+	}
+
+	static long[] decodeTimestamps(ByteBuffer buffer, int count) {
+		long[] timestamps = new long[count];
+		long previous = 0;
+		long previousDelta = 0;
+		for (int i = 0; i < count; i++) {
+			long delta = previousDelta + unZigZag(getVarLong(buffer));
+			timestamps[i] = previous + delta;
+			previous = timestamps[i];
+			previousDelta = delta;
+		}
+		return timestamps;
+	}
+
+	static double[] decodeDoubles(ByteBuffer buffer, int count) {
+		double[] values = new double[count];
+		BitReader in = new BitReader(buffer);
+		long previous = 0;
+		int leadingZeros = 0;
+		int meaningfulBits = 64;
+		for (int i = 0; i < count; i++) {
+			long bits;
+			if (i == 0) {
+				bits = in.readBits(64);
+			}
+			else if (!in.readBit()) {
+				bits = previous;
+			}
+			else {
+				if (in.readBit()) {
+					leadingZeros = (int) in.readBits(5);
+					meaningfulBits = (int) in.readBits(6) + 1;
+				}
+				long xor = in.readBits(meaningfulBits) << (64 - leadingZeros - meaningfulBits);
+				bits = previous ^ xor;
+			}
+			values[i] = Double.longBitsToDouble(bits);
+			previous = bits;
+		}
+		return values;
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void putVarLong(ByteBuffer buffer, long value) {
+		while ((value & ~0x7FL) != 0) {
+			buffer.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		buffer.put((byte) value);
+	}
+
+	private static long getVarLong(ByteBuffer buffer) {
+		long value = 0;
+		for (int shift = 0; ; shift += 7) {
+			byte b = buffer.get();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+	}
+
+	/**
+	 * Incremental XOR encoder of one double column.
+	 */
+	static class XorEncoder {
+
+		private final BitWriter out = new BitWriter();
+
+		private long previous;
+
+		private int count;
+
+		private int leadingZeros = Integer.MAX_VALUE;
+
+		private int trailingZeros;
+
+		void add(double value) {
+			long bits = Double.doubleToRawLongBits(value);
+			if (count++ == 0) {
+				out.writeBits(bits, 64);
+			}
+			else {
+				long xor = bits ^ previous;
+				if (xor == 0) {
+					out.writeBit(false);
+				}
+				else {
+					out.writeBit(true);
+					// The leading zeros count is stored on 5 bits
+					int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+					int trailing = Long.numberOfTrailingZeros(xor);
+					if (leading >= leadingZeros && trailing >= trailingZeros) {
+						// The meaningful bits fit in the previous block
+						out.writeBit(false);
+						out.writeBits(xor >>> trailingZeros, 64 - leadingZeros - trailingZeros);
+					}
+					else {
+						int meaningfulBits = 64 - leading - trailing;
+						out.writeBit(true);
+						out.writeBits(leading, 5);
+						out.writeBits(meaningfulBits - 1, 6);
+						out.writeBits(xor >>> trailing, meaningfulBits);
+						leadingZeros = leading;
+						trailingZeros = trailing;
+					}
+				}
+			}
+			previous = bits;
+		}
+
+		int getCount() {
+			return count;
+		}
+
+		byte[] toByteArray() {
+			return out.toByteArray();
+		}
+
+		void reset() {
+			out.reset();
+			previous = 0;
+			count = 0;
+			leadingZeros = Integer.MAX_VALUE;
+			trailingZeros = 0;
+		}
+	}
+
+	private static class BitWriter {
+
+		private byte[] bytes = new byte[256];
+
+		private long bitCount;
+
+		void writeBit(boolean bit) {
+			ensureCapacity(1);
+			if (bit) {
+				bytes[(int) (bitCount >>> 3)] |= (byte) (0x80 >>> (bitCount & 7));
+			}
+			bitCount++;
+		}
+
+		void writeBits(long value, int count) {
+			ensureCapacity(count);
+			for (int i = count - 1; i >= 0; i--) {
+				if (((value >>> i) & 1) != 0) {
+					bytes[(int) (bitCount >>> 3)] |= (byte) (0x80 >>> (bitCount & 7));
+				}
+				bitCount++;
+			}
+		}
+
+		byte[] toByteArray() {
+			return Arrays.copyOf(bytes, (int) ((bitCount + 7) >>> 3));
+		}
+
+		void reset() {
+			Arrays.fill(bytes, 0, (int) ((bitCount + 7) >>> 3), (byte) 0);
+			bitCount = 0;
+		}
+
+		private void ensureCapacity(int bits) {
+			if ((bitCount + bits + 7) >>> 3 > bytes.length) {
+				bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, (int) ((bitCount + bits + 7) >>> 3)));
+			}
+		}
+	}
+
+	private static class BitReader {
+
+		private final ByteBuffer buffer;
+
+		private final int start;
+
+		private long bitPosition;
+
+		BitReader(ByteBuffer buffer) {
+			this.buffer = buffer;
+			this.start = buffer.position();
+		}
+
+		boolean readBit() {
+			int b = buffer.get(start + (int) (bitPosition >>> 3));
+			boolean bit = (b & (0x80 >>> (bitPosition & 7))) != 0;
+			bitPosition++;
+			return bit;
+		}
+
+		long readBits(int count) {
+			long value = 0;
+			for (int i = 0; i < count; i++) {
+				value = (value << 1) | (readBit() ? 1 : 0);
+			}
+			return value;
+		}
+	}
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.util.regex.Pattern;
+
+import org.springframework.util.Assert;
+
+/**
+ * Include or exclude rule matching the archive statistics by type, instance and stat name.
+ *
+ * A rule is written as {@code type=<pattern>&instance=<pattern>&stat=<pattern>}. Every part is optional and the
+ * omitted parts match any name. Patterns are globs ({@code *} and {@code ?} wildcards) unless prefixed with
+ * {@code regex:}, e.g. {@code type=CacheClientProxyStatistics} or {@code type=CachePerfStats&stat=regex:(gets|puts)}.
+ */
+public class StatFilterRule {
+
+	private static final String REGEX_PREFIX = "regex:";
+
+	private final String rule;
+
+	private final boolean include;
+
+	private final Pattern type;
+
+	private final Pattern instance;
+
+	private final Pattern stat;
+
+	private StatFilterRule(String rule, boolean include, Pattern type, Pattern instance, Pattern stat) {
+		this.rule = rule;
+		this.include = include;
+		this.type = type;
+		this.instance = instance;
+		this.stat = stat;
+	}
+
+	/**
+	 * @param rule Rule definition.
+	 * @param include True for an include rule, false for an exclude one.
+	 * @return Returns the parsed rule.
+	 */
+	public static StatFilterRule parse(String rule, boolean include) {
+
+		Assert.hasText(rule, "Not empty rule is required!");
+
+		Pattern type = null;
+		Pattern instance = null;
+		Pattern stat = null;
+
+		for (String part : rule.trim().split("&")) {
+			int separator = part.indexOf('=');
+			Assert.isTrue(separator > 0, "Invalid stat filter rule [" + rule + "], expected <dimension>=<pattern>");
+			String dimension = part.substring(0, separator).trim();
+			Pattern pattern = compile(part.substring(separator + 1).trim());
+			switch (dimension) {
+			case "type":
+				type = pattern;
+				break;
+			case "instance":
+				instance = pattern;
+				break;
+			case "stat":
+				stat = pattern;
+				break;
+			default:
+				throw new IllegalArgumentException("Invalid stat filter rule [" + rule + "], unknown dimension ["
+						+ dimension + "]. Expected type, instance or stat");
+			}
+		}
+		return new StatFilterRule(rule.trim(), include, type, instance, stat);
+	}
+
+	/**
+	 * Type only rule, as defined by the allowed stat types list.
+	 */
+	public static StatFilterRule forType(String typeName) {
+		return new StatFilterRule("type=" + typeName, true, Pattern.compile(Pattern.quote(typeName)), null, null);
+	}
+
+	public boolean isInclude() {
+		return include;
+	}
+
+	public boolean matchesType(String typeName) {
+		return type == null || type.matcher(typeName).matches();
+	}
+
+	public boolean matchesInstance(String instanceName) {
+		return instance == null || instance.matcher(instanceName).matches();
+	}
+
+	public boolean matchesStat(String statName) {
+		return stat == null || stat.matcher(statName).matches();
+	}
+
+	public boolean matches(String typeName, String instanceName, String statName) {
+		return matchesType(typeName) && matchesInstance(instanceName) && matchesStat(statName);
+	}
+
+	/**
+	 * @return Returns true if the rule constrains a single dimension (type, instance or stat), in which case it
+	 * can be evaluated by the archive reader.
+	 */
+	public boolean isSingleDimension() {
+		return (type != null ? 1 : 0) + (instance != null ? 1 : 0) + (stat != null ? 1 : 0) == 1;
+	}
+
+	public boolean hasType() {
+		return type != null;
+	}
+
+	public boolean hasInstance() {
+		return instance != null;
+	}
+
+	public boolean hasStat() {
+		return stat != null;
+	}
+
+	@Override
+	public String toString() {
+		return (include ? "include " : "exclude ") + rule;
+	}
+
+	private static Pattern compile(String pattern) {
+		if (pattern.startsWith(REGEX_PREFIX)) {
+			return Pattern.compile(pattern.substring(REGEX_PREFIX.length()));
+		}
+		StringBuilder regex = new StringBuilder();
+		StringBuilder literal = new StringBuilder();
+		for (char c : pattern.toCharArray()) {
+			if (c == '*' || c == '?') {
+				if (literal.length() > 0) {
+					regex.append(Pattern.quote(literal.toString()));
+					literal.setLength(0);
+				}
+				regex.append(c == '*' ? ".*" : ".");
+			}
+			else {
+				literal.append(c);
+			}
+		}
+		if (literal.length() > 0) {
+			regex.append(Pattern.quote(literal.toString()));
+		}
+		return Pattern.compile(regex.toString());
+	}
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Loads the archive statistics into a local columnar series file (see {@link ColumnarSeriesWriter}), one file per
+ * archive named {@code <archive>.<member>.series}. The series are read back with the {@link ColumnarSeriesReader}.
+ *
+ * Every measurement field is stored as a dense column, so the skipZeroValuesTimeSeries is the only setting
+ * discarding values. Rollups are not supported and the file is rewritten by every load.
+ */
+@Service
+public class StatisticsToColumnarLoader extends AbstractStatisticsTSDBLoader {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StatisticsToColumnarLoader.class);
+
+	static final String SERIES_FILE_EXTENSION = ".series";
+
+	private final String columnarOutputDirectory;
+
+	private final int columnarChunkSize;
+
+	private final boolean skipZeroValuesTimeSeries;
+
+	private volatile ColumnarSeriesWriter writer;
+
+	// Measurements can be loaded concurrently, so every loader thread encodes its own chunk
+	private final ThreadLocal<ChunkBuilder> chunkBuilder = ThreadLocal.withInitial(ChunkBuilder::new);
+
+	@Autowired
+	public StatisticsToColumnarLoader(
+			@Value("${columnarOutputDirectory}") String columnarOutputDirectory,
+			@Value("${columnarChunkSize}") int columnarChunkSize,
+			@Value("${archiveFile}") File archiveFile,
+			@Value("${geodeMemberName}") String geodeMemberName,
+			@Value("${allowedStatTypes}") String[] allowStatTypes,
+			@Value("${skipZeroValuesTimeSeries}") boolean skipZeroValuesTimeSeries) {
+
+		super(false, archiveFile, geodeMemberName, allowStatTypes);
+
+		Assert.isTrue(columnarChunkSize > 0, "Positive columnarChunkSize is required!");
+
+		this.columnarOutputDirectory = columnarOutputDirectory;
+		this.columnarChunkSize = columnarChunkSize;
+		this.skipZeroValuesTimeSeries = skipZeroValuesTimeSeries;
+	}
+
+	@Override
+	protected StatisticsToColumnarLoader forArchive(File archiveFile, String geodeMemberName) {
+		StatisticsToColumnarLoader loader = new StatisticsToColumnarLoader(columnarOutputDirectory, columnarChunkSize,
+				archiveFile, geodeMemberName, allowStatTypes, skipZeroValuesTimeSeries);
+		copyLoadSettingsTo(loader);
+		return loader;
+	}
+
+	/**
+	 * @return Returns the series file of the loaded archive.
+	 */
+	public File getSeriesFile() {
+		File directory = StringUtils.hasText(columnarOutputDirectory) ? new File(columnarOutputDirectory)
+				: archiveFileName.getAbsoluteFile().getParentFile();
+		return new File(directory, archiveFileName.getName() + "." + geodeMemberName + SERIES_FILE_EXTENSION);
+	}
+
+	@Override
+	protected void doCreateEmptyDatabase() {
+		// Every load rewrites the series file
+	}
+
+	@Override
+	protected void doStartLoad() {
+		File seriesFile = getSeriesFile();
+		seriesFile.getParentFile().mkdirs();
+		LOG.info("Write series file [" + seriesFile + "]");
+		try {
+			writer = new ColumnarSeriesWriter(seriesFile);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	protected void doCompleteLoad() {
+		try {
+			writer.close();
+			LOG.info("Wrote " + writer.getWrittenBytes() + " bytes to [" + getSeriesFile() + "]");
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	@Override
+	protected void doPrepareMeasurementLoad() {
+		chunkBuilder.get().reset();
+	}
+
+	@Override
+	protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
+			long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+
+		ChunkBuilder chunk = chunkBuilder.get();
+		if (chunk.measurementFields != measurementFields) {
+			writeChunk(chunk);
+			chunk.measurement(measurementName, measurementType, measurementFields);
+		}
+
+		chunk.timestamps[chunk.sampleCount++] = measurementTimestamp;
+		for (int column = 0; column < chunk.fieldIndexes.length; column++) {
+			int fieldIndex = chunk.fieldIndexes[column];
+			chunk.columns[column].add(chunk.rateColumns[column] ? getMeasurementFieldRate(fieldIndex)
+					: getMeasurementFieldValue(measurementFields[fieldIndex], measurementSampleIndex));
+		}
+
+		if (chunk.sampleCount == columnarChunkSize) {
+			writeChunk(chunk);
+		}
+	}
+
+	@Override
+	protected void doCompleteMeasurementLoad() {
+		ChunkBuilder chunk = chunkBuilder.get();
+		writeChunk(chunk);
+		chunk.reset();
+	}
+
+	private void writeChunk(ChunkBuilder chunk) {
+		if (chunk.sampleCount == 0) {
+			return;
+		}
+		byte[][] columns = new byte[chunk.columns.length][];
+		for (int column = 0; column < columns.length; column++) {
+			columns[column] = chunk.columns[column].toByteArray();
+			chunk.columns[column].reset();
+		}
+		try {
+			long writeStart = System.nanoTime();
+			long chunkBytes = writer.writeChunk(chunk.measurementName, chunk.measurementType, chunk.columnNames,
+					chunk.timestamps, chunk.sampleCount, columns);
+			getMetrics().recordWrite(chunk.sampleCount, chunkBytes, System.nanoTime() - writeStart);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		chunk.sampleCount = 0;
+	}
+
+	/**
+	 * Chunk of the measurement being loaded by one thread.
+	 */
+	private class ChunkBuilder {
+
+		StatArchiveReader.StatValue[] measurementFields;
+
+		String measurementName;
+
+		String measurementType;
+
+		String[] columnNames;
+
+		// Measurement field of every column and whether the column holds its rate
+		int[] fieldIndexes;
+
+		boolean[] rateColumns;
+
+		SeriesCodec.XorEncoder[] columns;
+
+		long[] timestamps = new long[columnarChunkSize];
+
+		int sampleCount;
+
+		void measurement(String measurementName, String measurementType,
+				StatArchiveReader.StatValue[] measurementFields) {
+
+			List<String> names = new ArrayList<>();
+			List<Integer> indexes = new ArrayList<>();
+			List<Boolean> rates = new ArrayList<>();
+			for (int fieldIndex = 0; fieldIndex < measurementFields.length; fieldIndex++) {
+				StatArchiveReader.StatValue measurementField = measurementFields[fieldIndex];
+				if (skipZeroValuesTimeSeries && allValuesAreZero(measurementField)) {
+					continue;
+				}
+				if (isRawField(measurementField)) {
+					names.add(getMeasurementFieldName(measurementField));
+					indexes.add(fieldIndex);
+					rates.add(false);
+				}
+				if (isRateField(measurementField)) {
+					names.add(getMeasurementRateFieldName(measurementField));
+					indexes.add(fieldIndex);
+					rates.add(true);
+				}
+			}
+
+			this.measurementFields = measurementFields;
+			this.measurementName = measurementName;
+			this.measurementType = measurementType;
+			this.columnNames = names.toArray(new String[names.size()]);
+			this.fieldIndexes = indexes.stream().mapToInt(Integer::intValue).toArray();
+			this.rateColumns = new boolean[rates.size()];
+			this.columns = new SeriesCodec.XorEncoder[rates.size()];
+			for (int column = 0; column < columns.length; column++) {
+				rateColumns[column] = rates.get(column);
+				columns[column] = new SeriesCodec.XorEncoder();
+			}
+			this.sampleCount = 0;
+		}
+
+		void reset() {
+			measurementFields = null;
+			sampleCount = 0;
+		}
+	}
+}
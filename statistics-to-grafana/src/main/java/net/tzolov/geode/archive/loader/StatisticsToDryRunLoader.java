@@ -0,0 +1,235 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+/**
+ * Runs the complete load of the archive against a counting sink, without touching a database. The points are encoded
+ * exactly as by the {@link StatisticsToInfluxLoader}, under the same filter, time range, skip and rollup settings, and
+ * the final report breaks the elapsed time down by phase (archive parsing, value decoding and point encoding) and the
+ * projected write volume down by statistics type.
+ *
+ * A dry run never records checkpoints, so it neither resumes nor disturbs an interrupted load of the same archive.
+ */
+@Service
+public class StatisticsToDryRunLoader extends AbstractLineProtocolLoader {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StatisticsToDryRunLoader.class);
+
+	private final Map<String, TypeVolume> typeVolumes = new ConcurrentHashMap<>();
+
+	private final Map<String, TypeVolume> retentionPolicyVolumes = new ConcurrentHashMap<>();
+
+	// Measurement being encoded by the thread, its batches are accounted to its type
+	private final ThreadLocal<String[]> currentMeasurement = ThreadLocal.withInitial(() -> new String[2]);
+
+	@Autowired
+	public StatisticsToDryRunLoader(
+			@Value("${influxRetentionPolicy}") String influxRetentionPolicy,
+			@Value("${influxMeasurementBatchSize}") int influxMeasurementBatchSize,
+			@Value("${influxDatabaseName}") String influxDatabaseName,
+			@Value("${archiveFile}") File archiveFile,
+			@Value("${geodeMemberName}") String geodeMemberName,
+			@Value("${allowedStatTypes}") String[] allowStatTypes,
+			@Value("${skipZeroValuesTimeSeries}") boolean skipZeroValuesTimeSeries) {
+
+		super(false, influxRetentionPolicy, influxMeasurementBatchSize, influxDatabaseName, archiveFile,
+				geodeMemberName, allowStatTypes, skipZeroValuesTimeSeries);
+	}
+
+	@Override
+	protected StatisticsToDryRunLoader forArchive(File archiveFile, String geodeMemberName) {
+		StatisticsToDryRunLoader loader = new StatisticsToDryRunLoader(influxRetentionPolicy,
+				influxMeasurementBatchSize, influxDatabaseName, archiveFile, geodeMemberName, allowStatTypes,
+				skipZeroValuesTimeSeries);
+		copyLoadSettingsTo(loader);
+		return loader;
+	}
+
+	@Override
+	public void setCheckpoint(boolean checkpoint) {
+		// Nothing is written, so there is no progress to record
+		super.setCheckpoint(false);
+	}
+
+	/**
+	 * @return Returns the projected write volume of the last load, by statistics type.
+	 */
+	public Map<String, TypeVolume> getTypeVolumes() {
+		return Collections.unmodifiableMap(typeVolumes);
+	}
+
+	@Override
+	protected void doCreateEmptyDatabase() {
+		// No database is touched by a dry run
+	}
+
+	@Override
+	protected void doStartLoad() {
+		typeVolumes.clear();
+		retentionPolicyVolumes.clear();
+	}
+
+	@Override
+	protected void doCompleteLoad() {
+		LOG.info("Dry run of archive [" + archiveFileName + "] of member [" + geodeMemberName + "]:"
+				+ System.lineSeparator() + report());
+	}
+
+	@Override
+	protected void doPrepareMeasurementLoad() {
+		super.doPrepareMeasurementLoad();
+		currentMeasurement.get()[0] = null;
+	}
+
+	@Override
+	protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
+			long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+
+		startEncode(measurementName, measurementType);
+		long encodeStart = System.nanoTime();
+		long decodeStart = getMetrics().getThreadDecodeNanos();
+		super.doLoadMeasurement(measurementName, measurementType, measurementSampleIndex, measurementTimestamp,
+				measurementFields);
+		recordEncode(encodeStart, decodeStart);
+	}
+
+	@Override
+	protected void doLoadRollup(String measurementName, String measurementType, long windowTimestamp,
+			StatArchiveReader.StatValue[] measurementFields, MeasurementRollup rollup) {
+
+		startEncode(measurementName, measurementType);
+		long encodeStart = System.nanoTime();
+		long decodeStart = getMetrics().getThreadDecodeNanos();
+		super.doLoadRollup(measurementName, measurementType, windowTimestamp, measurementFields, rollup);
+		recordEncode(encodeStart, decodeStart);
+	}
+
+	@Override
+	protected void doLoadClusterAggregate(String measurementName, String measurementType, long timestamp,
+			String[] fieldNames, double[] values) {
+
+		startEncode(measurementName, measurementType);
+		long encodeStart = System.nanoTime();
+		long decodeStart = getMetrics().getThreadDecodeNanos();
+		super.doLoadClusterAggregate(measurementName, measurementType, timestamp, fieldNames, values);
+		recordEncode(encodeStart, decodeStart);
+	}
+
+	@Override
+	protected void doWriteBatch(String retentionPolicy, String records, int pointCount, Runnable commit) {
+		String measurementType = currentMeasurement.get()[1];
+		typeVolume(typeVolumes, measurementType == null ? "unknown" : measurementType).add(pointCount,
+				records.length());
+		typeVolume(retentionPolicyVolumes, retentionPolicy).add(pointCount, records.length());
+		getMetrics().recordWrite(pointCount, records.length(), 0);
+		commit.run();
+	}
+
+	/**
+	 * @return Returns the phase times and the projected write volume of the last load.
+	 */
+	public String report() {
+		LoadMetrics metrics = getMetrics();
+		StringBuilder report = new StringBuilder();
+		// The decode and encode times are summed over the load threads, they can exceed the elapsed time
+		report.append(String.format("  elapsed %d ms, phase times summed over %d load threads: open %d ms, decode %d ms, "
+						+ "encode %d ms%n", metrics.getElapsedMillis(), getLoadThreads(), metrics.getOpenMillis(),
+				metrics.getDecodeMillis(), metrics.getEncodeMillis()));
+		report.append(String.format("  projected write: %d points, %.1f MB in %d batches of up to %d points%n",
+				metrics.getWrittenPoints(), metrics.getWrittenBytes() / 1048576.0, metrics.getWrittenBatches(),
+				influxMeasurementBatchSize));
+		for (Map.Entry<String, TypeVolume> entry : retentionPolicyVolumes.entrySet()) {
+			report.append(String.format("    retention policy [%s]: %d points, %.1f MB%n", entry.getKey(),
+					entry.getValue().getPoints(), entry.getValue().getBytes() / 1048576.0));
+		}
+
+		List<Map.Entry<String, TypeVolume>> types = new ArrayList<>(typeVolumes.entrySet());
+		types.sort((type1, type2) -> Long.compare(type2.getValue().getBytes(), type1.getValue().getBytes()));
+		report.append(String.format("  %-40s %12s %12s %12s %7s", "type", "measurements", "points", "bytes", "share"));
+		for (Map.Entry<String, TypeVolume> entry : types) {
+			TypeVolume volume = entry.getValue();
+			report.append(String.format("%n  %-40s %12d %12d %12d %6.1f%%", entry.getKey(), volume.getMeasurements(),
+					volume.getPoints(), volume.getBytes(),
+					100.0 * volume.getBytes() / Math.max(1, metrics.getWrittenBytes())));
+		}
+		return report.toString();
+	}
+
+	private void startEncode(String measurementName, String measurementType) {
+		String[] measurement = currentMeasurement.get();
+		if (!Objects.equals(measurement[0], measurementName) || !Objects.equals(measurement[1], measurementType)) {
+			measurement[0] = measurementName;
+			measurement[1] = measurementType;
+			typeVolume(typeVolumes, measurementType).measurements.increment();
+		}
+	}
+
+	private void recordEncode(long encodeStart, long decodeStart) {
+		// The values decoded on demand while the points are encoded are accounted to the decode phase
+		long decodeNanos = getMetrics().getThreadDecodeNanos() - decodeStart;
+		getMetrics().recordEncode(Math.max(0, System.nanoTime() - encodeStart - decodeNanos));
+	}
+
+	private static TypeVolume typeVolume(Map<String, TypeVolume> volumes, String key) {
+		return volumes.computeIfAbsent(key, k -> new TypeVolume());
+	}
+
+	/**
+	 * Measurements, points and line protocol bytes that would be written for a statistics type.
+	 */
+	public static final class TypeVolume {
+
+		private final LongAdder measurements = new LongAdder();
+
+		private final LongAdder points = new LongAdder();
+
+		private final LongAdder bytes = new LongAdder();
+
+		void add(long pointCount, long byteCount) {
+			points.add(pointCount);
+			bytes.add(byteCount);
+		}
+
+		public long getMeasurements() {
+			return measurements.sum();
+		}
+
+		public long getPoints() {
+			return points.sum();
+		}
+
+		public long getBytes() {
+			return bytes.sum();
+		}
+	}
+}
@@ -16,14 +16,11 @@
 package net.tzolov.geode.archive.loader;
 
 import java.io.File;
-import java.util.concurrent.TimeUnit;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
-import org.apache.geode.internal.statistics.StatArchiveReader;
 import org.influxdb.InfluxDB;
 import org.influxdb.InfluxDB.ConsistencyLevel;
-import org.influxdb.dto.BatchPoints;
-import org.influxdb.dto.Point;
-import org.influxdb.dto.Point.Builder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,23 +28,42 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
 
 @Service
-public class StatisticsToInfluxLoader extends AbstractStatisticsTSDBLoader {
+public class StatisticsToInfluxLoader extends AbstractLineProtocolLoader {
 
 	private static final Logger LOG = LoggerFactory.getLogger(StatisticsToInfluxLoader.class);
 
-	private int influxMeasurementBatchSize;
+	private InfluxDB influxDB;
 
-	private String influxRetentionPolicy;
+	private int influxWriterThreads = 4;
 
-	private String influxDatabaseName;
+	private int influxWriteQueueCapacity = 16;
 
-	private InfluxDB influxDB;
+	private int influxMaxInFlightBytes = 64 * 1024 * 1024;
+
+	private int influxBatchMaxBytes = 4 * 1024 * 1024;
+
+	private long influxBatchLinger = 1000;
+
+	private boolean influxBatchAdaptive = false;
+
+	private long influxBatchTargetLatency = 500;
+
+	private int influxWriteRetries = 5;
+
+	private long influxRetryBackoff = 100;
 
-	private BatchPoints measurementBatch;
+	private long influxRetryMaxBackoff = 30000;
 
-	private boolean skipZeroValuesTimeSeries;
+	private boolean influxSpill = false;
+
+	private String influxSpillDirectory = "";
+
+	private volatile InfluxWritePipeline writePipeline;
+
+	private volatile InfluxWriteBatcher writeBatcher;
 
 	@Autowired
 	public StatisticsToInfluxLoader(InfluxDB influxDb,
@@ -60,78 +76,208 @@ public class StatisticsToInfluxLoader extends AbstractStatisticsTSDBLoader {
 			@Value("${allowedStatTypes}") String[] allowStatTypes,
 			@Value("${skipZeroValuesTimeSeries}") boolean skipZeroValuesTimeSeries) {
 
-		super(cleanDatabaseOnLoad, archiveFile, geodeMemberName, allowStatTypes);
-		this.skipZeroValuesTimeSeries = skipZeroValuesTimeSeries;
+		super(cleanDatabaseOnLoad, influxRetentionPolicy, influxMeasurementBatchSize, influxDatabaseName, archiveFile,
+				geodeMemberName, allowStatTypes, skipZeroValuesTimeSeries);
 
 		Assert.notNull(influxDb, "Not null InfluxDB is required!");
 
 		this.influxDB = influxDb;
-		this.influxDatabaseName = influxDatabaseName;
-		this.influxRetentionPolicy = influxRetentionPolicy;
-		this.influxMeasurementBatchSize = influxMeasurementBatchSize;
 	}
 
 	@Override
-	protected void doCreateEmptyDatabase() {
-		LOG.info("(Re)create influxDB [" + influxDatabaseName + "]");
-		influxDB.deleteDatabase(influxDatabaseName);
-		influxDB.createDatabase(influxDatabaseName);
+	protected StatisticsToInfluxLoader forArchive(File archiveFile, String geodeMemberName) {
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, influxRetentionPolicy,
+				influxMeasurementBatchSize, influxDatabaseName, archiveFile, geodeMemberName, allowStatTypes,
+				skipZeroValuesTimeSeries);
+		copyLoadSettingsTo(loader);
+		loader.setInfluxWriterThreads(influxWriterThreads);
+		loader.setInfluxWriteQueueCapacity(influxWriteQueueCapacity);
+		loader.setInfluxMaxInFlightBytes(influxMaxInFlightBytes);
+		loader.setInfluxBatchMaxBytes(influxBatchMaxBytes);
+		loader.setInfluxBatchLinger(influxBatchLinger);
+		loader.setInfluxBatchAdaptive(influxBatchAdaptive);
+		loader.setInfluxBatchTargetLatency(influxBatchTargetLatency);
+		loader.setInfluxWriteRetries(influxWriteRetries);
+		loader.setInfluxRetryBackoff(influxRetryBackoff);
+		loader.setInfluxRetryMaxBackoff(influxRetryMaxBackoff);
+		loader.setInfluxSpill(influxSpill);
+		loader.setInfluxSpillDirectory(influxSpillDirectory);
+		return loader;
 	}
 
-	@Override
-	protected void doPrepareMeasurementLoad() {
-		measurementBatch = measurementsBatch();
+	/**
+	 * @param influxWriterThreads Number of threads writing the batches to InfluxDB in parallel with the archive
+	 * decoding. If 0 the batches are written synchronously by the loading thread.
+	 */
+	@Value("${influxWriterThreads}")
+	public void setInfluxWriterThreads(int influxWriterThreads) {
+		this.influxWriterThreads = influxWriterThreads;
 	}
 
-	@Override
-	protected void doLoadMeasurement(String measurementName, String measurementType,
-			int measurementSampleIndex, long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+	/**
+	 * @param influxWriteQueueCapacity Maximum number of batches waiting to be written.
+	 */
+	@Value("${influxWriteQueueCapacity}")
+	public void setInfluxWriteQueueCapacity(int influxWriteQueueCapacity) {
+		this.influxWriteQueueCapacity = influxWriteQueueCapacity;
+	}
+
+	/**
+	 * @param influxMaxInFlightBytes Maximum size of the batches submitted but not yet written. The archive decoding
+	 * is blocked while this limit is reached.
+	 */
+	@Value("${influxMaxInFlightBytes}")
+	public void setInfluxMaxInFlightBytes(int influxMaxInFlightBytes) {
+		this.influxMaxInFlightBytes = influxMaxInFlightBytes;
+	}
 
-		Builder measurement = Point.measurement(measurementName)
-				.tag("type", measurementType)
-				.time(measurementTimestamp, TimeUnit.MILLISECONDS);
+	/**
+	 * @param influxBatchMaxBytes Size, in bytes, at which the merged batches of all measurements are written, even if
+	 * they hold less than influxMeasurementBatchSize points.
+	 */
+	@Value("${influxBatchMaxBytes}")
+	public void setInfluxBatchMaxBytes(int influxBatchMaxBytes) {
+		this.influxBatchMaxBytes = influxBatchMaxBytes;
+	}
 
-		boolean pointsFound = false;
+	/**
+	 * @param influxBatchLinger Maximum time, in milliseconds, a batch waits to be merged with the batches of other
+	 * measurements. If 0 the merged batches are only written when full or at the end of the load.
+	 */
+	@Value("${influxBatchLinger}")
+	public void setInfluxBatchLinger(long influxBatchLinger) {
+		this.influxBatchLinger = influxBatchLinger;
+	}
 
-		for (StatArchiveReader.StatValue measurementField : measurementFields) {
+	/**
+	 * @param influxBatchAdaptive If true the batch size grows while the writes are faster than the
+	 * influxBatchTargetLatency and shrinks on slower or failed writes.
+	 */
+	@Value("${influxBatchAdaptive}")
+	public void setInfluxBatchAdaptive(boolean influxBatchAdaptive) {
+		this.influxBatchAdaptive = influxBatchAdaptive;
+	}
 
-			if (!skipZeroValuesTimeSeries || !allValuesAreZero(measurementField)) {
-				pointsFound = true;
-				measurement.addField(
-						getMeasurementFieldName(measurementField),
-						getMeasurementFieldValue(measurementField, measurementSampleIndex));
+	/**
+	 * @param influxBatchTargetLatency Write latency, in milliseconds, the adaptive batch size is adapted to.
+	 */
+	@Value("${influxBatchTargetLatency}")
+	public void setInfluxBatchTargetLatency(long influxBatchTargetLatency) {
+		this.influxBatchTargetLatency = influxBatchTargetLatency;
+	}
+
+	/**
+	 * @param influxWriteRetries Maximum number of retries of a batch write failing with a transient error (e.g. a
+	 * timeout or a server error).
+	 */
+	@Value("${influxWriteRetries}")
+	public void setInfluxWriteRetries(int influxWriteRetries) {
+		this.influxWriteRetries = influxWriteRetries;
+	}
+
+	/**
+	 * @param influxRetryBackoff Delay, in milliseconds, before the first retry. Doubled on every retry and randomized
+	 * between its half and its full value.
+	 */
+	@Value("${influxRetryBackoff}")
+	public void setInfluxRetryBackoff(long influxRetryBackoff) {
+		this.influxRetryBackoff = influxRetryBackoff;
+	}
+
+	/**
+	 * @param influxRetryMaxBackoff Maximum delay, in milliseconds, between two retries.
+	 */
+	@Value("${influxRetryMaxBackoff}")
+	public void setInfluxRetryMaxBackoff(long influxRetryMaxBackoff) {
+		this.influxRetryMaxBackoff = influxRetryMaxBackoff;
+	}
+
+	/**
+	 * @param influxSpill If true the batches that can not be written (e.g. once their retries are exhausted) are
+	 * spilled to a local file and replayed once InfluxDB recovers, instead of failing the load.
+	 */
+	@Value("${influxSpill}")
+	public void setInfluxSpill(boolean influxSpill) {
+		this.influxSpill = influxSpill;
+	}
+
+	/**
+	 * @param influxSpillDirectory Directory of the spill files. If empty the archive directory is used.
+	 */
+	@Value("${influxSpillDirectory}")
+	public void setInfluxSpillDirectory(String influxSpillDirectory) {
+		this.influxSpillDirectory = influxSpillDirectory;
+	}
+
+	/**
+	 * @return Returns the spill file of the archive and member, replayed by their next load if left non-empty.
+	 */
+	File getSpillFile() {
+		File directory = StringUtils.hasText(influxSpillDirectory) ? new File(influxSpillDirectory)
+				: archiveFileName.getAbsoluteFile().getParentFile();
+		return new File(directory, archiveFileName.getName() + "." + geodeMemberName + ".spill");
+	}
+
+	@Override
+	protected void doCreateEmptyDatabase() {
+		LOG.info("(Re)create influxDB [" + influxDatabaseName + "]");
+		influxDB.deleteDatabase(influxDatabaseName);
+		influxDB.createDatabase(influxDatabaseName);
+	}
+
+	@Override
+	protected void doStartLoad() {
+		if (isRollupEnabled()) {
+			LOG.info("Create rollup retention policy [" + influxRollupRetentionPolicy + "]");
+			influxDB.createRetentionPolicy(influxRollupRetentionPolicy, influxDatabaseName,
+					influxRollupRetentionDuration, 1, false);
+		}
+		writePipeline = new InfluxWritePipeline(influxDB, influxWriterThreads, influxWriteQueueCapacity,
+				influxMaxInFlightBytes, getMetrics());
+		writePipeline.setRetryPolicy(influxWriteRetries, influxRetryBackoff, influxRetryMaxBackoff);
+		if (influxSpill) {
+			File spillFile = getSpillFile();
+			// The batches spilled by a previous load are stale once the database is recreated
+			if ((cleanDatabaseOnLoad || discardCheckpoint) && spillFile.exists() && !spillFile.delete()) {
+				throw new IllegalStateException("Failed to delete the previous spill file [" + spillFile + "]");
+			}
+			try {
+				writePipeline.enableSpill(spillFile);
+			}
+			catch (IOException e) {
+				throw new UncheckedIOException(e);
 			}
 		}
-
-		if (pointsFound) {
-			measurementBatch.point(measurement.build());
+		writeBatcher = new InfluxWriteBatcher(writePipeline, influxDatabaseName, ConsistencyLevel.ALL,
+				influxMeasurementBatchSize, influxBatchMaxBytes, influxBatchLinger);
+		if (influxBatchAdaptive) {
+			writeBatcher.adaptTo(influxBatchTargetLatency);
 		}
+	}
 
-		if (measurementSampleIndex % influxMeasurementBatchSize == 0) {
-			influxDB.write(measurementBatch);
-			measurementBatch = measurementsBatch();
-			System.out.print(".");
+	@Override
+	protected void doCompleteLoad() {
+		try {
+			writeBatcher.close();
+		}
+		finally {
+			writePipeline.close();
 		}
 	}
 
 	@Override
-	protected void doCompleteMeasurementLoad() {
-		// Write the remaining measurements in the batch
-		if (measurementBatch.getPoints().size() > 0) {
-			influxDB.write(measurementBatch);
-		}
-		measurementBatch = null;
-		System.out.println();
-	}
-
-	private BatchPoints measurementsBatch() {
-		BatchPoints batchPoints = BatchPoints
-				.database(influxDatabaseName)
-				.tag("async", "false")
-				.tag("archiveMember", geodeMemberName)
-				.retentionPolicy(influxRetentionPolicy)
-				.consistency(ConsistencyLevel.ALL)
-				.build();
-		return batchPoints;
+	protected void doFlush() {
+		writeBatcher.flush();
+		writePipeline.flush();
+	}
+
+	@Override
+	protected boolean isBatchFull(LineProtocolEncoder encoder) {
+		return writeBatcher.isFull(encoder.getPointCount(), encoder.getSize());
+	}
+
+	@Override
+	protected void doWriteBatch(String retentionPolicy, String records, int pointCount, Runnable commit) {
+		writeBatcher.add(retentionPolicy, records, pointCount, commit);
 	}
 }
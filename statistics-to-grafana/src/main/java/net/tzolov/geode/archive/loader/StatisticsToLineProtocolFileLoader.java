@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Exports the archive statistics into gzip compressed InfluxDB line protocol files, to be loaded offline with
+ * {@code influx -import -compressed -path=<file>}. The points are identical to the ones written by the
+ * {@link StatisticsToInfluxLoader}, including the rollup windows.
+ *
+ * Every loader thread writes its own sequence of files, named {@code <archive>.<member>-<number>.lp.gz} and split
+ * by size. Every file creates the database (and the rollup retention policy) it is imported into.
+ */
+@Service
+public class StatisticsToLineProtocolFileLoader extends AbstractLineProtocolLoader {
+
+	private static final Logger LOG = LoggerFactory.getLogger(StatisticsToLineProtocolFileLoader.class);
+
+	static final String EXPORT_FILE_EXTENSION = ".lp.gz";
+
+	private final String exportDirectory;
+
+	private final long exportMaxFileBytes;
+
+	private final int exportBufferSize;
+
+	private final Map<Thread, LineProtocolFileWriter> writers = new ConcurrentHashMap<>();
+
+	private final AtomicInteger fileNumber = new AtomicInteger();
+
+	@Autowired
+	public StatisticsToLineProtocolFileLoader(
+			@Value("${exportDirectory}") String exportDirectory,
+			@Value("${exportMaxFileBytes}") long exportMaxFileBytes,
+			@Value("${exportBufferSize}") int exportBufferSize,
+			@Value("${influxRetentionPolicy}") String influxRetentionPolicy,
+			@Value("${influxMeasurementBatchSize}") int influxMeasurementBatchSize,
+			@Value("${influxDatabaseName}") String influxDatabaseName,
+			@Value("${archiveFile}") File archiveFile,
+			@Value("${geodeMemberName}") String geodeMemberName,
+			@Value("${allowedStatTypes}") String[] allowStatTypes,
+			@Value("${skipZeroValuesTimeSeries}") boolean skipZeroValuesTimeSeries) {
+
+		super(false, influxRetentionPolicy, influxMeasurementBatchSize, influxDatabaseName, archiveFile,
+				geodeMemberName, allowStatTypes, skipZeroValuesTimeSeries);
+
+		Assert.isTrue(exportMaxFileBytes > 0, "Positive exportMaxFileBytes is required!");
+		Assert.isTrue(exportBufferSize > 0, "Positive exportBufferSize is required!");
+
+		this.exportDirectory = exportDirectory;
+		this.exportMaxFileBytes = exportMaxFileBytes;
+		this.exportBufferSize = exportBufferSize;
+	}
+
+	@Override
+	protected StatisticsToLineProtocolFileLoader forArchive(File archiveFile, String geodeMemberName) {
+		StatisticsToLineProtocolFileLoader loader = new StatisticsToLineProtocolFileLoader(exportDirectory,
+				exportMaxFileBytes, exportBufferSize, influxRetentionPolicy, influxMeasurementBatchSize,
+				influxDatabaseName, archiveFile, geodeMemberName, allowStatTypes, skipZeroValuesTimeSeries);
+		copyLoadSettingsTo(loader);
+		return loader;
+	}
+
+	/**
+	 * @return Returns the exported files of the loaded archive, in their number order.
+	 */
+	public List<File> getExportFiles() {
+		List<File> exportFiles = new ArrayList<>();
+		File[] files = getExportDirectory().listFiles();
+		if (files != null) {
+			for (File file : files) {
+				if (exportFileNumber(file) >= 0) {
+					exportFiles.add(file);
+				}
+			}
+		}
+		exportFiles.sort((file1, file2) -> Integer.compare(exportFileNumber(file1), exportFileNumber(file2)));
+		return exportFiles;
+	}
+
+	@Override
+	protected void doCreateEmptyDatabase() {
+		// The database is created by the DDL section of every exported file, the previous files are deleted on start
+	}
+
+	@Override
+	protected void doStartLoad() {
+
+		getExportDirectory().mkdirs();
+
+		// The incomplete files of an interrupted load hold no committed batch
+		File[] temporaryFiles = getExportDirectory().listFiles(this::isTemporaryExportFile);
+		if (temporaryFiles != null) {
+			for (File file : temporaryFiles) {
+				if (!file.delete()) {
+					throw new IllegalStateException("Failed to delete the incomplete export file [" + file + "]");
+				}
+			}
+		}
+
+		// A resumed load adds its files to the ones of the interrupted load, otherwise the previous export is replaced
+		int nextFileNumber = 0;
+		boolean resume = isCheckpoint() && !cleanDatabaseOnLoad && !discardCheckpoint;
+		for (File file : getExportFiles()) {
+			if (resume) {
+				nextFileNumber = exportFileNumber(file) + 1;
+			}
+			else if (!file.delete()) {
+				throw new IllegalStateException("Failed to delete the previous export file [" + file + "]");
+			}
+		}
+		fileNumber.set(nextFileNumber);
+		writers.clear();
+	}
+
+	@Override
+	protected void doCompleteLoad() {
+		long writtenBytes = 0;
+		int fileCount = 0;
+		try {
+			closeWriters();
+		}
+		finally {
+			for (LineProtocolFileWriter writer : writers.values()) {
+				writtenBytes += writer.getWrittenBytes();
+				fileCount += writer.getFiles().size();
+			}
+			writers.clear();
+		}
+		LOG.info("Exported " + fileCount + " files (" + writtenBytes + " bytes) to [" + getExportDirectory() + "]");
+	}
+
+	@Override
+	protected void doFlush() {
+		// Completes the current files, the next samples are written to new ones
+		closeWriters();
+	}
+
+	@Override
+	protected void doWriteBatch(String retentionPolicy, String records, int pointCount, Runnable commit) {
+		LineProtocolFileWriter writer = writers.computeIfAbsent(Thread.currentThread(),
+				thread -> new LineProtocolFileWriter(this::nextFile, exportMaxFileBytes, exportBufferSize, header()));
+		try {
+			long writeStart = System.nanoTime();
+			writer.write(retentionPolicy, records, commit);
+			getMetrics().recordWrite(pointCount, records.length(), System.nanoTime() - writeStart);
+		}
+		catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	private void closeWriters() {
+		UncheckedIOException failure = null;
+		for (LineProtocolFileWriter writer : writers.values()) {
+			try {
+				writer.close();
+			}
+			catch (IOException e) {
+				if (failure == null) {
+					failure = new UncheckedIOException(e);
+				}
+				else {
+					failure.addSuppressed(e);
+				}
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	private File getExportDirectory() {
+		return StringUtils.hasText(exportDirectory) ? new File(exportDirectory)
+				: archiveFileName.getAbsoluteFile().getParentFile();
+	}
+
+	private File nextFile() {
+		return new File(getExportDirectory(), String.format("%s.%s-%04d%s", archiveFileName.getName(),
+				geodeMemberName, fileNumber.getAndIncrement(), EXPORT_FILE_EXTENSION));
+	}
+
+	private int exportFileNumber(File file) {
+		return exportFileNumber(file.getName());
+	}
+
+	private int exportFileNumber(String fileName) {
+		Matcher matcher = Pattern.compile(Pattern.quote(archiveFileName.getName() + "." + geodeMemberName + "-")
+				+ "(\\d+)" + Pattern.quote(EXPORT_FILE_EXTENSION)).matcher(fileName);
+		return matcher.matches() ? Integer.parseInt(matcher.group(1)) : -1;
+	}
+
+	private boolean isTemporaryExportFile(File file) {
+		String name = file.getName();
+		return name.endsWith(LineProtocolFileWriter.TEMPORARY_FILE_SUFFIX) && exportFileNumber(
+				name.substring(0, name.length() - LineProtocolFileWriter.TEMPORARY_FILE_SUFFIX.length())) >= 0;
+	}
+
+	private String header() {
+		StringBuilder header = new StringBuilder("# DDL\n");
+		header.append("CREATE DATABASE \"").append(influxDatabaseName).append("\"\n");
+		if (isRollupEnabled()) {
+			header.append("CREATE RETENTION POLICY \"").append(influxRollupRetentionPolicy).append("\" ON \"")
+					.append(influxDatabaseName).append("\" DURATION ").append(influxRollupRetentionDuration)
+					.append(" REPLICATION 1\n");
+		}
+		header.append("# DML\n");
+		header.append("# CONTEXT-DATABASE: ").append(influxDatabaseName).append("\n");
+		return header.toString();
+	}
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+
+import org.influxdb.InfluxDB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+/**
+ * Append-only file of the write batches that could not be written to InfluxDB, read back in their append order.
+ *
+ * Every batch is synced to the disk before {@link #append} returns, so a spilled batch survives a crash of the
+ * loader. A batch is removed once replayed, and the file is truncated when all its batches are replayed. The batches
+ * left by a previous run are replayed first. As the replay progress is only kept in memory, a crash during the replay
+ * writes the replayed batches again, which InfluxDB ignores as it overwrites equal points.
+ *
+ * Instances are thread-safe.
+ */
+public class WriteSpillFile implements AutoCloseable {
+
+	private static final Logger LOG = LoggerFactory.getLogger(WriteSpillFile.class);
+
+	private final File file;
+
+	private final RandomAccessFile raf;
+
+	// Offset of the next batch to replay
+	private long readOffset;
+
+	// End offset of the batch returned by the last peek, -1 if unknown
+	private long peekedEnd = -1;
+
+	// Length of the complete, synced, batches
+	private long length;
+
+	private int pendingBatches;
+
+	/**
+	 * Opens the spill file, creating it if missing. A batch partially appended when a previous run crashed is
+	 * discarded.
+	 * @param file Spill file.
+	 */
+	public WriteSpillFile(File file) throws IOException {
+
+		Assert.notNull(file, "Not null spill file is required!");
+
+		this.file = file;
+		this.raf = new RandomAccessFile(file, "rw");
+
+		while (length < raf.length()) {
+			try {
+				raf.seek(length);
+				readBatch();
+				length = raf.getFilePointer();
+				pendingBatches++;
+			}
+			catch (EOFException e) {
+				LOG.warn("Discard the partially spilled batch at offset " + length + " of [" + file + "]");
+				raf.setLength(length);
+			}
+		}
+		if (pendingBatches > 0) {
+			LOG.info("Found " + pendingBatches + " spilled batches to replay in [" + file + "]");
+		}
+	}
+
+	/**
+	 * Appends a batch and syncs it to the disk.
+	 */
+	public synchronized void append(SpilledBatch batch) throws IOException {
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(batch.records.length() + 64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF(batch.database);
+		out.writeUTF(batch.retentionPolicy);
+		out.writeUTF((batch.consistency == null) ? "" : batch.consistency.name());
+		out.writeInt(batch.points);
+		byte[] records = batch.records.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(records.length);
+		out.write(records);
+		out.flush();
+
+		raf.seek(length);
+		raf.write(bytes.toByteArray());
+		raf.getChannel().force(false);
+		length = raf.getFilePointer();
+		pendingBatches++;
+		notifyAll();
+	}
+
+	/**
+	 * @return Returns the oldest batch not yet replayed, without removing it, or null if none.
+	 */
+	public synchronized SpilledBatch peek() throws IOException {
+		if (readOffset >= length) {
+			return null;
+		}
+		raf.seek(readOffset);
+		SpilledBatch batch = readBatch();
+		peekedEnd = raf.getFilePointer();
+		return batch;
+	}
+
+	/**
+	 * Removes the oldest batch, once replayed. Truncates the file when no batch is left.
+	 */
+	public synchronized void remove() throws IOException {
+		Assert.state(pendingBatches > 0, "No spilled batch to remove");
+		if (peekedEnd < 0) {
+			peek();
+		}
+		readOffset = peekedEnd;
+		peekedEnd = -1;
+		pendingBatches--;
+		if (pendingBatches == 0) {
+			raf.setLength(0);
+			raf.getChannel().force(false);
+			readOffset = 0;
+			length = 0;
+		}
+	}
+
+	/**
+	 * Waits for a batch to be appended, if none is pending.
+	 * @param timeoutMillis Maximum waiting time.
+	 */
+	public synchronized void awaitBatch(long timeoutMillis) throws InterruptedException {
+		if (pendingBatches == 0) {
+			wait(timeoutMillis);
+		}
+	}
+
+	public synchronized int getPendingBatches() {
+		return pendingBatches;
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		raf.close();
+	}
+
+	private SpilledBatch readBatch() throws IOException {
+		String database = raf.readUTF();
+		String retentionPolicy = raf.readUTF();
+		String consistency = raf.readUTF();
+		int points = raf.readInt();
+		int size = raf.readInt();
+		if (size < 0 || size > raf.length() - raf.getFilePointer()) {
+			throw new EOFException("Truncated spilled batch");
+		}
+		byte[] records = new byte[size];
+		raf.readFully(records);
+		return new SpilledBatch(database, retentionPolicy,
+				StringUtils.hasText(consistency) ? InfluxDB.ConsistencyLevel.valueOf(consistency) : null,
+				new String(records, StandardCharsets.UTF_8), points);
+	}
+
+	/**
+	 * Line protocol batch and its write target.
+	 */
+	public static class SpilledBatch {
+
+		final String database;
+
+		final String retentionPolicy;
+
+		final InfluxDB.ConsistencyLevel consistency;
+
+		final String records;
+
+		final int points;
+
+		public SpilledBatch(String database, String retentionPolicy, InfluxDB.ConsistencyLevel consistency,
+				String records, int points) {
+			this.database = database;
+			this.retentionPolicy = retentionPolicy;
+			this.consistency = consistency;
+			this.records = records;
+			this.points = points;
+		}
+	}
+}
@@ -15,22 +15,39 @@
  */
 package net.tzolov.geode.archive.loader;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class AbstractStatisticsTSDBLoaderTest {
 
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
 	@Test
 	public void test1() throws IOException {
 
@@ -41,14 +58,286 @@ public class AbstractStatisticsTSDBLoaderTest {
 
 		assertEquals("SERVER666", testLoader.geodeMemberName);
 		assertEquals("src/test/resources/myStatisticsArchiveFile.gfs", testLoader.archiveFileName.getPath());
-		assertEquals(0, testLoader.createEmptyDatabaseCount);
-		assertEquals(30, testLoader.prepareMeasurementLoad);
-		assertEquals(30, testLoader.completeMeasurementLoad);
+		assertEquals(0, testLoader.createEmptyDatabaseCount.get());
+		assertEquals(30, testLoader.prepareMeasurementLoad.get());
+		assertEquals(30, testLoader.completeMeasurementLoad.get());
 		assertEquals(29, testLoader.measurements.size());
 
 		assertEquals(EXPECTED_MEASUREMENT_NAMES, testLoader.measurements.keySet());
 	}
 
+	@Test
+	public void concurrentLoad() throws IOException {
+
+		TestMeasurementLoader sequentialLoader = new TestMeasurementLoader(false,
+				new File("src/test/resources/myStatisticsArchiveFile.gfs"), "SERVER666");
+		sequentialLoader.load();
+
+		TestMeasurementLoader concurrentLoader = new TestMeasurementLoader(true,
+				new File("src/test/resources/myStatisticsArchiveFile.gfs"), "SERVER666");
+		concurrentLoader.setLoadThreads(4);
+		concurrentLoader.load();
+
+		assertEquals(1, concurrentLoader.createEmptyDatabaseCount.get());
+		assertEquals(30, concurrentLoader.prepareMeasurementLoad.get());
+		assertEquals(30, concurrentLoader.completeMeasurementLoad.get());
+		assertEquals(sequentialLoader.getLoadedSampleCount(), concurrentLoader.getLoadedSampleCount());
+		assertEquals(EXPECTED_MEASUREMENT_NAMES, concurrentLoader.measurements.keySet());
+
+		for (String measurementName : EXPECTED_MEASUREMENT_NAMES) {
+			List<MeasurementRecord> expected = sequentialLoader.measurements.get(measurementName);
+			List<MeasurementRecord> actual = new ArrayList<>(concurrentLoader.measurements.get(measurementName));
+			assertEquals(expected.size(), actual.size());
+			// Resource instances sharing the same name are loaded by different threads, in any order
+			expected = new ArrayList<>(expected);
+			expected.sort(RECORD_ORDER);
+			actual.sort(RECORD_ORDER);
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).measurementTimestamp, actual.get(i).measurementTimestamp);
+				assertEquals(expected.get(i).measurementSampleIndex, actual.get(i).measurementSampleIndex);
+			}
+		}
+	}
+
+	@Test
+	public void streamingLoad() throws IOException {
+
+		TestMeasurementLoader fullLoader = new TestMeasurementLoader(false,
+				new File("src/test/resources/myStatisticsArchiveFile.gfs"), "SERVER666");
+		fullLoader.load();
+
+		// A tiny memory ceiling switches every measurement to the windowed decoding
+		TestMeasurementLoader streamingLoader = new TestMeasurementLoader(false,
+				new File("src/test/resources/myStatisticsArchiveFile.gfs"), "SERVER666");
+		streamingLoader.setStreamingWindowSize(7);
+		streamingLoader.setStreamingMemoryCeiling(1);
+		streamingLoader.load();
+
+		assertEquals(fullLoader.getLoadedSampleCount(), streamingLoader.getLoadedSampleCount());
+		assertEquals(EXPECTED_MEASUREMENT_NAMES, streamingLoader.measurements.keySet());
+
+		for (String measurementName : EXPECTED_MEASUREMENT_NAMES) {
+			List<MeasurementRecord> expected = fullLoader.measurements.get(measurementName);
+			List<MeasurementRecord> actual = streamingLoader.measurements.get(measurementName);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).measurementTimestamp, actual.get(i).measurementTimestamp);
+				assertArrayEquals(expected.get(i).fieldValues, actual.get(i).fieldValues, 0);
+				assertArrayEquals(expected.get(i).zeroFields, actual.get(i).zeroFields);
+				assertArrayEquals(expected.get(i).constantFields, actual.get(i).constantFields);
+			}
+		}
+	}
+
+	@Test
+	public void timeRangeLoad() throws IOException {
+
+		// Time ranges are decoded in windows, as the streamed loads
+		TestMeasurementLoader fullLoader = new TestMeasurementLoader(false,
+				new File("src/test/resources/myStatisticsArchiveFile.gfs"), "SERVER666");
+		fullLoader.setStreamingWindowSize(7);
+		fullLoader.setStreamingMemoryCeiling(1);
+		fullLoader.load();
+
+		// The middle third of the archive
+		List<MeasurementRecord> samplerRecords = fullLoader.measurements.get("StatSampler:statSampler");
+		long archiveStart = samplerRecords.get(0).measurementTimestamp;
+		long archiveEnd = samplerRecords.get(samplerRecords.size() - 1).measurementTimestamp;
+		long fromTime = archiveStart + (archiveEnd - archiveStart) / 3;
+		long toTime = archiveStart + 2 * (archiveEnd - archiveStart) / 3;
+
+		TestMeasurementLoader rangeLoader = new TestMeasurementLoader(false,
+				new File("src/test/resources/myStatisticsArchiveFile.gfs"), "SERVER666");
+		rangeLoader.setStreamingWindowSize(7);
+		rangeLoader.setLoadFrom(Instant.ofEpochMilli(fromTime).toString());
+		rangeLoader.setLoadTo(Long.toString(toTime));
+		rangeLoader.load();
+
+		long expectedSampleCount = 0;
+		for (String measurementName : fullLoader.measurements.keySet()) {
+			List<MeasurementRecord> expected = fullLoader.measurements.get(measurementName).stream()
+					.filter(record -> record.measurementTimestamp >= fromTime && record.measurementTimestamp < toTime)
+					.collect(Collectors.toList());
+			List<MeasurementRecord> actual = rangeLoader.measurements.getOrDefault(measurementName,
+					Collections.emptyList());
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).measurementTimestamp, actual.get(i).measurementTimestamp);
+				assertArrayEquals(expected.get(i).fieldValues, actual.get(i).fieldValues, 0);
+			}
+			expectedSampleCount += expected.size();
+		}
+		assertTrue(expectedSampleCount > 0);
+		assertEquals(expectedSampleCount, rangeLoader.getLoadedSampleCount());
+		// Only the samples within the range are decoded
+		assertTrue(rangeLoader.getMetrics().getDecodedValues() < fullLoader.getMetrics().getDecodedValues() / 2);
+
+		assertEquals(fromTime, AbstractStatisticsTSDBLoader.parseTime(Instant.ofEpochMilli(fromTime).toString()));
+		assertEquals(-1L, AbstractStatisticsTSDBLoader.parseTime(""));
+		assertEquals(3, AbstractStatisticsTSDBLoader.firstIndexAtOrAfter(new long[] { 1, 2, 2, 5, 5, 9 }, 0, 3));
+		assertEquals(6, AbstractStatisticsTSDBLoader.firstIndexAtOrAfter(new long[] { 1, 2, 2, 5, 5, 9 }, 2, 10));
+	}
+
+	@Test
+	public void catalogLoad() throws IOException {
+
+		File archiveFile = temporaryFolder.newFile("statArchive.gfs");
+		Files.copy(new File("src/test/resources/myStatisticsArchiveFile.gfs").toPath(), archiveFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+
+		TestMeasurementLoader fullLoader = new TestMeasurementLoader(false, archiveFile, "SERVER666");
+		fullLoader.load();
+
+		TestMeasurementLoader catalogLoader = new TestMeasurementLoader(false, archiveFile, "SERVER666");
+		catalogLoader.setArchiveCatalog(true);
+		catalogLoader.load();
+
+		assertTrue(ArchiveCatalog.catalogFile(archiveFile).exists());
+		assertEquals(fullLoader.getLoadedSampleCount(), catalogLoader.getLoadedSampleCount());
+		assertEquals(EXPECTED_MEASUREMENT_NAMES, catalogLoader.measurements.keySet());
+
+		// No sample after the archive end, the archive is skipped without being parsed
+		long endTime = ArchiveCatalog.forArchive(archiveFile).getEndTime();
+		TestMeasurementLoader skippedLoader = new TestMeasurementLoader(false, archiveFile, "SERVER666");
+		skippedLoader.setArchiveCatalog(true);
+		skippedLoader.setLoadFrom(Long.toString(endTime + 1));
+		skippedLoader.load();
+		assertEquals(0, skippedLoader.prepareMeasurementLoad.get());
+		assertEquals(0, skippedLoader.getLoadedSampleCount());
+
+		// No resource instance matches the stat rules
+		TestMeasurementLoader filteredLoader = new TestMeasurementLoader(false, archiveFile, "SERVER666");
+		filteredLoader.setArchiveCatalog(true);
+		filteredLoader.setStatIncludes(new String[] { "type=NoSuchType" });
+		filteredLoader.load();
+		assertEquals(0, filteredLoader.prepareMeasurementLoad.get());
+	}
+
+	@Test
+	public void compressedArchiveLoad() throws IOException {
+
+		File archiveFile = temporaryFolder.newFile("statArchive.gfs.gz");
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(archiveFile))) {
+			Files.copy(new File("src/test/resources/myStatisticsArchiveFile.gfs").toPath(), out);
+		}
+
+		TestMeasurementLoader plainLoader = new TestMeasurementLoader(false,
+				new File("src/test/resources/myStatisticsArchiveFile.gfs"), "SERVER666");
+		plainLoader.load();
+
+		TestMeasurementLoader compressedLoader = new TestMeasurementLoader(false, archiveFile, "SERVER666");
+		compressedLoader.setArchiveCatalog(true);
+		compressedLoader.load();
+
+		assertEquals(plainLoader.getLoadedSampleCount(), compressedLoader.getLoadedSampleCount());
+		assertEquals(EXPECTED_MEASUREMENT_NAMES, compressedLoader.measurements.keySet());
+		for (String measurementName : EXPECTED_MEASUREMENT_NAMES) {
+			List<MeasurementRecord> expected = plainLoader.measurements.get(measurementName);
+			List<MeasurementRecord> actual = compressedLoader.measurements.get(measurementName);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).measurementTimestamp, actual.get(i).measurementTimestamp);
+				assertArrayEquals(expected.get(i).fieldValues, actual.get(i).fieldValues, 0);
+			}
+		}
+		assertEquals(ArchiveCatalog.scan(new File("src/test/resources/myStatisticsArchiveFile.gfs")).describe(),
+				ArchiveCatalog.forArchive(archiveFile).describe());
+	}
+
+	@Test
+	public void counterRates() throws IOException {
+
+		// Small windows, so the rates are computed across the decoded windows
+		TestMeasurementLoader rateLoader = new TestMeasurementLoader(false,
+				new File("src/test/resources/myStatisticsArchiveFile.gfs"), "SERVER666");
+		rateLoader.setCounterMode("both");
+		rateLoader.setStreamingWindowSize(7);
+		rateLoader.setStreamingMemoryCeiling(1);
+		rateLoader.load();
+
+		int rateCount = 0;
+		for (List<MeasurementRecord> records : rateLoader.measurements.values()) {
+			if (records.stream().map(record -> record.measurementFields).distinct().count() > 1) {
+				// Resource instances sharing the same name
+				continue;
+			}
+			StatArchiveReader.StatValue[] fields = records.get(0).measurementFields;
+			for (int fieldIndex = 0; fieldIndex < fields.length; fieldIndex++) {
+				if (!fields[fieldIndex].getDescriptor().isCounter()) {
+					assertTrue(Double.isNaN(records.get(0).rates[fieldIndex]));
+					continue;
+				}
+				assertTrue(Double.isNaN(records.get(0).rates[fieldIndex]));
+				for (int i = 1; i < records.size(); i++) {
+					MeasurementRecord previous = records.get(i - 1);
+					MeasurementRecord current = records.get(i);
+					double valueDelta = current.fieldValues[fieldIndex] - previous.fieldValues[fieldIndex];
+					double expectedRate = (valueDelta < 0) ? Double.NaN
+							: valueDelta * 1000.0 / (current.measurementTimestamp - previous.measurementTimestamp);
+					assertEquals(expectedRate, current.rates[fieldIndex], 1e-9);
+					if (current.rates[fieldIndex] > 0) {
+						rateCount++;
+					}
+				}
+			}
+		}
+		assertTrue(rateCount > 0);
+	}
+
+	@Test
+	public void changeOnly() throws IOException {
+
+		TestMeasurementLoader changeLoader = new TestMeasurementLoader(false,
+				new File("src/test/resources/myStatisticsArchiveFile.gfs"), "SERVER666");
+		changeLoader.setChangeOnly(true);
+		changeLoader.setChangeOnlyHeartbeat(60000);
+		changeLoader.setStreamingWindowSize(7);
+		changeLoader.setStreamingMemoryCeiling(1);
+		changeLoader.load();
+
+		int constantCount = 0;
+		int unchangedCount = 0;
+		for (List<MeasurementRecord> records : changeLoader.measurements.values()) {
+			if (records.stream().map(record -> record.measurementFields).distinct().count() > 1) {
+				// Resource instances sharing the same name
+				continue;
+			}
+			for (int fieldIndex = 0; fieldIndex < records.get(0).fieldValues.length; fieldIndex++) {
+
+				boolean constant = true;
+				for (MeasurementRecord record : records) {
+					constant &= Double.compare(record.fieldValues[fieldIndex], records.get(0).fieldValues[fieldIndex]) == 0;
+				}
+				assertEquals(constant, records.get(0).constantFields[fieldIndex]);
+				if (records.get(0).zeroFields[fieldIndex]) {
+					assertTrue(constant);
+				}
+
+				assertTrue(records.get(0).changedFields[fieldIndex]);
+				for (int i = 1; i < records.size(); i++) {
+					MeasurementRecord previous = records.get(i - 1);
+					MeasurementRecord current = records.get(i);
+					boolean heartbeat = current.measurementTimestamp / 60000 != previous.measurementTimestamp / 60000;
+					boolean expectedChange = (heartbeat && !constant)
+							|| Double.compare(current.fieldValues[fieldIndex], previous.fieldValues[fieldIndex]) != 0;
+					assertEquals(expectedChange, current.changedFields[fieldIndex]);
+					if (!expectedChange) {
+						unchangedCount++;
+					}
+				}
+				if (constant) {
+					constantCount++;
+				}
+			}
+		}
+		assertTrue(constantCount > 0);
+		assertTrue(unchangedCount > 0);
+	}
+
+	private static final Comparator<MeasurementRecord> RECORD_ORDER = Comparator
+			.comparingLong((MeasurementRecord record) -> record.measurementTimestamp)
+			.thenComparingInt(record -> record.measurementSampleIndex);
+
 	HashSet<String> EXPECTED_MEASUREMENT_NAMES = new HashSet<>(Arrays.asList("VMMemoryPoolStats:PS Eden Space-Heap memory",
 			"CachePerfStats:cachePerfStats", "CacheServerStats:192.168.0.12-/127.0.0.1:40405", "VMGCStats:PS MarkSweep",
 			"FunctionServiceStatistics:FunctionExecution", "VMGCStats:PS Scavenge",
@@ -81,38 +370,69 @@ public class AbstractStatisticsTSDBLoaderTest {
 
 		StatArchiveReader.StatValue[] measurementFields;
 
+		double[] fieldValues;
+
+		boolean[] zeroFields;
+
+		double[] rates;
+
+		boolean[] constantFields;
+
+		boolean[] changedFields;
+
 		public MeasurementRecord(String measurementName, String measurementType, int measurementSampleIndex,
-				long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+				long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields, double[] fieldValues,
+				boolean[] zeroFields) {
 			this.measurementName = measurementName;
 			this.measurementType = measurementType;
 			this.measurementSampleIndex = measurementSampleIndex;
 			this.measurementTimestamp = measurementTimestamp;
 			this.measurementFields = measurementFields;
+			this.fieldValues = fieldValues;
+			this.zeroFields = zeroFields;
+		}
+
+		MeasurementRecord withRates(double[] rates) {
+			this.rates = rates;
+			return this;
+		}
+
+		MeasurementRecord withChanges(boolean[] constantFields, boolean[] changedFields) {
+			this.constantFields = constantFields;
+			this.changedFields = changedFields;
+			return this;
 		}
 	}
 
 	private static class TestMeasurementLoader extends AbstractStatisticsTSDBLoader {
 
-		public int createEmptyDatabaseCount = 0;
+		public AtomicInteger createEmptyDatabaseCount = new AtomicInteger();
 
-		public int completeMeasurementLoad = 0;
+		public AtomicInteger completeMeasurementLoad = new AtomicInteger();
 
-		public int prepareMeasurementLoad = 0;
+		public AtomicInteger prepareMeasurementLoad = new AtomicInteger();
 
-		public Map<String, List<MeasurementRecord>> measurements = new HashMap<>();
+		public Map<String, List<MeasurementRecord>> measurements = new ConcurrentHashMap<>();
 
 		public TestMeasurementLoader(boolean cleanDatabaseOnLoad, File archiveFile, String geodeMemberName) {
 			super(cleanDatabaseOnLoad, archiveFile, geodeMemberName, new String[0]);
 		}
 
+		@Override
+		protected TestMeasurementLoader forArchive(File archiveFile, String geodeMemberName) {
+			TestMeasurementLoader loader = new TestMeasurementLoader(false, archiveFile, geodeMemberName);
+			copyLoadSettingsTo(loader);
+			return loader;
+		}
+
 		@Override
 		protected void doCreateEmptyDatabase() {
-			createEmptyDatabaseCount++;
+			createEmptyDatabaseCount.incrementAndGet();
 		}
 
 		@Override
 		protected void doPrepareMeasurementLoad() {
-			prepareMeasurementLoad++;
+			prepareMeasurementLoad.incrementAndGet();
 		}
 
 		@Override
@@ -120,16 +440,28 @@ public class AbstractStatisticsTSDBLoaderTest {
 				String measurementType, int measurementSampleIndex,
 				long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
 
-			if (!measurements.containsKey(measurementName)) {
-				measurements.put(measurementName, new ArrayList<>());
+			double[] fieldValues = new double[measurementFields.length];
+			boolean[] zeroFields = new boolean[measurementFields.length];
+			double[] rates = new double[measurementFields.length];
+			boolean[] constantFields = new boolean[measurementFields.length];
+			boolean[] changedFields = new boolean[measurementFields.length];
+			for (int i = 0; i < measurementFields.length; i++) {
+				constantFields[i] = allValuesAreConstant(measurementFields[i]);
+				changedFields[i] = isFieldChanged(i);
+				fieldValues[i] = getMeasurementFieldValue(measurementFields[i], measurementSampleIndex);
+				zeroFields[i] = allValuesAreZero(measurementFields[i]);
+				rates[i] = isRateField(measurementFields[i]) ? getMeasurementFieldRate(i) : Double.NaN;
 			}
-			measurements.get(measurementName).add(new MeasurementRecord(measurementName, measurementType,
-					measurementSampleIndex, measurementTimestamp, measurementFields));
+
+			measurements.computeIfAbsent(measurementName, name -> Collections.synchronizedList(new ArrayList<>()))
+					.add(new MeasurementRecord(measurementName, measurementType, measurementSampleIndex,
+							measurementTimestamp, measurementFields, fieldValues, zeroFields).withRates(rates)
+							.withChanges(constantFields, changedFields));
 		}
 
 		@Override
 		protected void doCompleteMeasurementLoad() {
-			completeMeasurementLoad++;
+			completeMeasurementLoad.incrementAndGet();
 		}
 	}
 }
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveCatalogTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void catalogMatchesArchiveReader() throws IOException {
+
+		File archiveFile = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+		ArchiveCatalog catalog = ArchiveCatalog.scan(archiveFile);
+
+		StatArchiveReader reader = new StatArchiveReader(new File[] { archiveFile }, null, false);
+		try {
+			List<?> resourceInsts = reader.getResourceInstList();
+			List<ArchiveCatalog.ResourceEntry> resources = catalog.getResources();
+			assertEquals(resourceInsts.size(), resources.size());
+
+			long endTime = -1;
+			for (int i = 0; i < resources.size(); i++) {
+				StatArchiveReader.ResourceInst ri = (StatArchiveReader.ResourceInst) resourceInsts.get(i);
+				ArchiveCatalog.ResourceEntry resource = resources.get(i);
+
+				assertEquals(ri.getType().getName(), resource.getType().getName());
+				assertEquals(ri.getName(), resource.getName());
+				assertEquals(ri.getId(), resource.getNumericId());
+				assertEquals(ri.getSampleCount(), resource.getSampleCount());
+				assertEquals(ri.getFirstTimeMillis(), resource.getFirstTime());
+				long[] timestamps = ri.getStatValues()[0].getRawAbsoluteTimeStamps();
+				assertEquals(timestamps[timestamps.length - 1], resource.getLastTime());
+				endTime = Math.max(endTime, resource.getLastTime());
+
+				StatArchiveReader.StatDescriptor[] stats = ri.getType().getStats();
+				assertEquals(stats.length, resource.getType().getStats().size());
+				for (int s = 0; s < stats.length; s++) {
+					ArchiveCatalog.StatEntry stat = resource.getType().getStats().get(s);
+					assertEquals(stats[s].getName(), stat.getName());
+					assertEquals(stats[s].getTypeCode(), stat.getTypeCode());
+					assertEquals(stats[s].isCounter(), stat.isCounter());
+					assertEquals(stats[s].getUnits(), stat.getUnits());
+				}
+				assertTrue(i == 0 || resource.getOffset() > resources.get(i - 1).getOffset());
+			}
+			assertEquals(endTime, catalog.getEndTime());
+			assertEquals(reader.getArchives()[0].getArchiveInfo().getSystemId(), catalog.getSystemId());
+		}
+		finally {
+			reader.close();
+		}
+
+		assertEquals(0, catalog.getResources(catalog.getEndTime() + 1, -1).size());
+		assertEquals(catalog.getResources().size(), catalog.getResources(-1, catalog.getEndTime() + 1).size());
+		assertTrue(catalog.describe().contains("statSampler"));
+	}
+
+	@Test
+	public void sidecarCatalog() throws IOException {
+
+		File archiveFile = temporaryFolder.newFile("statArchive.gfs");
+		Files.copy(new File("src/test/resources/myStatisticsArchiveFile.gfs").toPath(), archiveFile.toPath(),
+				StandardCopyOption.REPLACE_EXISTING);
+		File catalogFile = ArchiveCatalog.catalogFile(archiveFile);
+
+		ArchiveCatalog scanned = ArchiveCatalog.forArchive(archiveFile);
+		assertTrue(catalogFile.exists());
+		assertTrue(scanned.isCatalogOf(archiveFile));
+
+		ArchiveCatalog read = ArchiveCatalog.forArchive(archiveFile);
+		assertEquals(scanned.describe(), read.describe());
+		assertEquals(scanned.getSampleCount(), read.getSampleCount());
+		assertEquals(scanned.getStartTime(), read.getStartTime());
+		assertEquals(scanned.getTypes().size(), read.getTypes().size());
+		for (int i = 0; i < scanned.getResources().size(); i++) {
+			assertEquals(scanned.getResources().get(i).getOffset(), read.getResources().get(i).getOffset());
+			assertEquals(scanned.getResources().get(i).getType().getStats().size(),
+					read.getResources().get(i).getType().getStats().size());
+		}
+
+		// A modified archive or a corrupted catalog is cataloged again
+		assertTrue(archiveFile.setLastModified(archiveFile.lastModified() - 10000));
+		assertEquals(scanned.describe(), ArchiveCatalog.forArchive(archiveFile).describe());
+		assertTrue(ArchiveCatalog.read(catalogFile).isCatalogOf(archiveFile));
+
+		Files.write(catalogFile.toPath(), new byte[] { 1, 2, 3 });
+		assertNotNull(ArchiveCatalog.forArchive(archiveFile));
+		assertEquals(scanned.describe(), ArchiveCatalog.read(catalogFile).describe());
+	}
+}
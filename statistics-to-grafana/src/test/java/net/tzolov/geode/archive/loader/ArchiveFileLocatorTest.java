@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveFileLocatorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private ArchiveFileLocator locator = new ArchiveFileLocator();
+
+	@Test
+	public void rolledArchivesOrder() throws IOException {
+		folder.newFile("server2.gfs");
+		folder.newFile("server1.gfs");
+		folder.newFile("server1-02-01.gfs");
+		folder.newFile("server1-01-02.gfs");
+		folder.newFile("server1-01-01.gfs.gz");
+		folder.newFile("server1.log");
+
+		List<ArchiveFileLocator.MemberArchive> archives = locator.locate(folder.getRoot().getPath());
+
+		assertEquals("[server1:server1-01-01.gfs.gz, server1:server1-01-02.gfs, server1:server1-02-01.gfs, " +
+				"server1:server1.gfs, server2:server2.gfs]", archives.toString());
+	}
+
+	@Test
+	public void memberNameFromDirectory() throws IOException {
+		folder.newFolder("locator");
+		folder.newFolder("server1");
+		folder.newFile("locator/statArchive.gfs");
+		folder.newFile("server1/statArchive.gfs");
+		folder.newFile("server1/statArchive-01-01.gfs");
+
+		List<ArchiveFileLocator.MemberArchive> archives = locator.locate(folder.getRoot().getPath());
+
+		assertEquals("[locator:statArchive.gfs, server1:statArchive-01-01.gfs, server1:statArchive.gfs]",
+				archives.toString());
+	}
+
+	@Test
+	public void globPattern() throws IOException {
+		folder.newFolder("a");
+		folder.newFolder("b");
+		folder.newFile("a/server1.gfs");
+		folder.newFile("a/locator1.gfs");
+		folder.newFile("b/server2.gfs");
+
+		List<ArchiveFileLocator.MemberArchive> archives =
+				locator.locate(folder.getRoot().getPath() + File.separator + "*" + File.separator + "server*.gfs");
+
+		assertEquals("[server1, server2]",
+				archives.stream().map(ArchiveFileLocator.MemberArchive::getMemberName).collect(Collectors.toList()).toString());
+	}
+
+	@Test
+	public void relativeGlobPattern() throws IOException {
+		TemporaryFolder relativeFolder = new TemporaryFolder(new File("target"));
+		relativeFolder.create();
+		try {
+			relativeFolder.newFile("server1.gfs");
+			relativeFolder.newFile("server2.gfs");
+			relativeFolder.newFile("server1.log");
+
+			List<ArchiveFileLocator.MemberArchive> archives = locator.locate("." + File.separator + "target" +
+					File.separator + relativeFolder.getRoot().getName() + File.separator + "*.gfs");
+
+			assertEquals("[server1:server1.gfs, server2:server2.gfs]", archives.toString());
+		}
+		finally {
+			relativeFolder.delete();
+		}
+	}
+}
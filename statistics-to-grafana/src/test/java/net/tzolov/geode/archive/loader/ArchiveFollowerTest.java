@@ -0,0 +1,157 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ArchiveFollowerTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final AtomicReference<Throwable> followFailure = new AtomicReference<>();
+
+	@Test
+	public void followGrowingArchive() throws Exception {
+
+		RecordingLoader fullLoader = new RecordingLoader(ARCHIVE_FILE);
+		fullLoader.load();
+
+		byte[] archive = Files.readAllBytes(ARCHIVE_FILE.toPath());
+		File followedFile = new File(folder.getRoot(), "statArchive.gfs");
+		try (FileOutputStream out = new FileOutputStream(followedFile)) {
+			out.write(archive, 0, archive.length / 2);
+		}
+
+		RecordingLoader followLoader = new RecordingLoader(followedFile);
+		ArchiveFollower follower = new ArchiveFollower(followLoader, 10);
+		Thread followThread = startFollowing(follower);
+
+		awaitPolls(follower, 2);
+		assertTrue(followLoader.samples.size() > 0);
+		assertTrue(followLoader.samples.size() < fullLoader.samples.size());
+
+		try (FileOutputStream out = new FileOutputStream(followedFile, true)) {
+			out.write(archive, archive.length / 2, archive.length - archive.length / 2);
+		}
+		awaitPolls(follower, 2);
+
+		// The archive is rolled over and a new archive, without newer samples, is created in its place
+		assertTrue(followedFile.renameTo(new File(folder.getRoot(), "statArchive-01-01.gfs")));
+		Files.write(followedFile.toPath(), archive);
+		awaitPolls(follower, 3);
+
+		follower.stop();
+		followThread.join(TimeUnit.SECONDS.toMillis(10));
+
+		assertEquals(fullLoader.samples, followLoader.samples);
+		assertNull(followFailure.get());
+		assertTrue(follower.getNewestTimestamp() > 0);
+		assertTrue(follower.getLagMillis() >= 0);
+	}
+
+	private Thread startFollowing(ArchiveFollower follower) {
+		Thread followThread = new Thread(() -> {
+			try {
+				follower.follow();
+			}
+			catch (Throwable e) {
+				followFailure.set(e);
+			}
+		});
+		followThread.setDaemon(true);
+		followThread.start();
+		return followThread;
+	}
+
+	private void awaitPolls(ArchiveFollower follower, int polls) throws InterruptedException {
+		long targetPollCount = follower.getPollCount() + polls;
+		long deadline = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(30);
+		while (follower.getPollCount() < targetPollCount && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		assertTrue("Follower did not poll the archive: " + followFailure.get(), follower.getPollCount() >= targetPollCount);
+	}
+
+	private static class RecordingLoader extends AbstractStatisticsTSDBLoader {
+
+		final List<String> samples = Collections.synchronizedList(new ArrayList<>());
+
+		RecordingLoader(File archiveFile) {
+			this(archiveFile, "server1");
+		}
+
+		private RecordingLoader(File archiveFile, String geodeMemberName) {
+			super(false, archiveFile, geodeMemberName, new String[0]);
+		}
+
+		@Override
+		protected RecordingLoader forArchive(File archiveFile, String geodeMemberName) {
+			RecordingLoader loader = new RecordingLoader(archiveFile, geodeMemberName);
+			copyLoadSettingsTo(loader);
+			return loader;
+		}
+
+		@Override
+		public void load() throws IOException {
+			super.load();
+			Collections.sort(samples);
+		}
+
+		@Override
+		protected void doCreateEmptyDatabase() {
+		}
+
+		@Override
+		protected void doPrepareMeasurementLoad() {
+		}
+
+		@Override
+		protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
+				long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+			samples.add(measurementName + "@" + measurementTimestamp + "="
+					+ getMeasurementFieldValue(measurementFields[0], measurementSampleIndex));
+		}
+
+		@Override
+		protected void doCompleteMeasurementLoad() {
+		}
+
+		@Override
+		protected void doFlush() {
+			Collections.sort(samples);
+		}
+	}
+}
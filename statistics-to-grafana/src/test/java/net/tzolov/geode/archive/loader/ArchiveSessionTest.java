@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.influxdb.InfluxDB;
+import org.junit.Test;
+
+public class ArchiveSessionTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Test
+	public void sessionLoadsMatchArchiveLoads() throws IOException {
+
+		try (ArchiveSession session = new ArchiveSession(ARCHIVE_FILE, 10000000)) {
+
+			long[] timestamps = session.getTimestamps(session.getResourceInsts().get(0));
+			long from = timestamps[timestamps.length / 3];
+			long to = timestamps[2 * timestamps.length / 3];
+
+			// Full archive, then a time range of the filtered statistics, decoded in windows
+			assertEquals(load(null, -1, -1), load(session, -1, -1));
+			long misses = session.getCacheMisses();
+			assertEquals(load(null, from, to), load(session, from, to));
+
+			assertTrue(session.getCacheHits() > 0);
+			assertEquals(misses, session.getCacheMisses());
+		}
+	}
+
+	@Test
+	public void cacheEvictsLeastRecentlyUsed() throws IOException {
+
+		try (ArchiveSession session = new ArchiveSession(ARCHIVE_FILE, 500)) {
+			for (StatArchiveReader.ResourceInst ri : session.getResourceInsts()) {
+				session.getTimestamps(ri);
+				assertTrue(session.getCachedValues() <= 500);
+			}
+			assertTrue(session.getCachedValues() > 0);
+
+			session.clearCache();
+			assertEquals(0, session.getCachedValues());
+		}
+	}
+
+	private List<String> load(ArchiveSession session, long from, long to) throws IOException {
+
+		List<String> records = new ArrayList<>();
+		InfluxDB influxDB = mock(InfluxDB.class);
+		doAnswer(invocation -> {
+			synchronized (records) {
+				records.addAll(Arrays.asList(((String) invocation.getArguments()[3]).split("\n")));
+			}
+			return null;
+		}).when(influxDB).write(eq("GeodeArchive"), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 100,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], true);
+		loader.setInfluxWriterThreads(0);
+		loader.setLoadThreads(2);
+		loader.setCounterMode("both");
+		if (from >= 0) {
+			loader.setStatIncludes(new String[] { "type=VM*", "type=CachePerfStats&stat=regex:(gets|puts)" });
+			loader.setStatExcludes(new String[] { "type=VMMemoryPoolStats&instance=*Eden*" });
+			loader.setStreamingWindowSize(7);
+		}
+		loader.setArchiveSession(session);
+		loader.load(from, to);
+
+		Collections.sort(records);
+		assertTrue(records.size() > 0);
+		return records;
+	}
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class ArchiveShellCommandsTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Test
+	public void exploreAndLoadSubsets() throws IOException {
+
+		StatisticsToDryRunLoader loader = new StatisticsToDryRunLoader("autogen", 100, "GeodeArchive",
+				new File("unused.gfs"), "server1", new String[0], true);
+		ArchiveShellCommands commands = new ArchiveShellCommands(loader, loader, 10000000);
+		try {
+			assertFalse(commands.isSessionOpen());
+			assertTrue(commands.open(ARCHIVE_FILE.getPath(), null).contains("of member [server1]"));
+			assertTrue(commands.isSessionOpen());
+
+			assertTrue(commands.types().contains("VMStats"));
+			assertTrue(commands.instances("VM*Stats").contains("VMStats"));
+			assertTrue(commands.stats("VMStats").contains("cpus"));
+
+			assertTrue(commands.filter("type=VMStats", null, null, null, false).contains("include [type=VMStats]"));
+			assertTrue(commands.load(true).contains("VMStats"));
+
+			// The second load reuses the values decoded by the first one
+			commands.filter("type=StatSampler", null, null, null, false);
+			assertTrue(commands.load(true).contains("StatSampler"));
+			assertFalse(commands.load(true).contains("VMStats"));
+
+			assertTrue(commands.filter(null, null, null, null, true).contains("include (configured)"));
+			assertTrue(commands.describeSession().contains("hits"));
+		}
+		finally {
+			commands.close();
+		}
+		assertFalse(commands.isSessionOpen());
+	}
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.influxdb.InfluxDB;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class BulkStatisticsLoaderTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	private static final Pattern ARCHIVE_MEMBER_TAG = Pattern.compile(",archiveMember=([^,\\s]+)");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void loadMemberArchives() throws IOException {
+		Files.copy(ARCHIVE_FILE.toPath(), new File(folder.getRoot(), "server1.gfs").toPath());
+		Files.copy(ARCHIVE_FILE.toPath(), new File(folder.getRoot(), "server2.gfs").toPath());
+
+		StatisticsToInfluxLoader singleLoader = influxLoader(mock(InfluxDB.class));
+		singleLoader.load();
+		assertTrue(singleLoader.getLoadedSampleCount() > 0);
+
+		Map<String, AtomicLong> memberPoints = new ConcurrentHashMap<>();
+		InfluxDB influxDB = mock(InfluxDB.class);
+		doAnswer(invocation -> {
+			for (String record : ((String) invocation.getArguments()[3]).split("\n")) {
+				Matcher m = ARCHIVE_MEMBER_TAG.matcher(record);
+				memberPoints.computeIfAbsent(m.find() ? m.group(1) : "", member -> new AtomicLong()).incrementAndGet();
+			}
+			return null;
+		}).when(influxDB).write(eq("GeodeArchive"), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		long loadedSamples = new BulkStatisticsLoader(influxLoader(influxDB), 2).load(folder.getRoot().getPath());
+
+		assertEquals(2 * singleLoader.getLoadedSampleCount(), loadedSamples);
+		assertEquals(Arrays.asList("server1", "server2"), Arrays.asList(new TreeMap<>(memberPoints).keySet().toArray()));
+		assertEquals(memberPoints.get("server1").get(), memberPoints.get("server2").get());
+	}
+
+	private StatisticsToInfluxLoader influxLoader(InfluxDB influxDB) {
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 100,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], true);
+		loader.setInfluxWriterThreads(0);
+		return loader;
+	}
+}
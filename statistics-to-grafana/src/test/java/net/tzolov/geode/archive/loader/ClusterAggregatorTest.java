@@ -0,0 +1,244 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClusterAggregatorTest {
+
+	private static final long INTERVAL = 1000;
+
+	private static final long MAX_AGE = 3000;
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	private File archiveFile;
+
+	@Before
+	public void setUp() throws IOException {
+		// Two members with the same samples
+		File source = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+		archiveFile = new File(temporaryFolder.getRoot(), "server1.gfs");
+		Files.copy(source.toPath(), archiveFile.toPath());
+		Files.copy(source.toPath(), new File(temporaryFolder.getRoot(), "server2.gfs").toPath());
+	}
+
+	@Test
+	public void alignedAggregates() throws IOException {
+
+		RecordingLoader memberLoader = new RecordingLoader(archiveFile, "server1");
+		memberLoader.setCounterMode("both");
+		memberLoader.load();
+
+		RecordingLoader prototypeLoader = new RecordingLoader(archiveFile, "prototype");
+		prototypeLoader.setCounterMode("both");
+		prototypeLoader.setStreamingWindowSize(7);
+		new ClusterAggregator(prototypeLoader, INTERVAL, MAX_AGE, new String[] { "sum", "min", "max", "avg" }, 2)
+				.aggregate(temporaryFolder.getRoot().getPath());
+
+		Map<String, List<ClusterPoint>> clusterPoints = prototypeLoader.clusterPoints;
+		assertEquals(memberLoader.samples.size(), clusterPoints.size());
+
+		int checkedValues = 0;
+		for (Map.Entry<String, List<ClusterPoint>> measurement : clusterPoints.entrySet()) {
+			assertTrue(measurement.getKey().startsWith(ClusterAggregator.CLUSTER_MEASUREMENT_PREFIX));
+			List<MemberSample> samples = memberLoader.samples.get(
+					measurement.getKey().substring(ClusterAggregator.CLUSTER_MEASUREMENT_PREFIX.length()));
+
+			long previousPoint = -1;
+			for (ClusterPoint point : measurement.getValue()) {
+				assertEquals(0, point.timestamp % INTERVAL);
+				assertTrue(point.timestamp > previousPoint);
+				previousPoint = point.timestamp;
+
+				// The last member sample at or before the grid point
+				MemberSample held = null;
+				for (MemberSample sample : samples) {
+					if (sample.timestamp <= point.timestamp) {
+						held = sample;
+					}
+				}
+				assertTrue(held != null && point.timestamp - held.timestamp < MAX_AGE);
+
+				for (int i = 0; i < point.fieldNames.length; i++) {
+					String fieldName = point.fieldNames[i];
+					if (fieldName == null) {
+						continue;
+					}
+					String baseName = fieldName.substring(0, fieldName.lastIndexOf('_'));
+					Double memberValue = held.values.get(baseName);
+					if (memberValue == null || Double.isNaN(memberValue)) {
+						assertTrue(fieldName, Double.isNaN(point.values[i]));
+						continue;
+					}
+					double expected = fieldName.endsWith("_sum") ? 2 * memberValue : memberValue;
+					assertEquals(fieldName, expected, point.values[i], Math.abs(expected) * 1e-9);
+					checkedValues++;
+				}
+			}
+		}
+		assertTrue(checkedValues > 0);
+	}
+
+	@Test
+	public void windowSizeIndependent() throws IOException {
+
+		RecordingLoader smallWindows = new RecordingLoader(archiveFile, "prototype");
+		smallWindows.setStreamingWindowSize(3);
+		new ClusterAggregator(smallWindows, INTERVAL, MAX_AGE, new String[] { "sum" }, 1)
+				.aggregate(temporaryFolder.getRoot().getPath());
+
+		RecordingLoader largeWindows = new RecordingLoader(archiveFile, "prototype");
+		new ClusterAggregator(largeWindows, INTERVAL, MAX_AGE, new String[] { "sum" }, 1)
+				.aggregate(temporaryFolder.getRoot().getPath());
+
+		assertEquals(largeWindows.clusterPoints.keySet(), smallWindows.clusterPoints.keySet());
+		for (String measurementName : largeWindows.clusterPoints.keySet()) {
+			List<ClusterPoint> expected = largeWindows.clusterPoints.get(measurementName);
+			List<ClusterPoint> actual = smallWindows.clusterPoints.get(measurementName);
+			assertEquals(expected.size(), actual.size());
+			for (int i = 0; i < expected.size(); i++) {
+				assertEquals(expected.get(i).timestamp, actual.get(i).timestamp);
+				for (int f = 0; f < expected.get(i).values.length; f++) {
+					assertEquals(expected.get(i).values[f], actual.get(i).values[f], 0);
+				}
+			}
+		}
+	}
+
+	private static class MemberSample {
+
+		final long timestamp;
+
+		// Raw values and rates by field name
+		final Map<String, Double> values = new HashMap<>();
+
+		MemberSample(long timestamp) {
+			this.timestamp = timestamp;
+		}
+	}
+
+	private static class ClusterPoint {
+
+		final long timestamp;
+
+		final String[] fieldNames;
+
+		final double[] values;
+
+		ClusterPoint(long timestamp, String[] fieldNames, double[] values) {
+			this.timestamp = timestamp;
+			this.fieldNames = fieldNames;
+			this.values = values.clone();
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unsupportedSink() {
+		StatisticsToColumnarLoader columnarLoader = new StatisticsToColumnarLoader(
+				temporaryFolder.getRoot().getPath(), 100, archiveFile, "prototype", new String[0], false);
+		new ClusterAggregator(columnarLoader, INTERVAL, MAX_AGE, new String[] { "sum" }, 1);
+	}
+
+	private static class RecordingLoader extends AbstractStatisticsTSDBLoader {
+
+		final Map<String, List<MemberSample>> samples;
+
+		final Map<String, List<ClusterPoint>> clusterPoints;
+
+		private final Map<String, Integer> nameOccurrences = new HashMap<>();
+
+		private String measurementKey;
+
+		RecordingLoader(File archiveFile, String geodeMemberName) {
+			this(archiveFile, geodeMemberName, new ConcurrentHashMap<>(), new ConcurrentHashMap<>());
+		}
+
+		private RecordingLoader(File archiveFile, String geodeMemberName, Map<String, List<MemberSample>> samples,
+				Map<String, List<ClusterPoint>> clusterPoints) {
+			super(false, archiveFile, geodeMemberName, new String[0]);
+			this.samples = samples;
+			this.clusterPoints = clusterPoints;
+		}
+
+		@Override
+		protected AbstractStatisticsTSDBLoader forArchive(File archiveFile, String geodeMemberName) {
+			RecordingLoader loader = new RecordingLoader(archiveFile, geodeMemberName, samples, clusterPoints);
+			copyLoadSettingsTo(loader);
+			return loader;
+		}
+
+		@Override
+		protected void doCreateEmptyDatabase() {
+		}
+
+		@Override
+		protected void doPrepareMeasurementLoad() {
+		}
+
+		@Override
+		protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
+				long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+			MemberSample sample = new MemberSample(measurementTimestamp);
+			for (int i = 0; i < measurementFields.length; i++) {
+				sample.values.put(getMeasurementFieldName(measurementFields[i]),
+						getMeasurementFieldValue(measurementFields[i], measurementSampleIndex));
+				if (isRateField(measurementFields[i])) {
+					sample.values.put(getMeasurementRateFieldName(measurementFields[i]), getMeasurementFieldRate(i));
+				}
+			}
+			if (measurementSampleIndex == 0) {
+				// Resource instances sharing a name are numbered in their archive order, as by the cluster aggregation
+				int occurrence = nameOccurrences.merge(measurementName, 1, Integer::sum);
+				measurementKey = (occurrence == 1) ? measurementName : measurementName + "#" + occurrence;
+			}
+			samples.computeIfAbsent(measurementKey, key -> new ArrayList<>()).add(sample);
+		}
+
+		@Override
+		protected void doCompleteMeasurementLoad() {
+		}
+
+		@Override
+		protected boolean isClusterAggregateSupported() {
+			return true;
+		}
+
+		@Override
+		protected void doLoadClusterAggregate(String measurementName, String measurementType, long timestamp,
+				String[] fieldNames, double[] values) {
+			clusterPoints.computeIfAbsent(measurementName, name -> new ArrayList<>())
+					.add(new ClusterPoint(timestamp, fieldNames, values));
+		}
+	}
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.influxdb.InfluxDB;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ColumnarSeriesStoreTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void codecRoundTrip() {
+
+		Random random = new Random(42);
+		double[] values = new double[1000];
+		long[] timestamps = new long[values.length];
+		values[0] = Double.NaN;
+		values[1] = -0.0d;
+		values[2] = Double.POSITIVE_INFINITY;
+		values[3] = Double.NEGATIVE_INFINITY;
+		values[4] = Double.MIN_VALUE;
+		for (int i = 5; i < values.length; i++) {
+			values[i] = i % 7 == 0 ? values[i - 1] : i % 3 == 0 ? random.nextInt(100) : random.nextGaussian() * 1e6;
+		}
+		for (int i = 1; i < timestamps.length; i++) {
+			timestamps[i] = timestamps[i - 1] + 1000 + (i % 10 == 0 ? random.nextInt(5000) - 2500 : 0);
+		}
+		timestamps[0] = 1500000000000L;
+
+		SeriesCodec.XorEncoder encoder = new SeriesCodec.XorEncoder();
+		for (double value : values) {
+			encoder.add(value);
+		}
+		assertEquals(values.length, encoder.getCount());
+
+		ByteBuffer encodedValues = ByteBuffer.wrap(encoder.toByteArray());
+		double[] decodedValues = SeriesCodec.decodeDoubles(encodedValues, values.length);
+		for (int i = 0; i < values.length; i++) {
+			assertEquals("value " + i, Double.doubleToRawLongBits(values[i]),
+					Double.doubleToRawLongBits(decodedValues[i]));
+		}
+
+		byte[] encodedTimestamps = SeriesCodec.encodeTimestamps(timestamps, timestamps.length);
+		assertArrayEquals(timestamps, SeriesCodec.decodeTimestamps(ByteBuffer.wrap(encodedTimestamps), timestamps.length));
+		// Regular timestamps cost one byte
+		assertTrue(encodedTimestamps.length < timestamps.length * 2);
+
+		// A reset encoder starts a new column
+		encoder.reset();
+		encoder.add(1);
+		encoder.add(1);
+		assertArrayEquals(new double[] { 1, 1 },
+				SeriesCodec.decodeDoubles(ByteBuffer.wrap(encoder.toByteArray()), 2), 0);
+	}
+
+	@Test
+	public void columnarLoad() throws IOException {
+
+		RecordingLoader reference = new RecordingLoader();
+		reference.setCounterMode("both");
+		reference.load();
+
+		StatisticsToColumnarLoader loader = new StatisticsToColumnarLoader(folder.getRoot().getPath(), 100,
+				ARCHIVE_FILE, "server1", new String[0], false);
+		loader.setCounterMode("both");
+		loader.setLoadThreads(4);
+		loader.load();
+
+		assertEquals(new File(folder.getRoot(), "myStatisticsArchiveFile.gfs.server1.series"), loader.getSeriesFile());
+
+		try (ColumnarSeriesReader reader = new ColumnarSeriesReader(loader.getSeriesFile())) {
+			assertEquals(reference.series.keySet(), reader.getMeasurementNames());
+			for (String measurementName : reader.getMeasurementNames()) {
+				if (reference.duplicates.contains(measurementName)) {
+					// The samples of resource instances sharing the same name are merged
+					continue;
+				}
+				Map<String, Series> fields = reference.series.get(measurementName);
+				assertEquals(fields.keySet(), reader.getColumnNames(measurementName));
+				for (Map.Entry<String, Series> field : fields.entrySet()) {
+					ColumnarSeriesReader.Series series = reader.readSeries(measurementName, field.getKey());
+					assertArrayEquals(field.getValue().timestamps.stream().mapToLong(Long::longValue).toArray(),
+							series.getTimestamps());
+					assertArrayEquals(measurementName + " " + field.getKey(),
+							field.getValue().values.stream().mapToDouble(Double::doubleValue).toArray(),
+							series.getValues(), 0);
+				}
+			}
+		}
+	}
+
+	@Test
+	public void smallerThanLineProtocol() throws IOException {
+
+		AtomicLong lineProtocolBytes = new AtomicLong();
+		InfluxDB influxDB = mock(InfluxDB.class);
+		doAnswer(invocation -> {
+			lineProtocolBytes.addAndGet(((String) invocation.getArguments()[3]).length());
+			return null;
+		}).when(influxDB).write(eq("GeodeArchive"), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		StatisticsToInfluxLoader influxLoader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 1000,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], true);
+		influxLoader.setInfluxWriterThreads(0);
+		influxLoader.load();
+
+		StatisticsToColumnarLoader loader = new StatisticsToColumnarLoader(folder.getRoot().getPath(), 4096,
+				ARCHIVE_FILE, "server1", new String[0], true);
+		loader.load();
+
+		assertTrue(loader.getSeriesFile().length() * 10 < lineProtocolBytes.get());
+	}
+
+	@Test
+	public void rollupRejected() throws IOException {
+
+		StatisticsToColumnarLoader loader = new StatisticsToColumnarLoader(folder.getRoot().getPath(), 100,
+				ARCHIVE_FILE, "server1", new String[0], false);
+		loader.setRollupInterval(60000);
+
+		try {
+			new BulkStatisticsLoader(loader, 1);
+			fail("The bulk load should be rejected");
+		}
+		catch (IllegalArgumentException e) {
+			assertEquals("StatisticsToColumnarLoader does not support rollups!", e.getMessage());
+		}
+		try {
+			loader.load();
+			fail("The load should be rejected");
+		}
+		catch (IllegalArgumentException e) {
+			assertEquals("StatisticsToColumnarLoader does not support rollups!", e.getMessage());
+		}
+		assertFalse(loader.getSeriesFile().exists());
+	}
+
+	private static class Series {
+
+		final List<Long> timestamps = new ArrayList<>();
+
+		final List<Double> values = new ArrayList<>();
+	}
+
+	private static class RecordingLoader extends AbstractStatisticsTSDBLoader {
+
+		final Map<String, Map<String, Series>> series = new HashMap<>();
+
+		final Set<String> duplicates = new HashSet<>();
+
+		private final Map<String, StatArchiveReader.StatValue[]> measurementFields = new HashMap<>();
+
+		RecordingLoader() {
+			this(ARCHIVE_FILE, "server1");
+		}
+
+		private RecordingLoader(File archiveFile, String geodeMemberName) {
+			super(false, archiveFile, geodeMemberName, new String[0]);
+		}
+
+		@Override
+		protected RecordingLoader forArchive(File archiveFile, String geodeMemberName) {
+			RecordingLoader loader = new RecordingLoader(archiveFile, geodeMemberName);
+			copyLoadSettingsTo(loader);
+			return loader;
+		}
+
+		@Override
+		protected void doCreateEmptyDatabase() {
+		}
+
+		@Override
+		protected void doPrepareMeasurementLoad() {
+		}
+
+		@Override
+		protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
+				long measurementTimestamp, StatArchiveReader.StatValue[] fields) {
+
+			if (measurementFields.computeIfAbsent(measurementName, name -> fields) != fields) {
+				duplicates.add(measurementName);
+			}
+			Map<String, Series> measurement = series.computeIfAbsent(measurementName, name -> new HashMap<>());
+			for (int i = 0; i < fields.length; i++) {
+				if (isRawField(fields[i])) {
+					Series field = measurement.computeIfAbsent(getMeasurementFieldName(fields[i]), name -> new Series());
+					field.timestamps.add(measurementTimestamp);
+					field.values.add(getMeasurementFieldValue(fields[i], measurementSampleIndex));
+				}
+				if (isRateField(fields[i])) {
+					Series rate = measurement.computeIfAbsent(getMeasurementRateFieldName(fields[i]),
+							name -> new Series());
+					rate.timestamps.add(measurementTimestamp);
+					rate.values.add(getMeasurementFieldRate(i));
+				}
+			}
+		}
+
+		@Override
+		protected void doCompleteMeasurementLoad() {
+		}
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.influxdb.InfluxDB;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ImportCheckpointTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void committedIndexAdvancesOverContiguousBatches() throws IOException {
+		File checkpointFile = new File(folder.getRoot(), "archive.checkpoint");
+
+		ImportCheckpoint checkpoint = new ImportCheckpoint(checkpointFile, "archive-1", 0);
+		checkpoint.submitted("m", 9);
+		checkpoint.submitted("m", 19);
+		checkpoint.submitted("m", 29);
+
+		// Written out of order
+		checkpoint.committed("m", 19);
+		assertEquals(-1, checkpoint.getCommittedIndex("m"));
+		checkpoint.committed("m", 9);
+		assertEquals(19, checkpoint.getCommittedIndex("m"));
+		checkpoint.committed("m", 29);
+		assertEquals(29, checkpoint.getCommittedIndex("m"));
+
+		checkpoint.save();
+
+		assertEquals(29, new ImportCheckpoint(checkpointFile, "archive-1", 0).getCommittedIndex("m"));
+		assertEquals(-1, new ImportCheckpoint(checkpointFile, "archive-2", 0).getCommittedIndex("m"));
+	}
+
+	@Test
+	public void resumeInterruptedLoad() throws IOException {
+
+		// Reference load without interruption
+		Set<String> allRecords = new HashSet<>();
+		StatisticsToInfluxLoader referenceLoader = checkpointedLoader(recordingInfluxDB(allRecords, -1));
+		referenceLoader.setCheckpoint(false);
+		referenceLoader.load();
+
+		// The first load fails after 20 batches
+		Set<String> records = new HashSet<>();
+		try {
+			checkpointedLoader(recordingInfluxDB(records, 20)).load();
+			fail("The load should fail");
+		}
+		catch (IllegalStateException e) {
+			assertEquals("timeout", e.getMessage());
+		}
+		assertTrue(new File(folder.getRoot(), ARCHIVE_FILE.getName() + ".server1.checkpoint").exists());
+
+		// The second load writes only the samples not committed by the first one
+		Set<String> resumedRecords = new HashSet<>();
+		StatisticsToInfluxLoader resumedLoader = checkpointedLoader(recordingInfluxDB(resumedRecords, -1));
+		resumedLoader.load();
+
+		records.addAll(resumedRecords);
+		assertEquals(allRecords, records);
+		assertTrue(resumedLoader.getLoadedSampleCount() < referenceLoader.getLoadedSampleCount());
+
+		// A third load has nothing left to write
+		Set<String> noRecords = new HashSet<>();
+		checkpointedLoader(recordingInfluxDB(noRecords, -1)).load();
+		assertEquals(0, noRecords.size());
+	}
+
+	@Test
+	public void checkpointedTimeRangeLoad() throws IOException {
+		ArchiveCatalog catalog = ArchiveCatalog.scan(ARCHIVE_FILE);
+		String loadFrom = Long.toString((catalog.getStartTime() + catalog.getEndTime()) / 2);
+
+		// The rates and the rollup windows read samples preceding the time range, which must not be loaded
+		Set<String> expectedRecords = new HashSet<>();
+		StatisticsToInfluxLoader referenceLoader = checkpointedLoader(recordingInfluxDB(expectedRecords, -1));
+		referenceLoader.setCheckpoint(false);
+		referenceLoader.setCounterMode("rate");
+		referenceLoader.setRollupInterval(60000);
+		referenceLoader.setLoadFrom(loadFrom);
+		referenceLoader.load();
+
+		Set<String> records = new HashSet<>();
+		StatisticsToInfluxLoader loader = checkpointedLoader(recordingInfluxDB(records, -1));
+		loader.setCounterMode("rate");
+		loader.setRollupInterval(60000);
+		loader.setLoadFrom(loadFrom);
+		loader.load();
+
+		assertEquals(expectedRecords, records);
+		assertEquals(referenceLoader.getLoadedSampleCount(), loader.getLoadedSampleCount());
+	}
+
+	private StatisticsToInfluxLoader checkpointedLoader(InfluxDB influxDB) {
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 10,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], true);
+		loader.setInfluxWriterThreads(0);
+		loader.setCheckpoint(true);
+		loader.setCheckpointDirectory(folder.getRoot().getPath());
+		return loader;
+	}
+
+	private InfluxDB recordingInfluxDB(Set<String> records, int failAfterWrites) {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		AtomicInteger writes = new AtomicInteger();
+		doAnswer(invocation -> {
+			if (writes.incrementAndGet() == failAfterWrites) {
+				throw new IllegalStateException("timeout");
+			}
+			records.addAll(Arrays.asList(((String) invocation.getArguments()[3]).split("\n")));
+			return null;
+		}).when(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+		return influxDB;
+	}
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Local HTTP stand-in for the InfluxDB write and query endpoints. The written line protocol batches are counted and
+ * discarded, every query succeeds with an empty result.
+ *
+ * A minimal HTTP/1.1 server, serving every keep-alive connection with a thread and no delayed writes, so that its own
+ * overhead is negligible compared to the loader being measured.
+ */
+public class InfluxStandIn implements Closeable {
+
+	private final ServerSocket serverSocket;
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	private final long responseDelay;
+
+	private final AtomicLong writes = new AtomicLong();
+
+	private final AtomicLong points = new AtomicLong();
+
+	private final AtomicLong bytes = new AtomicLong();
+
+	/**
+	 * Starts the stand-in on a free local port.
+	 * @param responseDelay Time in milliseconds every write request is delayed, emulating the network and storage
+	 * latency of a real InfluxDB.
+	 */
+	public InfluxStandIn(long responseDelay) throws IOException {
+		this.responseDelay = responseDelay;
+		this.serverSocket = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+		executor.execute(this::accept);
+	}
+
+	public String getUrl() {
+		return "http://" + serverSocket.getInetAddress().getHostAddress() + ":" + serverSocket.getLocalPort();
+	}
+
+	public long getWrites() {
+		return writes.get();
+	}
+
+	/**
+	 * @return Number of the line protocol records received.
+	 */
+	public long getPoints() {
+		return points.get();
+	}
+
+	/**
+	 * @return Number of the request body bytes received, as sent over the network (i.e. gzip compressed).
+	 */
+	public long getBytes() {
+		return bytes.get();
+	}
+
+	@Override
+	public void close() throws IOException {
+		serverSocket.close();
+		executor.shutdownNow();
+	}
+
+	private void accept() {
+		while (!serverSocket.isClosed()) {
+			try {
+				Socket socket = serverSocket.accept();
+				socket.setTcpNoDelay(true);
+				executor.execute(() -> serve(socket));
+			}
+			catch (IOException e) {
+				// Closed
+			}
+		}
+	}
+
+	private void serve(Socket socket) {
+		try (Socket connection = socket) {
+			InputStream in = new BufferedInputStream(connection.getInputStream(), 65536);
+			OutputStream out = connection.getOutputStream();
+			String requestLine;
+			while ((requestLine = readLine(in)) != null) {
+				long contentLength = 0;
+				boolean chunked = false;
+				boolean gzip = false;
+				String header;
+				while ((header = readLine(in)) != null && !header.isEmpty()) {
+					String name = header.substring(0, header.indexOf(':')).trim().toLowerCase();
+					String value = header.substring(header.indexOf(':') + 1).trim();
+					if (name.equals("content-length")) {
+						contentLength = Long.parseLong(value);
+					}
+					else if (name.equals("transfer-encoding")) {
+						chunked = value.equalsIgnoreCase("chunked");
+					}
+					else if (name.equals("content-encoding")) {
+						gzip = value.equalsIgnoreCase("gzip");
+					}
+				}
+				byte[] body = chunked ? readChunked(in) : readFully(in, contentLength);
+
+				String target = requestLine.split(" ")[1];
+				if (target.startsWith("/write")) {
+					write(gzip ? new GZIPInputStream(new ByteArrayInputStream(body))
+							: new ByteArrayInputStream(body), body.length);
+					respond(out, "204 No Content", null);
+				}
+				else if (target.startsWith("/query")) {
+					respond(out, "200 OK", "{\"results\":[{\"statement_id\":0}]}");
+				}
+				else {
+					respond(out, "204 No Content", null);
+				}
+			}
+		}
+		catch (SocketException e) {
+			// Connection closed by the client or the stand-in
+		}
+		catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private void write(InputStream records, long bodyBytes) throws IOException {
+		long lines = 0;
+		boolean emptyLine = true;
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = records.read(buffer)) > 0) {
+			for (int i = 0; i < read; i++) {
+				if (buffer[i] == '\n') {
+					lines += emptyLine ? 0 : 1;
+					emptyLine = true;
+				}
+				else {
+					emptyLine = false;
+				}
+			}
+		}
+		lines += emptyLine ? 0 : 1;
+
+		writes.incrementAndGet();
+		points.addAndGet(lines);
+		bytes.addAndGet(bodyBytes);
+		if (responseDelay > 0) {
+			try {
+				TimeUnit.MILLISECONDS.sleep(responseDelay);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	private static void respond(OutputStream out, String status, String json) throws IOException {
+		byte[] body = (json == null) ? new byte[0] : json.getBytes(StandardCharsets.UTF_8);
+		StringBuilder response = new StringBuilder("HTTP/1.1 ").append(status).append("\r\n")
+				.append("X-Influxdb-Version: 1.4.2\r\n");
+		if (json != null) {
+			response.append("Content-Type: application/json\r\n")
+					.append("Content-Length: ").append(body.length).append("\r\n");
+		}
+		response.append("\r\n");
+		ByteArrayOutputStream message = new ByteArrayOutputStream();
+		message.write(response.toString().getBytes(StandardCharsets.US_ASCII));
+		message.write(body);
+		out.write(message.toByteArray());
+		out.flush();
+	}
+
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0) {
+			if (c == '\n') {
+				int length = line.length();
+				return (length > 0 && line.charAt(length - 1) == '\r') ? line.substring(0, length - 1)
+						: line.toString();
+			}
+			line.append((char) c);
+		}
+		return (line.length() == 0) ? null : line.toString();
+	}
+
+	private static byte[] readFully(InputStream in, long length) throws IOException {
+		byte[] body = new byte[(int) length];
+		int offset = 0;
+		while (offset < length) {
+			int read = in.read(body, offset, body.length - offset);
+			if (read < 0) {
+				throw new IOException("Truncated request body");
+			}
+			offset += read;
+		}
+		return body;
+	}
+
+	private static byte[] readChunked(InputStream in) throws IOException {
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		long chunkSize;
+		while ((chunkSize = Long.parseLong(readLine(in).split(";")[0].trim(), 16)) > 0) {
+			body.write(readFully(in, chunkSize));
+			readLine(in);
+		}
+		// Trailers
+		String trailer;
+		while ((trailer = readLine(in)) != null && !trailer.isEmpty()) {
+		}
+		return body.toByteArray();
+	}
+}
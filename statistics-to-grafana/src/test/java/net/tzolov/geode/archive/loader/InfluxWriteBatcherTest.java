@@ -0,0 +1,165 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.influxdb.InfluxDB;
+import org.junit.Test;
+
+public class InfluxWriteBatcherTest {
+
+	private static final String RECORDS = "m,type=t f=1.0 1000000\nm,type=t f=2.0 2000000\n";
+
+	private static final InfluxDB.ConsistencyLevel ALL = InfluxDB.ConsistencyLevel.ALL;
+
+	@Test
+	public void mergesMeasurementBatches() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 0, 1, 1024);
+		InfluxWriteBatcher batcher = new InfluxWriteBatcher(pipeline, "db", ALL, 10, 1024 * 1024, 0);
+		AtomicInteger committed = new AtomicInteger();
+
+		for (int i = 0; i < 4; i++) {
+			batcher.add("autogen", RECORDS, 2, committed::incrementAndGet);
+		}
+		batcher.add("rollup", RECORDS, 2, committed::incrementAndGet);
+		verify(influxDB, never()).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+		assertEquals(0, committed.get());
+
+		// The fifth batch completes the request of the retention policy
+		batcher.add("autogen", RECORDS, 2, committed::incrementAndGet);
+		verify(influxDB).write("db", "autogen", ALL, RECORDS + RECORDS + RECORDS + RECORDS + RECORDS);
+		assertEquals(5, committed.get());
+
+		// Full batches are written as they are
+		batcher.add("autogen", RECORDS + RECORDS + RECORDS + RECORDS + RECORDS, 10, null);
+		verify(influxDB, times(2)).write("db", "autogen", ALL, RECORDS + RECORDS + RECORDS + RECORDS + RECORDS);
+
+		batcher.close();
+		verify(influxDB).write("db", "rollup", ALL, RECORDS);
+		assertEquals(6, committed.get());
+		pipeline.close();
+		assertEquals(22, pipeline.getWrittenPoints());
+	}
+
+	@Test
+	public void slowWriteDoesNotBlockOtherLoaders() throws Exception {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		CountDownLatch writing = new CountDownLatch(1);
+		CountDownLatch writeReleased = new CountDownLatch(1);
+		doAnswer(invocation -> {
+			writing.countDown();
+			writeReleased.await();
+			return null;
+		}).when(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 0, 1, 1024);
+		InfluxWriteBatcher batcher = new InfluxWriteBatcher(pipeline, "db", ALL, 2, 1024 * 1024, 0);
+
+		// A full batch written synchronously by its loader thread
+		CompletableFuture<Void> slowAdd = CompletableFuture.runAsync(() -> batcher.add("autogen", RECORDS, 2, null));
+		assertTrue(writing.await(5, TimeUnit.SECONDS));
+
+		// Another loader thread appending to a pending request does not wait for the write
+		CompletableFuture.runAsync(() -> batcher.add("rollup", "m,type=t f=1.0 1000000\n", 1, null))
+				.get(5, TimeUnit.SECONDS);
+
+		writeReleased.countDown();
+		slowAdd.get(5, TimeUnit.SECONDS);
+		batcher.close();
+		pipeline.close();
+		assertEquals(3, pipeline.getWrittenPoints());
+	}
+
+	@Test
+	public void byteBudget() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 0, 1, 1024);
+		InfluxWriteBatcher batcher = new InfluxWriteBatcher(pipeline, "db", ALL, 1000, 2 * RECORDS.length(), 0);
+
+		assertTrue(batcher.isFull(2, 2 * RECORDS.length()));
+		batcher.add("autogen", RECORDS, 2, null);
+		batcher.add("autogen", RECORDS, 2, null);
+		verify(influxDB).write("db", "autogen", ALL, RECORDS + RECORDS);
+
+		batcher.close();
+		pipeline.close();
+		assertEquals(4, pipeline.getWrittenPoints());
+	}
+
+	@Test
+	public void lingerTimeout() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 2, 4, 1024);
+		InfluxWriteBatcher batcher = new InfluxWriteBatcher(pipeline, "db", ALL, 1000, 1024 * 1024, 50);
+
+		batcher.add("autogen", RECORDS, 2, null);
+		verify(influxDB, timeout(5000)).write("db", "autogen", ALL, RECORDS);
+
+		batcher.close();
+		pipeline.close();
+		verify(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+	}
+
+	@Test
+	public void adaptiveBatchSize() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 0, 1, 1024 * 1024);
+		InfluxWriteBatcher batcher = new InfluxWriteBatcher(pipeline, "db", ALL, 10, 1024 * 1024, 0);
+		batcher.adaptTo(60000);
+
+		// Every full batch written within the target latency grows the batch size, up to ten times its initial value
+		for (int i = 0; i < 100; i++) {
+			batcher.add("autogen", RECORDS, batcher.getBatchSize(), null);
+		}
+		assertEquals(100, batcher.getBatchSize());
+
+		// Partially filled (e.g. flushed) batches do not grow it
+		batcher.add("autogen", RECORDS, 2, null);
+		batcher.flush();
+		assertEquals(100, batcher.getBatchSize());
+
+		// Failed writes halve it, down to a tenth of its initial value
+		doThrow(new RuntimeException("Server error")).when(influxDB).write(anyString(), anyString(),
+				any(InfluxDB.ConsistencyLevel.class), anyString());
+		for (int i = 0; i < 10; i++) {
+			try {
+				batcher.add("autogen", RECORDS, 1000, null);
+				fail("The write failure is expected to be reported");
+			}
+			catch (RuntimeException e) {
+				assertEquals("Server error", e.getMessage());
+			}
+		}
+		assertEquals(1, batcher.getBatchSize());
+	}
+}
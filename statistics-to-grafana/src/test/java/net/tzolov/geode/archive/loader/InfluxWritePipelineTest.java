@@ -0,0 +1,288 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.influxdb.InfluxDB;
+import org.influxdb.InfluxDBException;
+import org.influxdb.InfluxDBIOException;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class InfluxWritePipelineTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private static final String RECORDS = "m,type=t f=1.0 1000000\nm,type=t f=2.0 2000000\n";
+
+	@Test
+	public void writesAllBatches() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 3, 2, 1024);
+		for (int i = 0; i < 100; i++) {
+			pipeline.submit("db", "autogen", InfluxDB.ConsistencyLevel.ALL, RECORDS, 2);
+		}
+		pipeline.close();
+
+		verify(influxDB, times(100)).write("db", "autogen", InfluxDB.ConsistencyLevel.ALL, RECORDS);
+		assertEquals(200, pipeline.getWrittenPoints());
+		assertEquals(100 * RECORDS.length(), pipeline.getWrittenBytes());
+	}
+
+	@Test
+	public void synchronousWrites() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 0, 1, 1024);
+		pipeline.submit("db", "autogen", InfluxDB.ConsistencyLevel.ALL, RECORDS, 2);
+
+		verify(influxDB).write("db", "autogen", InfluxDB.ConsistencyLevel.ALL, RECORDS);
+		pipeline.close();
+	}
+
+	@Test
+	public void backpressure() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		AtomicInteger concurrentWrites = new AtomicInteger();
+		AtomicInteger maxConcurrentWrites = new AtomicInteger();
+		doAnswer(invocation -> {
+			maxConcurrentWrites.accumulateAndGet(concurrentWrites.incrementAndGet(), Math::max);
+			Thread.sleep(20);
+			concurrentWrites.decrementAndGet();
+			return null;
+		}).when(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		// The in-flight bytes limit allows a single batch at a time, regardless of the number of writers
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 4, 10, RECORDS.length());
+		for (int i = 0; i < 10; i++) {
+			pipeline.submit("db", "autogen", InfluxDB.ConsistencyLevel.ALL, RECORDS, 2);
+		}
+		pipeline.close();
+
+		assertEquals(1, maxConcurrentWrites.get());
+		assertTrue(pipeline.getBlockedMillis() >= 100);
+	}
+
+	@Test
+	public void flush() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		AtomicInteger writes = new AtomicInteger();
+		doAnswer(invocation -> {
+			Thread.sleep(10);
+			writes.incrementAndGet();
+			return null;
+		}).when(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 2, 10, 1024);
+		for (int i = 0; i < 10; i++) {
+			pipeline.submit("db", "autogen", InfluxDB.ConsistencyLevel.ALL, RECORDS, 2);
+		}
+		pipeline.flush();
+
+		assertEquals(10, writes.get());
+		pipeline.close();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void writeFailure() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		doThrow(new IllegalStateException("timeout"))
+				.when(influxDB).write(eq("db"), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 2, 2, 1024);
+		pipeline.submit("db", "autogen", InfluxDB.ConsistencyLevel.ALL, RECORDS, 2);
+		pipeline.close();
+	}
+
+	@Test
+	public void retryTransientFailures() {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		AtomicInteger attempts = new AtomicInteger();
+		doAnswer(invocation -> {
+			if (attempts.incrementAndGet() <= 2) {
+				throw new InfluxDBIOException(new SocketTimeoutException("timeout"));
+			}
+			return null;
+		}).when(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		LoadMetrics metrics = new LoadMetrics();
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 1, 2, 1024, metrics);
+		pipeline.setRetryPolicy(2, 1, 2);
+		pipeline.submit("db", "autogen", InfluxDB.ConsistencyLevel.ALL, RECORDS, 2);
+		pipeline.close();
+
+		assertEquals(3, attempts.get());
+		assertEquals(2, metrics.getWriteRetries());
+		assertEquals(2, pipeline.getWrittenPoints());
+
+		assertTrue(InfluxWritePipeline.isRetryable(new InfluxDBException("{\"error\":\"timeout\"}")));
+		assertFalse(InfluxWritePipeline.isRetryable(new InfluxDBException(
+				"{\"error\":\"partial write: field type conflict: input field \\\"f\\\" is type float\"}")));
+		assertFalse(InfluxWritePipeline.isRetryable(new IllegalStateException("timeout")));
+	}
+
+	@Test
+	public void spillAndReplay() throws IOException {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		AtomicBoolean serverDown = new AtomicBoolean(true);
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		doAnswer(invocation -> {
+			if (serverDown.get()) {
+				throw new InfluxDBException("{\"error\":\"engine: cache-max-memory-size exceeded\"}");
+			}
+			written.add((String) invocation.getArguments()[3]);
+			return null;
+		}).when(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		File spillFile = folder.newFile("archive.gfs.member.spill");
+		LoadMetrics metrics = new LoadMetrics();
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 2, 2, 2 * RECORDS.length(), metrics);
+		pipeline.setRetryPolicy(1, 1, 2);
+		pipeline.enableSpill(spillFile);
+
+		// The spilled batches are committed, the load goes on while the server is down
+		AtomicInteger committed = new AtomicInteger();
+		for (int i = 0; i < 20; i++) {
+			pipeline.submit("db", "autogen", InfluxDB.ConsistencyLevel.ALL, "m f=" + i + " " + i + "\n", 1,
+					committed::incrementAndGet);
+		}
+		pipeline.flush();
+		assertEquals(20, committed.get());
+		assertEquals(20, metrics.getSpilledBatches());
+		assertTrue(written.isEmpty());
+
+		// Still down when the load completes, the spilled batches are left for the next load
+		pipeline.close();
+		assertTrue(spillFile.length() > 0);
+
+		serverDown.set(false);
+		InfluxWritePipeline nextPipeline = new InfluxWritePipeline(influxDB, 2, 2, 1024, metrics);
+		nextPipeline.enableSpill(spillFile);
+		nextPipeline.close();
+
+		assertEquals(20, metrics.getReplayedBatches());
+		assertEquals(0, spillFile.length());
+		// The writers spill concurrently, so the spill order is not the submit order
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			expected.add("m f=" + i + " " + i + "\n");
+		}
+		assertEquals(new HashSet<>(expected), new HashSet<>(written));
+		assertEquals(20, written.size());
+	}
+
+	@Test
+	public void newBatchesFollowSpilledBatches() throws Exception {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		AtomicBoolean serverDown = new AtomicBoolean(true);
+		AtomicInteger replayedWrites = new AtomicInteger();
+		CountDownLatch replayBlocked = new CountDownLatch(1);
+		CountDownLatch replayReleased = new CountDownLatch(1);
+		List<String> written = Collections.synchronizedList(new ArrayList<>());
+		doAnswer(invocation -> {
+			if (serverDown.get()) {
+				throw new InfluxDBIOException(new SocketTimeoutException("timeout"));
+			}
+			// The replay is held after its first batch, while the spill file still holds batches
+			if (Thread.currentThread().getName().equals("influx-spill-replay") && replayedWrites.incrementAndGet() == 2) {
+				replayBlocked.countDown();
+				replayReleased.await();
+			}
+			written.add((String) invocation.getArguments()[3]);
+			return null;
+		}).when(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		InfluxWritePipeline pipeline = new InfluxWritePipeline(influxDB, 0, 1, 1024, new LoadMetrics());
+		pipeline.setRetryPolicy(0, 1, 2);
+		pipeline.enableSpill(folder.newFile("archive.gfs.member.spill"));
+
+		List<String> expected = new ArrayList<>();
+		for (int i = 0; i < 10; i++) {
+			expected.add("m f=" + i + " " + i + "\n");
+		}
+		for (int i = 0; i < 5; i++) {
+			pipeline.submit("db", "autogen", InfluxDB.ConsistencyLevel.ALL, expected.get(i), 1);
+		}
+
+		serverDown.set(false);
+		assertTrue(replayBlocked.await(10, TimeUnit.SECONDS));
+		for (int i = 5; i < 10; i++) {
+			pipeline.submit("db", "autogen", InfluxDB.ConsistencyLevel.ALL, expected.get(i), 1);
+		}
+		replayReleased.countDown();
+		pipeline.close();
+
+		assertEquals(expected, written);
+	}
+
+	@Test
+	public void spilledBatchesSurviveACrash() throws IOException {
+		File file = folder.newFile("crashed.spill");
+		try (WriteSpillFile spillFile = new WriteSpillFile(file)) {
+			spillFile.append(new WriteSpillFile.SpilledBatch("db", "autogen", InfluxDB.ConsistencyLevel.ALL, RECORDS, 2));
+			spillFile.append(new WriteSpillFile.SpilledBatch("db", "rollup", null, RECORDS, 2));
+		}
+		long completeLength = file.length();
+		// Partially appended batch
+		try (FileOutputStream out = new FileOutputStream(file, true)) {
+			out.write(new byte[] { 0, 2, 'd', 'b', 0 });
+		}
+
+		try (WriteSpillFile spillFile = new WriteSpillFile(file)) {
+			assertEquals(completeLength, file.length());
+			assertEquals(2, spillFile.getPendingBatches());
+			WriteSpillFile.SpilledBatch batch = spillFile.peek();
+			assertEquals("autogen", batch.retentionPolicy);
+			assertEquals(InfluxDB.ConsistencyLevel.ALL, batch.consistency);
+			assertEquals(RECORDS, batch.records);
+			spillFile.remove();
+			batch = spillFile.peek();
+			assertEquals("rollup", batch.retentionPolicy);
+			assertNull(batch.consistency);
+			spillFile.remove();
+			assertNull(spillFile.peek());
+			assertEquals(0, file.length());
+		}
+	}
+}
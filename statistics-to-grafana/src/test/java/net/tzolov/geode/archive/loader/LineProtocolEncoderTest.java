@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.influxdb.InfluxDB;
+import org.influxdb.dto.BatchPoints;
+import org.influxdb.dto.Point;
+import org.junit.Test;
+
+public class LineProtocolEncoderTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Test
+	public void sameRecordsAsBatchPoints() throws IOException {
+
+		StringBuilder expected = new StringBuilder();
+
+		StatArchiveReader reader = new StatArchiveReader(new File[] { ARCHIVE_FILE }, null, false);
+		for (Object r : reader.getResourceInstList()) {
+			StatArchiveReader.ResourceInst ri = (StatArchiveReader.ResourceInst) r;
+			StatArchiveReader.StatValue[] fields = ri.getStatValues();
+			long[] timestamps = fields[0].getRawAbsoluteTimeStamps();
+
+			BatchPoints batchPoints = BatchPoints.database("GeodeArchive")
+					.tag("async", "false")
+					.tag("archiveMember", "server 1,a=b")
+					.retentionPolicy("autogen")
+					.build();
+
+			for (int i = 0; i < ri.getSampleCount(); i++) {
+				Point.Builder point = Point.measurement(ri.getType().getName() + ":" + ri.getName())
+						.tag("type", ri.getType().getName())
+						.time(timestamps[i], TimeUnit.MILLISECONDS);
+				for (StatArchiveReader.StatValue field : fields) {
+					point.addField(field.getDescriptor().getName(), field.getRawSnapshots()[i]);
+				}
+				batchPoints.point(point.build());
+			}
+			expected.append(batchPoints.lineProtocol());
+		}
+
+		// Synchronous writes keep the records in the archive order
+		InfluxDB influxDB = mock(InfluxDB.class);
+		StringBuilder actual = new StringBuilder();
+		doAnswer(invocation -> actual.append((String) invocation.getArguments()[3]))
+				.when(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 7,
+				"GeodeArchive", ARCHIVE_FILE, "server 1,a=b", new String[0], false);
+		loader.setInfluxWriterThreads(0);
+		loader.load();
+
+		assertEquals(expected.toString(), actual.toString());
+	}
+
+	@Test
+	public void doubleValues() {
+		double[] values = { 0.0, -0.0, 1.0, -1.0, 0.1, -0.25, 1.0 / 3, 1e-7, 1.5e-300, 123456789.123, 1e15, 1e20,
+				-1e22, 9007199254740993.0, Long.MAX_VALUE, Double.MAX_VALUE, Double.MIN_VALUE, Double.NaN,
+				Double.POSITIVE_INFINITY };
+
+		for (double value : values) {
+			assertEquals(pointValue(value), encodedValue(value));
+		}
+
+		Random random = new Random(666);
+		for (int i = 0; i < 10000; i++) {
+			double value = Double.longBitsToDouble(random.nextLong());
+			assertEquals(pointValue(value), encodedValue(value));
+			value = random.nextDouble() * Math.pow(10, random.nextInt(30) - 10);
+			assertEquals(pointValue(value), encodedValue(value));
+		}
+	}
+
+	@Test
+	public void pointsWithoutFieldsAreDiscarded() {
+		StatArchiveReader.StatValue[] fields = new StatArchiveReader.StatValue[0];
+		LineProtocolEncoder encoder = new LineProtocolEncoder(Collections.singletonMap("archiveMember", "m"), 16);
+		encoder.measurement("CachePerfStats:cachePerfStats", Collections.singletonMap("type", "CachePerfStats"),
+				fields, f -> "");
+
+		encoder.startPoint();
+		assertEquals(false, encoder.endPoint(1000));
+		assertEquals(0, encoder.getPointCount());
+		assertEquals("", encoder.flush());
+	}
+
+	private String pointValue(double value) {
+		String line = Point.measurement("m").addField("f", value).time(1, TimeUnit.MILLISECONDS).build().lineProtocol();
+		return line.substring("m f=".length(), line.lastIndexOf(' '));
+	}
+
+	private String encodedValue(double value) {
+		StringBuilder sb = new StringBuilder();
+		LineProtocolEncoder.appendDouble(sb, value);
+		return sb.toString();
+	}
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+
+import org.influxdb.InfluxDB;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LineProtocolFileExportTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void exportMatchesInfluxLoad() throws IOException {
+
+		Map<String, List<String>> influxRecords = new HashMap<>();
+		InfluxDB influxDB = mock(InfluxDB.class);
+		doAnswer(invocation -> {
+			influxRecords.computeIfAbsent((String) invocation.getArguments()[1], rp -> new ArrayList<>())
+					.addAll(Arrays.asList(((String) invocation.getArguments()[3]).split("\n")));
+			return null;
+		}).when(influxDB).write(eq("GeodeArchive"), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		StatisticsToInfluxLoader influxLoader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 100,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], true);
+		influxLoader.setInfluxWriterThreads(0);
+		influxLoader.setRollupInterval(60000);
+		influxLoader.load();
+
+		File staleFile = folder.newFile("myStatisticsArchiveFile.gfs.server1-9999.lp.gz");
+
+		StatisticsToLineProtocolFileLoader exportLoader = exportLoader(4096);
+		exportLoader.setRollupInterval(60000);
+		exportLoader.setLoadThreads(4);
+		exportLoader.load();
+
+		assertFalse(staleFile.exists());
+		List<File> exportFiles = exportLoader.getExportFiles();
+		assertTrue(exportFiles.size() > 4);
+
+		Map<String, List<String>> exportRecords = new HashMap<>();
+		for (File exportFile : exportFiles) {
+			List<String> lines = readLines(exportFile);
+			assertEquals(Arrays.asList("# DDL", "CREATE DATABASE \"GeodeArchive\"",
+					"CREATE RETENTION POLICY \"rollup\" ON \"GeodeArchive\" DURATION INF REPLICATION 1", "# DML",
+					"# CONTEXT-DATABASE: GeodeArchive"), lines.subList(0, 5));
+			String retentionPolicy = null;
+			for (String line : lines.subList(5, lines.size())) {
+				if (line.startsWith("# CONTEXT-RETENTION-POLICY: ")) {
+					retentionPolicy = line.substring("# CONTEXT-RETENTION-POLICY: ".length());
+				}
+				else {
+					exportRecords.computeIfAbsent(retentionPolicy, rp -> new ArrayList<>()).add(line);
+				}
+			}
+		}
+
+		assertEquals(influxRecords.keySet(), exportRecords.keySet());
+		for (String retentionPolicy : influxRecords.keySet()) {
+			List<String> expected = influxRecords.get(retentionPolicy);
+			List<String> actual = exportRecords.get(retentionPolicy);
+			Collections.sort(expected);
+			Collections.sort(actual);
+			assertEquals(expected, actual);
+		}
+	}
+
+	@Test
+	public void splitBySize() throws IOException {
+
+		int[] fileNumber = { 0 };
+		LineProtocolFileWriter writer = new LineProtocolFileWriter(
+				() -> new File(folder.getRoot(), "export-" + fileNumber[0]++ + ".lp.gz"), 1000, 128, "# DML\n");
+
+		int[] committed = { 0 };
+		for (int i = 0; i < 100; i++) {
+			String records = "m,tag=" + i + " value=" + Math.random() + " " + i + "\n";
+			int batch = i;
+			writer.write(i % 2 == 0 ? "autogen" : "rollup", records, () -> committed[0] = batch + 1);
+		}
+		writer.close();
+
+		assertEquals(100, committed[0]);
+		assertTrue(writer.getFiles().size() > 1);
+		long writtenBytes = 0;
+		for (File file : writer.getFiles()) {
+			writtenBytes += file.length();
+			assertEquals("# DML", readLines(file).get(0));
+			assertTrue(readLines(file).get(1).startsWith("# CONTEXT-RETENTION-POLICY: "));
+		}
+		assertEquals(writtenBytes, writer.getWrittenBytes());
+	}
+
+	@Test
+	public void incompleteFilesAreNotImportable() throws IOException {
+
+		File file = new File(folder.getRoot(), "export.lp.gz");
+		LineProtocolFileWriter writer = new LineProtocolFileWriter(() -> file, 1000, 128, "# DML\n");
+		writer.write("autogen", "m,tag=1 value=1.0 1\n", () -> { });
+		assertFalse(file.exists());
+		assertTrue(LineProtocolFileWriter.temporaryFile(file).exists());
+		writer.close();
+		assertTrue(file.exists());
+		assertFalse(LineProtocolFileWriter.temporaryFile(file).exists());
+
+		// Left by a killed export, its batches were never committed
+		File incompleteFile = LineProtocolFileWriter.temporaryFile(
+				new File(folder.getRoot(), "myStatisticsArchiveFile.gfs.server1-0003.lp.gz"));
+		try (FileOutputStream out = new FileOutputStream(incompleteFile)) {
+			out.write(new byte[] { 0x1f, (byte) 0x8b, 8, 0 });
+		}
+
+		StatisticsToLineProtocolFileLoader resumedLoader = exportLoader(4096);
+		resumedLoader.setCheckpoint(true);
+		resumedLoader.setCheckpointDirectory(folder.getRoot().getPath());
+		resumedLoader.load();
+
+		assertFalse(incompleteFile.exists());
+		assertTrue(resumedLoader.getExportFiles().size() > 1);
+		for (File exportFile : resumedLoader.getExportFiles()) {
+			assertEquals("# DDL", readLines(exportFile).get(0));
+			assertFalse(LineProtocolFileWriter.temporaryFile(exportFile).exists());
+		}
+	}
+
+	private StatisticsToLineProtocolFileLoader exportLoader(long maxFileBytes) {
+		return new StatisticsToLineProtocolFileLoader(folder.getRoot().getPath(), maxFileBytes, 4096, "autogen", 100,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], true);
+	}
+
+	private static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.influxdb.InfluxDB;
+import org.junit.Test;
+
+public class LoadMetricsTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Test
+	public void batchWriteLatencies() {
+
+		LoadMetrics metrics = new LoadMetrics();
+		for (int i = 0; i < 90; i++) {
+			metrics.recordWrite(10, 100, TimeUnit.MILLISECONDS.toNanos(1));
+		}
+		for (int i = 0; i < 10; i++) {
+			metrics.recordWrite(10, 100, TimeUnit.MILLISECONDS.toNanos(100));
+		}
+
+		assertEquals(100, metrics.getWrittenBatches());
+		assertEquals(1000, metrics.getWrittenPoints());
+		assertEquals(10000, metrics.getWrittenBytes());
+		assertEquals(10.9, metrics.getBatchWriteLatencyMeanMillis(), 0.001);
+		// Upper bounds of the power of two microsecond buckets
+		assertEquals(1.024, metrics.getBatchWriteLatencyP50Millis(), 0.001);
+		assertEquals(1.024, metrics.getBatchWriteLatencyP90Millis(), 0.001);
+		assertEquals(100, metrics.getBatchWriteLatencyP99Millis(), 0.001);
+		assertEquals(100, metrics.getBatchWriteLatencyMaxMillis(), 0.001);
+
+		metrics.reset();
+		assertEquals(0, metrics.getWrittenBatches());
+		assertEquals(0, metrics.getBatchWriteLatencyP99Millis(), 0);
+	}
+
+	@Test
+	public void influxLoadMetrics() throws Exception {
+
+		MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+		ObjectName name = new ObjectName("net.tzolov.geode.archive:type=StatisticsLoader,archive="
+				+ ObjectName.quote(ARCHIVE_FILE.getName()) + ",member=" + ObjectName.quote("server1"));
+
+		AtomicInteger writes = new AtomicInteger();
+		AtomicInteger exposedWrites = new AtomicInteger();
+		InfluxDB influxDB = mock(InfluxDB.class);
+		doAnswer(invocation -> {
+			writes.incrementAndGet();
+			if (mBeanServer.isRegistered(name)
+					&& (Long) mBeanServer.getAttribute(name, "LoadedSamples") >= 0) {
+				exposedWrites.incrementAndGet();
+			}
+			return null;
+		}).when(influxDB).write(anyString(), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 100,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], true);
+		loader.setInfluxWriterThreads(2);
+		loader.setLoadThreads(2);
+		loader.load();
+
+		LoadMetrics metrics = loader.getMetrics();
+		assertTrue(writes.get() > 0);
+		assertEquals(writes.get(), exposedWrites.get());
+		assertFalse(mBeanServer.isRegistered(name));
+
+		assertEquals(writes.get(), metrics.getWrittenBatches());
+		assertEquals(loader.getLoadedSampleCount(), metrics.getLoadedSamples());
+		assertTrue(metrics.getWrittenPoints() > 0 && metrics.getWrittenPoints() <= metrics.getLoadedSamples());
+		assertTrue(metrics.getDecodedValues() >= metrics.getLoadedSamples());
+		assertTrue(metrics.getPeakCachedValues() > 0);
+		// The decoded values are released once their measurement is loaded
+		assertEquals(0, metrics.getCachedSeries());
+		assertEquals(0, metrics.getCachedValues());
+		assertTrue(metrics.getBatchWriteLatencyMaxMillis() >= metrics.getBatchWriteLatencyP50Millis());
+	}
+
+	@Test
+	public void streamingCacheMetrics() throws IOException {
+
+		InfluxDB influxDB = mock(InfluxDB.class);
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 100,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], false);
+		loader.setInfluxWriterThreads(0);
+		loader.setStreamingLoad(true);
+		loader.setStreamingWindowSize(10);
+		loader.load();
+
+		LoadMetrics metrics = loader.getMetrics();
+		assertEquals(0, metrics.getCachedValues());
+		assertTrue(metrics.getPeakCachedValues() > 0);
+		assertTrue(metrics.getDecodedValues() >= metrics.getLoadedSamples());
+	}
+}
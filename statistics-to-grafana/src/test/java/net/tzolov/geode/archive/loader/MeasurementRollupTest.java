@@ -0,0 +1,137 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.influxdb.InfluxDB;
+import org.junit.Test;
+
+public class MeasurementRollupTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	private static final long ROLLUP_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+	@Test
+	public void aggregateWindows() {
+		MeasurementRollup rollup = new MeasurementRollup(1000, 2);
+
+		assertFalse(rollup.isWindowComplete(1500));
+		rollup.startSample(1500);
+		rollup.add(0, 3);
+		rollup.add(1, -1);
+		rollup.startSample(1900);
+		rollup.add(0, 1);
+		rollup.add(1, -2);
+
+		assertFalse(rollup.isWindowComplete(1999));
+		assertTrue(rollup.isWindowComplete(2000));
+		assertEquals(1000, rollup.getWindowTimestamp());
+		assertEquals(2, rollup.getSampleCount());
+		assertEquals(1, rollup.get(MeasurementRollup.Aggregate.MIN, 0), 0);
+		assertEquals(3, rollup.get(MeasurementRollup.Aggregate.MAX, 0), 0);
+		assertEquals(2, rollup.get(MeasurementRollup.Aggregate.MEAN, 0), 0);
+		assertEquals(1, rollup.get(MeasurementRollup.Aggregate.LAST, 0), 0);
+		assertEquals(-2, rollup.get(MeasurementRollup.Aggregate.MIN, 1), 0);
+
+		rollup.reset();
+		rollup.startSample(2100);
+		rollup.add(0, 5);
+		assertEquals(2000, rollup.getWindowTimestamp());
+		assertEquals(5, rollup.get(MeasurementRollup.Aggregate.MIN, 0), 0);
+		assertEquals(5, rollup.get(MeasurementRollup.Aggregate.MEAN, 0), 0);
+	}
+
+	@Test
+	public void rollupLoad() throws IOException {
+
+		Map<String, Set<String>> records = new HashMap<>();
+		InfluxDB influxDB = recordingInfluxDB(records);
+		StatisticsToInfluxLoader loader = rollupLoader(influxDB);
+		loader.load();
+
+		verify(influxDB).createRetentionPolicy("rollup", "GeodeArchive", "INF", 1, false);
+
+		Set<String> fullResolution = records.get("autogen");
+		Set<String> rollups = records.get("rollup");
+		assertTrue(rollups.size() > 0);
+		assertTrue(rollups.size() < fullResolution.size());
+
+		// One rollup point per measurement window of the full resolution points
+		Set<String> windows = new HashSet<>();
+		for (String record : fullResolution) {
+			long timestamp = Long.parseLong(record.substring(record.lastIndexOf(' ') + 1));
+			windows.add(record.substring(0, record.indexOf(' ')) + " "
+					+ MeasurementRollup.windowStart(timestamp, TimeUnit.MILLISECONDS.toNanos(ROLLUP_INTERVAL)));
+		}
+		Set<String> rollupWindows = new HashSet<>();
+		for (String record : rollups) {
+			rollupWindows.add(record.substring(0, record.indexOf(' ')) + record.substring(record.lastIndexOf(' ')));
+			assertTrue(record, record.contains("_min=") && record.contains("_max=") && record.contains("_mean=")
+					&& record.contains("_last="));
+		}
+		assertEquals(windows, rollupWindows);
+
+		// Rollup only
+		Map<String, Set<String>> rollupOnlyRecords = new HashMap<>();
+		loader = rollupLoader(recordingInfluxDB(rollupOnlyRecords));
+		loader.setRollupFullResolution(false);
+		loader.setRollupAggregates(new String[] { "max" });
+		loader.load();
+
+		assertEquals(1, rollupOnlyRecords.size());
+		assertEquals(rollups.size(), rollupOnlyRecords.get("rollup").size());
+		for (String record : rollupOnlyRecords.get("rollup")) {
+			assertFalse(record, record.contains("_min=") || record.contains("_mean=") || record.contains("_last="));
+		}
+	}
+
+	private StatisticsToInfluxLoader rollupLoader(InfluxDB influxDB) {
+		StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 10,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], true);
+		loader.setInfluxWriterThreads(0);
+		loader.setRollupInterval(ROLLUP_INTERVAL);
+		return loader;
+	}
+
+	private InfluxDB recordingInfluxDB(Map<String, Set<String>> records) {
+		InfluxDB influxDB = mock(InfluxDB.class);
+		doAnswer(invocation -> {
+			records.computeIfAbsent((String) invocation.getArguments()[1], rp -> new HashSet<>())
+					.addAll(Arrays.asList(((String) invocation.getArguments()[3]).split("\n")));
+			return null;
+		}).when(influxDB).write(eq("GeodeArchive"), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+		return influxDB;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MeasurementSeriesTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void fieldsAddressedByIndex() throws IOException {
+
+		StatisticsArchiveGenerator generator = new StatisticsArchiveGenerator();
+		generator.setTypes(1);
+		generator.setInstancesPerType(2);
+		generator.setStatsPerType(6);
+		generator.setSamples(10);
+		File archiveFile = folder.newFile("generated.gfs");
+		generator.generate(archiveFile);
+
+		StatArchiveReader reader = new StatArchiveReader(new File[] { archiveFile }, null, false);
+		try {
+			List<?> resourceInsts = reader.getResourceInstList();
+			StatArchiveReader.StatValue[] statValues =
+					((StatArchiveReader.ResourceInst) resourceInsts.get(0)).getStatValues();
+			StatArchiveReader.StatValue[] otherStatValues =
+					((StatArchiveReader.ResourceInst) resourceInsts.get(1)).getStatValues();
+
+			// A subset of the stats, e.g. filtered by the exclude rules
+			StatArchiveReader.StatValue[] fields = { statValues[4], statValues[1], statValues[5] };
+			LoadMetrics metrics = new LoadMetrics();
+			MeasurementSeries series = new MeasurementSeries(fields, null, metrics);
+
+			assertEquals(0, series.indexOf(statValues[4]));
+			assertEquals(1, series.indexOf(statValues[1]));
+			assertEquals(2, series.indexOf(statValues[5]));
+			assertEquals(-1, series.indexOf(statValues[0]));
+			// Same offsets, other resource instance
+			assertEquals(-1, series.indexOf(otherStatValues[4]));
+			assertSame(statValues[1], series.getField(1));
+
+			assertNull(series.getValues(0));
+			double[] values = statValues[4].getRawSnapshots();
+			series.setValues(0, values);
+			series.setValues(2, statValues[5].getRawSnapshots());
+			assertArrayEquals(values, series.getValues(0), 0);
+			assertEquals(2, metrics.getCachedSeries());
+			assertEquals(20, metrics.getCachedValues());
+
+			series.setShape(1, true, true);
+			series.setShape(2, false, false);
+			assertFalse(series.isShapeKnown(0));
+			assertTrue(series.isZero(1) && series.isConstant(1));
+			assertFalse(series.isZero(2) || series.isConstant(2));
+
+			// A window replaces the samples of the previous one
+			series.startWindow(5);
+			series.setValues(0, Arrays.copyOfRange(values, 5, 10));
+			assertEquals(5, series.getFirstSampleIndex());
+			assertEquals(15, metrics.getCachedValues());
+
+			series.release();
+			assertNull(series.getValues(0));
+			assertNull(series.getValues(2));
+			assertEquals(0, metrics.getCachedSeries());
+			assertEquals(0, metrics.getCachedValues());
+			assertEquals(20, metrics.getPeakCachedValues());
+		}
+		finally {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PipelinedGzipInputStreamTest {
+
+	@Rule
+	public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+	@Test
+	public void inflatedBytes() throws IOException {
+
+		byte[] bytes = new byte[1_000_000];
+		Random random = new Random(42);
+		for (int i = 0; i < bytes.length; i++) {
+			// Compressible, as the archives
+			bytes[i] = (byte) (random.nextInt(16) + i / 4096);
+		}
+		File file = gzip(bytes);
+
+		// Small buffers, so the reader waits for the inflater and the buffers are recycled
+		try (InputStream in = new PipelinedGzipInputStream(file, 1000, 2)) {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			out.write(in.read());
+			byte[] buffer = new byte[777];
+			for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+				out.write(buffer, 0, read);
+			}
+			assertArrayEquals(bytes, out.toByteArray());
+			assertEquals(-1, in.read());
+		}
+	}
+
+	@Test
+	public void truncatedFile() throws IOException {
+
+		byte[] bytes = new byte[100_000];
+		new Random(7).nextBytes(bytes);
+		File file = gzip(bytes);
+		byte[] compressed = Files.readAllBytes(file.toPath());
+		Files.write(file.toPath(), Arrays.copyOf(compressed, compressed.length / 2));
+
+		try (InputStream in = new PipelinedGzipInputStream(file, 4096, 3)) {
+			byte[] buffer = new byte[4096];
+			while (in.read(buffer) >= 0) {
+			}
+			fail("The truncated file is expected to fail");
+		}
+		catch (IOException e) {
+			assertEquals(EOFException.class, e.getCause().getClass());
+		}
+	}
+
+	private File gzip(byte[] bytes) throws IOException {
+		File file = temporaryFolder.newFile("bytes.gz");
+		try (OutputStream out = new GZIPOutputStream(new FileOutputStream(file))) {
+			out.write(bytes);
+		}
+		return file;
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.junit.Test;
+
+public class StatFilterRuleTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Test
+	public void parseRules() {
+		StatFilterRule rule = StatFilterRule.parse("type=CachePerfStats&instance=RegionStats-*&stat=regex:(gets|puts)",
+				false);
+
+		assertFalse(rule.isInclude());
+		assertFalse(rule.isSingleDimension());
+		assertTrue(rule.matches("CachePerfStats", "RegionStats-itemRegion", "gets"));
+		assertFalse(rule.matches("CachePerfStats", "cachePerfStats", "gets"));
+		assertFalse(rule.matches("CachePerfStats", "RegionStats-itemRegion", "getTime"));
+		assertEquals("exclude type=CachePerfStats&instance=RegionStats-*&stat=regex:(gets|puts)", rule.toString());
+
+		StatFilterRule glob = StatFilterRule.parse("stat=get?", true);
+		assertTrue(glob.isSingleDimension());
+		assertTrue(glob.matches("Any", "any", "gets"));
+		assertFalse(glob.matches("Any", "any", "get"));
+
+		// Regex characters of a glob are literal
+		assertTrue(StatFilterRule.parse("instance=/ticket.Region", true).matchesInstance("/ticket.Region"));
+		assertFalse(StatFilterRule.parse("instance=/ticket.Region", true).matchesInstance("/ticketXRegion"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void unknownDimension() {
+		StatFilterRule.parse("name=gets", true);
+	}
+
+	@Test
+	public void filterLoad() throws IOException {
+
+		RecordingLoader loader = new RecordingLoader(new String[] { "CachePerfStats" });
+		loader.setStatIncludes(new String[] { "type=VM*Stats&stat=regex:(cpus|fdsOpen)" });
+		loader.setStatExcludes(new String[] { "instance=RegionStats-*", "type=CachePerfStats&stat=get*" });
+		loader.load();
+
+		assertEquals(new TreeSet<>(Arrays.asList("CachePerfStats:cachePerfStats", "VMStats:vmStats")),
+				new TreeSet<>(loader.fields.keySet()));
+		assertEquals(new TreeSet<>(Arrays.asList("cpus", "fdsOpen")), loader.fields.get("VMStats:vmStats"));
+
+		Set<String> cachePerfStats = loader.fields.get("CachePerfStats:cachePerfStats");
+		assertTrue(cachePerfStats.contains("puts"));
+		assertFalse(cachePerfStats.contains("gets"));
+		assertFalse(cachePerfStats.stream().anyMatch(stat -> stat.startsWith("get")));
+
+		Map<String, Long> prunedSeries = loader.getPrunedSeriesCounts();
+		assertTrue(prunedSeries.get("exclude instance=RegionStats-*") > 0);
+		assertEquals(statCount("CachePerfStats"),
+				cachePerfStats.size() + prunedSeries.get("exclude type=CachePerfStats&stat=get*"));
+		assertTrue(prunedSeries.get("not included") > 0);
+		assertTrue(loader.getPrunedSampleCounts().get("exclude instance=RegionStats-*") > 0);
+	}
+
+	private static long statCount(String typeName) throws IOException {
+		StatArchiveReader reader = new StatArchiveReader(new File[] { ARCHIVE_FILE }, null, false);
+		try {
+			for (Object r : reader.getResourceInstList()) {
+				StatArchiveReader.ResourceInst ri = (StatArchiveReader.ResourceInst) r;
+				if (ri.getType().getName().equals(typeName)) {
+					return ri.getType().getStats().length;
+				}
+			}
+			return 0;
+		}
+		finally {
+			reader.close();
+		}
+	}
+
+	private static class RecordingLoader extends AbstractStatisticsTSDBLoader {
+
+		final Map<String, Set<String>> fields = new ConcurrentHashMap<>();
+
+		RecordingLoader(String[] allowStatTypes) {
+			this(ARCHIVE_FILE, "server1", allowStatTypes);
+		}
+
+		private RecordingLoader(File archiveFile, String geodeMemberName, String[] allowStatTypes) {
+			super(false, archiveFile, geodeMemberName, allowStatTypes);
+		}
+
+		@Override
+		protected RecordingLoader forArchive(File archiveFile, String geodeMemberName) {
+			RecordingLoader loader = new RecordingLoader(archiveFile, geodeMemberName, allowStatTypes);
+			copyLoadSettingsTo(loader);
+			return loader;
+		}
+
+		@Override
+		protected void doCreateEmptyDatabase() {
+		}
+
+		@Override
+		protected void doPrepareMeasurementLoad() {
+		}
+
+		@Override
+		protected void doLoadMeasurement(String measurementName, String measurementType, int measurementSampleIndex,
+				long measurementTimestamp, StatArchiveReader.StatValue[] measurementFields) {
+			Set<String> names = fields.computeIfAbsent(measurementName, name -> new TreeSet<>());
+			for (StatArchiveReader.StatValue measurementField : measurementFields) {
+				names.add(getMeasurementFieldName(measurementField));
+			}
+		}
+
+		@Override
+		protected void doCompleteMeasurementLoad() {
+		}
+	}
+}
@@ -0,0 +1,359 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.geode.StatisticDescriptor;
+import org.apache.geode.StatisticsType;
+import org.apache.geode.internal.statistics.LocalStatisticsImpl;
+import org.apache.geode.internal.statistics.ResourceInstance;
+import org.apache.geode.internal.statistics.ResourceType;
+import org.apache.geode.internal.statistics.StatArchiveDescriptor;
+import org.apache.geode.internal.statistics.StatArchiveWriter;
+import org.apache.geode.internal.statistics.StatisticsTypeFactoryImpl;
+import org.apache.geode.internal.statistics.StatisticsTypeImpl;
+import org.springframework.util.Assert;
+
+/**
+ * Writes synthetic statistics archives of configurable size with the Geode {@link StatArchiveWriter}.
+ *
+ * Every statistics type has the same mix of series: zero series (never written by the loaders when
+ * {@code skipZeroValuesTimeSeries} is set), constant series, counters growing by random increments and double gauges
+ * following a random walk. The values only depend on the {@code seed}, so equally configured archives are identical.
+ *
+ * Usage: {@code StatisticsArchiveGenerator <archive.gfs> [types=4] [instancesPerType=8] [statsPerType=20]
+ * [samples=1000] [sampleInterval=1000] [zeroRatio=0.3] [constantRatio=0.2] [counterRatio=0.3] [seed=42]}
+ */
+public class StatisticsArchiveGenerator {
+
+	/** Time of the first sample, fixed so the generated archives are reproducible. */
+	private static final long START_TIME = 1500000000000L;
+
+	private int types = 4;
+
+	private int instancesPerType = 8;
+
+	private int statsPerType = 20;
+
+	private int samples = 1000;
+
+	private long sampleInterval = 1000;
+
+	private double zeroRatio = 0.3;
+
+	private double constantRatio = 0.2;
+
+	private double counterRatio = 0.3;
+
+	private long seed = 42;
+
+	public static void main(String[] args) {
+
+		if (args.length < 1) {
+			System.err.println("Usage: StatisticsArchiveGenerator <archive.gfs> [<parameter>=<value> ...]");
+			System.exit(1);
+		}
+
+		StatisticsArchiveGenerator generator = new StatisticsArchiveGenerator();
+		for (int i = 1; i < args.length; i++) {
+			String[] parameter = args[i].split("=", 2);
+			Assert.isTrue(parameter.length == 2, "Not a <parameter>=<value> argument: " + args[i]);
+			generator.setParameter(parameter[0], parameter[1]);
+		}
+		File archiveFile = new File(args[0]);
+		generator.generate(archiveFile);
+		System.out.println("Generated " + archiveFile + " (" + generator.getResourceInstanceCount()
+				+ " resource instances, " + generator.getSeriesCount() + " series, " + generator.samples
+				+ " samples, " + archiveFile.length() + " bytes)");
+	}
+
+	/**
+	 * @param types Number of statistics types.
+	 */
+	public void setTypes(int types) {
+		this.types = types;
+	}
+
+	/**
+	 * @param instancesPerType Number of resource instances of every type.
+	 */
+	public void setInstancesPerType(int instancesPerType) {
+		this.instancesPerType = instancesPerType;
+	}
+
+	/**
+	 * @param statsPerType Number of statistics of every type. At most 254, the archive format limit.
+	 */
+	public void setStatsPerType(int statsPerType) {
+		this.statsPerType = statsPerType;
+	}
+
+	/**
+	 * @param samples Number of samples of every resource instance.
+	 */
+	public void setSamples(int samples) {
+		this.samples = samples;
+	}
+
+	/**
+	 * @param sampleInterval Time in milliseconds between two samples.
+	 */
+	public void setSampleInterval(long sampleInterval) {
+		this.sampleInterval = sampleInterval;
+	}
+
+	/**
+	 * @param zeroRatio Ratio of the statistics always zero.
+	 */
+	public void setZeroRatio(double zeroRatio) {
+		this.zeroRatio = zeroRatio;
+	}
+
+	/**
+	 * @param constantRatio Ratio of the statistics with a constant, non zero, value.
+	 */
+	public void setConstantRatio(double constantRatio) {
+		this.constantRatio = constantRatio;
+	}
+
+	/**
+	 * @param counterRatio Ratio of the counter statistics. The remaining statistics are gauges.
+	 */
+	public void setCounterRatio(double counterRatio) {
+		this.counterRatio = counterRatio;
+	}
+
+	/**
+	 * @param seed Seed of the generated values.
+	 */
+	public void setSeed(long seed) {
+		this.seed = seed;
+	}
+
+	public int getResourceInstanceCount() {
+		return types * instancesPerType;
+	}
+
+	public int getSeriesCount() {
+		return getResourceInstanceCount() * statsPerType;
+	}
+
+	/**
+	 * @return Number of the series with a non zero value, written by the loaders skipping the zero series.
+	 */
+	public int getNonZeroSeriesCount() {
+		return getResourceInstanceCount() * (statsPerType - zeroStatCount());
+	}
+
+	public int getSamples() {
+		return samples;
+	}
+
+	public void generate(File archiveFile) {
+
+		Assert.isTrue(statsPerType > 0 && statsPerType < 255, "Between 1 and 254 statsPerType are required!");
+		Assert.isTrue(zeroRatio + constantRatio + counterRatio <= 1, "The series ratios can not exceed 1!");
+
+		Random random = new Random(seed);
+		StatisticsTypeFactoryImpl factory = (StatisticsTypeFactoryImpl) StatisticsTypeFactoryImpl.singleton();
+
+		List<GeneratedInstance> instances = new ArrayList<>();
+		List<ResourceType> resourceTypes = new ArrayList<>();
+		for (int t = 0; t < types; t++) {
+			StatisticDescriptor[] descriptors = new StatisticDescriptor[statsPerType];
+			for (int s = 0; s < statsPerType; s++) {
+				switch (seriesKind(s)) {
+				case ZERO:
+					descriptors[s] = factory.createLongGauge("zero" + s, "Always zero", "operations");
+					break;
+				case CONSTANT:
+					descriptors[s] = factory.createLongGauge("constant" + s, "Constant value", "bytes");
+					break;
+				case COUNTER:
+					descriptors[s] = factory.createLongCounter("counter" + s, "Random increments", "operations");
+					break;
+				default:
+					descriptors[s] = factory.createDoubleGauge("gauge" + s, "Random walk", "nanoseconds");
+				}
+			}
+			// Not registered with the type factory, so the generator can be called repeatedly with other parameters
+			StatisticsType type = new StatisticsTypeImpl("GeneratedStats" + t, "Generated statistics " + t,
+					descriptors);
+			ResourceType resourceType = new ResourceType(t, type);
+			resourceTypes.add(resourceType);
+			for (int i = 0; i < instancesPerType; i++) {
+				int id = instances.size();
+				LocalStatisticsImpl statistics = new LocalStatisticsImpl(type, "instance-" + t + "-" + i, id + 1,
+						id + 1, false, 0, null);
+				instances.add(new GeneratedInstance(new ResourceInstance(id, statistics, resourceType), random));
+			}
+		}
+
+		GeneratorArchiveWriter writer = new GeneratorArchiveWriter(new StatArchiveDescriptor.Builder()
+				.setArchiveName(archiveFile.getPath())
+				.setSystemId(1)
+				.setSystemStartTime(START_TIME)
+				.setSystemDirectoryPath(archiveFile.getAbsoluteFile().getParent())
+				.setProductDescription("StatisticsArchiveGenerator")
+				.build());
+		try {
+			writer.initialize(0);
+			for (ResourceType resourceType : resourceTypes) {
+				writer.allocatedResourceType(resourceType);
+			}
+			List<ResourceInstance> resourceInstances = new ArrayList<>();
+			for (GeneratedInstance instance : instances) {
+				writer.allocatedResourceInstance(instance.resourceInstance);
+				resourceInstances.add(instance.resourceInstance);
+			}
+			for (int sample = 1; sample <= samples; sample++) {
+				for (GeneratedInstance instance : instances) {
+					instance.nextSample(random);
+				}
+				writer.sampled(TimeUnit.MILLISECONDS.toNanos(sample * sampleInterval), resourceInstances);
+			}
+		}
+		finally {
+			writer.close();
+		}
+	}
+
+	private void setParameter(String name, String value) {
+		switch (name) {
+		case "types":
+			setTypes(Integer.parseInt(value));
+			break;
+		case "instancesPerType":
+			setInstancesPerType(Integer.parseInt(value));
+			break;
+		case "statsPerType":
+			setStatsPerType(Integer.parseInt(value));
+			break;
+		case "samples":
+			setSamples(Integer.parseInt(value));
+			break;
+		case "sampleInterval":
+			setSampleInterval(Long.parseLong(value));
+			break;
+		case "zeroRatio":
+			setZeroRatio(Double.parseDouble(value));
+			break;
+		case "constantRatio":
+			setConstantRatio(Double.parseDouble(value));
+			break;
+		case "counterRatio":
+			setCounterRatio(Double.parseDouble(value));
+			break;
+		case "seed":
+			setSeed(Long.parseLong(value));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown parameter: " + name);
+		}
+	}
+
+	private int zeroStatCount() {
+		return (int) Math.round(statsPerType * zeroRatio);
+	}
+
+	private SeriesKind seriesKind(int stat) {
+		int constantStart = zeroStatCount();
+		int counterStart = constantStart + (int) Math.round(statsPerType * constantRatio);
+		int gaugeStart = counterStart + (int) Math.round(statsPerType * counterRatio);
+		return (stat < constantStart) ? SeriesKind.ZERO
+				: (stat < counterStart) ? SeriesKind.CONSTANT
+				: (stat < gaugeStart) ? SeriesKind.COUNTER
+				: SeriesKind.GAUGE;
+	}
+
+	private enum SeriesKind {
+		ZERO, CONSTANT, COUNTER, GAUGE
+	}
+
+	/**
+	 * Resource instance with the raw values of its latest and previous samples, as maintained by the Geode sampler.
+	 */
+	private class GeneratedInstance {
+
+		final ResourceInstance resourceInstance;
+
+		final SeriesKind[] kinds = new SeriesKind[statsPerType];
+
+		long[] latest = new long[statsPerType];
+
+		double[] gauges = new double[statsPerType];
+
+		GeneratedInstance(ResourceInstance resourceInstance, Random random) {
+			this.resourceInstance = resourceInstance;
+			for (int s = 0; s < statsPerType; s++) {
+				kinds[s] = seriesKind(s);
+				if (kinds[s] == SeriesKind.CONSTANT) {
+					latest[s] = 1 + random.nextInt(1 << 20);
+				}
+				gauges[s] = 1000 * random.nextDouble();
+			}
+		}
+
+		void nextSample(Random random) {
+			long[] previous = latest;
+			if (resourceInstance.getLatestStatValues() != null) {
+				resourceInstance.setPreviousStatValues(previous);
+			}
+			latest = new long[statsPerType];
+			for (int s = 0; s < statsPerType; s++) {
+				switch (kinds[s]) {
+				case ZERO:
+					break;
+				case CONSTANT:
+					latest[s] = previous[s];
+					break;
+				case COUNTER:
+					latest[s] = previous[s] + (random.nextInt(10) == 0 ? 0 : random.nextInt(1000));
+					break;
+				default:
+					gauges[s] = Math.abs(gauges[s] + random.nextGaussian() * 10);
+					latest[s] = Double.doubleToRawLongBits(gauges[s]);
+				}
+			}
+			resourceInstance.setLatestStatValues(latest);
+		}
+	}
+
+	/**
+	 * Archive writer with a fixed start time and machine, independent of the generating host.
+	 */
+	private static class GeneratorArchiveWriter extends StatArchiveWriter {
+
+		GeneratorArchiveWriter(StatArchiveDescriptor archiveDescriptor) {
+			super(archiveDescriptor);
+		}
+
+		@Override
+		protected long initInitialDate() {
+			return START_TIME;
+		}
+
+		@Override
+		protected String getMachineInfo() {
+			return "generator";
+		}
+	}
+}
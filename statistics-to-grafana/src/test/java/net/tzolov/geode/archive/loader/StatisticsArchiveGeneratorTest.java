@@ -0,0 +1,117 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+
+import okhttp3.OkHttpClient;
+import org.apache.geode.internal.statistics.StatArchiveReader;
+import org.influxdb.InfluxDB;
+import org.influxdb.InfluxDBFactory;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StatisticsArchiveGeneratorTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void generatedSeries() throws IOException {
+
+		StatisticsArchiveGenerator generator = new StatisticsArchiveGenerator();
+		generator.setTypes(2);
+		generator.setInstancesPerType(3);
+		generator.setStatsPerType(10);
+		generator.setSamples(50);
+		File archiveFile = folder.newFile("generated.gfs");
+		generator.generate(archiveFile);
+
+		StatArchiveReader reader = new StatArchiveReader(new File[] { archiveFile }, null, false);
+		try {
+			List<?> resourceInsts = reader.getResourceInstList();
+			assertEquals(6, resourceInsts.size());
+			int zeroSeries = 0;
+			for (Object resourceInst : resourceInsts) {
+				StatArchiveReader.ResourceInst ri = (StatArchiveReader.ResourceInst) resourceInst;
+				assertEquals(10, ri.getStatValues().length);
+				for (StatArchiveReader.StatValue statValue : ri.getStatValues()) {
+					statValue.setFilter(StatArchiveReader.StatValue.FILTER_NONE);
+					double[] values = statValue.getRawSnapshots();
+					long[] timestamps = statValue.getRawAbsoluteTimeStamps();
+					assertEquals(50, values.length);
+					assertEquals(49000, timestamps[49] - timestamps[0]);
+					String name = statValue.getDescriptor().getName();
+					for (int i = 1; i < values.length; i++) {
+						if (name.startsWith("zero") || name.startsWith("constant")) {
+							assertEquals(values[0], values[i], 0);
+						}
+						else if (name.startsWith("counter")) {
+							assertTrue(values[i] >= values[i - 1]);
+						}
+					}
+					zeroSeries += (values[0] == 0 && values[49] == 0) ? 1 : 0;
+				}
+			}
+			assertEquals(generator.getSeriesCount() - generator.getNonZeroSeriesCount(), zeroSeries);
+		}
+		finally {
+			reader.close();
+		}
+
+		File sameArchiveFile = folder.newFile("same.gfs");
+		generator.generate(sameArchiveFile);
+		assertArrayEquals(Files.readAllBytes(archiveFile.toPath()), Files.readAllBytes(sameArchiveFile.toPath()));
+	}
+
+	@Test
+	public void loadIntoInfluxStandIn() throws IOException {
+
+		StatisticsArchiveGenerator generator = new StatisticsArchiveGenerator();
+		generator.setTypes(2);
+		generator.setInstancesPerType(4);
+		generator.setSamples(200);
+		File archiveFile = folder.newFile("generated.gfs");
+		generator.generate(archiveFile);
+
+		try (InfluxStandIn standIn = new InfluxStandIn(0)) {
+			InfluxDB influxDB = InfluxDBFactory.connect(standIn.getUrl(), "admin", "admin",
+				new OkHttpClient.Builder().socketFactory(new NoDelaySocketFactory()));
+			StatisticsToInfluxLoader loader = new StatisticsToInfluxLoader(influxDB, true, "autogen", 100,
+					"GeodeArchive", archiveFile, "generated", new String[0], true);
+			loader.load();
+
+			assertEquals(generator.getResourceInstanceCount() * generator.getSamples(), standIn.getPoints());
+			assertEquals(standIn.getPoints(), loader.getLoadedSampleCount());
+			assertTrue(standIn.getWrites() >= standIn.getPoints() / 100);
+			long plainBytes = standIn.getBytes();
+
+			influxDB.enableGzip();
+			loader.load();
+
+			assertEquals(2 * generator.getResourceInstanceCount() * generator.getSamples(), standIn.getPoints());
+			assertTrue(standIn.getBytes() - plainBytes < plainBytes / 2);
+		}
+	}
+}
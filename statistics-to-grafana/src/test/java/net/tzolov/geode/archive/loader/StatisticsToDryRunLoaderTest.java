@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012-2014 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.tzolov.geode.archive.loader;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.influxdb.InfluxDB;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class StatisticsToDryRunLoaderTest {
+
+	private static final File ARCHIVE_FILE = new File("src/test/resources/myStatisticsArchiveFile.gfs");
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void dryRunProjectsInfluxLoad() throws IOException {
+
+		long[] influxVolume = new long[2];
+		InfluxDB influxDB = mock(InfluxDB.class);
+		doAnswer(invocation -> {
+			String records = (String) invocation.getArguments()[3];
+			influxVolume[0] += records.split("\n").length;
+			influxVolume[1] += records.length();
+			return null;
+		}).when(influxDB).write(eq("GeodeArchive"), anyString(), any(InfluxDB.ConsistencyLevel.class), anyString());
+
+		StatisticsToInfluxLoader influxLoader = new StatisticsToInfluxLoader(influxDB, false, "autogen", 100,
+				"GeodeArchive", ARCHIVE_FILE, "server1", new String[0], true);
+		influxLoader.setInfluxWriterThreads(0);
+		influxLoader.setRollupInterval(60000);
+		influxLoader.load();
+
+		StatisticsToDryRunLoader dryRunLoader = new StatisticsToDryRunLoader("autogen", 100, "GeodeArchive",
+				ARCHIVE_FILE, "server1", new String[0], true);
+		dryRunLoader.setRollupInterval(60000);
+		dryRunLoader.setLoadThreads(4);
+		dryRunLoader.setCheckpointDirectory(folder.getRoot().getPath());
+		dryRunLoader.setCheckpoint(true);
+		dryRunLoader.load();
+
+		LoadMetrics metrics = dryRunLoader.getMetrics();
+		assertEquals(influxVolume[0], metrics.getWrittenPoints());
+		assertEquals(influxVolume[1], metrics.getWrittenBytes());
+
+		long points = 0;
+		long bytes = 0;
+		long measurements = 0;
+		for (Map.Entry<String, StatisticsToDryRunLoader.TypeVolume> entry : dryRunLoader.getTypeVolumes().entrySet()) {
+			points += entry.getValue().getPoints();
+			bytes += entry.getValue().getBytes();
+			measurements += entry.getValue().getMeasurements();
+		}
+		assertEquals(metrics.getWrittenPoints(), points);
+		assertEquals(metrics.getWrittenBytes(), bytes);
+		assertEquals(metrics.getLoadedMeasurements(), measurements);
+		assertTrue(dryRunLoader.getTypeVolumes().containsKey("VMStats"));
+		assertTrue(dryRunLoader.report().contains("VMStats"));
+
+		// A dry run records no progress
+		assertEquals(0, folder.getRoot().list().length);
+	}
+}